@@ -0,0 +1,105 @@
+package de.fk.neuralnetwork.bench;
+
+import de.fk.neuralnetwork.data.Preprocessing;
+import java.util.Random;
+
+/**
+ * Vergleicht die zusammengefasste affine Transformation
+ * (Preprocessing#affine) mit den einzelnen Transformationen auf
+ * weichen Testbildern (Gaußglocken an zufälligen Positionen):
+ * <ul>
+ * <li>reine Rotation: gleiche Interpolation, höchstens Rundungsfehler</li>
+ * <li>reine Verschiebung: exakt gleich</li>
+ * <li>Skalierung und die Verkettung Verschiebung, Skalierung, Rotation:
+ * Abweichung nur durch die einmalige bilineare Interpolation (statt nächstem
+ * Nachbarn bzw. dreifacher Interpolation), im Mittel pro Pixel begrenzt</li>
+ * <li>Preprocessing#affineBatch über die ersten BATCH Bilder mit ihren
+ * verketteten Abbildungen: exakt gleich wie affine Bild für Bild</li>
+ * </ul>
+ * Beendet sich mit Exit-Code 1, wenn eine Toleranz überschritten wird.
+ *
+ * Aufruf (ant check):
+ * <pre>
+ * AffineCheck [images]
+ * </pre>
+ *
+ * @author Felix
+ * @see DataBenchmark
+ */
+public class AffineCheck {
+
+    private static final int SIZE = 28, BATCH = 64;
+    private static final double ROTATE_TOLERANCE = 1e-12, MEAN_TOLERANCE = 0.05;
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        Random rdm = new Random(23);
+        double[][] image = new double[SIZE][SIZE];
+        double[] pixels = new double[SIZE * SIZE], out = new double[SIZE * SIZE], m = new double[6];
+        double[] batch = new double[BATCH * SIZE * SIZE], batchOut = new double[BATCH * SIZE * SIZE], batchExpected = new double[BATCH * SIZE * SIZE], batchM = new double[BATCH * 6];
+        int batchCount = 0;
+        double rotate = 0, shift = 0, scale = 0, chained = 0, batched = 0;
+        for(int i = 0; i < count; i++) {
+            blob(rdm, image, pixels);
+            double rad = rdm.nextDouble() * 1.2 - 0.6, fact = 0.8 + rdm.nextDouble() * 0.4;
+            int dx = rdm.nextInt(9) - 4, dy = rdm.nextInt(9) - 4;
+            Preprocessing.affine(pixels, 0, SIZE, SIZE, Preprocessing.affineMatrix(SIZE, SIZE, 0, 0, 1, rad, m, 0), 0, out, 0);
+            rotate = Math.max(rotate, maxDiff(Preprocessing.rotate(image, rad), out));
+            Preprocessing.affine(pixels, 0, SIZE, SIZE, Preprocessing.affineMatrix(SIZE, SIZE, dx, dy, 1, 0, m, 0), 0, out, 0);
+            shift = Math.max(shift, maxDiff(Preprocessing.shift(image, dx, dy), out));
+            Preprocessing.affine(pixels, 0, SIZE, SIZE, Preprocessing.affineMatrix(SIZE, SIZE, 0, 0, fact, 0, m, 0), 0, out, 0);
+            scale = Math.max(scale, meanDiff(Preprocessing.scale(image, fact), out));
+            Preprocessing.affine(pixels, 0, SIZE, SIZE, Preprocessing.affineMatrix(SIZE, SIZE, dx, dy, fact, rad, m, 0), 0, out, 0);
+            chained = Math.max(chained, meanDiff(Preprocessing.rotate(Preprocessing.scale(Preprocessing.shift(image, dx, dy), fact), rad), out));
+            if(batchCount < BATCH) {
+                System.arraycopy(pixels, 0, batch, batchCount * SIZE * SIZE, SIZE * SIZE);
+                System.arraycopy(out, 0, batchExpected, batchCount * SIZE * SIZE, SIZE * SIZE);
+                System.arraycopy(m, 0, batchM, batchCount * 6, 6);
+                batchCount++;
+            }
+        }
+        Preprocessing.affineBatch(batch, batchCount, SIZE, SIZE, batchM, batchOut);
+        for(int p = 0; p < batchCount * SIZE * SIZE; p++) batched = Math.max(batched, Math.abs(batchExpected[p] - batchOut[p]));
+        boolean ok = report("Rotation, max. Abweichung", rotate, ROTATE_TOLERANCE)
+                & report("Verschiebung, max. Abweichung", shift, 0)
+                & report("Skalierung, mittlere Abweichung", scale, MEAN_TOLERANCE)
+                & report("Verkettung, mittlere Abweichung", chained, MEAN_TOLERANCE)
+                & report("affineBatch (" + batchCount + " Bilder), max. Abweichung", batched, 0);
+        if(!ok) {
+            System.out.println("FEHLER: Preprocessing.affine weicht zu stark ab.");
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    private static boolean report(String name, double value, double tolerance) {
+        boolean ok = value <= tolerance;
+        System.out.println((ok ? "ok     " : "FEHLER ") + name + ": " + value + " (Toleranz " + tolerance + ")");
+        return ok;
+    }
+
+    /**
+     * Erzeugt eine Gaußglocke mit zufälliger Position und Breite (Werte 0-1).
+     */
+    private static void blob(Random rdm, double[][] image, double[] pixels) {
+        double cx = 9 + rdm.nextDouble() * 10, cy = 9 + rdm.nextDouble() * 10, w = 10 + rdm.nextDouble() * 40;
+        for(int y = 0; y < SIZE; y++)
+            for(int x = 0; x < SIZE; x++)
+                pixels[y * SIZE + x] = image[y][x] = Math.exp(-((x - cx) * (x - cx) + (y - cy) * (y - cy)) / w);
+    }
+
+    private static double maxDiff(double[][] expected, double[] actual) {
+        double max = 0;
+        for(int y = 0; y < SIZE; y++)
+            for(int x = 0; x < SIZE; x++) max = Math.max(max, Math.abs(expected[y][x] - actual[y * SIZE + x]));
+        return max;
+    }
+
+    private static double meanDiff(double[][] expected, double[] actual) {
+        double sum = 0;
+        for(int y = 0; y < SIZE; y++)
+            for(int x = 0; x < SIZE; x++) sum += Math.abs(expected[y][x] - actual[y * SIZE + x]);
+        return sum / (SIZE * SIZE);
+    }
+
+}
@@ -0,0 +1,67 @@
+package de.fk.neuralnetwork.bench;
+
+import de.fk.neuralnetwork.InferenceWorkspace;
+import de.fk.neuralnetwork.NeuralNetwork;
+import de.fk.neuralnetwork.math.Precision;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Überprüft, dass NeuralNetwork#getOutput(double[], InferenceWorkspace) nach
+ * dem Aufwärmen keinen Speicher mehr belegt. Gezählt wird mit
+ * com.sun.management.ThreadMXBean#getThreadAllocatedBytes für gepackte Netze
+ * mit FP64- und FP32-Gewichten. Beendet sich mit Exit-Code 1, wenn sich der
+ * Zähler bewegt.
+ *
+ * Aufruf (ant check):
+ * <pre>
+ * AllocationCheck [architecture] [calls]
+ * </pre>
+ *
+ * @author Felix
+ * @see InferenceWorkspace
+ */
+public class AllocationCheck {
+
+    private static final int WARMUP = 20000;
+
+    public static void main(String[] args) {
+        String architecture = args.length > 0 ? args[0] : Architectures.REFERENCE;
+        int calls = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if(!(bean instanceof com.sun.management.ThreadMXBean) || !((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            System.out.println("getThreadAllocatedBytes wird von dieser JVM nicht unterstützt.");
+            System.exit(1);
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        threads.setThreadAllocatedMemoryEnabled(true);
+        boolean ok = true;
+        for(Precision precision : Precision.values()) {
+            NeuralNetwork net = new NeuralNetwork(precision, Architectures.parse(architecture));
+            long allocated = measure(threads, net, calls);
+            System.out.println(precision + " " + architecture + ": " + allocated + " Bytes in " + calls + " Aufrufen");
+            ok &= allocated == 0;
+        }
+        if(!ok) {
+            System.out.println("FEHLER: getOutput(in, ws) belegt Speicher.");
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    private static long measure(com.sun.management.ThreadMXBean threads, NeuralNetwork net, int calls) {
+        long id = Thread.currentThread().getId();
+        InferenceWorkspace ws = new InferenceWorkspace(net);
+        double[] in = new Random(42).doubles(net.getInputNeurons()).toArray();
+        double sink = 0;
+        for(int i = 0; i < WARMUP; i++) sink += net.getOutput(in, ws)[0];
+        //Erster Aufruf des Zählers kann selbst Speicher belegen
+        threads.getThreadAllocatedBytes(id);
+        long before = threads.getThreadAllocatedBytes(id);
+        for(int i = 0; i < calls; i++) sink += net.getOutput(in, ws)[0];
+        long after = threads.getThreadAllocatedBytes(id);
+        if(Double.isNaN(sink)) System.out.println(sink);
+        return after - before;
+    }
+
+}
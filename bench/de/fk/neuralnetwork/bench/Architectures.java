@@ -0,0 +1,65 @@
+package de.fk.neuralnetwork.bench;
+
+import de.fk.neuralnetwork.NeuralNetwork;
+import de.fk.neuralnetwork.training.TrainingExample;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Hilfsmethoden zum Erzeugen von Netzen und Trainingsbeispielen für die
+ * Benchmarks. Architekturen werden als Zeichenkette wie "784-300-100-10"
+ * (Ein- bis Ausgabeschicht) übergeben.
+ *
+ * @author Felix
+ */
+public class Architectures {
+
+    /**
+     * Referenzarchitektur aus Main.NET_ARCHITECTURE.
+     */
+    public static final String REFERENCE = "784-300-100-10";
+
+    /**
+     * Wandelt eine Architektur wie "784-300-100-10" in Neuronenanzahlen um.
+     *
+     * @param architecture Architektur
+     * @return Anzahlen der Neuronen je Schicht
+     */
+    public static int[] parse(String architecture) {
+        return Arrays.stream(architecture.split("-")).mapToInt(Integer::parseInt).toArray();
+    }
+
+    /**
+     * Erzeugt ein zufällig initialisiertes Netz mit der übergebenen
+     * Architektur.
+     *
+     * @param architecture Architektur
+     * @param packed true für PackedNeuralLayers
+     * @return Neuronales Netz
+     */
+    public static NeuralNetwork createNet(String architecture, boolean packed) {
+        return new NeuralNetwork(packed, parse(architecture));
+    }
+
+    /**
+     * Erzeugt zufällige Trainingsbeispiele mit One-Hot-Ausgaben.
+     *
+     * @param architecture Architektur
+     * @param count Anzahl
+     * @param seed Seed
+     * @return Trainingsbeispiele
+     */
+    public static TrainingExample[] createExamples(String architecture, int count, long seed) {
+        int[] neurons = parse(architecture);
+        int in = neurons[0], out = neurons[neurons.length - 1];
+        Random rdm = new Random(seed);
+        TrainingExample[] examples = new TrainingExample[count];
+        for(int i = 0; i < count; i++) {
+            double[] expected = new double[out];
+            expected[rdm.nextInt(out)] = 1.0;
+            examples[i] = new TrainingExample(rdm.doubles(in).toArray(), expected);
+        }
+        return examples;
+    }
+
+}
@@ -0,0 +1,105 @@
+package de.fk.neuralnetwork.bench;
+
+import de.fk.neuralnetwork.BasicNeuron;
+import de.fk.neuralnetwork.NeuralLayer;
+import de.fk.neuralnetwork.NeuralNetwork;
+import de.fk.neuralnetwork.learning.Backpropagator;
+import de.fk.neuralnetwork.math.ActivationFunction;
+import de.fk.neuralnetwork.training.TrainingExample;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Misst die Backpropagation einzelner Beispiele und ganzer Mini-Batches
+ * sowie das Updaten der Gewichte. Die Benchmarks rechnen jeweils einen
+ * Mini-Batch der Größe batchSize und updaten anschließend die Gewichte mit
+ * Lernrate 0, damit sich das Netz zwischen den Aufrufen nicht verändert.
+ *
+ * @author Felix
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BackpropBenchmark {
+
+    @Param({"784-300-100-10", "784-100-10"})
+    public String architecture;
+
+    @Param({"false", "true"})
+    public boolean packed;
+
+    @Param({"32", "128"})
+    public int batchSize;
+
+    private NeuralNetwork net;
+    private Backpropagator bp;
+    private TrainingExample[] examples;
+
+    @Setup
+    public void setup() {
+        net = Architectures.createNet(architecture, packed);
+        net.prepareParallelBackprop(1);
+        bp = new Backpropagator(0, net, 0.0, 0.0, 0.0);
+        bp.setDebugStream(null);
+        examples = Architectures.createExamples(architecture, batchSize, 1081);
+    }
+
+    @Benchmark
+    public NeuralNetwork backpropStep() {
+        for(TrainingExample ex : examples) bp.backpropStep(ex, 0);
+        for(NeuralLayer l : net.getLayers()) l.accumulate(0.0, 0.0, 0.0);
+        return net;
+    }
+
+    @Benchmark
+    public NeuralNetwork backpropBatch() {
+        if(packed) bp.backpropBatch(examples, 0);
+        else for(TrainingExample ex : examples) bp.backpropStep(ex, 0);
+        for(NeuralLayer l : net.getLayers()) l.accumulate(0.0, 0.0, 0.0);
+        return net;
+    }
+
+    /**
+     * Misst BasicNeuron.calcAccumulatorMatrix und accumulate für ein Neuron
+     * der ersten verdeckten Schicht.
+     */
+    @State(Scope.Thread)
+    public static class NeuronState {
+
+        @Param({"1", "4", "16"})
+        public int threads;
+
+        BasicNeuron neuron;
+        double[] activations;
+
+        @Setup
+        public void setup() {
+            neuron = new BasicNeuron(785);
+            neuron.prepareForParallelBackprop(threads);
+            activations = new Random(1081).doubles(785).toArray();
+        }
+
+    }
+
+    @Benchmark
+    public BasicNeuron basicNeuronAccumulate(NeuronState s) {
+        for(int t = 0; t < s.threads; t++) s.neuron.calcAccumulatorMatrix(0.01, s.activations, ActivationFunction.DEFAULT_ACTIVATION_FUNCTION, t);
+        s.neuron.accumulate(0.0, 0.0, 0.0);
+        return s.neuron;
+    }
+
+}
@@ -0,0 +1,123 @@
+package de.fk.neuralnetwork.bench;
+
+import de.fk.neuralnetwork.NeuralLayer;
+import de.fk.neuralnetwork.NeuralNetwork;
+import de.fk.neuralnetwork.NeuralNetworkState;
+import de.fk.neuralnetwork.PackedNeuralLayer;
+import de.fk.neuralnetwork.learning.Backpropagator;
+import de.fk.neuralnetwork.math.ActivationFunction;
+import de.fk.neuralnetwork.math.NeuralMath;
+import de.fk.neuralnetwork.training.TrainingExample;
+import java.util.function.Supplier;
+
+/**
+ * Überprüft, dass der Rückwärtsdurchlauf mit den im TrainingWorkspace
+ * gespeicherten Ableitungen (Backpropagator#backpropStep) bitweise dieselben
+ * Gewichte liefert wie der ursprüngliche Weg, der die gewichteten Summen über
+ * NeuralLayer#getErrorDeltas(double[], double[]) neu berechnet.
+ *
+ * Zwei identische Netze werden k Schritte mit denselben Beispielen trainiert:
+ * eines mit backpropStep bzw. backpropStepParallel, das andere mit dem hier
+ * nachgebildeten Weg ohne Workspace. Danach müssen alle Gewichte nach
+ * Double#doubleToRawLongBits übereinstimmen. Geprüft werden Sigmoid mit und
+ * ohne fastExp mit gepackten Schichten und einzelnen Neuronen sowie Softmax
+ * (mit und ohne fastExp) in der Ausgabeschicht gepackter Netze. Beendet sich mit Exit-Code 1 bei einer Abweichung.
+ *
+ * Aufruf (ant check):
+ * <pre>
+ * BackpropEquivalenceCheck [architecture] [steps]
+ * </pre>
+ *
+ * @author Felix
+ * @see de.fk.neuralnetwork.learning.TrainingWorkspace
+ */
+public class BackpropEquivalenceCheck {
+
+    private static final double LEARNING_RATE = 0.1, REGULARIZATION = 0.0001, MOMENTUM = 0.5;
+
+    public static void main(String[] args) {
+        String architecture = args.length > 0 ? args[0] : "64-32-16-10";
+        int steps = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        TrainingExample[] examples = Architectures.createExamples(architecture, steps, 7);
+        boolean ok = true;
+        ok &= check("sigmoid", architecture, examples, false, () -> new ActivationFunction.Sigmoid(false), () -> new ActivationFunction.Sigmoid(false));
+        ok &= check("sigmoid fastExp", architecture, examples, false, () -> new ActivationFunction.Sigmoid(true), () -> new ActivationFunction.Sigmoid(true));
+        //Softmax kann nur von gepackten Schichten berechnet werden (BasicNeuron rechnet skalar)
+        ok &= check("softmax", architecture, examples, true, () -> new ActivationFunction.Sigmoid(false), () -> new ActivationFunction.Softmax(false));
+        ok &= check("softmax fastExp", architecture, examples, true, () -> new ActivationFunction.Sigmoid(true), () -> new ActivationFunction.Softmax(true));
+        if(!ok) {
+            System.out.println("FEHLER: Die Gewichte weichen ab.");
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    private static boolean check(String name, String architecture, TrainingExample[] examples, boolean packedOnly, Supplier<ActivationFunction> hidden, Supplier<ActivationFunction> output) {
+        boolean ok = true;
+        for(boolean packed : packedOnly ? new boolean[]{true} : new boolean[]{true, false})
+            for(boolean parallel : new boolean[]{false, true}) {
+                NeuralNetwork cached = Architectures.createNet(architecture, packed), recomputed = copy(cached, architecture, packed);
+                setActivations(cached, hidden, output);
+                setActivations(recomputed, hidden, output);
+                Backpropagator bp = new Backpropagator(0, cached, LEARNING_RATE, REGULARIZATION, MOMENTUM);
+                cached.prepareParallelBackprop(1);
+                recomputed.prepareParallelBackprop(1);
+                for(TrainingExample ex : examples) {
+                    if(parallel) bp.backpropStepParallel(cached.getLayers(), ex);
+                    else bp.backpropStep(ex, 0);
+                    for(NeuralLayer l : cached.getLayers()) l.accumulate(LEARNING_RATE, REGULARIZATION, MOMENTUM);
+                    recomputeStep(recomputed, ex);
+                    for(NeuralLayer l : recomputed.getLayers()) l.accumulate(LEARNING_RATE, REGULARIZATION, MOMENTUM);
+                }
+                int differences = compare(cached, recomputed);
+                System.out.println(name + (packed ? " packed" : " neurons") + (parallel ? " parallel" : "") + ": " + examples.length + " Schritte, " + differences + " abweichende Gewichte");
+                ok &= differences == 0;
+            }
+        return ok;
+    }
+
+    /**
+     * Rückwärtsdurchlauf ohne gespeicherte Ableitungen: Jede Schicht berechnet
+     * in getErrorDeltas die gewichteten Summen erneut.
+     */
+    private static void recomputeStep(NeuralNetwork net, TrainingExample ex) {
+        NeuralLayer[] layers = net.getLayers();
+        double[] input = ex.getIn();
+        NeuralNetworkState out = net.trigger(input);
+        int last = layers.length - 1;
+        double[] activationsBefore = last > 0 ? out.getLayerActivations(last - 1) : NeuralMath.addBias(input),
+                errors = NeuralMath.getErrors(out.getOutput(), ex.getOut()),
+                errorDeltas = layers[last].getErrorDeltas(errors, activationsBefore);
+        layers[last].calcAccumulatorMatrices(errorDeltas, activationsBefore, 0);
+        for(int i = last - 1; i >= 0; i--) {
+            activationsBefore = i > 0 ? out.getLayerActivations(i - 1) : NeuralMath.addBias(input);
+            errors = layers[i].getErrors(layers[i + 1], errorDeltas);
+            errorDeltas = layers[i].getErrorDeltas(errors, activationsBefore);
+            layers[i].calcAccumulatorMatrices(errorDeltas, activationsBefore, 0);
+        }
+    }
+
+    private static NeuralNetwork copy(NeuralNetwork net, String architecture, boolean packed) {
+        NeuralNetwork copy = Architectures.createNet(architecture, packed);
+        NeuralLayer[] from = net.getLayers(), to = copy.getLayers();
+        for(int l = 0; l < from.length; l++) new PackedNeuralLayer(from[l]).copyTo(to[l]);
+        return copy;
+    }
+
+    private static void setActivations(NeuralNetwork net, Supplier<ActivationFunction> hidden, Supplier<ActivationFunction> output) {
+        NeuralLayer[] layers = net.getLayers();
+        for(int l = 0; l < layers.length; l++) layers[l].setActivationFunction(l == layers.length - 1 ? output.get() : hidden.get());
+    }
+
+    private static int compare(NeuralNetwork a, NeuralNetwork b) {
+        NeuralLayer[] la = a.getLayers(), lb = b.getLayers();
+        int differences = 0;
+        for(int l = 0; l < la.length; l++) {
+            PackedNeuralLayer pa = new PackedNeuralLayer(la[l]), pb = new PackedNeuralLayer(lb[l]);
+            for(int i = 0; i < pa.getWeightCount(); i++)
+                if(Double.doubleToRawLongBits(pa.getWeight(i)) != Double.doubleToRawLongBits(pb.getWeight(i))) differences++;
+        }
+        return differences;
+    }
+
+}
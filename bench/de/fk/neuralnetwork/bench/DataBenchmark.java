@@ -0,0 +1,180 @@
+package de.fk.neuralnetwork.bench;
+
+import de.fk.neuralnetwork.data.ImageContainer;
+import de.fk.neuralnetwork.data.LabeledImage;
+import de.fk.neuralnetwork.data.Preprocessing;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Misst das Einlesen von Datensätzen. Zu Beginn werden zufällige
+ * MNIST-Dateien und ein Datenarchiv im temporären Verzeichnis erzeugt.
+ *
+ * Außerdem wird die zusammengefasste affine Transformation
+ * (Preprocessing#affine) mit den einzelnen Transformationen und deren
+ * Verkettung auf einem 28x28-Bild verglichen; die Abweichungen prüft
+ * AffineCheck.
+ *
+ * @author Felix
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4G")
+public class DataBenchmark {
+
+    @Param({"10000"})
+    public int images;
+
+    private File dir, imageFile, labelFile, archive;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = new File(System.getProperty("java.io.tmpdir"), "bell-bench-" + System.nanoTime());
+        dir.mkdirs();
+        imageFile = new File(dir, "images.idx3-ubyte");
+        labelFile = new File(dir, "labels.idx1-ubyte");
+        archive = new File(dir, "set.sets");
+        Random rdm = new Random(1081);
+        try(DataOutputStream img = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(imageFile)));
+                DataOutputStream lbl = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(labelFile)))) {
+            img.writeInt(ImageContainer.MNIST_IMAGE_FILE_MAGIC_NUMBER);
+            img.writeInt(images);
+            img.writeInt(28);
+            img.writeInt(28);
+            lbl.writeInt(ImageContainer.MNIST_LABEL_FILE_MAGIC_NUMBER);
+            lbl.writeInt(images);
+            byte[] pixels = new byte[28 * 28];
+            for(int i = 0; i < images; i++) {
+                rdm.nextBytes(pixels);
+                img.write(pixels);
+                lbl.write(rdm.nextInt(10));
+            }
+        }
+        ImageContainer.clearAll();
+        ImageContainer.readFromMnist(imageFile.getPath(), labelFile.getPath(), images, ImageContainer.FileFormat.MNIST, ImageContainer.Set.TRAINING);
+        ImageContainer.saveToArchive(archive);
+        ImageContainer.clearAll();
+    }
+
+    @TearDown
+    public void tearDown() {
+        ImageContainer.clearAll();
+        for(File f : new File[]{imageFile, labelFile, archive}) f.delete();
+        dir.delete();
+    }
+
+    @Benchmark
+    public List<LabeledImage> readFromMnist() throws IOException {
+        ImageContainer.clearSet(ImageContainer.Set.TRAINING);
+        ImageContainer.readFromMnist(imageFile.getPath(), labelFile.getPath(), images, ImageContainer.FileFormat.MNIST, ImageContainer.Set.TRAINING);
+        return ImageContainer.getImages(ImageContainer.Set.TRAINING);
+    }
+
+    @Benchmark
+    public List<LabeledImage> readFromArchive() throws IOException {
+        ImageContainer.clearAll();
+        ImageContainer.readFromArchive(archive);
+        return ImageContainer.getImages(ImageContainer.Set.TRAINING);
+    }
+
+    /**
+     * Ein Bild mit Puffern für die Transformationen.
+     */
+    @State(Scope.Thread)
+    public static class Transform {
+
+        static final int SIZE = 28;
+        static final double RAD = 0.3, FACT = 1.1;
+        static final int DX = 2, DY = -3, BATCH = 64;
+
+        final double[][] image = new double[SIZE][SIZE], out = new double[SIZE][SIZE], tmp1 = new double[SIZE][SIZE], tmp2 = new double[SIZE][SIZE];
+        final double[] pixels = new double[SIZE * SIZE], outPixels = new double[SIZE * SIZE], m = new double[6];
+        final double[] batchPixels = new double[BATCH * SIZE * SIZE], batchOut = new double[BATCH * SIZE * SIZE], batchM = new double[BATCH * 6];
+
+        @Setup
+        public void setup() {
+            Random rdm = new Random(1081);
+            for(int y = 0; y < SIZE; y++)
+                for(int x = 0; x < SIZE; x++) pixels[y * SIZE + x] = image[y][x] = rdm.nextDouble();
+            for(int i = 0; i < batchPixels.length; i++) batchPixels[i] = rdm.nextDouble();
+            //Eine eigene Abbildung pro Bild wie beim Augmenter
+            for(int i = 0; i < BATCH; i++)
+                Preprocessing.affineMatrix(SIZE, SIZE, rdm.nextInt(5) - 2, rdm.nextInt(5) - 2, 0.9 + rdm.nextDouble() * 0.2, rdm.nextDouble() * 0.6 - 0.3, batchM, i * 6);
+        }
+
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public double[][] rotate(Transform t) {
+        return Preprocessing.rotate(t.image, Transform.RAD, t.out);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public double[][] shift(Transform t) {
+        return Preprocessing.shift(t.image, Transform.DX, Transform.DY, t.out);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public double[][] shiftScaleRotate(Transform t) {
+        return Preprocessing.rotate(Preprocessing.scale(Preprocessing.shift(t.image, Transform.DX, Transform.DY, t.tmp1), Transform.FACT, t.tmp2), Transform.RAD, t.out);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public double[] affineRotate(Transform t) {
+        Preprocessing.affine(t.pixels, 0, Transform.SIZE, Transform.SIZE, Preprocessing.affineMatrix(Transform.SIZE, Transform.SIZE, 0, 0, 1, Transform.RAD, t.m, 0), 0, t.outPixels, 0);
+        return t.outPixels;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public double[] affineShift(Transform t) {
+        Preprocessing.affine(t.pixels, 0, Transform.SIZE, Transform.SIZE, Preprocessing.affineMatrix(Transform.SIZE, Transform.SIZE, Transform.DX, Transform.DY, 1, 0, t.m, 0), 0, t.outPixels, 0);
+        return t.outPixels;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public double[] affine(Transform t) {
+        Preprocessing.affine(t.pixels, 0, Transform.SIZE, Transform.SIZE, Preprocessing.affineMatrix(Transform.SIZE, Transform.SIZE, Transform.DX, Transform.DY, Transform.FACT, Transform.RAD, t.m, 0), 0, t.outPixels, 0);
+        return t.outPixels;
+    }
+
+    /**
+     * Transformiert BATCH Bilder mit je eigener Abbildung; die Zeit wird pro
+     * Bild angegeben und ist mit affine vergleichbar.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @OperationsPerInvocation(Transform.BATCH)
+    public double[] affineBatch(Transform t) {
+        Preprocessing.affineBatch(t.batchPixels, Transform.BATCH, Transform.SIZE, Transform.SIZE, t.batchM, t.batchOut);
+        return t.batchOut;
+    }
+
+}
@@ -0,0 +1,93 @@
+package de.fk.neuralnetwork.bench;
+
+import de.fk.neuralnetwork.Main;
+import de.fk.neuralnetwork.NeuralNetwork;
+import de.fk.neuralnetwork.distributed.DataParallelWorker;
+import de.fk.neuralnetwork.distributed.ParameterServer;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Misst die Skalierung des datenparallelen Trainings mit mehreren
+ * Worker-Prozessen auf localhost. Für 1, 2, 4, ... bis maxWorkers Worker wird
+ * jeweils ein ParameterServer gestartet und die Worker als eigene JVMs
+ * (DataParallelWorker) mit demselben Klassenpfad gestartet. Ausgegeben werden
+ * Durchsatz, Speedup und Skalierungseffizienz (Durchsatz / (Worker x
+ * Durchsatz mit einem Worker)) sowie der Rechenanteil laut Server. Endet ein
+ * Worker-Prozess vorzeitig (z.B. weil die Dateien fehlen), wird der Fehler
+ * ausgegeben und die Messung abgebrochen.
+ *
+ * Aufruf (ant bench-distributed):
+ * <pre>
+ * DataParallelScaling imageFile labelFile [maxWorkers] [rounds]
+ * </pre>
+ *
+ * @author Felix
+ * @see ParameterServer
+ */
+public class DataParallelScaling {
+
+    private static final long POLL_MILLIS = 200;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if(args.length < 2) {
+            System.out.println("DataParallelScaling imageFile labelFile [maxWorkers] [rounds]");
+            return;
+        }
+        int maxWorkers = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors(),
+            rounds = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+        System.out.println("workers rounds examples/s speedup scalingefficiency computefraction trainerror");
+        double baseline = 0;
+        for(int workers = 1; workers <= maxWorkers; workers = workers < maxWorkers && workers * 2 > maxWorkers ? maxWorkers : workers * 2) {
+            try(ParameterServer server = new ParameterServer(new NeuralNetwork(true, Main.NET_ARCHITECTURE), 0, workers, rounds)) {
+                run(server, args[0], args[1]);
+                if(server.getFailure() != null) {
+                    System.out.println(workers + " fehlgeschlagen: " + server.getFailure());
+                    System.exit(1);
+                }
+                double throughput = server.getThroughput();
+                if(workers == 1) baseline = throughput;
+                System.out.printf("%d %d %.0f %.2f %.3f %.3f %.5f%n", workers, server.getRound(), throughput,
+                        throughput / baseline, throughput / (workers * baseline), server.getEfficiency(), server.getLastTrainingError());
+            }
+        }
+    }
+
+    /**
+     * Startet den Server und für jeden Worker eine eigene JVM
+     * (DataParallelWorker mit demselben Klassenpfad) und wartet, bis alle
+     * Runden abgeschlossen sind oder das Training scheitert. Endet ein
+     * Worker-Prozess vorzeitig mit einem Fehler, wird der Server geschlossen
+     * (getFailure() ist danach gesetzt) und die übrigen Worker beendet.
+     *
+     * @param server Noch nicht gestarteter Server
+     * @param imageFile Bilddatei für die Worker
+     * @param labelFile Labeldatei für die Worker
+     * @throws IOException Wenn ein Worker-Prozess nicht gestartet werden kann
+     * @throws InterruptedException Wenn der Thread beim Warten unterbrochen wird
+     */
+    static void run(ParameterServer server, String imageFile, String labelFile) throws IOException, InterruptedException {
+        Thread serverThread = server.start();
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<Process> processes = new ArrayList<>();
+        for(int i = 0; i < server.getWorkers(); i++)
+            processes.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), DataParallelWorker.class.getName(),
+                    "127.0.0.1", Integer.toString(server.getPort()), imageFile, labelFile).inheritIO().start());
+        //Endet ein Worker vorzeitig mit einem Fehler, den Server schließen statt ewig auf ihn zu warten
+        while(serverThread.isAlive()) {
+            serverThread.join(POLL_MILLIS);
+            for(int i = 0; i < processes.size() && serverThread.isAlive(); i++) {
+                Process p = processes.get(i);
+                if(!p.isAlive() && p.exitValue() != 0) {
+                    System.out.println("Worker-Prozess " + i + " vorzeitig beendet mit Exit-Code " + p.exitValue());
+                    server.close();
+                }
+            }
+        }
+        if(server.getFailure() != null) for(Process p : processes) p.destroy();
+        for(Process p : processes) p.waitFor();
+    }
+
+}
@@ -0,0 +1,105 @@
+package de.fk.neuralnetwork.bench;
+
+import de.fk.neuralnetwork.Main;
+import de.fk.neuralnetwork.NeuralNetwork;
+import de.fk.neuralnetwork.data.IdxReader;
+import de.fk.neuralnetwork.data.ImageContainer;
+import de.fk.neuralnetwork.data.ImageStore;
+import de.fk.neuralnetwork.data.Tester;
+import de.fk.neuralnetwork.distributed.ParameterServer;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Trainiert mit einem ParameterServer (freier Port) und zwei Worker-JVMs auf
+ * localhost auf einem kleinen synthetischen Datensatz (ein heller Block pro
+ * Klasse an fester Position, Rauschen) und überprüft:
+ * <ul>
+ * <li>alle Runden werden abgeschlossen</li>
+ * <li>der Server meldet keinen Fehler (getFailure() == null)</li>
+ * <li>der Fehler des gemittelten Netzes auf dem Datensatz sinkt gegenüber
+ * dem Startnetz</li>
+ * </ul>
+ * Beendet sich mit Exit-Code 1, wenn eine Prüfung fehlschlägt.
+ *
+ * Aufruf (ant check):
+ * <pre>
+ * DistributedCheck [images] [workers] [rounds]
+ * </pre>
+ *
+ * @author Felix
+ * @see DataParallelScaling
+ */
+public class DistributedCheck {
+
+    private static final int ROWS = 28, COLS = 28, TIMEOUT = 60000;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000,
+            workers = args.length > 1 ? Integer.parseInt(args[1]) : 2,
+            rounds = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        File images = File.createTempFile("distributed", ".idx3-ubyte"), labels = File.createTempFile("distributed", ".idx1-ubyte");
+        images.deleteOnExit();
+        labels.deleteOnExit();
+        try {
+            write(images, labels, count);
+            ImageStore store = IdxReader.map(images.getPath(), labels.getPath(), Integer.MAX_VALUE, ImageContainer.FileFormat.MNIST);
+            NeuralNetwork net = new NeuralNetwork(true, Main.NET_ARCHITECTURE);
+            Tester.TestResult before = Tester.testFromStore(net, store), after;
+            boolean ok;
+            try(ParameterServer server = new ParameterServer(net, 0, workers, rounds)) {
+                server.setTimeout(TIMEOUT);
+                DataParallelScaling.run(server, images.getPath(), labels.getPath());
+                after = Tester.testFromStore(server.getNet(), store);
+                ok = report("Runden", server.getRound() + " von " + rounds, server.getRound() == rounds)
+                        & report("Fehler des Servers", String.valueOf(server.getFailure()), server.getFailure() == null)
+                        & report("Fehler auf dem Datensatz", before.getError() + " -> " + after.getError() + " (Accuracy "
+                                + before.getAccuracy() + " -> " + after.getAccuracy() + ")", after.getError() < before.getError());
+            }
+            if(!ok) {
+                System.out.println("FEHLER: Datenparalleles Training mit " + workers + " Worker-Prozessen fehlgeschlagen.");
+                System.exit(1);
+            }
+            System.out.println("OK");
+        } finally {
+            images.delete();
+            labels.delete();
+        }
+    }
+
+    private static boolean report(String name, String value, boolean ok) {
+        System.out.println((ok ? "ok     " : "FEHLER ") + name + ": " + value);
+        return ok;
+    }
+
+    /**
+     * Schreibt ein Bild-/Labeldateipaar im MNIST-Format. Bild i hat Label
+     * i % 10 und einen hellen 5x8-Block an der Position seiner Klasse.
+     */
+    private static void write(File images, File labels, int count) throws IOException {
+        Random rdm = new Random(24);
+        try(DataOutputStream img = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(images)));
+                DataOutputStream lbl = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(labels)))) {
+            img.writeInt(ImageContainer.MNIST_IMAGE_FILE_MAGIC_NUMBER);
+            img.writeInt(count);
+            img.writeInt(ROWS);
+            img.writeInt(COLS);
+            lbl.writeInt(ImageContainer.MNIST_LABEL_FILE_MAGIC_NUMBER);
+            lbl.writeInt(count);
+            for(int i = 0; i < count; i++) {
+                int label = i % 10, top = 4 + label / 5 * 12, left = 1 + label % 5 * 5;
+                for(int y = 0; y < ROWS; y++)
+                    for(int x = 0; x < COLS; x++) {
+                        boolean block = y >= top && y < top + 8 && x >= left && x < left + 5;
+                        img.write(block ? 200 + rdm.nextInt(56) : rdm.nextInt(40));
+                    }
+                lbl.write(label);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,189 @@
+package de.fk.neuralnetwork.bench;
+
+import de.fk.neuralnetwork.NeuralLayer;
+import de.fk.neuralnetwork.NeuralNetwork;
+import de.fk.neuralnetwork.PackedNeuralLayer;
+import de.fk.neuralnetwork.io.BinaryFileIO;
+import de.fk.neuralnetwork.io.CheckpointManager;
+import de.fk.neuralnetwork.io.FileIO;
+import de.fk.neuralnetwork.learning.Backpropagator;
+import de.fk.neuralnetwork.learning.TrainingState;
+import de.fk.neuralnetwork.math.Precision;
+import de.fk.neuralnetwork.training.TrainingExample;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Rundreise-Prüfungen für das Binärformat (*.bnet) gegen das JSON-Format
+ * (*.jnet):
+ * <ul>
+ * <li>.jnet -&gt; .bnet -&gt; .jnet ergibt bitweise dieselben Gewichte und dieselbe Datei</li>
+ * <li>Netze mit FP64- und FP32-Gewichten behalten Genauigkeit und Gewichte</li>
+ * <li>Gewichtsänderungen (Momentum) und Metadaten bleiben erhalten, auch über CheckpointManager</li>
+ * <li>Trainingszustände mit NaN/Infinity werden als Checkpoint gespeichert und wieder gelesen</li>
+ * <li>Lesen mit mapped=true liefert dasselbe wie mapped=false</li>
+ * </ul>
+ * Beendet sich mit Exit-Code 1, wenn eine Prüfung fehlschlägt.
+ *
+ * Aufruf (ant check):
+ * <pre>
+ * FileFormatCheck [architecture]
+ * </pre>
+ *
+ * @author Felix
+ * @see BinaryFileIO
+ */
+public class FileFormatCheck {
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws IOException {
+        String architecture = args.length > 0 ? args[0] : "64-32-16-10";
+        Path dir = Files.createTempDirectory("fileformatcheck");
+        try {
+            jsonRoundTrip(dir, architecture);
+            for(Precision precision : Precision.values()) {
+                NeuralNetwork net = trained(architecture, precision);
+                binaryRoundTrip(dir, net, precision);
+                checkpointRoundTrip(dir, net, precision);
+            }
+        } finally {
+            try(Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+        if(failures > 0) {
+            System.out.println("FEHLER: " + failures + " Prüfungen fehlgeschlagen.");
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    private static void jsonRoundTrip(Path dir, String architecture) throws IOException {
+        NeuralNetwork original = Architectures.createNet(architecture, false);
+        File json = dir.resolve("a.jnet").toFile(), binary = dir.resolve("a.bnet").toFile(), json2 = dir.resolve("b.jnet").toFile();
+        FileIO.write(json, original, false);
+        NeuralNetwork fromJson = FileIO.read(json);
+        BinaryFileIO.write(binary, fromJson);
+        FileIO.write(json2, BinaryFileIO.read(binary), false);
+        NeuralNetwork result = FileIO.read(json2);
+        expect(".jnet -> .bnet -> .jnet: Gewichte", sameWeights(original, result));
+        expect(".jnet -> .bnet -> .jnet: Datei", Arrays.equals(Files.readAllBytes(json.toPath()), Files.readAllBytes(json2.toPath())));
+    }
+
+    private static void binaryRoundTrip(Path dir, NeuralNetwork net, Precision precision) throws IOException {
+        File plain = dir.resolve("plain_" + precision + ".bnet").toFile(), full = dir.resolve("full_" + precision + ".bnet").toFile();
+        String metadata = "{\"precision\":\"" + precision + "\",\"text\":\"äöü\"}";
+        BinaryFileIO.write(plain, net);
+        BinaryFileIO.write(full, net, true, metadata);
+        for(boolean mapped : new boolean[]{false, true}) {
+            String name = precision + (mapped ? " mapped" : "");
+            NeuralNetwork a = BinaryFileIO.read(plain, true, mapped), b = BinaryFileIO.read(full, true, mapped);
+            expect(name + ": Genauigkeit", a.getPrecision() == precision && b.getPrecision() == precision);
+            expect(name + ": Gewichte ohne Momentum", sameWeights(net, a));
+            expect(name + ": Momentum nicht gespeichert", zeroMomentum(a));
+            expect(name + ": Gewichte mit Momentum", sameWeights(net, b));
+            expect(name + ": Momentum", sameMomentum(net, b));
+            expect(name + ": einzelne Neuronen", sameWeights(net, BinaryFileIO.read(plain, false, mapped)));
+        }
+        expect(precision + ": Metadaten", metadata.equals(BinaryFileIO.readMetadata(full)) && BinaryFileIO.readMetadata(plain) == null);
+    }
+
+    private static void checkpointRoundTrip(Path dir, NeuralNetwork net, Precision precision) throws IOException {
+        TrainingState state = new TrainingState();
+        state.setIteration(17);
+        state.setLearningRate(0.123);
+        state.setBestValidationError(0.0456);
+        CheckpointManager checkpoints = new CheckpointManager(dir.toFile());
+        try {
+            checkpoints.save("check_" + precision, net, state);
+            checkpoints.flush();
+            CheckpointManager.Checkpoint checkpoint = checkpoints.load("check_" + precision, true);
+            TrainingState loaded = checkpoint.getState();
+            expect(precision + " Checkpoint: Gewichte", sameWeights(net, checkpoint.getNet()));
+            expect(precision + " Checkpoint: Momentum", sameMomentum(net, checkpoint.getNet()));
+            expect(precision + " Checkpoint: Zustand", loaded.getIteration() == 17 && loaded.getLearningRate() == 0.123 && loaded.getBestValidationError() == 0.0456);
+            //Divergiertes Netz: nicht endliche Werte dürfen den Checkpoint nicht verhindern
+            state.setIteration(18);
+            state.setLastTrainingError(Double.NaN);
+            state.setBestValidationError(Double.POSITIVE_INFINITY);
+            state.setMomentum(Double.NEGATIVE_INFINITY);
+            checkpoints.save("check_" + precision, net, state);
+            checkpoints.flush();
+            loaded = checkpoints.load("check_" + precision, true).getState();
+            expect(precision + " Checkpoint: NaN/Infinity", loaded.getIteration() == 18 && Double.isNaN(loaded.getLastTrainingError())
+                    && loaded.getBestValidationError() == Double.POSITIVE_INFINITY && loaded.getMomentum() == Double.NEGATIVE_INFINITY);
+        } finally {
+            checkpoints.close();
+        }
+    }
+
+    /**
+     * Erzeugt ein Netz mit der übergebenen Genauigkeit und trainiert einige
+     * Schritte mit Momentum, damit die Gewichtsänderungen nicht 0 sind.
+     */
+    private static NeuralNetwork trained(String architecture, Precision precision) {
+        NeuralNetwork net = new NeuralNetwork(precision, Architectures.parse(architecture));
+        Backpropagator bp = new Backpropagator(0, net, 0.1, 0, 0.5);
+        net.prepareParallelBackprop(1);
+        for(TrainingExample ex : Architectures.createExamples(architecture, 20, 3)) {
+            bp.backpropStep(ex, 0);
+            for(NeuralLayer l : net.getLayers()) l.accumulate(0.1, 0, 0.5);
+        }
+        return net;
+    }
+
+    private static void expect(String name, boolean ok) {
+        System.out.println((ok ? "ok     " : "FEHLER ") + name);
+        if(!ok) failures++;
+    }
+
+    private static boolean sameWeights(NeuralNetwork a, NeuralNetwork b) {
+        NeuralLayer[] la = a.getLayers(), lb = b.getLayers();
+        if(la.length != lb.length) return false;
+        for(int l = 0; l < la.length; l++) {
+            PackedNeuralLayer pa = packed(la[l]), pb = packed(lb[l]);
+            if(pa.getWeightCount() != pb.getWeightCount() || la[l].getActivationFunction().getId() != lb[l].getActivationFunction().getId()) return false;
+            for(int i = 0; i < pa.getWeightCount(); i++)
+                if(Double.doubleToRawLongBits(pa.getWeight(i)) != Double.doubleToRawLongBits(pb.getWeight(i))) return false;
+        }
+        return true;
+    }
+
+    private static boolean sameMomentum(NeuralNetwork a, NeuralNetwork b) {
+        NeuralLayer[] la = a.getLayers(), lb = b.getLayers();
+        boolean nonZero = false;
+        for(int l = 0; l < la.length; l++) {
+            double[] ma = momentum(packed(la[l])), mb = momentum(packed(lb[l]));
+            for(int i = 0; i < ma.length; i++) {
+                if(Double.doubleToRawLongBits(ma[i]) != Double.doubleToRawLongBits(mb[i])) return false;
+                nonZero |= ma[i] != 0;
+            }
+        }
+        return nonZero;
+    }
+
+    private static boolean zeroMomentum(NeuralNetwork net) {
+        for(NeuralLayer layer : net.getLayers())
+            for(double m : momentum(packed(layer))) if(m != 0) return false;
+        return true;
+    }
+
+    private static PackedNeuralLayer packed(NeuralLayer layer) {
+        return layer instanceof PackedNeuralLayer ? (PackedNeuralLayer) layer : new PackedNeuralLayer(layer);
+    }
+
+    private static double[] momentum(PackedNeuralLayer layer) {
+        if(layer.getPrecision() == Precision.FP64) return layer.getWeightsChange();
+        float[] change = layer.getWeightsChangeFloat();
+        double[] out = new double[change.length];
+        for(int i = 0; i < change.length; i++) out[i] = change[i];
+        return out;
+    }
+
+}
@@ -0,0 +1,63 @@
+package de.fk.neuralnetwork.bench;
+
+import de.fk.neuralnetwork.NeuralNetwork;
+import de.fk.neuralnetwork.io.FileIO;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Misst das Speichern und Öffnen von Netzen im .jnet-Format.
+ *
+ * @author Felix
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileIOBenchmark {
+
+    @Param({"784-300-100-10", "784-100-10"})
+    public String architecture;
+
+    private NeuralNetwork net;
+    private File file;
+
+    @Setup
+    public void setup() throws IOException {
+        net = Architectures.createNet(architecture, false);
+        file = File.createTempFile("bell-bench", ".jnet");
+        FileIO.write(file, net, false);
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public File write() throws IOException {
+        FileIO.write(file, net, false);
+        return file;
+    }
+
+    @Benchmark
+    public NeuralNetwork read() throws IOException {
+        return FileIO.read(file);
+    }
+
+}
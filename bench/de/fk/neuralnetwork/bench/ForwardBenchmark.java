@@ -0,0 +1,69 @@
+package de.fk.neuralnetwork.bench;
+
+import de.fk.neuralnetwork.InferenceWorkspace;
+import de.fk.neuralnetwork.NeuralNetwork;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Misst die Vorwärtsrechnung eines einzelnen Beispiels.
+ *
+ * @author Felix
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ForwardBenchmark {
+
+    @Param({"784-300-100-10", "784-100-10", "784-800-10"})
+    public String architecture;
+
+    @Param({"false", "true"})
+    public boolean packed;
+
+    private NeuralNetwork net;
+    private InferenceWorkspace ws;
+    private double[] in;
+
+    @Setup
+    public void setup() {
+        net = Architectures.createNet(architecture, packed);
+        ws = new InferenceWorkspace(net);
+        in = new Random(1081).doubles(net.getInputNeurons()).toArray();
+    }
+
+    @Benchmark
+    public double[] trigger() {
+        return net.trigger(in).getOutput();
+    }
+
+    @Benchmark
+    public double[] triggerParallel() {
+        return net.triggerParallel(in).getOutput();
+    }
+
+    @Benchmark
+    public double[] getOutputParallel() {
+        return net.getOutputParallel(in);
+    }
+
+    @Benchmark
+    public double[] getOutputWorkspace() {
+        return net.getOutput(in, ws);
+    }
+
+}
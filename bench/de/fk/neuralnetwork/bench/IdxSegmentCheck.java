@@ -0,0 +1,92 @@
+package de.fk.neuralnetwork.bench;
+
+import de.fk.neuralnetwork.data.IdxReader;
+import de.fk.neuralnetwork.data.ImageContainer;
+import de.fk.neuralnetwork.data.ImageStore;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Überprüft, dass IdxReader Dateien über 2 GB in mehreren Segmenten abbildet
+ * und ImageStore Bilder beiderseits der Segmentgrenzen richtig liest. Dazu
+ * wird eine dünnbesetzte Datei (sparse file) mit knapp 2,2 GB Bilddaten
+ * angelegt, in die nur die geprüften Bilder geschrieben werden. Beendet sich
+ * mit Exit-Code 1, wenn ein Pixel oder Label nicht stimmt.
+ *
+ * Aufruf (ant check):
+ * <pre>
+ * IdxSegmentCheck [images]
+ * </pre>
+ *
+ * @author Felix
+ * @see IdxReader
+ */
+public class IdxSegmentCheck {
+
+    private static final int ROWS = 28, COLS = 28, IMAGE_SIZE = ROWS * COLS;
+
+    public static void main(String[] args) throws IOException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 2800000;
+        int segmentImages = IdxReader.MAX_SEGMENT_SIZE / IMAGE_SIZE;
+        int[] samples = {0, 1, segmentImages - 1, segmentImages, segmentImages + 1, count - 1};
+        File images = File.createTempFile("segments", ".idx3-ubyte"), labels = File.createTempFile("segments", ".idx1-ubyte");
+        images.deleteOnExit();
+        labels.deleteOnExit();
+        try {
+            write(images, labels, count, samples);
+            ImageStore store = IdxReader.map(images.getPath(), labels.getPath(), Integer.MAX_VALUE, ImageContainer.FileFormat.MNIST);
+            System.out.println(store + ": " + (long) count * IMAGE_SIZE + " Bytes, " + store.getSegmentCount() + " Segmente");
+            boolean ok = store.size() == count && store.getSegmentCount() == (count + segmentImages - 1) / segmentImages;
+            double[] decoded = new double[IMAGE_SIZE];
+            for(int index : samples) {
+                if(index < 0 || index >= count) continue;
+                store.decode(index, decoded, 0);
+                boolean same = store.getLabel(index) == label(index) && store.getImageBuffer(index).remaining() == IMAGE_SIZE;
+                for(int p = 0; p < IMAGE_SIZE; p++)
+                    same &= store.getPixel(index, p / COLS, p % COLS) == pixel(index, p) && decoded[p] == pixel(index, p) / 255.0;
+                System.out.println("Bild " + index + (same ? ": ok" : ": FEHLER"));
+                ok &= same;
+            }
+            if(!ok) {
+                System.out.println("FEHLER: Segmentierte Abbildung liefert falsche Bilder.");
+                System.exit(1);
+            }
+            System.out.println("OK");
+        } finally {
+            images.delete();
+            labels.delete();
+        }
+    }
+
+    private static void write(File images, File labels, int count, int[] samples) throws IOException {
+        try(RandomAccessFile img = new RandomAccessFile(images, "rw"); RandomAccessFile lbl = new RandomAccessFile(labels, "rw")) {
+            img.writeInt(ImageContainer.MNIST_IMAGE_FILE_MAGIC_NUMBER);
+            img.writeInt(count);
+            img.writeInt(ROWS);
+            img.writeInt(COLS);
+            img.setLength(IdxReader.IMAGE_HEADER_SIZE + (long) count * IMAGE_SIZE);
+            lbl.writeInt(ImageContainer.MNIST_LABEL_FILE_MAGIC_NUMBER);
+            lbl.writeInt(count);
+            lbl.setLength(IdxReader.LABEL_HEADER_SIZE + (long) count);
+            byte[] buffer = new byte[IMAGE_SIZE];
+            for(int index : samples) {
+                if(index < 0 || index >= count) continue;
+                for(int p = 0; p < IMAGE_SIZE; p++) buffer[p] = (byte) pixel(index, p);
+                img.seek(IdxReader.IMAGE_HEADER_SIZE + (long) index * IMAGE_SIZE);
+                img.write(buffer);
+                lbl.seek(IdxReader.LABEL_HEADER_SIZE + (long) index);
+                lbl.write(label(index));
+            }
+        }
+    }
+
+    private static int pixel(int index, int p) {
+        return (index * 31 + p * 7) & 0xFF;
+    }
+
+    private static int label(int index) {
+        return index % 10;
+    }
+
+}
@@ -0,0 +1,96 @@
+package de.fk.neuralnetwork.bench;
+
+import de.fk.neuralnetwork.NeuralNetwork;
+import de.fk.neuralnetwork.data.IdxReader;
+import de.fk.neuralnetwork.data.ImageContainer;
+import de.fk.neuralnetwork.data.ImageStore;
+import de.fk.neuralnetwork.io.BinaryFileIO;
+import de.fk.neuralnetwork.io.FileIO;
+import de.fk.neuralnetwork.math.NeuralMath;
+import de.fk.neuralnetwork.serving.InferenceServer;
+import de.fk.neuralnetwork.serving.LatencyRecorder;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lastgenerator für den InferenceServer. Mehrere Clients senden jeweils ein
+ * MNIST-Testbild, warten auf die Antwort und senden das nächste (geschlossene
+ * Schleife). Nach einer Aufwärmphase werden Durchsatz, p50/p99-Latenz und
+ * Accuracy ausgegeben, zum Vergleich auch der Durchsatz einzelner
+ * getOutput-Aufrufe in einem Thread.
+ *
+ * Aufruf (ant bench-load):
+ * <pre>
+ * InferenceServerLoad imageFile labelFile [netFile|-] [clients] [requests] [maxBatchSize] [maxWaitMicros]
+ * </pre>
+ * Ohne Netzdatei (oder mit "-") wird ein zufälliges Netz der
+ * Referenzarchitektur verwendet.
+ *
+ * @author Felix
+ * @see InferenceServer
+ */
+public class InferenceServerLoad {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if(args.length < 2) {
+            System.out.println("InferenceServerLoad imageFile labelFile [netFile|-] [clients] [requests] [maxBatchSize] [maxWaitMicros]");
+            return;
+        }
+        ImageStore images = IdxReader.map(args[0], args[1], Integer.MAX_VALUE, ImageContainer.FileFormat.MNIST);
+        NeuralNetwork net = args.length > 2 && !args[2].equals("-") ? readNet(new File(args[2])) : Architectures.createNet(Architectures.REFERENCE, true);
+        int clients = args.length > 3 ? Integer.parseInt(args[3]) : 32,
+            requests = args.length > 4 ? Integer.parseInt(args[4]) : 100000,
+            maxBatchSize = args.length > 5 ? Integer.parseInt(args[5]) : 64;
+        long maxWait = args.length > 6 ? Long.parseLong(args[6]) : 2000;
+        System.out.println(images.size() + " Bilder, " + clients + " Clients, " + requests + " Anfragen, maxBatchSize " + maxBatchSize + ", maxWait " + maxWait + " µs");
+        //Referenz: einzelne Aufrufe in einem Thread
+        double[] in = new double[images.getImageSize()];
+        long start = System.nanoTime();
+        int single = Math.min(requests, 20000);
+        for(int i = 0; i < single; i++) {
+            images.decode(i % images.size(), in, 0);
+            net.getOutput(in);
+        }
+        System.out.printf("getOutput (1 Thread): %.0f Anfragen/s%n", single * 1e9 / (System.nanoTime() - start));
+        try(InferenceServer server = new InferenceServer(net, maxBatchSize, maxWait, TimeUnit.MICROSECONDS)) {
+            run(server, images, clients, requests / 10);
+            server.resetStats();
+            double accuracy = run(server, images, clients, requests);
+            LatencyRecorder.Stats stats = server.getStats();
+            System.out.println("InferenceServer: " + stats);
+            System.out.println("Accuracy: " + accuracy);
+        }
+    }
+
+    private static NeuralNetwork readNet(File f) throws IOException {
+        if(f.getName().endsWith("." + BinaryFileIO.EXTENSION)) return BinaryFileIO.read(f, true);
+        return FileIO.read(f, true);
+    }
+
+    /**
+     * Sendet requests Anfragen von clients Threads und gibt die Accuracy
+     * zurück.
+     */
+    private static double run(InferenceServer server, ImageStore images, int clients, int requests) throws InterruptedException {
+        AtomicInteger next = new AtomicInteger(), correct = new AtomicInteger();
+        Thread[] threads = new Thread[clients];
+        for(int c = 0; c < clients; c++) {
+            threads[c] = new Thread(() -> {
+                double[] in = new double[images.getImageSize()];
+                int i;
+                while((i = next.getAndIncrement()) < requests) {
+                    int index = i % images.size();
+                    images.decode(index, in, 0);
+                    double[] out = server.submit(in).join();
+                    if(NeuralMath.getPredictedLabel(out) == images.getLabel(index)) correct.incrementAndGet();
+                }
+            }, "Client#" + c);
+            threads[c].start();
+        }
+        for(Thread t : threads) t.join();
+        return correct.get() / (double) requests;
+    }
+
+}
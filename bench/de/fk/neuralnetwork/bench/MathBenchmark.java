@@ -0,0 +1,101 @@
+package de.fk.neuralnetwork.bench;
+
+import de.fk.neuralnetwork.math.LinearAlgebra;
+import de.fk.neuralnetwork.math.NeuralMath;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Misst die Matrix- und Vektoroperationen aus NeuralMath und LinearAlgebra
+ * für die Schichtgrößen der Referenzarchitektur (785 x 300, 301 x 100,
+ * 101 x 10).
+ *
+ * @author Felix
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MathBenchmark {
+
+    @Param({"785x300", "301x100", "101x10"})
+    public String shape;
+
+    @Param({"64"})
+    public int batchSize;
+
+    private int rows, cols;
+    private double[][] matrix, transposed;
+    private double[] flat, vec, rowVec, biases, batch, batchOut;
+
+    @Setup
+    public void setup() {
+        String[] dims = shape.split("x");
+        cols = Integer.parseInt(dims[0]);
+        rows = Integer.parseInt(dims[1]);
+        Random rdm = new Random(1081);
+        matrix = new double[rows][];
+        for(int r = 0; r < rows; r++) matrix[r] = rdm.doubles(cols).toArray();
+        transposed = new double[cols][rows];
+        for(int r = 0; r < rows; r++) for(int c = 0; c < cols; c++) transposed[c][r] = matrix[r][c];
+        flat = NeuralMath.flatten(matrix);
+        vec = rdm.doubles(cols).toArray();
+        rowVec = rdm.doubles(rows).toArray();
+        biases = rdm.doubles(rows).toArray();
+        batch = rdm.doubles(batchSize * cols).toArray();
+        batchOut = new double[batchSize * rows];
+    }
+
+    @Benchmark
+    public double[] matmul() {
+        return NeuralMath.matmul(matrix, vec);
+    }
+
+    @Benchmark
+    public double[] matmulParallel() {
+        return NeuralMath.matmulParallel(matrix, vec);
+    }
+
+    @Benchmark
+    public double[] applyWeightsMatrix() {
+        return NeuralMath.applyWeights(transposed, vec, biases);
+    }
+
+    @Benchmark
+    public double[] applyWeightsMatrixParallel() {
+        return NeuralMath.applyWeightsParallel(transposed, vec, biases);
+    }
+
+    @Benchmark
+    public double applyWeightsVector() {
+        double sum = 0.0;
+        for(int r = 0; r < rows; r++) sum += NeuralMath.applyWeights(vec, matrix[r]);
+        return sum;
+    }
+
+    @Benchmark
+    public double[] gemv() {
+        LinearAlgebra.gemv(flat, vec, rowVec, rows, cols, false);
+        return rowVec;
+    }
+
+    @Benchmark
+    public double[] gemmBatch() {
+        LinearAlgebra.gemmTransposedB(batch, flat, batchOut, batchSize, rows, cols, false, false);
+        return batchOut;
+    }
+
+}
@@ -0,0 +1,104 @@
+package de.fk.neuralnetwork.bench;
+
+import de.fk.neuralnetwork.InferenceWorkspace;
+import de.fk.neuralnetwork.NeuralLayer;
+import de.fk.neuralnetwork.NeuralNetwork;
+import de.fk.neuralnetwork.PackedNeuralLayer;
+import de.fk.neuralnetwork.learning.Backpropagator;
+import de.fk.neuralnetwork.math.Precision;
+import de.fk.neuralnetwork.training.TrainingExample;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Vergleicht FP64- und FP32-Gewichte auf der Referenzarchitektur. Neben dem
+ * Durchsatz wird über einen Zähler die Menge der pro Sekunde gelesenen
+ * Gewichtsbytes ausgegeben (weightBytes), also die effektive Bandbreite.
+ *
+ * @author Felix
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrecisionBenchmark {
+
+    @Param({Architectures.REFERENCE})
+    public String architecture;
+
+    @Param({"FP64", "FP32"})
+    public Precision precision;
+
+    @Param({"128"})
+    public int batchSize;
+
+    private NeuralNetwork net;
+    private InferenceWorkspace ws;
+    private Backpropagator bp;
+    private TrainingExample[] examples;
+    private double[] in;
+    private long weightBytes;
+
+    /**
+     * Zählt die gelesenen Gewichtsbytes. JMH gibt den Wert pro Sekunde aus.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bandwidth {
+
+        public long weightBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            weightBytes = 0;
+        }
+
+    }
+
+    @Setup
+    public void setup() {
+        net = new NeuralNetwork(precision, Architectures.parse(architecture));
+        net.prepareParallelBackprop(1);
+        ws = new InferenceWorkspace(net);
+        bp = new Backpropagator(0, net, 0.0, 0.0, 0.0);
+        bp.setDebugStream(null);
+        examples = Architectures.createExamples(architecture, batchSize, 1081);
+        in = new Random(1081).doubles(net.getInputNeurons()).toArray();
+        for(NeuralLayer l : net.getLayers()) weightBytes += (long) ((PackedNeuralLayer) l).getWeightCount() * precision.getBytes();
+    }
+
+    @Benchmark
+    public double[] getOutputWorkspace(Bandwidth b) {
+        b.weightBytes += weightBytes;
+        return net.getOutput(in, ws);
+    }
+
+    /**
+     * Vorwärts- und Rückwärtsrechnung eines Mini-Batches inkl. Update mit
+     * Lernrate 0. Die Gewichtsmatrix wird dabei dreimal gelesen (vorwärts,
+     * gewichtete Fehler, Update).
+     */
+    @Benchmark
+    public NeuralNetwork backpropBatch(Bandwidth b) {
+        b.weightBytes += 3 * weightBytes;
+        bp.backpropBatch(examples, 0);
+        for(NeuralLayer l : net.getLayers()) l.accumulate(0.0, 0.0, 0.0);
+        return net;
+    }
+
+}
@@ -0,0 +1,74 @@
+package de.fk.neuralnetwork.bench;
+
+import de.fk.neuralnetwork.InferenceWorkspace;
+import de.fk.neuralnetwork.NeuralNetwork;
+import de.fk.neuralnetwork.quantization.QuantizedNetwork;
+import de.fk.neuralnetwork.quantization.Quantizer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Vergleicht die Inferenz eines einzelnen Bildes mit FP64-Gewichten und mit
+ * dem quantisierten Netz (int8) auf der Referenzarchitektur. Die Eingabe
+ * enthält den Anteil zeros an Nullen (bei MNIST etwa 0.8), die das
+ * quantisierte Netz überspringt. Die Wertebereiche der Kalibrierung sind mit
+ * Sigmoid-Aktivierungen und Eingaben zwischen 0 und 1 bekannt.
+ *
+ * @author Felix
+ * @see PrecisionBenchmark
+ * @see QuantizationCheck
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QuantizationBenchmark {
+
+    @Param({Architectures.REFERENCE})
+    public String architecture;
+
+    @Param({"0.0", "0.8"})
+    public double zeros;
+
+    private NeuralNetwork net;
+    private InferenceWorkspace ws;
+    private QuantizedNetwork quantized;
+    private double[] in;
+
+    @Setup
+    public void setup() {
+        net = Architectures.createNet(architecture, true);
+        ws = new InferenceWorkspace(net);
+        double[] ranges = new double[net.getLayers().length];
+        Arrays.fill(ranges, 1);
+        quantized = Quantizer.quantize(net, ranges);
+        Random rdm = new Random(1081);
+        in = new double[net.getInputNeurons()];
+        for(int i = 0; i < in.length; i++) in[i] = rdm.nextDouble() < zeros ? 0 : rdm.nextDouble();
+    }
+
+    @Benchmark
+    public double[] getOutputFP64() {
+        return net.getOutput(in, ws);
+    }
+
+    @Benchmark
+    public double[] getOutputInt8() {
+        return quantized.getOutput(in);
+    }
+
+}
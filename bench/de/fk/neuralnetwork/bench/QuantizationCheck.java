@@ -0,0 +1,120 @@
+package de.fk.neuralnetwork.bench;
+
+import de.fk.neuralnetwork.NeuralNetwork;
+import de.fk.neuralnetwork.data.ImageStore;
+import de.fk.neuralnetwork.data.Tester;
+import de.fk.neuralnetwork.io.QuantizedFileIO;
+import de.fk.neuralnetwork.learning.Backpropagator;
+import de.fk.neuralnetwork.quantization.QuantizedNetwork;
+import de.fk.neuralnetwork.quantization.Quantizer;
+import de.fk.neuralnetwork.training.LabeledImageTrainingSupplier;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Überprüft die int8-Quantisierung auf einem kleinen synthetischen
+ * Datensatz im MNIST-Format (ein heller Block pro Klasse, zufällig leicht
+ * verschoben, etwa 80 % der Pixel 0), mit dem ein Netz der
+ * Referenzarchitektur kurz trainiert wird:
+ * <ul>
+ * <li>nach QuantizedFileIO.write/read liefert das quantisierte Netz für alle
+ * Bilder bitweise dieselben Ausgaben</li>
+ * <li>die Accuracy weicht höchstens um ACCURACY_TOLERANCE von der des
+ * FP64-Netzes ab, die Vorhersagen stimmen mindestens zu MIN_AGREEMENT
+ * überein</li>
+ * </ul>
+ * Beendet sich mit Exit-Code 1, wenn eine Prüfung fehlschlägt.
+ *
+ * Aufruf (ant check):
+ * <pre>
+ * QuantizationCheck [images] [iterations]
+ * </pre>
+ *
+ * @author Felix
+ * @see Quantizer
+ * @see QuantizationBenchmark
+ */
+public class QuantizationCheck {
+
+    private static final int ROWS = 28, COLS = 28, CLASSES = 10;
+    private static final double ACCURACY_TOLERANCE = 0.02, MIN_AGREEMENT = 0.97, MIN_ACCURACY = 0.9;
+
+    public static void main(String[] args) throws IOException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000,
+            iterations = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        ImageStore store = create(count, new Random(16));
+        NeuralNetwork net = Architectures.createNet(Architectures.REFERENCE, true);
+        Backpropagator bp = new Backpropagator(0, net, 0.3, 0, 0);
+        bp.setDebugStream(null);
+        try {
+            bp.train(new LabeledImageTrainingSupplier(store::views, COLS, ROWS, CLASSES, false, 16), iterations).join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Beim Training unterbrochen.", ex);
+        }
+        QuantizedNetwork quantized = Quantizer.quantize(net, store);
+        File file = File.createTempFile("quantization", "." + QuantizedFileIO.EXTENSION);
+        file.deleteOnExit();
+        QuantizedNetwork read;
+        try {
+            QuantizedFileIO.write(file, quantized);
+            read = QuantizedFileIO.read(file);
+        } finally {
+            file.delete();
+        }
+        double[] pixels = new double[store.getImageSize()];
+        int different = 0;
+        for(int i = 0; i < count; i++) {
+            store.decode(i, pixels, 0);
+            double[] expected = quantized.getOutput(pixels).clone();
+            if(!Arrays.equals(expected, read.getOutput(pixels))) different++;
+        }
+        Tester.Comparison comparison = Tester.compareQuantized(net, quantized, store);
+        boolean ok = report("Ausgaben nach write/read, abweichende Bilder", different, 0)
+                & report("Accuracy FP64 (Training erfolgreich)", comparison.getReference().getAccuracy(), MIN_ACCURACY, true)
+                & report("Accuracy-Differenz int8 - FP64", Math.abs(comparison.getAccuracyDelta()), ACCURACY_TOLERANCE, false)
+                & report("Übereinstimmung der Vorhersagen", comparison.getAgreement(), MIN_AGREEMENT, true);
+        System.out.println(comparison);
+        if(!ok) {
+            System.out.println("FEHLER: Quantisiertes Netz weicht zu stark ab.");
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    private static boolean report(String name, int value, int expected) {
+        boolean ok = value == expected;
+        System.out.println((ok ? "ok     " : "FEHLER ") + name + ": " + value);
+        return ok;
+    }
+
+    private static boolean report(String name, double value, double bound, boolean min) {
+        boolean ok = min ? value >= bound : value <= bound;
+        System.out.println((ok ? "ok     " : "FEHLER ") + name + ": " + value + (min ? " (mindestens " : " (Toleranz ") + bound + ")");
+        return ok;
+    }
+
+    /**
+     * Erzeugt Bilder mit Label i % 10, einem hellen 5x8-Block an der um bis zu
+     * zwei Pixel verschobenen Position der Klasse und vereinzeltem Rauschen;
+     * der Rest ist 0.
+     */
+    private static ImageStore create(int count, Random rdm) {
+        int size = ROWS * COLS;
+        byte[] pixels = new byte[count * size], labels = new byte[count];
+        for(int i = 0; i < count; i++) {
+            int label = i % CLASSES, top = 4 + label / 5 * 12 + rdm.nextInt(5) - 2, left = 1 + label % 5 * 5 + rdm.nextInt(5) - 2;
+            for(int y = 0; y < ROWS; y++)
+                for(int x = 0; x < COLS; x++) {
+                    boolean block = y >= top && y < top + 8 && x >= left && x < left + 5;
+                    int value = block ? 200 + rdm.nextInt(56) : rdm.nextInt(8) == 0 ? rdm.nextInt(120) : 0;
+                    pixels[i * size + y * COLS + x] = (byte) value;
+                }
+            labels[i] = (byte) label;
+        }
+        return new ImageStore(count, ROWS, COLS, pixels, labels);
+    }
+
+}
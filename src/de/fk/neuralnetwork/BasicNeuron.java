@@ -1,7 +1,9 @@
 package de.fk.neuralnetwork;
 
 import de.fk.neuralnetwork.math.ActivationFunction;
+import de.fk.neuralnetwork.math.LinearAlgebra;
 import de.fk.neuralnetwork.math.NeuralMath;
+import java.util.Arrays;
 
 /**
  * Ein Neuron mit Gewichten zu seinem Vorgänger.
@@ -14,7 +16,7 @@ public class BasicNeuron implements Neuron {
     private static final long serialVersionUID = 4609093747635559427L/*8124483782436155978L*/;
 
     private double[] weights, weightsChange;
-    private double[][] accum;
+    private transient GradientBuffer accum;
     
     /**
      * Generiert ein Neuron mit der übergebenen Anzahl an verbundenen Neuronen
@@ -24,7 +26,7 @@ public class BasicNeuron implements Neuron {
      */
     public BasicNeuron(int connectedNeurons) {
         weights = NeuralMath.generateRandomWeights(connectedNeurons);
-        this.accum = new double[1][weights.length];
+        this.accum = new GradientBuffer(weights.length, 1);
         this.weightsChange = new double[weights.length];
         //System.out.println("Neues Neuron mit " + connectedNeurons + " Vorgängern generiert.");
     }
@@ -36,7 +38,7 @@ public class BasicNeuron implements Neuron {
      */
     public BasicNeuron(double[] weights) {
         this.weights = weights;
-        this.accum = new double[1][weights.length];
+        this.accum = new GradientBuffer(weights.length, 1);
         this.weightsChange = new double[weights.length];
     }
     
@@ -58,6 +60,16 @@ public class BasicNeuron implements Neuron {
         return weights;
     }
     
+    /**
+     * Gibt die zuletzt angewandten Gewichtsänderungen (Momentum) zurück
+     * (keine Kopie).
+     *
+     * @return
+     */
+    public double[] getWeightsChange() {
+        return weightsChange;
+    }
+    
     public double getWeightAt(int pos) {
         return weights[pos];
     }
@@ -74,7 +86,13 @@ public class BasicNeuron implements Neuron {
      * @param threadId ID des aktiven Threads
      */
     public void resetAccumulatorMatrix(int threadId) {
-        this.accum[threadId] = new double[weights.length];
+        Arrays.fill(getAccumulator().getSlot(threadId), 0.0);
+    }
+    
+    private GradientBuffer getAccumulator() {
+        //Nicht serialisiert
+        if(accum == null) accum = new GradientBuffer(weights.length, 1);
+        return accum;
     }
     
     /**
@@ -88,13 +106,13 @@ public class BasicNeuron implements Neuron {
      * @see BasicNeuron#accumulate(double, double, double) 
      */
     public void calcAccumulatorMatrix(double errorDelta, double[] activationsBefore, ActivationFunction act, int threadId) {
-        for(int i = 0; i < accum[threadId].length; i++) accum[threadId][i] += errorDelta * activationsBefore[i];
+        LinearAlgebra.axpy(errorDelta, activationsBefore, 0, getAccumulator().getSlot(threadId), 0, weights.length);
     }
     
     /**
      * Updatet die Gewichte, nachdem <code>calcAccumulatorMatrix</code>
      * mindestens einmal aufgerufen wurde. Anschließend werden die gespeicherten
-     * Gewichtsänderungen zurückgesetzt.
+     * Gewichtsänderungen in-place zurückgesetzt.
      *
      * @param learningRate Lernrate Alpha
      * @param regularizationRate Regularisierungsrate Lambda
@@ -102,23 +120,51 @@ public class BasicNeuron implements Neuron {
      * @see BasicNeuron#calcAccumulatorMatrix(double, double[], de.fk.neuralnetwork.math.ActivationFunction, int) 
      */
     public void accumulate(double learningRate, double regularizationRate, double momentum) {//TODO Regularization
+        GradientBuffer accum = getAccumulator();
+        //Werte aus allen Threads aufsummieren
+        accum.reduce(0, weights.length);
+        double[] sum = accum.getSum();
         for(int i = 0; i < weights.length; i++) {
             double weightsChangeBefore = weightsChange[i];
-            //Werte aus allen Threads aufsummieren
-            weightsChange[i] = 0.0;
-            for(double[] acct : accum) {
-                weightsChange[i] += acct[i];
-            }
+            weightsChange[i] = sum[i];
+            //Reset
+            sum[i] = 0.0;
             if(weightsChangeBefore == 0.0) weights[i] += learningRate * weightsChange[i];
             else weights[i] += (1 - momentum) * (learningRate * weightsChange[i]) + momentum * weightsChangeBefore;
         }
-        //Reset
-        this.accum = new double[accum.length][weights.length];
+    }
+
+    /**
+     * Addiert die Gewichtsänderungen des übergebenen Threads ohne Momentum und
+     * ohne Synchronisation direkt auf die Gewichte und setzt sie zurück
+     * (asynchrones Training). Es werden nur Gewichte geschrieben, deren
+     * Änderung ungleich 0 ist.
+     *
+     * @param threadId Thread-ID
+     * @param learningRate Lernrate Alpha
+     * @see de.fk.neuralnetwork.learning.Backpropagator#trainAsync(de.fk.neuralnetwork.training.TrainingSupplier, int, int, int, int)
+     */
+    public void applyGradient(int threadId, double learningRate) {
+        double[] gradient = getAccumulator().getSlot(threadId);
+        for(int i = 0; i < weights.length; i++) {
+            double g = gradient[i];
+            if(g != 0.0) {
+                weights[i] += learningRate * g;
+                gradient[i] = 0.0;
+            }
+        }
     }
 
     @Override
     public double getError(int neuronPos, NeuralLayer nextLayer, double[] errorDeltasNextLayer) {
         double error = 0;
+        if(nextLayer instanceof PackedNeuralLayer) {
+            //Direkt aus der Gewichtsmatrix lesen statt alle Neuronen zu kopieren
+            PackedNeuralLayer packed = (PackedNeuralLayer) nextLayer;
+            int cols = packed.getConnectedNeurons();
+            for(int i = 0; i < errorDeltasNextLayer.length; i++) error += errorDeltasNextLayer[i] * packed.getWeight(i * cols + neuronPos);
+            return error;
+        }
         Neuron[] neuronsNextLayer = nextLayer.getNeurons();
         for(int i = 0, j = 0; i < errorDeltasNextLayer.length && j < neuronsNextLayer.length; i++, j++) {
             while(!(neuronsNextLayer[j] instanceof BasicNeuron)) j++;
@@ -129,11 +175,14 @@ public class BasicNeuron implements Neuron {
     
     /**
      * Muss bei jedem Start des Backpropagation-Algorithmus aufgerufen werden.
+     * Die Puffer werden nur neu angelegt, wenn sich die Anzahl der Threads
+     * ändert, und sonst zurückgesetzt.
      *
-     * @param threads Anzahl der Threads
+     * @param threads Anzahl der Threads bzw. Gradienten-Slots
      */
     public void prepareForParallelBackprop(int threads) {
-        this.accum = new double[threads][weights.length];
+        if(accum == null || accum.getSlotCount() != threads) this.accum = new GradientBuffer(weights.length, threads);
+        else accum.clear();
     }
     
 }
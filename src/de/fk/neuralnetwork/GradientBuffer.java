@@ -0,0 +1,112 @@
+package de.fk.neuralnetwork;
+
+import de.fk.neuralnetwork.math.ExecutionEngine;
+import de.fk.neuralnetwork.math.LinearAlgebra;
+import java.util.Arrays;
+
+/**
+ * Speicher für die Gewichtsänderungen (Accumulator Matrices) eines Neurons
+ * bzw. einer Schicht. Jeder Slot ist ein eigener Puffer für einen gleichzeitig
+ * rechnenden Backpropagation-Thread. Die Puffer werden einmalig angelegt und
+ * nach jedem Update in-place zurückgesetzt.
+ *
+ * Beim Zusammenführen werden die Slots in zusammenhängenden Abschnitten
+ * (Streifen) in Slot 0 aufsummiert. Verschiedene Abschnitte können
+ * gleichzeitig von verschiedenen Threads reduziert werden.
+ *
+ * @author Felix
+ * @see de.fk.neuralnetwork.learning.GradientSlots
+ */
+public class GradientBuffer {
+
+    /**
+     * Mindestanzahl an Elementen pro parallel reduziertem Abschnitt.
+     */
+    public static final int MIN_STRIPE = 256;
+
+    private final int size;
+    private final double[][] slots;
+
+    /**
+     * Legt einen neuen Gradientenspeicher an.
+     *
+     * @param size Anzahl der Gewichte
+     * @param slots Anzahl der Slots (gleichzeitig rechnende Threads, mind. 1)
+     */
+    public GradientBuffer(int size, int slots) {
+        if(slots < 1) throw new IllegalArgumentException("Es wird mindestens ein Slot benötigt.");
+        this.size = size;
+        this.slots = new double[slots][size];
+    }
+
+    /**
+     * Gibt die Anzahl der Gewichte zurück.
+     *
+     * @return
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Gibt die Anzahl der Slots zurück.
+     *
+     * @return
+     */
+    public int getSlotCount() {
+        return slots.length;
+    }
+
+    /**
+     * Gibt den Puffer des übergebenen Slots zurück.
+     *
+     * @param slot Slot bzw. Thread-ID
+     * @return
+     */
+    public double[] getSlot(int slot) {
+        return slots[slot];
+    }
+
+    /**
+     * Gibt nach reduce(..) die aufsummierten Gewichtsänderungen (Slot 0)
+     * zurück.
+     *
+     * @return
+     */
+    public double[] getSum() {
+        return slots[0];
+    }
+
+    /**
+     * Summiert den Abschnitt [from;to) aller Slots in Slot 0 auf und setzt den
+     * Abschnitt in den übrigen Slots auf 0.
+     *
+     * @param from Erstes Gewicht
+     * @param to Letztes Gewicht (exklusiv)
+     */
+    public void reduce(int from, int to) {
+        double[] sum = slots[0];
+        for(int s = 1; s < slots.length; s++) {
+            LinearAlgebra.axpy(1.0, slots[s], from, sum, from, to - from);
+            Arrays.fill(slots[s], from, to, 0.0);
+        }
+    }
+
+    /**
+     * Summiert alle Slots in Slot 0 auf. Große Puffer werden in Abschnitten
+     * auf die übergebene ExecutionEngine verteilt.
+     *
+     * @param engine ExecutionEngine oder null
+     */
+    public void reduce(ExecutionEngine engine) {
+        if(slots.length > 1) LinearAlgebra.forRange(size, (long) size * (slots.length - 1), MIN_STRIPE, engine, this::reduce);
+    }
+
+    /**
+     * Setzt alle Slots auf 0 zurück.
+     */
+    public void clear() {
+        for(double[] slot : slots) Arrays.fill(slot, 0.0);
+    }
+
+}
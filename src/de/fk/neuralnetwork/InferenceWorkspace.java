@@ -0,0 +1,72 @@
+package de.fk.neuralnetwork;
+
+/**
+ * Vorab angelegte Aktivierungspuffer für die Vorwärtsrechnung eines
+ * neuronalen Netzes. Die Puffer werden einmalig anhand von
+ * getNeuronCounts() angelegt und bei jeder Berechnung überschrieben, sodass
+ * wiederholte Inferenz keinen neuen Speicher belegt. Ein InferenceWorkspace
+ * darf nicht von mehreren Threads gleichzeitig verwendet werden.
+ *
+ * @author Felix
+ * @see NeuralNetwork#getOutput(double[], de.fk.neuralnetwork.InferenceWorkspace)
+ */
+public class InferenceWorkspace {
+
+    private final double[][] activations;
+
+    /**
+     * Legt die Aktivierungspuffer für das übergebene Netz an.
+     *
+     * @param net Neuronales Netz
+     */
+    public InferenceWorkspace(NeuralNetwork net) {
+        int[] neuronCounts = net.getNeuronCounts();
+        activations = new double[neuronCounts.length][];
+        //Eingabe immer mit Bias (siehe NeuralNetwork#trigger)
+        activations[0] = new double[net.getInputNeurons() + 1];
+        for(int i = 1; i < neuronCounts.length; i++) activations[i] = new double[neuronCounts[i]];
+    }
+
+    /**
+     * Überprüft, ob die Puffer zu dem übergebenen Netz passen.
+     *
+     * @param net Neuronales Netz
+     * @return true, wenn alle Puffer die passende Größe haben
+     */
+    public boolean fits(NeuralNetwork net) {
+        NeuralLayer[] layers = net.getLayers();
+        if(layers.length + 1 != activations.length || activations[0].length != net.getInputNeurons() + 1) return false;
+        for(int i = 0; i < layers.length; i++) if(activations[i + 1].length != layers[i].getNeuronCount()) return false;
+        return true;
+    }
+
+    /**
+     * Gibt den Puffer der Eingabeaktivierungen (inkl. Bias an Position 0)
+     * zurück.
+     *
+     * @return
+     */
+    public double[] getInput() {
+        return activations[0];
+    }
+
+    /**
+     * Gibt die Aktivierungen des Layers mit dem übergebenen Index zurück.
+     *
+     * @param layer
+     * @return
+     */
+    public double[] getLayerActivations(int layer) {
+        return activations[layer + 1];
+    }
+
+    /**
+     * Gibt die Aktivierungen der Ausgabeneuronen zurück.
+     *
+     * @return
+     */
+    public double[] getOutput() {
+        return activations[activations.length - 1];
+    }
+
+}
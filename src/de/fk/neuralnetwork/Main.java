@@ -1,9 +1,18 @@
 package de.fk.neuralnetwork;
 
+import de.fk.neuralnetwork.data.IdxReader;
 import de.fk.neuralnetwork.data.ImageContainer;
+import de.fk.neuralnetwork.data.ImageStore;
 import de.fk.neuralnetwork.data.Tester;
+import de.fk.neuralnetwork.io.BinaryFileIO;
+import de.fk.neuralnetwork.io.CheckpointManager;
 import de.fk.neuralnetwork.io.FileIO;
+import de.fk.neuralnetwork.io.QuantizedFileIO;
 import de.fk.neuralnetwork.learning.Backpropagator;
+import de.fk.neuralnetwork.learning.EnsembleTrainer;
+import de.fk.neuralnetwork.learning.TrainingState;
+import de.fk.neuralnetwork.quantization.QuantizedNetwork;
+import de.fk.neuralnetwork.quantization.Quantizer;
 import de.fk.neuralnetwork.training.ArrayTrainingSupplier;
 import de.fk.neuralnetwork.training.LabeledImageTrainingSupplier;
 import de.fk.neuralnetwork.training.TrainingExample;
@@ -15,11 +24,8 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.Arrays;
-import java.util.Scanner;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import org.json.JSONArray;
-import org.json.JSONObject;
 
 
 /**
@@ -41,7 +47,7 @@ public class Main {
         }
     }
     
-    public static final int NETS = 10, ITERATIONS = 200, ITERATIONS_WITHOUT_CHANGE = 5;
+    public static final int NETS = 10, ITERATIONS = 200, ITERATIONS_WITHOUT_CHANGE = 5, PREFETCH_BATCH_SIZE = 256;
     public static final int[] NET_ARCHITECTURE = {784, 300, 100, 10};
     public static final double LEARNING_RATE = 0.3;
     public static final String TEMP_DIR = "mnist_val";
@@ -54,6 +60,20 @@ public class Main {
         outStream.print(msg);
     }
     
+    /**
+     * Liest ein im Temp-Verzeichnis gespeichertes Netz ein. Ältere Läufe
+     * haben die Netze noch im JSON-Format gespeichert.
+     *
+     * @param name Dateiname ohne Endung
+     * @return
+     * @throws IOException Lesefehler
+     */
+    private static NeuralNetwork readNet(String name) throws IOException {
+        File binary = new File(TEMP_DIR, name + "." + BinaryFileIO.EXTENSION);
+        if(binary.exists()) return BinaryFileIO.read(binary);
+        return FileIO.read(new File(TEMP_DIR, name + ".jnet"));
+    }
+    
     public static void mnistProblemVal() throws IOException {
         //Setup logging
         new File(TEMP_DIR).mkdirs();
@@ -65,76 +85,83 @@ public class Main {
         ImageContainer.readFromArchive(new File("myset.sets"));
         NeuralNetwork[] nets = new NeuralNetwork[NETS];
         Backpropagator[] bps = new Backpropagator[NETS];
-        LabeledImageTrainingSupplier[] suppliers = new LabeledImageTrainingSupplier[NETS];
         double[] bestvals = new double[NETS];
-        Thread[] trainthreads = new Thread[NETS];
         
-        System.out.print("Continue training? (y/n) ");
-        Scanner inputScanner = new Scanner(System.in);
+        //Training fortsetzen, wenn für alle Netze ein Checkpoint vorhanden ist
+        CheckpointManager checkpoints = new CheckpointManager(new File(TEMP_DIR));
+        boolean resume = true;
+        for(int i = 0; i < NETS; i++) resume &= checkpoints.exists("latest_" + i);
         int iteration = 0, iterationswithoutchange = 0;
-        if("y".equals(inputScanner.next())) {
-            System.out.print("Save String: ");
-            JSONObject saveObj = new JSONObject(inputScanner.next());
-            iteration = saveObj.getInt("i") + 1;
-            iterationswithoutchange = saveObj.getInt("iwc") + 1;
-            JSONArray jBestVals = saveObj.getJSONArray("bestvals");
-            for(int i = 0; i < NETS; i++) bestvals[i] = jBestVals.getDouble(i);
-            double learningRate = 0.3;
-            for(int i = 0; i < iteration; i++) learningRate *= 0.995;
+        if(resume) {
             //Load nets, init backpropagators, suppliers
             for(int i = 0; i < NETS; i++) {
-                nets[i] = FileIO.read(new File(TEMP_DIR, "latest_" + i + ".jnet"));
-                bps[i] = new Backpropagator(i, nets[i], learningRate, 0, 0);
-                bps[i].setIteration(iteration - 1);
-                suppliers[i] = new LabeledImageTrainingSupplier(ImageContainer::trainingSupplier, 28, 28, 10, AUTO_TRANSFORM);
-                log("Loaded net #" + i + "\n");
+                CheckpointManager.Checkpoint checkpoint = checkpoints.load("latest_" + i, true);
+                TrainingState state = checkpoint.getState();
+                nets[i] = checkpoint.getNet();
+                bps[i] = new Backpropagator(i, nets[i], LEARNING_RATE, 0, 0);
+                bps[i].restoreTrainingState(state);
+                bestvals[i] = state.getBestValidationError();
+                iteration = state.getIteration();
+                iterationswithoutchange = state.getIterationsWithoutChange();
+                log("Loaded net #" + i + " (" + state + ")\n");
             }
         } else {
             //Init nets, backpropagators, suppliers, arrays, initially save nets
             for(int i = 0; i < NETS; i++) {
                 nets[i] = new NeuralNetwork(NET_ARCHITECTURE);
                 bps[i] = new Backpropagator(i, nets[i], LEARNING_RATE, 0, 0);
-                suppliers[i] = new LabeledImageTrainingSupplier(ImageContainer::trainingSupplier, 28, 28, 10, AUTO_TRANSFORM);
                 bestvals[i] = Integer.MAX_VALUE;
-                FileIO.write(new File(TEMP_DIR, "best_" + i + ".jnet"), nets[i], false);
+                checkpoints.save("best_" + i, nets[i], bps[i].getTrainingState());
                 log("Initialized net #" + i + "\n");
             }
         }
         
+        //Alle Netze auf einem gemeinsamen Pool mit einer gemeinsamen Bilderliste trainieren, Beispiele im Hintergrund vorbereiten
+        EnsembleTrainer ensemble = new EnsembleTrainer(nets, bps, ImageContainer.trainingSupplier(), 28, 28, 10, AUTO_TRANSFORM, System.nanoTime(), Runtime.getRuntime().availableProcessors(), PREFETCH_BATCH_SIZE);
+        
         //Training
         for(; iteration < ITERATIONS && iterationswithoutchange < ITERATIONS_WITHOUT_CHANGE;
                 iteration++, iterationswithoutchange++) {
             log("Iteration #" + iteration + ": Training all nets... (" + System.currentTimeMillis() + ", no change for " + iterationswithoutchange + " iterations)\n");
             //Train all n nets
-            for(int i = 0; i < NETS; i++) trainthreads[i] = bps[i].train(suppliers[i], 1);
-            //Wait for training, then test on validation set and, if better, save to file
+            try {
+                ensemble.train(1);
+            } catch (InterruptedException ex) {
+                Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, ex);
+                break;
+            }
+            //Test all nets on validation set in one pass and, if better, save to file
+            log("Testing all nets... (" + System.currentTimeMillis() + ")\n");
+            Tester.TestResult[] valresults = ensemble.validate(ImageContainer.getImages(ImageContainer.Set.VALIDATION));
             for(int i = 0; i < NETS; i++) {
-                try {
-                    trainthreads[i].join();
-                } catch (InterruptedException ex) {
-                    Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, ex);
-                }
-                log("Testing net #" + i + "... (" + System.currentTimeMillis() + ")");
-                double valerror = Tester.testFromSet(nets[i], ImageContainer.Set.VALIDATION).getError();
-                log("Err_val=" + valerror + "\n");
+                double valerror = valresults[i].getError();
+                log("Net #" + i + ": Err_val=" + valerror + "\n");
                 if(valerror < bestvals[i]) {
                     bestvals[i] = valerror;
-                    FileIO.write(new File(TEMP_DIR, "best_" + i + ".jnet"), nets[i], false);
+                    checkpoints.save("best_" + i, nets[i], bps[i].getTrainingState());
                     iterationswithoutchange = 0;
                 }
-                FileIO.write(new File(TEMP_DIR, "latest_" + i + ".jnet"), nets[i], false);
             }
-            JSONObject saveObject = new JSONObject();
-            saveObject.put("i", iteration);
-            saveObject.put("iwc", iterationswithoutchange);
-            saveObject.put("bestvals", new JSONArray(bestvals));
-            log(saveObject.toString() + "\n");
+            //Checkpoints erst schreiben, wenn iterationswithoutchange für alle Netze feststeht
+            for(int i = 0; i < NETS; i++) {
+                TrainingState state = bps[i].getTrainingState();
+                state.setIterationsWithoutChange(iterationswithoutchange + 1);
+                state.setBestValidationError(bestvals[i]);
+                checkpoints.save("latest_" + i, nets[i], state);
+            }
         }
+        ensemble.close();
+        checkpoints.close();
         //Testing
         for(int net = 0; net < NETS; net++) {
-            NeuralNetwork bestnet = FileIO.read(new File(TEMP_DIR, "best_" + net + ".jnet"));
-            double testaccuracy = Tester.testFromSet(bestnet, ImageContainer.Set.TEST).getAccuracy();
-            log("Net #" + net + ": Err_val(min)=" + bestvals[net] + " Test accuracy=" + testaccuracy + "\n");
+            NeuralNetwork bestnet = readNet("best_" + net);
+            //int8-Version für die Inferenz, kalibriert mit dem Validation Set
+            QuantizedNetwork quantized = Quantizer.quantize(bestnet, ImageContainer.Set.VALIDATION);
+            QuantizedFileIO.write(new File(TEMP_DIR, "best_" + net + "." + QuantizedFileIO.EXTENSION), quantized);
+            //Ein Durchlauf über das Test Set liefert beide Ergebnisse
+            Tester.Comparison comparison = Tester.compareQuantized(bestnet, quantized, ImageContainer.Set.TEST);
+            log("Net #" + net + ": Err_val(min)=" + bestvals[net] + " Test accuracy=" + comparison.getReference().getAccuracy() + "\n");
+            log("Net #" + net + " (int8): " + comparison + "\n");
         }
         log("Done!\n");
     }
@@ -159,19 +186,19 @@ public class Main {
             Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, ex);
         }
         bp.setLogStream(fos);
+        //Testdaten einmal abbilden und für jede Auswertung wiederverwenden
+        ImageStore testImages;
         try {
-            Tester.testFromMnist("t10k-images.idx3-ubyte", "t10k-labels.idx1-ubyte", nn, 10000, ImageContainer.FileFormat.MNIST);
+            testImages = IdxReader.map("t10k-images.idx3-ubyte", "t10k-labels.idx1-ubyte", 10000, ImageContainer.FileFormat.MNIST);
         } catch (IOException ex) {
             Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, ex);
+            return;
         }
+        System.out.println(Tester.testFromStore(nn, testImages).getAccuracy());
         for(int i = 0; i < 5; i++) {
             bp.trainParallel(trainingSupplier, 100, 1, 100, true);
             //TODO Warten
-            try {
-                Tester.testFromMnist("t10k-images.idx3-ubyte", "t10k-labels.idx1-ubyte", nn, 10000, ImageContainer.FileFormat.MNIST);
-            } catch (IOException ex) {
-                Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, ex);
-            }
+            System.out.println(Tester.testFromStore(nn, testImages).getAccuracy());
         }
     }
 
@@ -216,6 +243,14 @@ public class Main {
         System.out.println("Folgende Gewichte wurden ermittelt:");
         NeuralLayer[] layers = nn.getLayers();
         for(int l = 0; l < layers.length; l++) {
+            if(layers[l] instanceof PackedNeuralLayer) {
+                PackedNeuralLayer packed = (PackedNeuralLayer) layers[l];
+                int b = packed.hasBias() ? 1 : 0;
+                if(b == 1) System.out.println(l + "-0: Bias");
+                for(int n = b; n < packed.getNeuronCount(); n++)
+                    System.out.println(l + "-" + n + ": " + Arrays.toString(packed.getNeuronWeights(n - b)));
+                continue;
+            }
             Neuron[] neurons = layers[l].getNeurons();
             for(int n = 0; n < neurons.length; n++)
                 System.out.println(l + "-" + n + ": " + ((neurons[n] instanceof BasicNeuron) ? Arrays.toString(((BasicNeuron) neurons[n]).getWeights()) : "Bias"));
@@ -1,6 +1,8 @@
 package de.fk.neuralnetwork;
 
 import de.fk.neuralnetwork.math.ActivationFunction;
+import de.fk.neuralnetwork.math.ExecutionEngine;
+import de.fk.neuralnetwork.math.NeuralMath;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -17,6 +19,7 @@ public class NeuralLayer implements Serializable {
     
     private Neuron[] neurons;
     private ActivationFunction act;
+    private transient ExecutionEngine engine;
     
     /**
      * Erstellt eine neue Neuronenschicht.
@@ -53,6 +56,24 @@ public class NeuralLayer implements Serializable {
         return neurons;
     }
 
+    /**
+     * Gibt die Anzahl der Neuronen dieser Schicht (inkl. Bias) zurück.
+     *
+     * @return
+     */
+    public int getNeuronCount() {
+        return neurons.length;
+    }
+
+    /**
+     * Gibt zurück, ob diese Schicht ein Bias-Neuron an Position 0 enthält.
+     *
+     * @return
+     */
+    public boolean hasBias() {
+        return neurons.length > 0 && neurons[0] instanceof BiasNeuron;
+    }
+
     /**
      * Ändert die Aktivierungsfunktion der gesamten Schicht.
      *
@@ -72,6 +93,27 @@ public class NeuralLayer implements Serializable {
         return act;
     }
     
+    /**
+     * Legt die ExecutionEngine fest, auf die die parallelen Berechnungen
+     * dieser Schicht verteilt werden.
+     *
+     * @param engine ExecutionEngine oder null für die Standard-Engine
+     * @see NeuralNetwork#setExecutionEngine(de.fk.neuralnetwork.math.ExecutionEngine)
+     */
+    public void setExecutionEngine(ExecutionEngine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Gibt die ExecutionEngine zurück, auf die die parallelen Berechnungen
+     * dieser Schicht verteilt werden.
+     *
+     * @return Eigene Engine oder die Standard-Engine
+     */
+    public ExecutionEngine getExecutionEngine() {
+        return engine == null ? ExecutionEngine.getDefault() : engine;
+    }
+    
     /**
      * Aktiviert die Neuronen dieser Schicht mit den übergebenen Eingabesignalen
      * und gibt die Ausgabesignale zurück.
@@ -85,13 +127,90 @@ public class NeuralLayer implements Serializable {
     
     /**
      * Aktiviert die Neuronen dieser Schicht mit den übergebenen Eingabesignalen
-     * und gibt die Ausgabesignale zurück. Verwendet parallele Streams.
+     * und schreibt die Ausgabesignale in den übergebenen Array, ohne dabei
+     * neuen Speicher zu belegen.
+     *
+     * @param in Eingabesignale
+     * @param out Ausgabesignale (Länge getNeuronCount())
+     * @see InferenceWorkspace
+     */
+    public void trigger(double[] in, double[] out) {
+        for(int i = 0; i < neurons.length; i++) out[i] = neurons[i].trigger(in, act);
+    }
+    
+    /**
+     * Aktiviert die Schicht für mehrere Beispiele. Die Beispiele werden
+     * nacheinander im aufrufenden Thread berechnet.
+     *
+     * @param in Eingabematrix (batchSize x inWidth, zeilenweise)
+     * @param inWidth Anzahl der Eingabesignale pro Beispiel
+     * @param batchSize Anzahl der Beispiele
+     * @param out Ausgabematrix (batchSize x getNeuronCount(), zeilenweise)
+     * @see NeuralNetwork#predictBatch(double[], int, double[])
+     */
+    public void triggerBatch(double[] in, int inWidth, int batchSize, double[] out) {
+        int width = getNeuronCount();
+        double[] rowIn = new double[inWidth], rowOut = new double[width];
+        for(int e = 0; e < batchSize; e++) {
+            System.arraycopy(in, e * inWidth, rowIn, 0, inWidth);
+            trigger(rowIn, rowOut);
+            System.arraycopy(rowOut, 0, out, e * width, width);
+        }
+    }
+    
+    /**
+     * Aktiviert die Neuronen dieser Schicht mit den übergebenen Eingabesignalen
+     * und gibt die Ausgabesignale zurück. Große Schichten werden auf die
+     * ExecutionEngine verteilt.
      *
      * @param in Eingabesignale
      * @return Ausgabesignale
+     * @see NeuralLayer#getExecutionEngine()
      */
     public double[] triggerParallel(double[] in) {
-        return Arrays.stream(neurons).parallel().mapToDouble(n -> n.trigger(in, act)).toArray();
+        double[] out = new double[neurons.length];
+        getExecutionEngine().forRange(neurons.length, (long) neurons.length * in.length, 1, (from, to) -> {
+            for(int i = from; i < to; i++) out[i] = neurons[i].trigger(in, act);
+        });
+        return out;
+    }
+    
+    /**
+     * Aktiviert die Neuronen dieser Schicht für die Backpropagation. Neben den
+     * Ausgabesignalen werden die Ableitungen der Aktivierungsfunktion an den
+     * Neuroneneingaben gespeichert, sodass die Delta-Fehler ohne erneute
+     * Berechnung der gewichteten Summen bestimmt werden können. Ein
+     * Bias-Neuron darf nur an Position 0 stehen.
+     *
+     * @param in Eingabesignale
+     * @param out Ausgabesignale (Länge getNeuronCount())
+     * @param derivatives Ausgabe: Ableitungen (ein Wert pro Neuron ohne Bias)
+     * @see de.fk.neuralnetwork.learning.TrainingWorkspace
+     */
+    public void trigger(double[] in, double[] out, double[] derivatives) {
+        int b = hasBias() ? 1 : 0;
+        if(b == 1) out[0] = 1;
+        for(int i = b; i < neurons.length; i++) derivatives[i - b] = NeuralMath.applyWeights(in, ((BasicNeuron) neurons[i]).getWeights());
+        act.applyWithDerivative(derivatives, 0, out, b, derivatives, 0, neurons.length - b);
+    }
+    
+    /**
+     * Aktiviert die Neuronen dieser Schicht für die Backpropagation und
+     * speichert die Ableitungen. Große Schichten werden auf die
+     * ExecutionEngine verteilt.
+     *
+     * @param in Eingabesignale
+     * @param out Ausgabesignale (Länge getNeuronCount())
+     * @param derivatives Ausgabe: Ableitungen (ein Wert pro Neuron ohne Bias)
+     * @see NeuralLayer#trigger(double[], double[], double[])
+     */
+    public void triggerParallel(double[] in, double[] out, double[] derivatives) {
+        int b = hasBias() ? 1 : 0;
+        if(b == 1) out[0] = 1;
+        getExecutionEngine().forRange(neurons.length - b, (long) neurons.length * in.length, 1, (from, to) -> {
+            for(int i = from; i < to; i++) derivatives[i] = NeuralMath.applyWeights(in, ((BasicNeuron) neurons[i + b]).getWeights());
+        });
+        act.applyWithDerivative(derivatives, 0, out, b, derivatives, 0, neurons.length - b);
     }
     
     /**
@@ -144,20 +263,49 @@ public class NeuralLayer implements Serializable {
      * @return
      */
     public double[] getErrors(NeuralLayer nextLayer, double[] errorDeltasNextLayer) {
+        if(nextLayer instanceof PackedNeuralLayer) return selectErrors(nextLayer.getWeightedErrors(errorDeltasNextLayer));
         return IntStream.range(0, neurons.length).filter(i -> neurons[i] instanceof BasicNeuron).mapToDouble(i -> neurons[i].getError(i, nextLayer, errorDeltasNextLayer)).toArray();
     }
     
     /**
      * Berechnet die Fehler jedes Neurons ausgehend von den Delta-Fehlern der
      * Neuronen der darauffolgenden Schicht und gibt diese als Array zurück.
-     * Verwendet parallele Streams.
+     * Große Schichten werden auf die ExecutionEngine verteilt.
      *
      * @param nextLayer Nächste Neuronenschicht
      * @param errorDeltasNextLayer Delta-Fehlerarray der nächsten Schicht
      * @return
      */
     public double[] getErrorsParallel(NeuralLayer nextLayer, double[] errorDeltasNextLayer) {
-        return IntStream.range(0, neurons.length).parallel().filter(i -> neurons[i] instanceof BasicNeuron).mapToDouble(i -> neurons[i].getError(i, nextLayer, errorDeltasNextLayer)).toArray();
+        if(nextLayer instanceof PackedNeuralLayer) return selectErrors(((PackedNeuralLayer) nextLayer).getWeightedErrors(errorDeltasNextLayer, true));
+        double[] errors = new double[neurons.length];
+        getExecutionEngine().forRange(neurons.length, (long) neurons.length * errorDeltasNextLayer.length, 1, (from, to) -> {
+            for(int i = from; i < to; i++) if(neurons[i] instanceof BasicNeuron) errors[i] = neurons[i].getError(i, nextLayer, errorDeltasNextLayer);
+        });
+        return selectErrors(errors);
+    }
+    
+    /**
+     * Berechnet für jedes Vorgängerneuron die Summe der mit seinen ausgehenden
+     * Gewichten gewichteten Delta-Fehler dieser Schicht.
+     *
+     * @param errorDeltas Delta-Fehler dieser Schicht
+     * @return Gewichtete Fehler aller Vorgängerneuronen (inkl. Bias)
+     */
+    protected double[] getWeightedErrors(double[] errorDeltas) {
+        double[] errors = null;
+        for(int i = 0, j = 0; i < errorDeltas.length && j < neurons.length; i++, j++) {
+            while(j < neurons.length && !(neurons[j] instanceof BasicNeuron)) j++;
+            if(j >= neurons.length) break;
+            double[] weights = ((BasicNeuron) neurons[j]).getWeights();
+            if(errors == null) errors = new double[weights.length];
+            for(int c = 0; c < weights.length; c++) errors[c] += errorDeltas[i] * weights[c];
+        }
+        return errors == null ? new double[0] : errors;
+    }
+    
+    private double[] selectErrors(double[] weightedErrors) {
+        return IntStream.range(0, neurons.length).filter(i -> neurons[i] instanceof BasicNeuron).mapToDouble(i -> weightedErrors[i]).toArray();
     }
     
     /**
@@ -174,10 +322,26 @@ public class NeuralLayer implements Serializable {
      * @see NeuralLayer#calcAccumulatorMatrices(double[], double[], int) calcAccumulatorMatrices(..)
      */
     public void accumulate(double learningRate, double regularizationRate, double momentum) {
-        Arrays.stream(neurons)
-                .parallel()
-                .filter(n -> n instanceof BasicNeuron)
-                .forEach(n -> ((BasicNeuron) n).accumulate(learningRate, regularizationRate, momentum));
+        Neuron last = neurons.length == 0 ? null : neurons[neurons.length - 1];
+        int weightsPerNeuron = last instanceof BasicNeuron ? ((BasicNeuron) last).getWeights().length : 1;
+        getExecutionEngine().forRange(neurons.length, (long) neurons.length * weightsPerNeuron, 1, (from, to) -> {
+            for(int i = from; i < to; i++)
+                if(neurons[i] instanceof BasicNeuron) ((BasicNeuron) neurons[i]).accumulate(learningRate, regularizationRate, momentum);
+        });
+    }
+    
+    /**
+     * Addiert die Gewichtsänderungen des übergebenen Threads direkt auf die
+     * Gewichte, ohne auf andere Threads zu warten (asynchrones Training im
+     * Hogwild-Stil). Es wird kein Momentum verwendet und nur Gewichte mit einer
+     * Änderung ungleich 0 werden geschrieben.
+     *
+     * @param threadId Thread-ID
+     * @param learningRate Lernrate
+     * @see BasicNeuron#applyGradient(int, double)
+     */
+    public void applyGradient(int threadId, double learningRate) {
+        for(Neuron n : neurons) if(n instanceof BasicNeuron) ((BasicNeuron) n).applyGradient(threadId, learningRate);
     }
     
     /**
@@ -1,8 +1,13 @@
 package de.fk.neuralnetwork;
 
 import de.fk.neuralnetwork.math.ActivationFunction;
+import de.fk.neuralnetwork.math.ExecutionEngine;
 import de.fk.neuralnetwork.math.NeuralMath;
+import de.fk.neuralnetwork.math.Precision;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.Arrays;
 
 /**
  * Repräsentiert ein neuronales Netz.
@@ -13,14 +18,33 @@ public class NeuralNetwork implements Serializable {
     
     private static final long serialVersionUID = -336732427642969125L/*655591235934461712L*/;
     
+    /**
+     * Anzahl der Beispiele, die bei predictBatch gemeinsam durch alle
+     * Schichten gerechnet werden. Zugleich die kleinste Teilaufgabe bei der
+     * Verteilung auf die ExecutionEngine.
+     */
+    public static final int PREDICT_BLOCK = 64;
+    
     private NeuralLayer[] layers;
     private int inputNeurons;
     private boolean inputBias;
+    private transient ThreadLocal<InferenceWorkspace> workspace = new ThreadLocal<>();
+    private transient ThreadLocal<double[][]> batchBuffers = new ThreadLocal<>();
+    private transient ExecutionEngine engine;
     
     public void sout() {
         System.out.println(serialVersionUID);
     }
     
+    /**
+     * Legt nach dem Deserialisieren die transienten Puffer pro Thread neu an.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        workspace = new ThreadLocal<>();
+        batchBuffers = new ThreadLocal<>();
+    }
+    
     /**
      * Generiert ein neuronales Netz mit den übergebenen Anzahlen an Neuronen.
      * Aller Layer außer dem Output Layer erhalten zusätzlich einen Bias.
@@ -28,14 +52,38 @@ public class NeuralNetwork implements Serializable {
      * @param neurons Liste mit Anzahlen der Neuronen inkl. Ein- und Ausgabeschicht (mind. 1)
      */
     public NeuralNetwork(int... neurons) {
+        this(false, neurons);
+    }
+    
+    /**
+     * Generiert ein neuronales Netz mit den übergebenen Anzahlen an Neuronen.
+     * Aller Layer außer dem Output Layer erhalten zusätzlich einen Bias.
+     * 
+     * @param packed true, wenn die Gewichte jeder Schicht zusammenhängend gespeichert werden sollen
+     * @param neurons Liste mit Anzahlen der Neuronen inkl. Ein- und Ausgabeschicht (mind. 1)
+     * @see PackedNeuralLayer
+     */
+    public NeuralNetwork(boolean packed, int... neurons) {
+        this(packed ? Precision.FP64 : null, neurons);
+    }
+    
+    /**
+     * Generiert ein neuronales Netz aus PackedNeuralLayers, deren Gewichte mit
+     * der übergebenen Genauigkeit gespeichert werden.
+     * 
+     * @param precision Genauigkeit der Gewichte (null für Schichten mit einzelnen Neuronen)
+     * @param neurons Liste mit Anzahlen der Neuronen inkl. Ein- und Ausgabeschicht (mind. 1)
+     * @see Precision
+     */
+    public NeuralNetwork(Precision precision, int... neurons) {
         layers = new NeuralLayer[neurons.length - 1];
         inputBias = true;
         //First Hidden Layer
-        layers[0] = new NeuralLayer(neurons[0] + 1, neurons[1], true);
+        layers[0] = createLayer(precision, neurons[0] + 1, neurons[1], true);
         //Other Hidden Layers
-        for(int i = 1; i < neurons.length - 2; i++) layers[i] = new NeuralLayer(neurons[i] + 1, neurons[i + 1], true);
+        for(int i = 1; i < neurons.length - 2; i++) layers[i] = createLayer(precision, neurons[i] + 1, neurons[i + 1], true);
         //Output Layer
-        layers[neurons.length - 2] = new NeuralLayer(neurons[neurons.length - 2] + 1, neurons[neurons.length - 1], false);
+        layers[neurons.length - 2] = createLayer(precision, neurons[neurons.length - 2] + 1, neurons[neurons.length - 1], false);
         layers[neurons.length - 2].setActivationFunction(ActivationFunction.DEFAULT_OUTPUT_LAYER_ACTIVATION_FUNCTION);
         this.inputNeurons = neurons[0];
     }
@@ -54,6 +102,88 @@ public class NeuralNetwork implements Serializable {
         this.layers = layers;
     }
     
+    private static NeuralLayer createLayer(Precision precision, int connectedNeurons, int neuronCount, boolean bias) {
+        return precision != null ? new PackedNeuralLayer(connectedNeurons, neuronCount, bias, precision) : new NeuralLayer(connectedNeurons, neuronCount, bias);
+    }
+    
+    /**
+     * Ersetzt alle Schichten durch Schichten mit zusammenhängend gespeicherten
+     * Gewichten. Bereits gepackte Schichten bleiben unverändert.
+     *
+     * @see PackedNeuralLayer
+     */
+    public void packLayers() {
+        for(int i = 0; i < layers.length; i++)
+            if(!(layers[i] instanceof PackedNeuralLayer)) {
+                layers[i] = new PackedNeuralLayer(layers[i]);
+                layers[i].setExecutionEngine(engine);
+            }
+    }
+    
+    /**
+     * Wandelt alle Schichten in PackedNeuralLayers mit der übergebenen
+     * Genauigkeit um. Die Gewichtsänderungen (Momentum) werden übernommen.
+     * Schichten, die bereits die Genauigkeit besitzen, bleiben unverändert.
+     *
+     * @param precision Genauigkeit der Gewichte
+     * @see NeuralNetwork#getPrecision()
+     */
+    public void setPrecision(Precision precision) {
+        for(int i = 0; i < layers.length; i++)
+            if(!(layers[i] instanceof PackedNeuralLayer) || ((PackedNeuralLayer) layers[i]).getPrecision() != precision) {
+                PackedNeuralLayer layer = new PackedNeuralLayer(layers[i], precision);
+                layer.copyFrom(layers[i]);
+                layer.setExecutionEngine(engine);
+                layers[i] = layer;
+            }
+    }
+    
+    /**
+     * Gibt die Genauigkeit der Gewichte zurück.
+     *
+     * @return FP32, wenn alle Schichten ihre Gewichte als float speichern, sonst FP64
+     * @see NeuralNetwork#setPrecision(Precision)
+     */
+    public Precision getPrecision() {
+        for(NeuralLayer layer : layers)
+            if(!(layer instanceof PackedNeuralLayer) || ((PackedNeuralLayer) layer).getPrecision() != Precision.FP32) return Precision.FP64;
+        return Precision.FP32;
+    }
+    
+    /**
+     * Legt die ExecutionEngine fest, auf die die parallelen Berechnungen
+     * (triggerParallel, getErrorsParallel, accumulate) aller Schichten
+     * verteilt werden. Kleine Schichten werden unabhängig davon direkt im
+     * aufrufenden Thread berechnet.
+     *
+     * @param engine ExecutionEngine oder null für die Standard-Engine
+     * @see ExecutionEngine#getDefault()
+     */
+    public void setExecutionEngine(ExecutionEngine engine) {
+        this.engine = engine;
+        for(NeuralLayer layer : layers) layer.setExecutionEngine(engine);
+    }
+    
+    /**
+     * Gibt die von diesem Netz verwendete ExecutionEngine zurück.
+     *
+     * @return Eigene Engine oder die Standard-Engine
+     */
+    public ExecutionEngine getExecutionEngine() {
+        return engine == null ? ExecutionEngine.getDefault() : engine;
+    }
+    
+    /**
+     * Gibt zurück, ob alle Schichten ihre Gewichte zusammenhängend speichern.
+     *
+     * @return true, wenn alle Schichten PackedNeuralLayer sind
+     * @see NeuralNetwork#packLayers()
+     */
+    public boolean isPacked() {
+        for(NeuralLayer layer : layers) if(!(layer instanceof PackedNeuralLayer)) return false;
+        return true;
+    }
+    
     /**
      * Gibt das Output-Layer (das letzte Layer) zurück.
      *
@@ -83,7 +213,7 @@ public class NeuralNetwork implements Serializable {
     public int[] getNeuronCounts() {
         int[] neuronCounts = new int[layers.length + 1];
         neuronCounts[0] = inputNeurons + (inputBias ? 1 : 0);
-        for(int i = 0; i < layers.length; i++) neuronCounts[i + 1] = layers[i].getNeurons().length;
+        for(int i = 0; i < layers.length; i++) neuronCounts[i + 1] = layers[i].getNeuronCount();
         return neuronCounts;
     }
     
@@ -105,7 +235,7 @@ public class NeuralNetwork implements Serializable {
     
     /**
      * Lässt die Eingabedaten das neuronale Netz durchlaufen und gibt alle
-     * Aktivierungen sowie die Ausgabe zurück. (Nutzt parallele Streams)
+     * Aktivierungen sowie die Ausgabe zurück. (Nutzt die ExecutionEngine)
      *
      * @param in Eingabeaktivierungen
      * @return Aktivierungen
@@ -121,7 +251,7 @@ public class NeuralNetwork implements Serializable {
     
     /**
      * Lässt die Eingabedaten das neuronale Netz durchlaufen und gibt nur die
-     * Ausgabe zurück. (Nutzt parallele Streams)
+     * Ausgabe zurück. (Nutzt die ExecutionEngine)
      *
      * @param in Eingabeaktivierungen
      * @return Ausgabeaktivierungen
@@ -133,6 +263,120 @@ public class NeuralNetwork implements Serializable {
         return vals;
     }
     
+    /**
+     * Lässt die Eingabedaten das neuronale Netz durchlaufen und schreibt alle
+     * Aktivierungen in die Puffer des übergebenen Workspaces. Es wird kein
+     * neuer Speicher belegt.
+     *
+     * @param in Eingabeaktivierungen
+     * @param ws Workspace mit den Aktivierungspuffern
+     * @return Ausgabeaktivierungen (Puffer des Workspaces, wird beim nächsten Aufruf überschrieben)
+     * @see InferenceWorkspace
+     */
+    public double[] getOutput(double[] in, InferenceWorkspace ws) {
+        if(in.length != inputNeurons) throw new IllegalArgumentException("Es gibt " + inputNeurons + " Eingabeneuronen, es wurden aber " + in.length + " Werte eingegeben.");
+        double[] vals = ws.getInput();
+        vals[0] = 1;
+        System.arraycopy(in, 0, vals, 1, in.length);
+        for(int l = 0; l < layers.length; l++) {
+            double[] out = ws.getLayerActivations(l);
+            layers[l].trigger(vals, out);
+            vals = out;
+        }
+        return vals;
+    }
+    
+    /**
+     * Lässt die Eingabedaten das neuronale Netz durchlaufen und gibt nur die
+     * Ausgabe zurück. Verwendet einen Workspace pro Thread, sodass nach dem
+     * ersten Aufruf kein neuer Speicher mehr belegt wird.
+     *
+     * @param in Eingabeaktivierungen
+     * @return Ausgabeaktivierungen (Puffer des Threads, wird beim nächsten Aufruf im selben Thread überschrieben)
+     * @see NeuralNetwork#getOutput(double[], de.fk.neuralnetwork.InferenceWorkspace)
+     */
+    public double[] getOutput(double[] in) {
+        InferenceWorkspace ws = workspace.get();
+        if(ws == null || !ws.fits(this)) workspace.set(ws = new InferenceWorkspace(this));
+        return getOutput(in, ws);
+    }
+    
+    /**
+     * Berechnet die Ausgaben für mehrere Eingaben.
+     *
+     * @param in Eingabeaktivierungen (ein Array pro Beispiel)
+     * @return Ausgabeaktivierungen (ein Array pro Beispiel)
+     * @see NeuralNetwork#predictBatch(double[], int, double[])
+     */
+    public double[][] predictBatch(double[][] in) {
+        int batchSize = in.length, outWidth = getOutputLayer().getNeuronCount();
+        double[] flatIn = new double[batchSize * inputNeurons], flatOut = new double[batchSize * outWidth];
+        for(int e = 0; e < batchSize; e++) {
+            if(in[e].length != inputNeurons) throw new IllegalArgumentException("Es gibt " + inputNeurons + " Eingabeneuronen, Beispiel " + e + " hat aber " + in[e].length + " Werte.");
+            System.arraycopy(in[e], 0, flatIn, e * inputNeurons, inputNeurons);
+        }
+        predictBatch(flatIn, batchSize, flatOut);
+        double[][] out = new double[batchSize][];
+        for(int e = 0; e < batchSize; e++) out[e] = Arrays.copyOfRange(flatOut, e * outWidth, (e + 1) * outWidth);
+        return out;
+    }
+    
+    /**
+     * Berechnet die Ausgaben für mehrere Eingaben, die zeilenweise in einer
+     * Matrix (batchSize x getInputNeurons()) stehen.
+     *
+     * Jeweils PREDICT_BLOCK Beispiele werden gemeinsam durch alle Schichten
+     * gerechnet, sodass jede gepackte Schicht ein Matrixprodukt statt
+     * einzelner Matrix-Vektor-Produkte berechnet und ihre Gewichte pro Block
+     * nur einmal gelesen werden. Große Batches werden über die Beispiele auf
+     * die ExecutionEngine verteilt, nicht über die Neuronen; jeder Thread
+     * rechnet seine Blöcke ohne weitere Synchronisation in eigenen,
+     * wiederverwendeten Puffern.
+     *
+     * @param in Eingabematrix (batchSize x getInputNeurons(), zeilenweise)
+     * @param batchSize Anzahl der Beispiele
+     * @param out Ausgabematrix (batchSize x getOutputLayer().getNeuronCount(), zeilenweise)
+     * @throws IllegalArgumentException Wenn die Matrizen zu klein sind
+     */
+    public void predictBatch(double[] in, int batchSize, double[] out) throws IllegalArgumentException {
+        int[] widths = getNeuronCounts();
+        //Eingabe immer mit Bias (siehe NeuralNetwork#trigger)
+        widths[0] = inputNeurons + 1;
+        int outWidth = widths[layers.length];
+        if(in.length < batchSize * inputNeurons || out.length < batchSize * outWidth)
+            throw new IllegalArgumentException("Die Matrizen sind zu klein für " + batchSize + " Beispiele.");
+        long work = 0;
+        for(int l = 0; l < layers.length; l++) work += (long) widths[l] * widths[l + 1];
+        getExecutionEngine().forRange(batchSize, work * batchSize, PREDICT_BLOCK, (from, to) -> predictRange(in, out, widths, from, to));
+    }
+    
+    private void predictRange(double[] in, double[] out, int[] widths, int from, int to) {
+        double[][] buffers = getBatchBuffers(widths);
+        double[] input = buffers[0];
+        int inWidth = widths[0], outWidth = widths[layers.length];
+        for(int start = from; start < to; start += PREDICT_BLOCK) {
+            int n = Math.min(PREDICT_BLOCK, to - start);
+            for(int e = 0; e < n; e++) {
+                input[e * inWidth] = 1;
+                System.arraycopy(in, (start + e) * inputNeurons, input, e * inWidth + 1, inputNeurons);
+            }
+            for(int l = 0; l < layers.length; l++) layers[l].triggerBatch(buffers[l], widths[l], n, buffers[l + 1]);
+            System.arraycopy(buffers[layers.length], 0, out, start * outWidth, n * outWidth);
+        }
+    }
+    
+    private double[][] getBatchBuffers(int[] widths) {
+        double[][] buffers = batchBuffers.get();
+        boolean fits = buffers != null && buffers.length == widths.length;
+        for(int i = 0; fits && i < widths.length; i++) fits = buffers[i].length == PREDICT_BLOCK * widths[i];
+        if(!fits) {
+            buffers = new double[widths.length][];
+            for(int i = 0; i < widths.length; i++) buffers[i] = new double[PREDICT_BLOCK * widths[i]];
+            batchBuffers.set(buffers);
+        }
+        return buffers;
+    }
+    
     /**
      * Muss vor jedem Start des Backpropagation-Algorithmus aufgerufen werden.
      * Setzt alle gespeicherten Gewichtsänderungen zurück und initialisiert sie
@@ -0,0 +1,774 @@
+package de.fk.neuralnetwork;
+
+import de.fk.neuralnetwork.math.ActivationFunction;
+import de.fk.neuralnetwork.math.ExecutionEngine;
+import de.fk.neuralnetwork.math.LinearAlgebra;
+import de.fk.neuralnetwork.math.NeuralMath;
+import de.fk.neuralnetwork.math.Precision;
+import java.util.Arrays;
+
+/**
+ * Eine Neuronenschicht, deren Gewichte nicht auf einzelne Neuronen-Objekte
+ * verteilt, sondern zusammenhängend in einem einzigen Array gespeichert sind.
+ *
+ * Die Gewichte werden zeilenweise abgelegt: Zeile r enthält die Gewichte des
+ * r-ten Neurons zu allen Vorgängerneuronen (inkl. des Bias der vorhergehenden
+ * Schicht in Spalte 0). Ein Bias-Neuron dieser Schicht wird nicht als Objekt
+ * gespeichert, sondern nur als zusätzliche Ausgabe 1 an Position 0.
+ * Nach außen verhält sich die Schicht wie ein NeuralLayer mit einem
+ * BiasNeuron an Position 0 und BasicNeurons an allen übrigen Positionen.
+ *
+ * Die Gewichte werden wahlweise als double (FP64) oder als float (FP32)
+ * gespeichert. Bei FP32 werden Einzelbeispiele weiterhin mit double-Vektoren
+ * und double-Summen verrechnet, nur die Gewichtsmatrix wird als float gelesen.
+ * Mini-Batches werden vollständig in float gerechnet, die Gradienten aber in
+ * double aufsummiert.
+ *
+ * @author Felix
+ * @see NeuralLayer
+ */
+public class PackedNeuralLayer extends NeuralLayer {
+
+    private static final long serialVersionUID = 2181640335409781530L;
+
+    private final int neuronCount, connectedNeurons;
+    private final boolean bias;
+    /**
+     * Gewichte und Gewichtsänderungen bei FP64 (sonst null).
+     */
+    private final double[] weights, weightsChange;
+    /**
+     * Gewichte und Gewichtsänderungen bei FP32 (sonst null).
+     */
+    private final float[] weightsFloat, weightsChangeFloat;
+    private transient GradientBuffer accum;
+
+    /**
+     * Erstellt eine neue Neuronenschicht mit zufälligen Gewichten.
+     *
+     * @param connectedNeurons Anzahl der Vorgängerneuronen
+     * @param neuronCount Anzahl der Neuronen
+     * @param bias true, die Schicht ein Bias-Neuron enthalten soll
+     */
+    public PackedNeuralLayer(int connectedNeurons, int neuronCount, boolean bias) {
+        this(connectedNeurons, neuronCount, bias, Precision.FP64);
+    }
+
+    /**
+     * Erstellt eine neue Neuronenschicht mit zufälligen Gewichten in der
+     * übergebenen Genauigkeit.
+     *
+     * @param connectedNeurons Anzahl der Vorgängerneuronen
+     * @param neuronCount Anzahl der Neuronen
+     * @param bias true, die Schicht ein Bias-Neuron enthalten soll
+     * @param precision Genauigkeit der Gewichte
+     */
+    public PackedNeuralLayer(int connectedNeurons, int neuronCount, boolean bias, Precision precision) {
+        this(ActivationFunction.DEFAULT_ACTIVATION_FUNCTION, connectedNeurons, neuronCount, bias,
+                convert(NeuralMath.generateRandomWeights(connectedNeurons * neuronCount), precision));
+    }
+
+    private PackedNeuralLayer(ActivationFunction act, int connectedNeurons, int neuronCount, boolean bias, Object weights) {
+        //weights ist double[] (FP64) oder float[] (FP32)
+        this(act, connectedNeurons, neuronCount, bias,
+                weights instanceof double[] ? (double[]) weights : null,
+                weights instanceof float[] ? (float[]) weights : null);
+    }
+
+    /**
+     * Erstellt eine neue Neuronenschicht aus einer zeilenweise gespeicherten
+     * Gewichtsmatrix.
+     *
+     * @param act Aktivierungsfunktion aller Neuronen dieser Schicht
+     * @param connectedNeurons Anzahl der Vorgängerneuronen (Spalten)
+     * @param neuronCount Anzahl der Neuronen ohne Bias (Zeilen)
+     * @param bias true, die Schicht ein Bias-Neuron enthalten soll
+     * @param weights Gewichtsmatrix (neuronCount x connectedNeurons)
+     */
+    public PackedNeuralLayer(ActivationFunction act, int connectedNeurons, int neuronCount, boolean bias, double[] weights) {
+        this(act, connectedNeurons, neuronCount, bias, weights, null);
+    }
+
+    /**
+     * Erstellt eine neue Neuronenschicht aus einer zeilenweise gespeicherten
+     * Gewichtsmatrix mit einfacher Genauigkeit (FP32).
+     *
+     * @param act Aktivierungsfunktion aller Neuronen dieser Schicht
+     * @param connectedNeurons Anzahl der Vorgängerneuronen (Spalten)
+     * @param neuronCount Anzahl der Neuronen ohne Bias (Zeilen)
+     * @param bias true, die Schicht ein Bias-Neuron enthalten soll
+     * @param weights Gewichtsmatrix (neuronCount x connectedNeurons)
+     */
+    public PackedNeuralLayer(ActivationFunction act, int connectedNeurons, int neuronCount, boolean bias, float[] weights) {
+        this(act, connectedNeurons, neuronCount, bias, null, weights);
+    }
+
+    private PackedNeuralLayer(ActivationFunction act, int connectedNeurons, int neuronCount, boolean bias, double[] weights, float[] weightsFloat) {
+        super(act);
+        int length = weights != null ? weights.length : weightsFloat.length;
+        if(length != connectedNeurons * neuronCount)
+            throw new IllegalArgumentException("Die Gewichtsmatrix muss " + (connectedNeurons * neuronCount) + " Einträge haben, hat aber " + length + ".");
+        this.connectedNeurons = connectedNeurons;
+        this.neuronCount = neuronCount;
+        this.bias = bias;
+        this.weights = weights;
+        this.weightsChange = weights != null ? new double[length] : null;
+        this.weightsFloat = weightsFloat;
+        this.weightsChangeFloat = weightsFloat != null ? new float[length] : null;
+    }
+
+    /**
+     * Erstellt eine Kopie einer vorhandenen Neuronenschicht mit
+     * zusammenhängend gespeicherten Gewichten. Ein Bias-Neuron darf nur an
+     * Position 0 stehen.
+     *
+     * @param layer Zu kopierende Schicht
+     */
+    public PackedNeuralLayer(NeuralLayer layer) {
+        this(layer, layer instanceof PackedNeuralLayer ? ((PackedNeuralLayer) layer).getPrecision() : Precision.FP64);
+    }
+
+    /**
+     * Erstellt eine Kopie einer vorhandenen Neuronenschicht mit
+     * zusammenhängend gespeicherten Gewichten in der übergebenen Genauigkeit.
+     * Die Gewichtsänderungen (Momentum) werden nicht übernommen.
+     *
+     * @param layer Zu kopierende Schicht
+     * @param precision Genauigkeit der Gewichte
+     * @see PackedNeuralLayer#copyFrom(NeuralLayer)
+     */
+    public PackedNeuralLayer(NeuralLayer layer, Precision precision) {
+        this(layer.getActivationFunction(), connectedNeuronsOf(layer), layer.getNeuronCount() - (layer.hasBias() ? 1 : 0), layer.hasBias(), packWeights(layer, precision));
+    }
+
+    private static int connectedNeuronsOf(NeuralLayer layer) {
+        if(layer instanceof PackedNeuralLayer) return ((PackedNeuralLayer) layer).getConnectedNeurons();
+        for(Neuron n : layer.getNeurons()) if(n instanceof BasicNeuron) return ((BasicNeuron) n).getWeights().length;
+        return 0;
+    }
+
+    private static Object packWeights(NeuralLayer layer, Precision precision) {
+        if(layer instanceof PackedNeuralLayer) {
+            PackedNeuralLayer packed = (PackedNeuralLayer) layer;
+            if(packed.getPrecision() == precision) return packed.weights != null ? packed.weights.clone() : packed.weightsFloat.clone();
+            return packed.weights != null ? toFloat(packed.weights) : toDouble(packed.weightsFloat);
+        }
+        Neuron[] neurons = layer.getNeurons();
+        int cols = connectedNeuronsOf(layer), rows = neurons.length - (layer.hasBias() ? 1 : 0);
+        double[] packed = new double[rows * cols];
+        for(int i = layer.hasBias() ? 1 : 0, r = 0; i < neurons.length; i++, r++) {
+            if(!(neurons[i] instanceof BasicNeuron))
+                throw new IllegalArgumentException("Ein Bias-Neuron ist nur an Position 0 zulässig.");
+            double[] w = ((BasicNeuron) neurons[i]).getWeights();
+            if(w.length != cols) throw new IllegalArgumentException("Alle Neuronen einer Schicht müssen gleich viele Gewichte besitzen.");
+            System.arraycopy(w, 0, packed, r * cols, cols);
+        }
+        return convert(packed, precision);
+    }
+
+    private static Object convert(double[] values, Precision precision) {
+        return precision == Precision.FP32 ? toFloat(values) : values;
+    }
+
+    private static float[] toFloat(double[] values) {
+        float[] f = new float[values.length];
+        for(int i = 0; i < values.length; i++) f[i] = (float) values[i];
+        return f;
+    }
+
+    private static double[] toDouble(float[] values) {
+        double[] d = new double[values.length];
+        for(int i = 0; i < values.length; i++) d[i] = values[i];
+        return d;
+    }
+
+    /**
+     * Gibt eine Momentaufnahme der Neuronen dieser Schicht zurück. Bei jedem
+     * Aufruf wird die gesamte Gewichtsmatrix in neue BasicNeurons kopiert
+     * (Aufwand wie getWeightCount()). Änderungen an deren Gewichten wirken
+     * sich nicht auf die Schicht aus und gehen verloren.
+     *
+     * Lesend sollte stattdessen getWeight(int), getNeuronWeights(int) oder
+     * getWeights() bzw. getWeightsFloat() verwendet werden, schreibend
+     * getWeights() bzw. getWeightsFloat() oder copyFrom(NeuralLayer).
+     *
+     * @return
+     */
+    @Override
+    public Neuron[] getNeurons() {
+        Neuron[] neurons = new Neuron[getNeuronCount()];
+        int b = bias ? 1 : 0;
+        if(bias) neurons[0] = new BiasNeuron();
+        for(int r = 0; r < neuronCount; r++)
+            neurons[r + b] = new BasicNeuron(weights != null
+                    ? Arrays.copyOfRange(weights, r * connectedNeurons, (r + 1) * connectedNeurons)
+                    : toDouble(Arrays.copyOfRange(weightsFloat, r * connectedNeurons, (r + 1) * connectedNeurons)));
+        return neurons;
+    }
+
+    @Override
+    public int getNeuronCount() {
+        return neuronCount + (bias ? 1 : 0);
+    }
+
+    @Override
+    public boolean hasBias() {
+        return bias;
+    }
+
+    /**
+     * Gibt die Anzahl der Vorgängerneuronen bzw. die Spaltenzahl der
+     * Gewichtsmatrix zurück.
+     *
+     * @return
+     */
+    public int getConnectedNeurons() {
+        return connectedNeurons;
+    }
+
+    /**
+     * Gibt die Genauigkeit zurück, mit der die Gewichte gespeichert sind.
+     *
+     * @return
+     */
+    public Precision getPrecision() {
+        return weights != null ? Precision.FP64 : Precision.FP32;
+    }
+
+    /**
+     * Gibt die Anzahl der Gewichte (Zeilen x Spalten) zurück.
+     *
+     * @return
+     */
+    public int getWeightCount() {
+        return neuronCount * connectedNeurons;
+    }
+
+    /**
+     * Gibt die zeilenweise gespeicherte Gewichtsmatrix zurück (keine Kopie).
+     *
+     * @return Gewichte (Neuronen x Vorgängerneuronen)
+     * @throws IllegalStateException Wenn die Gewichte als float gespeichert sind
+     * @see PackedNeuralLayer#getWeightsFloat()
+     */
+    public double[] getWeights() throws IllegalStateException {
+        requirePrecision(Precision.FP64);
+        return weights;
+    }
+
+    /**
+     * Gibt die zeilenweise gespeicherte Gewichtsmatrix mit einfacher
+     * Genauigkeit zurück (keine Kopie).
+     *
+     * @return Gewichte (Neuronen x Vorgängerneuronen)
+     * @throws IllegalStateException Wenn die Gewichte als double gespeichert sind
+     * @see PackedNeuralLayer#getWeights()
+     */
+    public float[] getWeightsFloat() throws IllegalStateException {
+        requirePrecision(Precision.FP32);
+        return weightsFloat;
+    }
+
+    /**
+     * Gibt die Gewichte eines Neurons (eine Zeile der Gewichtsmatrix) als
+     * Kopie zurück, unabhängig von der Genauigkeit.
+     *
+     * @param neuron Neuron ohne Bias-Neuron (0 bis getNeuronCount() - 1 bzw. - 2 mit Bias)
+     * @return getConnectedNeurons() Gewichte
+     */
+    public double[] getNeuronWeights(int neuron) {
+        int from = neuron * connectedNeurons;
+        return weights != null ? Arrays.copyOfRange(weights, from, from + connectedNeurons) : toDouble(Arrays.copyOfRange(weightsFloat, from, from + connectedNeurons));
+    }
+
+    /**
+     * Gibt das Gewicht an Position i der Gewichtsmatrix zurück, unabhängig von
+     * der Genauigkeit.
+     *
+     * @param i Index (Zeile * Spalten + Spalte)
+     * @return
+     */
+    public double getWeight(int i) {
+        return weights != null ? weights[i] : weightsFloat[i];
+    }
+
+    /**
+     * Gibt die zuletzt angewandten Gewichtsänderungen (Momentum) zurück,
+     * angeordnet wie die Gewichtsmatrix (keine Kopie).
+     *
+     * @return
+     * @throws IllegalStateException Wenn die Gewichte als float gespeichert sind
+     */
+    public double[] getWeightsChange() throws IllegalStateException {
+        requirePrecision(Precision.FP64);
+        return weightsChange;
+    }
+
+    /**
+     * Gibt die zuletzt angewandten Gewichtsänderungen (Momentum) mit
+     * einfacher Genauigkeit zurück (keine Kopie).
+     *
+     * @return
+     * @throws IllegalStateException Wenn die Gewichte als double gespeichert sind
+     */
+    public float[] getWeightsChangeFloat() throws IllegalStateException {
+        requirePrecision(Precision.FP32);
+        return weightsChangeFloat;
+    }
+
+    private void requirePrecision(Precision precision) {
+        if(getPrecision() != precision)
+            throw new IllegalStateException("Die Gewichte dieser Schicht sind mit " + getPrecision() + " gespeichert, nicht mit " + precision + ".");
+    }
+
+    /**
+     * Übernimmt die Gewichte und Gewichtsänderungen (Momentum) einer gleich
+     * großen Schicht, z.B. für eine Momentaufnahme während des Trainings.
+     *
+     * @param layer Quelle (gepackt oder mit einzelnen Neuronen)
+     */
+    public void copyFrom(NeuralLayer layer) {
+        if(layer instanceof PackedNeuralLayer) {
+            PackedNeuralLayer packed = (PackedNeuralLayer) layer;
+            checkShape(packed.getWeightCount(), packed.connectedNeurons);
+            if(packed.weights != null) {
+                copy(packed.weights, 0, weights, weightsFloat, 0, getWeightCount());
+                copy(packed.weightsChange, 0, weightsChange, weightsChangeFloat, 0, packed.weightsChange.length);
+            } else {
+                copy(packed.weightsFloat, 0, weights, weightsFloat, 0, packed.weightsFloat.length);
+                copy(packed.weightsChangeFloat, 0, weightsChange, weightsChangeFloat, 0, packed.weightsChangeFloat.length);
+            }
+            return;
+        }
+        Neuron[] neurons = layer.getNeurons();
+        checkShape(neurons);
+        for(int i = bias ? 1 : 0, r = 0; i < neurons.length; i++, r++) {
+            BasicNeuron n = (BasicNeuron) neurons[i];
+            copy(n.getWeights(), 0, weights, weightsFloat, r * connectedNeurons, connectedNeurons);
+            copy(n.getWeightsChange(), 0, weightsChange, weightsChangeFloat, r * connectedNeurons, connectedNeurons);
+        }
+    }
+
+    private static void copy(double[] src, int srcOff, double[] dst, float[] dstFloat, int dstOff, int n) {
+        if(dst != null) System.arraycopy(src, srcOff, dst, dstOff, n);
+        else for(int i = 0; i < n; i++) dstFloat[dstOff + i] = (float) src[srcOff + i];
+    }
+
+    private static void copy(float[] src, int srcOff, double[] dst, float[] dstFloat, int dstOff, int n) {
+        if(dstFloat != null) System.arraycopy(src, srcOff, dstFloat, dstOff, n);
+        else for(int i = 0; i < n; i++) dst[dstOff + i] = src[srcOff + i];
+    }
+
+    /**
+     * Überträgt die Gewichte und Gewichtsänderungen (Momentum) dieser Schicht
+     * in eine gleich große Schicht.
+     *
+     * @param layer Ziel (gepackt oder mit einzelnen Neuronen)
+     */
+    public void copyTo(NeuralLayer layer) {
+        if(layer instanceof PackedNeuralLayer) {
+            ((PackedNeuralLayer) layer).copyFrom(this);
+            return;
+        }
+        Neuron[] neurons = layer.getNeurons();
+        checkShape(neurons);
+        for(int i = bias ? 1 : 0, r = 0; i < neurons.length; i++, r++) {
+            BasicNeuron n = (BasicNeuron) neurons[i];
+            if(weights != null) {
+                System.arraycopy(weights, r * connectedNeurons, n.getWeights(), 0, connectedNeurons);
+                System.arraycopy(weightsChange, r * connectedNeurons, n.getWeightsChange(), 0, connectedNeurons);
+            } else {
+                copy(weightsFloat, r * connectedNeurons, n.getWeights(), null, 0, connectedNeurons);
+                copy(weightsChangeFloat, r * connectedNeurons, n.getWeightsChange(), null, 0, connectedNeurons);
+            }
+        }
+    }
+
+    private void checkShape(int length, int cols) {
+        if(length != getWeightCount() || cols != connectedNeurons)
+            throw new IllegalArgumentException("Die Schichten sind nicht gleich groß.");
+    }
+
+    private void checkShape(Neuron[] neurons) {
+        if(neurons.length != getNeuronCount()) throw new IllegalArgumentException("Die Schichten sind nicht gleich groß.");
+        for(int i = bias ? 1 : 0; i < neurons.length; i++)
+            if(!(neurons[i] instanceof BasicNeuron) || ((BasicNeuron) neurons[i]).getWeights().length != connectedNeurons)
+                throw new IllegalArgumentException("Die Schichten sind nicht gleich groß.");
+    }
+
+    /**
+     * Berechnet die Eingabe (gewichtete Summe) des Neurons in Zeile r.
+     *
+     * @param r Zeile bzw. Neuron ohne Bias
+     * @param in Eingabesignale
+     * @return z
+     */
+    private double weightedSum(int r, double[] in) {
+        if(weights == null) return NeuralMath.applyWeights(in, weightsFloat, r * connectedNeurons, connectedNeurons);
+        return NeuralMath.applyWeights(in, weights, r * connectedNeurons, connectedNeurons);
+    }
+
+    /**
+     * Berechnet die Eingaben (gewichtete Summen) der ersten n Neuronen.
+     *
+     * @param in Eingabesignale
+     * @param z Ausgabe: Neuroneneingaben
+     * @param n Anzahl der Neuronen
+     * @param parallel true, wenn große Schichten parallel berechnet werden dürfen
+     */
+    private void weightedSums(double[] in, double[] z, int n, boolean parallel) {
+        if(in.length == connectedNeurons) gemv(in, z, 0, n, parallel);
+        else for(int r = 0; r < n; r++) z[r] = weightedSum(r, in);
+    }
+
+    private void gemv(double[] in, double[] out, int outOff, int n, boolean parallel) {
+        ExecutionEngine engine = parallel ? getExecutionEngine() : null;
+        if(weights != null) LinearAlgebra.gemv(weights, in, out, outOff, n, connectedNeurons, engine);
+        else LinearAlgebra.gemv(weightsFloat, in, out, outOff, n, connectedNeurons, engine);
+    }
+
+    private double[] activate(double[] z) {
+        ActivationFunction act = getActivationFunction();
+        int b = bias ? 1 : 0;
+        double[] out = new double[neuronCount + b];
+        if(bias) out[0] = 1;
+        act.apply(z, 0, out, b, neuronCount);
+        return out;
+    }
+
+    @Override
+    public double[] trigger(double[] in) {
+        double[] z = new double[neuronCount];
+        weightedSums(in, z, neuronCount, false);
+        return activate(z);
+    }
+
+    @Override
+    public void trigger(double[] in, double[] out) {
+        ActivationFunction act = getActivationFunction();
+        int b = bias ? 1 : 0;
+        if(bias) out[0] = 1;
+        if(in.length == connectedNeurons) gemv(in, out, b, neuronCount, false);
+        else for(int r = 0; r < neuronCount; r++) out[r + b] = weightedSum(r, in);
+        act.apply(out, b, out, b, neuronCount);
+    }
+
+    @Override
+    public double[] triggerParallel(double[] in) {
+        double[] z = new double[neuronCount];
+        weightedSums(in, z, neuronCount, true);
+        return activate(z);
+    }
+
+    @Override
+    public void trigger(double[] in, double[] out, double[] derivatives) {
+        trigger(in, out, derivatives, false);
+    }
+
+    @Override
+    public void triggerParallel(double[] in, double[] out, double[] derivatives) {
+        trigger(in, out, derivatives, true);
+    }
+
+    private void trigger(double[] in, double[] out, double[] derivatives, boolean parallel) {
+        int b = bias ? 1 : 0;
+        if(bias) out[0] = 1;
+        if(in.length == connectedNeurons) gemv(in, out, b, neuronCount, parallel);
+        else for(int r = 0; r < neuronCount; r++) out[r + b] = weightedSum(r, in);
+        getActivationFunction().applyWithDerivative(out, b, out, b, derivatives, 0, neuronCount);
+    }
+
+    @Override
+    public double[] getErrorDeltas(double[] errors, double[] activationsBefore) {
+        ActivationFunction act = getActivationFunction();
+        int n = Math.min(errors.length, neuronCount);
+        int m = act.needsAllInputs() ? neuronCount : n;
+        double[] z = new double[neuronCount], errorDeltas = new double[n];
+        weightedSums(activationsBefore, z, m, false);
+        act.derivative(z, 0, z, 0, m);
+        for(int r = 0; r < n; r++) errorDeltas[r] = errors[r] * z[r];
+        return errorDeltas;
+    }
+
+    @Override
+    public void calcAccumulatorMatrices(double[] errorDeltas, double[] activationsBefore, int threadId) {
+        double[] acc = getAccumulator().getSlot(threadId);
+        int n = Math.min(errorDeltas.length, neuronCount);
+        for(int r = 0; r < n; r++) LinearAlgebra.axpy(errorDeltas[r], activationsBefore, 0, acc, r * connectedNeurons, connectedNeurons);
+    }
+
+    /**
+     * Berechnet das Produkt der transponierten Gewichtsmatrix mit den
+     * Delta-Fehlern, also für jedes Vorgängerneuron die Summe der mit seinen
+     * ausgehenden Gewichten gewichteten Delta-Fehler. Die Matrix wird dabei
+     * zeilenweise durchlaufen.
+     *
+     * @param errorDeltas Delta-Fehler dieser Schicht
+     * @return Gewichtete Fehler aller Vorgängerneuronen (inkl. Bias)
+     */
+    @Override
+    protected double[] getWeightedErrors(double[] errorDeltas) {
+        return getWeightedErrors(errorDeltas, false);
+    }
+
+    /**
+     * Berechnet das Produkt der transponierten Gewichtsmatrix mit den
+     * Delta-Fehlern, optional verteilt auf die ExecutionEngine.
+     *
+     * @param errorDeltas Delta-Fehler dieser Schicht
+     * @param parallel true, wenn große Schichten parallel berechnet werden dürfen
+     * @return Gewichtete Fehler aller Vorgängerneuronen (inkl. Bias)
+     * @see PackedNeuralLayer#getWeightedErrors(double[])
+     */
+    protected double[] getWeightedErrors(double[] errorDeltas, boolean parallel) {
+        double[] errors = new double[connectedNeurons];
+        int n = Math.min(errorDeltas.length, neuronCount);
+        ExecutionEngine engine = parallel ? getExecutionEngine() : null;
+        if(weights != null) LinearAlgebra.gemvTransposed(weights, errorDeltas, errors, n, connectedNeurons, engine);
+        else LinearAlgebra.gemvTransposed(weightsFloat, errorDeltas, errors, n, connectedNeurons, engine);
+        return errors;
+    }
+
+    @Override
+    public double[] getErrors(NeuralLayer nextLayer, double[] errorDeltasNextLayer) {
+        double[] weightedErrors = nextLayer.getWeightedErrors(errorDeltasNextLayer);
+        return Arrays.copyOfRange(weightedErrors, bias ? 1 : 0, neuronCount + (bias ? 1 : 0));
+    }
+
+    @Override
+    public double[] getErrorsParallel(NeuralLayer nextLayer, double[] errorDeltasNextLayer) {
+        if(!(nextLayer instanceof PackedNeuralLayer)) return getErrors(nextLayer, errorDeltasNextLayer);
+        double[] weightedErrors = ((PackedNeuralLayer) nextLayer).getWeightedErrors(errorDeltasNextLayer, true);
+        return Arrays.copyOfRange(weightedErrors, bias ? 1 : 0, neuronCount + (bias ? 1 : 0));
+    }
+
+    /**
+     * Aktiviert die Schicht für einen ganzen Mini-Batch. Die Eingaben werden
+     * als Matrix (Beispiele x Vorgängerneuronen) in einer einzigen
+     * Matrixmultiplikation mit der transponierten Gewichtsmatrix verrechnet,
+     * anschließend werden Aktivierungen und Ableitungen in einem Durchlauf
+     * berechnet. Die Neuroneneingaben werden dabei im Puffer der Ableitungen
+     * abgelegt und von diesen überschrieben, sodass die Backpropagation sie
+     * nicht erneut auswerten muss.
+     *
+     * @param in Eingabematrix (batchSize x getConnectedNeurons())
+     * @param batchSize Anzahl der Beispiele
+     * @param derivatives Ausgabe: Ableitungen der Aktivierungsfunktion (batchSize x Neuronen ohne Bias)
+     * @param out Ausgabe: Aktivierungen (batchSize x getNeuronCount())
+     * @see ActivationFunction#applyWithDerivative(double[], int, double[], int, double[], int, int)
+     */
+    public void triggerBatch(double[] in, int batchSize, double[] derivatives, double[] out) {
+        requirePrecision(Precision.FP64);
+        ActivationFunction act = getActivationFunction();
+        int b = bias ? 1 : 0, width = neuronCount + b;
+        LinearAlgebra.gemmTransposedB(in, weights, derivatives, batchSize, neuronCount, connectedNeurons, false, false);
+        for(int e = 0; e < batchSize; e++) {
+            int zi = e * neuronCount, oi = e * width;
+            if(bias) out[oi] = 1;
+            act.applyWithDerivative(derivatives, zi, out, oi + b, derivatives, zi, neuronCount);
+        }
+    }
+
+    /**
+     * Aktiviert die Schicht für mehrere Beispiele ohne die Neuroneneingaben
+     * aufzuheben (Inferenz). Bei FP64 wird ein einziges Matrixprodukt direkt
+     * in die Ausgabematrix geschrieben und die Zeilen anschließend hinter
+     * das Bias-Neuron verschoben. Die Berechnung bleibt im aufrufenden
+     * Thread; parallelisiert wird über die Beispiele.
+     *
+     * @param in Eingabematrix (batchSize x inWidth, zeilenweise)
+     * @param inWidth Anzahl der Eingabesignale pro Beispiel
+     * @param batchSize Anzahl der Beispiele
+     * @param out Ausgabematrix (batchSize x getNeuronCount(), zeilenweise)
+     * @see NeuralNetwork#predictBatch(double[], int, double[])
+     */
+    @Override
+    public void triggerBatch(double[] in, int inWidth, int batchSize, double[] out) {
+        if(weights == null || inWidth != connectedNeurons) {
+            super.triggerBatch(in, inWidth, batchSize, out);
+            return;
+        }
+        ActivationFunction act = getActivationFunction();
+        int b = bias ? 1 : 0, width = neuronCount + b;
+        LinearAlgebra.gemmTransposedB(in, weights, out, batchSize, neuronCount, connectedNeurons, false, false);
+        //Von hinten nach vorne, damit keine noch benötigte Zeile überschrieben wird
+        for(int e = batchSize - 1; e >= 0; e--) {
+            int oi = e * width + b;
+            if(bias) {
+                System.arraycopy(out, e * neuronCount, out, oi, neuronCount);
+                out[oi - 1] = 1;
+            }
+            act.apply(out, oi, out, oi, neuronCount);
+        }
+    }
+
+    /**
+     * Berechnet die Delta-Fehler eines Mini-Batches aus den Fehlern und den
+     * beim Aktivieren gespeicherten Ableitungen.
+     *
+     * @param errors Fehler (batchSize x Neuronen ohne Bias)
+     * @param derivatives Ableitungen aus triggerBatch
+     * @param batchSize Anzahl der Beispiele
+     * @param errorDeltas Ausgabe: Delta-Fehler (batchSize x Neuronen ohne Bias)
+     * @see PackedNeuralLayer#triggerBatch(double[], int, double[], double[])
+     */
+    public void getErrorDeltasBatch(double[] errors, double[] derivatives, int batchSize, double[] errorDeltas) {
+        int n = batchSize * neuronCount;
+        for(int i = 0; i < n; i++) errorDeltas[i] = errors[i] * derivatives[i];
+    }
+
+    /**
+     * Berechnet die gewichteten Fehler der Vorgängerschicht für einen ganzen
+     * Mini-Batch (Delta-Fehler x Gewichtsmatrix).
+     *
+     * @param errorDeltas Delta-Fehler (batchSize x Neuronen ohne Bias)
+     * @param batchSize Anzahl der Beispiele
+     * @param weightedErrors Ausgabe: gewichtete Fehler (batchSize x getConnectedNeurons())
+     */
+    public void getWeightedErrorsBatch(double[] errorDeltas, int batchSize, double[] weightedErrors) {
+        requirePrecision(Precision.FP64);
+        LinearAlgebra.gemm(errorDeltas, weights, weightedErrors, batchSize, connectedNeurons, neuronCount, false, false);
+    }
+
+    /**
+     * Summiert die Gewichtsänderungen eines ganzen Mini-Batches als ein
+     * einziges Matrixprodukt (transponierte Delta-Fehler x Aktivierungen)
+     * in der Accumulator Matrix des übergebenen Threads auf.
+     *
+     * @param errorDeltas Delta-Fehler (batchSize x Neuronen ohne Bias)
+     * @param activationsBefore Aktivierungen der Vorgängerschicht (batchSize x getConnectedNeurons())
+     * @param batchSize Anzahl der Beispiele
+     * @param threadId Thread-ID
+     */
+    public void calcAccumulatorMatricesBatch(double[] errorDeltas, double[] activationsBefore, int batchSize, int threadId) {
+        LinearAlgebra.gemmTransposedA(errorDeltas, activationsBefore, getAccumulator().getSlot(threadId), neuronCount, connectedNeurons, batchSize, true, false);
+    }
+
+    /**
+     * Aktiviert die Schicht für einen ganzen Mini-Batch mit einfacher
+     * Genauigkeit (nur bei FP32). Die Aktivierungsfunktion wird zeilenweise
+     * in double im übergebenen Zwischenspeicher ausgewertet.
+     *
+     * @param in Eingabematrix (batchSize x getConnectedNeurons())
+     * @param batchSize Anzahl der Beispiele
+     * @param derivatives Ausgabe: Ableitungen der Aktivierungsfunktion (batchSize x Neuronen ohne Bias)
+     * @param out Ausgabe: Aktivierungen (batchSize x getNeuronCount())
+     * @param scratch Zwischenspeicher (mind. 2 x Neuronen ohne Bias)
+     * @see PackedNeuralLayer#triggerBatch(double[], int, double[], double[])
+     * @see de.fk.neuralnetwork.learning.BatchWorkspace#getScratch()
+     */
+    public void triggerBatch(float[] in, int batchSize, float[] derivatives, float[] out, double[] scratch) {
+        requirePrecision(Precision.FP32);
+        ActivationFunction act = getActivationFunction();
+        int b = bias ? 1 : 0, width = neuronCount + b;
+        LinearAlgebra.gemmTransposedB(in, weightsFloat, derivatives, batchSize, neuronCount, connectedNeurons, false, null);
+        //Aktivierungsfunktion zeilenweise in double auswerten: Eingaben/Ableitungen vorne, Aktivierungen hinten im Zwischenspeicher
+        for(int e = 0; e < batchSize; e++) {
+            int zi = e * neuronCount, oi = e * width + b;
+            if(bias) out[oi - 1] = 1f;
+            for(int r = 0; r < neuronCount; r++) scratch[r] = derivatives[zi + r];
+            act.applyWithDerivative(scratch, 0, scratch, neuronCount, scratch, 0, neuronCount);
+            for(int r = 0; r < neuronCount; r++) {
+                out[oi + r] = (float) scratch[neuronCount + r];
+                derivatives[zi + r] = (float) scratch[r];
+            }
+        }
+    }
+
+    /**
+     * Berechnet die Delta-Fehler eines Mini-Batches mit einfacher Genauigkeit.
+     *
+     * @param errors Fehler (batchSize x Neuronen ohne Bias)
+     * @param derivatives Ableitungen aus triggerBatch
+     * @param batchSize Anzahl der Beispiele
+     * @param errorDeltas Ausgabe: Delta-Fehler (batchSize x Neuronen ohne Bias)
+     * @see PackedNeuralLayer#triggerBatch(float[], int, float[], float[], double[])
+     */
+    public void getErrorDeltasBatch(float[] errors, float[] derivatives, int batchSize, float[] errorDeltas) {
+        int n = batchSize * neuronCount;
+        for(int i = 0; i < n; i++) errorDeltas[i] = errors[i] * derivatives[i];
+    }
+
+    /**
+     * Berechnet die gewichteten Fehler der Vorgängerschicht für einen ganzen
+     * Mini-Batch mit einfacher Genauigkeit (nur bei FP32).
+     *
+     * @param errorDeltas Delta-Fehler (batchSize x Neuronen ohne Bias)
+     * @param batchSize Anzahl der Beispiele
+     * @param weightedErrors Ausgabe: gewichtete Fehler (batchSize x getConnectedNeurons())
+     */
+    public void getWeightedErrorsBatch(float[] errorDeltas, int batchSize, float[] weightedErrors) {
+        requirePrecision(Precision.FP32);
+        LinearAlgebra.gemm(errorDeltas, weightsFloat, weightedErrors, batchSize, connectedNeurons, neuronCount, false, null);
+    }
+
+    /**
+     * Summiert die Gewichtsänderungen eines ganzen Mini-Batches aus
+     * float-Matrizen auf. Die Summen werden in double gebildet.
+     *
+     * @param errorDeltas Delta-Fehler (batchSize x Neuronen ohne Bias)
+     * @param activationsBefore Aktivierungen der Vorgängerschicht (batchSize x getConnectedNeurons())
+     * @param batchSize Anzahl der Beispiele
+     * @param threadId Thread-ID
+     */
+    public void calcAccumulatorMatricesBatch(float[] errorDeltas, float[] activationsBefore, int batchSize, int threadId) {
+        LinearAlgebra.gemmTransposedA(errorDeltas, activationsBefore, getAccumulator().getSlot(threadId), neuronCount, connectedNeurons, batchSize, true, null);
+    }
+
+    /**
+     * Updatet die Gewichte. Die Accumulator Matrices aller Threads werden
+     * dabei in zusammenhängenden Abschnitten aufsummiert und in-place
+     * zurückgesetzt; große Schichten werden auf die ExecutionEngine verteilt.
+     */
+    @Override
+    public void accumulate(double learningRate, double regularizationRate, double momentum) {
+        GradientBuffer accum = getAccumulator();
+        int length = getWeightCount();
+        getExecutionEngine().forRange(length, (long) length * (accum.getSlotCount() + 1), GradientBuffer.MIN_STRIPE, (from, to) -> {
+            //Werte aus allen Threads aufsummieren
+            accum.reduce(from, to);
+            double[] sum = accum.getSum();
+            if(weights != null) for(int i = from; i < to; i++) {
+                double weightsChangeBefore = weightsChange[i];
+                weightsChange[i] = sum[i];
+                sum[i] = 0.0;
+                if(weightsChangeBefore == 0.0) weights[i] += learningRate * weightsChange[i];
+                else weights[i] += (1 - momentum) * (learningRate * weightsChange[i]) + momentum * weightsChangeBefore;
+            } else for(int i = from; i < to; i++) {
+                //In double rechnen, nur das Ergebnis runden
+                double weightsChangeBefore = weightsChangeFloat[i], change = sum[i];
+                weightsChangeFloat[i] = (float) change;
+                sum[i] = 0.0;
+                if(weightsChangeBefore == 0.0) weightsFloat[i] = (float) (weightsFloat[i] + learningRate * change);
+                else weightsFloat[i] = (float) (weightsFloat[i] + (1 - momentum) * (learningRate * change) + momentum * weightsChangeBefore);
+            }
+        });
+    }
+
+    @Override
+    public void applyGradient(int threadId, double learningRate) {
+        double[] gradient = getAccumulator().getSlot(threadId);
+        int length = getWeightCount();
+        for(int i = 0; i < length; i++) {
+            double g = gradient[i];
+            if(g != 0.0) {
+                if(weights != null) weights[i] += learningRate * g;
+                else weightsFloat[i] = (float) (weightsFloat[i] + learningRate * g);
+                gradient[i] = 0.0;
+            }
+        }
+    }
+
+    @Override
+    public void prepareForParallelBackprop(int threads) {
+        if(accum == null || accum.getSlotCount() != threads) this.accum = new GradientBuffer(getWeightCount(), threads);
+        else accum.clear();
+    }
+
+    private GradientBuffer getAccumulator() {
+        //Nicht serialisiert
+        if(accum == null) accum = new GradientBuffer(getWeightCount(), 1);
+        return accum;
+    }
+
+}
@@ -0,0 +1,81 @@
+package de.fk.neuralnetwork.data;
+
+import java.util.SplittableRandom;
+
+import static de.fk.neuralnetwork.data.LabeledImage.*;
+
+/**
+ * Transformiert einzelne Bilder zufällig, wenn sie gezogen werden, statt den
+ * ganzen Datensatz vorab zu transformieren. Es werden dieselben
+ * Transformationen mit denselben Wahrscheinlichkeiten und Grenzen wie bei
+ * LabeledImage#cloneAndTransform angewendet (Verschiebung, Skalierung,
+ * Rotation), diese aber zu einer affinen Abbildung zusammengefasst und in
+ * einem Durchlauf mit bilinearer Interpolation in wiederverwendete Puffer
+ * berechnet.
+ *
+ * Ein Augmenter darf nicht von mehreren Threads gleichzeitig verwendet
+ * werden; jeder Thread benötigt einen eigenen. Die Zufallszahlen kommen aus
+ * dem übergebenen SplittableRandom, sodass das Ergebnis nur von diesem und
+ * nicht vom ausführenden Thread abhängt.
+ *
+ * @author Felix
+ * @see de.fk.neuralnetwork.training.LabeledImageTrainingSupplier
+ */
+public class Augmenter {
+
+    private final int width, height;
+    private final double[] pixels, matrix;
+
+    /**
+     * Erstellt einen Augmenter für Bilder der übergebenen Größe.
+     *
+     * @param width Breite
+     * @param height Höhe
+     */
+    public Augmenter(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.pixels = new double[width * height];
+        this.matrix = new double[6];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Schreibt eine zufällig transformierte Version des Bildes zeilenweise in
+     * den übergebenen Array. Mit Wahrscheinlichkeit
+     * 1 - GENERAL_TRANSFORMATION_CHANCE wird das Bild unverändert übernommen.
+     *
+     * @param image Bild (Breite x Höhe dieses Augmenters)
+     * @param random Zufallszahlen für dieses Bild
+     * @param out Ziel (mind. offset + Höhe x Breite Einträge)
+     * @param offset Startindex im Ziel
+     * @throws IllegalArgumentException Wenn das Bild eine andere Größe hat
+     */
+    public void augment(LabeledImage image, SplittableRandom random, double[] out, int offset) throws IllegalArgumentException {
+        if(image.getWidth() != width || image.getHeight() != height)
+            throw new IllegalArgumentException("Das Bild ist " + image.getWidth() + "x" + image.getHeight() + " statt " + width + "x" + height + " Pixel groß.");
+        if(random.nextDouble() >= GENERAL_TRANSFORMATION_CHANCE) {
+            image.getPixels(out, offset);
+            return;
+        }
+        int dx = 0, dy = 0;
+        double fact = 1, rad = 0;
+        if(random.nextDouble() < SHIFT_CHANCE) {
+            dx = random.nextInt(2 * SHIFT_BOUNDS) - SHIFT_BOUNDS;
+            dy = random.nextInt(2 * SHIFT_BOUNDS) - SHIFT_BOUNDS;
+        }
+        if(random.nextDouble() < SCALE_CHANCE) fact = 1 + random.nextDouble() * 2 * SCALE_BOUNDS - SCALE_BOUNDS;
+        if(random.nextDouble() < ROTATION_CHANCE) rad = random.nextDouble() * 2 * ROTATION_BOUNDS - ROTATION_BOUNDS;
+        image.getPixels(pixels, 0);
+        //Alle Transformationen in einem Durchlauf
+        Preprocessing.affine(pixels, 0, width, height, Preprocessing.affineMatrix(width, height, dx, dy, fact, rad, matrix, 0), 0, out, offset);
+    }
+
+}
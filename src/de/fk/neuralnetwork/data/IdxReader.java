@@ -0,0 +1,131 @@
+package de.fk.neuralnetwork.data;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Liest MNIST- bzw. EMNIST-Dateien im IDX-Format, indem sie per FileChannel
+ * in den Speicher abgebildet werden. Die Pixel werden dabei weder kopiert noch
+ * umgewandelt: Der zurückgegebene ImageStore liest direkt aus der
+ * abgebildeten Datei, die einzelnen Bilder sind Ausschnitte davon. Auch große
+ * Dateien sind so sofort geladen, und mehrere Prozesse, die dieselbe Datei
+ * lesen, teilen sich die Seiten im Page Cache des Betriebssystems.
+ *
+ * Ein MappedByteBuffer kann höchstens 2 GB abbilden. Größere Dateien werden
+ * deshalb in mehreren Segmenten abgebildet, die jeweils eine ganze Anzahl an
+ * Bildern enthalten, sodass kein Bild über eine Segmentgrenze reicht.
+ *
+ * Nur die Labels werden kopiert, da sie veränderbar sein müssen.
+ *
+ * @author Felix
+ * @see ImageStore
+ * @see ImageContainer#readFromMnist(String, String, int, ImageContainer.FileFormat, ImageContainer.Set) readFromMnist(..)
+ */
+public class IdxReader {
+
+    /**
+     * Größe des Headers eines MNIST Image Files in Bytes.
+     */
+    public static final int IMAGE_HEADER_SIZE = 16;
+
+    /**
+     * Größe des Headers eines MNIST Label Files in Bytes.
+     */
+    public static final int LABEL_HEADER_SIZE = 8;
+
+    /**
+     * Maximale Größe eines abgebildeten Segments in Bytes.
+     */
+    public static final int MAX_SEGMENT_SIZE = Integer.MAX_VALUE - 8;
+
+    private IdxReader() {
+    }
+
+    /**
+     * Bildet ein MNIST Image File und das zugehörige Label File in den
+     * Speicher ab. Die Dateien dürfen nicht GZIP-komprimiert sein.
+     *
+     * @param imageFile Datei mit den Bilddaten (Anzahl x Höhe x Breite)
+     * @param labelFile Datei mit den Labeldaten (Anzahl)
+     * @param maxImages Anzahl an maximal einzulesenden Bildern
+     * @param fileFormat MNIST (zeilenweise) oder EMNIST (spaltenweise, Labels ab 1)
+     * @return Speicher mit allen Bildern
+     * @throws IOException Lesefehler oder ungültige Datei
+     */
+    public static ImageStore map(String imageFile, String labelFile, int maxImages, ImageContainer.FileFormat fileFormat) throws IOException {
+        return map(Paths.get(imageFile), Paths.get(labelFile), maxImages, fileFormat);
+    }
+
+    /**
+     * Bildet ein MNIST Image File und das zugehörige Label File in den
+     * Speicher ab.
+     *
+     * @param imageFile Datei mit den Bilddaten (Anzahl x Höhe x Breite)
+     * @param labelFile Datei mit den Labeldaten (Anzahl)
+     * @param maxImages Anzahl an maximal einzulesenden Bildern
+     * @param fileFormat MNIST (zeilenweise) oder EMNIST (spaltenweise, Labels ab 1)
+     * @return Speicher mit allen Bildern
+     * @throws IOException Lesefehler oder ungültige Datei
+     */
+    public static ImageStore map(Path imageFile, Path labelFile, int maxImages, ImageContainer.FileFormat fileFormat) throws IOException {
+        if(fileFormat == null) throw new IllegalArgumentException("Ungültiges Dateiformat");
+        try(FileChannel imgChannel = FileChannel.open(imageFile, StandardOpenOption.READ);
+                FileChannel lblChannel = FileChannel.open(labelFile, StandardOpenOption.READ)) {
+            //ImageFile überprüfen
+            ByteBuffer header = readHeader(imgChannel, IMAGE_HEADER_SIZE, imageFile);
+            int magicNumber = header.getInt(0);
+            if(magicNumber != ImageContainer.MNIST_IMAGE_FILE_MAGIC_NUMBER)
+                throw new IOException("Die Datei '" + imageFile + "' beginnt mit der Magic Number " + magicNumber + ". (Erwartet: " + ImageContainer.MNIST_IMAGE_FILE_MAGIC_NUMBER + ")");
+            int numImg = Math.min(maxImages, header.getInt(4)),
+                numRows = header.getInt(8),
+                numCols = header.getInt(12);
+            if(numImg < 0 || numRows < 1 || numCols < 1)
+                throw new IOException("Die Datei '" + imageFile + "' hat einen ungültigen Header: " + numImg + " Bilder mit " + numRows + "x" + numCols + " Pixeln.");
+            long imageSize = (long) numRows * numCols, imgBytes = numImg * imageSize;
+            if(imageSize > MAX_SEGMENT_SIZE)
+                throw new IOException("Die Datei '" + imageFile + "' hat zu große Bilder (" + numRows + "x" + numCols + " Pixel).");
+            if(imgChannel.size() < IMAGE_HEADER_SIZE + imgBytes)
+                throw new IOException("Die Datei '" + imageFile + "' ist unvollständig: " + numImg + " Bilder erwartet, aber nur " + imgChannel.size() + " Bytes vorhanden.");
+            //LabelFile überprüfen
+            header = readHeader(lblChannel, LABEL_HEADER_SIZE, labelFile);
+            magicNumber = header.getInt(0);
+            if(magicNumber != ImageContainer.MNIST_LABEL_FILE_MAGIC_NUMBER)
+                throw new IOException("Die Datei '" + labelFile + "' beginnt mit der Magic Number " + magicNumber + ". (Erwartet: " + ImageContainer.MNIST_LABEL_FILE_MAGIC_NUMBER + ")");
+            int numLabels = Math.min(maxImages, header.getInt(4));
+            if(numImg != numLabels)
+                throw new IOException("Die beiden Dateien passen nicht zusammen: " + imageFile + " enthält " + numImg + " Bilder, aber " + labelFile + " enthält " + numLabels + " Labels.");
+            if(lblChannel.size() < LABEL_HEADER_SIZE + (long) numLabels)
+                throw new IOException("Die Datei '" + labelFile + "' ist unvollständig: " + numLabels + " Labels erwartet, aber nur " + lblChannel.size() + " Bytes vorhanden.");
+            //Bilddaten segmentweise abbilden (bleiben nach dem Schließen des Channels gültig)
+            int segmentImages = (int) Math.max(1, Math.min(numImg, MAX_SEGMENT_SIZE / imageSize));
+            MappedByteBuffer[] segments = new MappedByteBuffer[Math.max(1, (numImg + segmentImages - 1) / segmentImages)];
+            for(int s = 0; s < segments.length; s++) {
+                long start = s * segmentImages * imageSize;
+                segments[s] = imgChannel.map(FileChannel.MapMode.READ_ONLY, IMAGE_HEADER_SIZE + start, Math.min(segmentImages * imageSize, imgBytes - start));
+            }
+            //Labels kopieren
+            byte[] labels = new byte[numLabels];
+            ByteBuffer lblBuffer = lblChannel.map(FileChannel.MapMode.READ_ONLY, LABEL_HEADER_SIZE, numLabels);
+            lblBuffer.get(labels);
+            boolean emnist = fileFormat == ImageContainer.FileFormat.EMNIST;
+            if(emnist) for(int i = 0; i < numLabels; i++) labels[i] = (byte) ((labels[i] & 0xFF) - 1);
+            return new ImageStore(numImg, numRows, numCols, segments, segmentImages, labels, emnist);
+        }
+    }
+
+    private static ByteBuffer readHeader(FileChannel channel, int size, Path file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(size);
+        while(header.hasRemaining())
+            if(channel.read(header, header.position()) < 0)
+                throw new IOException("Die Datei '" + file + "' ist zu kurz für einen MNIST-Header.");
+        ((Buffer) header).flip();
+        return header;
+    }
+
+}
@@ -20,13 +20,16 @@ import java.util.zip.ZipOutputStream;
 
 /**
  * Zum Lernen anhand von Bilddaten. Speichert alle Bilder vom Typ LabeledImage.
- * Alle Bilder werden in einem von drei Sets gespeichert (Training Set, 
+ * Eingelesene Bilder liegen kompakt als Bytes in einem ImageStore pro
+ * eingelesener Datei, die LabeledImages sind nur Sichten darauf. Alle Bilder werden in einem von drei Sets gespeichert (Training Set, 
  * Validation Set, Test Set). Bilder können aus MNIST- oder EMNIST-Archiven
  * in ein Set eingelesen werden, umgekehrt können alle Sets in ein
  * MNIST-ähnliches ZIP-Archiv gespeichert werden.
  *
  * @author Felix
  * @see LabeledImage
+ * @see ImageStore
+ * @see IdxReader
  * @see Set
  */
 public class ImageContainer {
@@ -185,7 +188,8 @@ public class ImageContainer {
     
     /**
      * Liest Bild- und Labeldaten aus MNIST-Dateien ein. Diese dürfen nicht
-     * GZIP-komprimiert sein.
+     * GZIP-komprimiert sein. Die Bilddaten werden per IdxReader in den
+     * Speicher abgebildet und nicht kopiert.
      *
      * @param imageFile Datei mit den Bilddaten (Anzahl x Höhe x Breite)
      * @param labelFile Datei mit den Labeldaten (Anzahl)
@@ -195,9 +199,7 @@ public class ImageContainer {
      * @throws IOException Lesefehler
      */
     public static void readFromMnist(String imageFile, String labelFile, int maxImages, FileFormat fileFormat, Set set) throws IOException {
-        BufferedInputStream imageIn = new BufferedInputStream(new FileInputStream(imageFile));
-        BufferedInputStream labelIn = new BufferedInputStream(new FileInputStream(labelFile));
-        readFromMnist(imageIn, labelIn, maxImages, fileFormat, set);
+        getImages(set).addAll(IdxReader.map(imageFile, labelFile, maxImages, fileFormat).views());
     }
     
     /**
@@ -228,31 +230,21 @@ public class ImageContainer {
         int numLabels = Math.min(maxImages, dlblIn.readInt());
         if(numImg != numLabels)
             throw new IOException("Die beiden Dateien passen nicht zusammen: Image File enthält " + numImg + " Bilder, aber Label File enthält " + numLabels + " Labels.");
-        //Bilder und Labels einlesen & zusammenfügen
+        //Bilder und Labels am Stück in einen kompakten Speicher einlesen
+        ImageStore store = new ImageStore(numImg, numRows, numCols);
         switch(fileFormat) {
             case MNIST:
-                for(int i = 0; i < numImg; i++) {
-                    double[][] data = new double[numRows][numCols];
-                    for(int r = 0; r < numRows; r++)
-                        for(int c = 0; c < numCols; c++)
-                            data[r][c] = (dimgIn.read() & 0xFF) / 255.0; //unsigned
-                    int label = dlblIn.read() & 0xFF; //unsigned
-                    images.add(new LabeledImage(data, label));
-                }
+                store.readImages(dimgIn, false);
+                store.readLabels(dlblIn, 0);
                 break;
             case EMNIST:
-                for(int i = 0; i < numImg; i++) {
-                    double[][] data = new double[numRows][numCols];
-                    for(int c = 0; c < numCols; c++)
-                        for(int r = 0; r < numRows; r++)
-                            data[r][c] = (dimgIn.read() & 0xFF) / 255.0; //unsigned
-                    int label = (dlblIn.read() & 0xFF) - 1; //unsigned
-                    images.add(new LabeledImage(data, label));
-                }
+                store.readImages(dimgIn, true);
+                store.readLabels(dlblIn, -1);
                 break;
             default:
                 throw new IllegalArgumentException("Ungültiges Dateiformat");
         }
+        images.addAll(store.views());
     }
     
     /**
@@ -322,10 +314,7 @@ public class ImageContainer {
             for(int i = 0; i < imgList.size(); i++) {
                 LabeledImage img = imgList.get(i);
                 labels[i] = (byte) img.getLabel();
-                double[][] data = img.getData();
-                for(int r = 0; r < 28; r++)
-                    for(int c = 0; c < 28; c++)
-                        dos.write((int) Math.round(data[r][c] * 255));
+                img.writePixels(dos);
             }
             zos.closeEntry();
             ZipEntry lblEntry = new ZipEntry(set.getAlias() + "-labels.idx1-ubyte");
@@ -351,7 +340,8 @@ public class ImageContainer {
     public static void readFromArchive(File archive) throws IOException {
         ZipInputStream zis = new ZipInputStream(new BufferedInputStream(new FileInputStream(archive)));
         DataInputStream dis = new DataInputStream(zis);
-        HashMap<Set, ArrayList<LabeledImage>> images = new HashMap<>();
+        HashMap<Set, ImageStore> stores = new HashMap<>();
+        HashMap<Set, byte[]> labels = new HashMap<>();
         ZipEntry entry;
         while((entry = zis.getNextEntry()) != null) {
             String ename = entry.getName().toLowerCase();
@@ -361,37 +351,30 @@ public class ImageContainer {
                 break;
             }
             if(eset == null) continue;
-            ArrayList<LabeledImage> imageList;
-            if(images.containsKey(eset)) imageList = images.get(eset);
-            else imageList = new ArrayList<>();
             int magicNumber = dis.readInt(),
                 numEntries  = dis.readInt();
-            if(imageList.size() < numEntries)
-                for(int i = imageList.size(); i < numEntries; i++)
-                    imageList.add(new LabeledImage(null, 0));
             if(magicNumber == MNIST_IMAGE_FILE_MAGIC_NUMBER) {
-                //Images einlesen
+                //Images am Stück einlesen
                 int numRows = dis.readInt(),
                     numCols = dis.readInt();
-                for(int i = 0; i < numEntries; i++) {
-                    double[][] data = new double[numRows][numCols];
-                    for(int r = 0; r < numRows; r++)
-                        for(int c = 0; c < numCols; c++)
-                            data[r][c] = (dis.read() & 0xFF) / 255.0; //unsigned
-                    imageList.get(i).setData(data);
-                }
+                ImageStore store = new ImageStore(numEntries, numRows, numCols);
+                store.readImages(dis, false);
+                stores.put(eset, store);
             } else if(magicNumber == MNIST_LABEL_FILE_MAGIC_NUMBER) {
                 //Labels einlesen
-                for(int i = 0; i < numEntries; i++) {
-                    int label = dis.read() & 0xFF; //unsigned
-                    imageList.get(i).setLabel(label);
-                }
+                byte[] lbls = new byte[numEntries];
+                dis.readFully(lbls);
+                labels.put(eset, lbls);
             }
-            images.put(eset, imageList);
         }
         dis.close();
         //Bilder zu Sets hinzufügen
-        images.entrySet().forEach(e -> getImages(e.getKey()).addAll(e.getValue()));
+        for(Set set : Set.values()) {
+            ImageStore store = stores.get(set);
+            if(store == null) continue;
+            if(labels.containsKey(set)) store.setLabels(labels.get(set));
+            getImages(set).addAll(store.views());
+        }
     }
     
 }
@@ -0,0 +1,383 @@
+package de.fk.neuralnetwork.data;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Kompakter Speicher für eine Menge gleich großer Graustufenbilder mit
+ * Labels. Alle Pixel liegen als vorzeichenlose Bytes (0-255) in
+ * zusammenhängenden ByteBuffern (Anzahl x Höhe x Breite), die Labels in einem
+ * Byte-Array. Ein MNIST-Bild belegt so nur 785 Bytes statt eines
+ * double[28][28].
+ *
+ * Die ByteBuffer können ein Array auf dem Heap oder eine per IdxReader in den
+ * Speicher abgebildete Datei sein. Da ein ByteBuffer höchstens 2 GB groß sein
+ * kann, werden größere Dateien in mehrere Segmente mit jeweils gleich vielen
+ * ganzen Bildern aufgeteilt (nur das letzte darf weniger enthalten). Ein
+ * Speicher auf dem Heap besteht immer aus genau einem Segment und ist daher
+ * auf knapp 2 GB Pixel beschränkt. Bei abgebildeten EMNIST-Dateien bleiben die
+ * Pixel spaltenweise abgelegt und werden erst beim Dekodieren transponiert.
+ *
+ * Die Pixel werden erst beim Zusammenstellen eines Beispiels in normierte
+ * Werte (0.0-1.0) umgewandelt. Die einzelnen Bilder werden über
+ * LabeledImages als Sicht auf diesen Speicher angesprochen.
+ *
+ * @author Felix
+ * @see LabeledImage
+ * @see ImageContainer
+ * @see IdxReader
+ */
+public class ImageStore {
+
+    /**
+     * Normierte Werte aller 256 Pixelwerte (Pixel / 255.0).
+     */
+    private static final double[] DECODE = new double[256];
+
+    static {
+        for(int i = 0; i < DECODE.length; i++) DECODE[i] = i / 255.0;
+    }
+
+    private final int size, rows, cols, imageSize, segmentImages;
+    private final ByteBuffer[] segments;
+    private final byte[] labels;
+    private final boolean columnMajor;
+
+    /**
+     * Legt einen neuen, leeren Speicher an (alle Pixel und Labels 0).
+     *
+     * @param size Anzahl der Bilder
+     * @param rows Höhe eines Bildes
+     * @param cols Breite eines Bildes
+     */
+    public ImageStore(int size, int rows, int cols) {
+        this(size, rows, cols, new byte[checkSize(size, rows, cols)], new byte[size]);
+    }
+
+    /**
+     * Legt einen Speicher über bereits vorhandene Pixel- und Labeldaten an.
+     * Die Arrays werden nicht kopiert.
+     *
+     * @param size Anzahl der Bilder
+     * @param rows Höhe eines Bildes
+     * @param cols Breite eines Bildes
+     * @param pixels Pixel aller Bilder (Anzahl x Höhe x Breite, zeilenweise)
+     * @param labels Labels aller Bilder
+     */
+    public ImageStore(int size, int rows, int cols, byte[] pixels, byte[] labels) {
+        this(size, rows, cols, ByteBuffer.wrap(pixels), labels, false);
+    }
+
+    /**
+     * Legt einen Speicher über einen ByteBuffer an (z.B. eine abgebildete
+     * Datei). Der Buffer wird nicht kopiert, nur absolut (ab Index 0)
+     * gelesen und darf von mehreren Threads gleichzeitig verwendet werden.
+     *
+     * @param size Anzahl der Bilder
+     * @param rows Höhe eines Bildes
+     * @param cols Breite eines Bildes
+     * @param pixels Pixel aller Bilder (Anzahl x Höhe x Breite)
+     * @param labels Labels aller Bilder
+     * @param columnMajor true, wenn die Pixel jedes Bildes spaltenweise
+     * abgelegt sind (EMNIST)
+     */
+    public ImageStore(int size, int rows, int cols, ByteBuffer pixels, byte[] labels, boolean columnMajor) {
+        this(size, rows, cols, new ByteBuffer[]{pixels}, Math.max(1, checkSize(size, rows, cols) / (rows * cols)), labels, columnMajor);
+    }
+
+    /**
+     * Legt einen Speicher über mehrere ByteBuffer an, z.B. eine Datei über
+     * 2 GB, die in mehreren Segmenten abgebildet wurde. Segment s enthält die
+     * Bilder s * segmentImages bis (s + 1) * segmentImages - 1. Die Buffer
+     * werden nicht kopiert, nur absolut (ab Index 0) gelesen und dürfen von
+     * mehreren Threads gleichzeitig verwendet werden.
+     *
+     * @param size Anzahl der Bilder
+     * @param rows Höhe eines Bildes
+     * @param cols Breite eines Bildes
+     * @param segments Pixel der Bilder je Segment (Anzahl x Höhe x Breite)
+     * @param segmentImages Anzahl der Bilder pro Segment
+     * @param labels Labels aller Bilder
+     * @param columnMajor true, wenn die Pixel jedes Bildes spaltenweise
+     * abgelegt sind (EMNIST)
+     * @throws IllegalArgumentException Wenn die Segmente nicht zur Anzahl der
+     * Bilder passen
+     */
+    public ImageStore(int size, int rows, int cols, ByteBuffer[] segments, int segmentImages, byte[] labels, boolean columnMajor) throws IllegalArgumentException {
+        if(size < 0 || rows < 1 || cols < 1 || segmentImages < 1) throw new IllegalArgumentException("Ungültige Größe: " + size + " Bilder mit " + rows + "x" + cols + " Pixeln, " + segmentImages + " Bilder pro Segment.");
+        long imageSize = (long) rows * cols;
+        if(imageSize * segmentImages > Integer.MAX_VALUE || labels.length != size || segments.length < (size + (long) segmentImages - 1) / segmentImages)
+            throw new IllegalArgumentException("Die Größe der Daten passt nicht zu " + size + " Bildern mit " + rows + "x" + cols + " Pixeln.");
+        for(int s = 0; s < segments.length; s++)
+            if(segments[s].capacity() < imageSize * Math.min(segmentImages, size - (long) s * segmentImages))
+                throw new IllegalArgumentException("Die Größe der Daten passt nicht zu " + size + " Bildern mit " + rows + "x" + cols + " Pixeln (Segment " + s + ").");
+        this.size = size;
+        this.rows = rows;
+        this.cols = cols;
+        this.imageSize = (int) imageSize;
+        this.segments = segments;
+        this.segmentImages = segmentImages;
+        this.labels = labels;
+        this.columnMajor = columnMajor;
+    }
+
+    private static int checkSize(int size, int rows, int cols) {
+        if(size < 0 || rows < 1 || cols < 1) throw new IllegalArgumentException("Ungültige Größe: " + size + " Bilder mit " + rows + "x" + cols + " Pixeln.");
+        long bytes = (long) size * rows * cols;
+        if(bytes > Integer.MAX_VALUE - 8) throw new IllegalArgumentException("Zu viele Bilder für einen Speicher: " + size + " Bilder mit " + rows + "x" + cols + " Pixeln.");
+        return (int) bytes;
+    }
+
+    /**
+     * Gibt das Segment zurück, in dem ein Bild liegt.
+     */
+    private ByteBuffer segment(int index) {
+        return segments[index / segmentImages];
+    }
+
+    /**
+     * Gibt den Index des ersten Pixels eines Bildes in seinem Segment zurück.
+     */
+    private int position(int index) {
+        return (index % segmentImages) * imageSize;
+    }
+
+    /**
+     * Gibt die Anzahl der Bilder zurück.
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    /**
+     * Gibt die Anzahl der Pixel pro Bild zurück.
+     *
+     * @return
+     */
+    public int getImageSize() {
+        return imageSize;
+    }
+
+    /**
+     * Gibt zurück, ob die Pixel jedes Bildes spaltenweise abgelegt sind.
+     *
+     * @return
+     */
+    public boolean isColumnMajor() {
+        return columnMajor;
+    }
+
+    /**
+     * Gibt die Anzahl der Segmente zurück, auf die die Pixel verteilt sind.
+     *
+     * @return
+     */
+    public int getSegmentCount() {
+        return segments.length;
+    }
+
+    /**
+     * Gibt die Pixel eines Bildes als schreibgeschützten Ausschnitt des
+     * zugrundeliegenden Buffers zurück (ohne Kopie, Anordnung wie im
+     * Speicher).
+     *
+     * @param index Bild
+     * @return
+     */
+    public ByteBuffer getImageBuffer(int index) {
+        ByteBuffer slice = segment(index).duplicate();
+        int p = position(index);
+        //Über Buffer aufrufen, damit der Bytecode auch unter Java 8 läuft
+        ((Buffer) slice).limit(p + imageSize).position(p);
+        return slice.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Gibt das Label eines Bildes zurück. Labels werden als vorzeichen-
+     * behaftete Bytes gespeichert (-128 bis 127).
+     *
+     * @param index Bild
+     * @return
+     */
+    public int getLabel(int index) {
+        return labels[index];
+    }
+
+    public void setLabel(int index, int label) {
+        labels[index] = (byte) label;
+    }
+
+    /**
+     * Gibt einen Pixel eines Bildes als vorzeichenlosen Wert (0-255) zurück.
+     *
+     * @param index Bild
+     * @param row Zeile
+     * @param col Spalte
+     * @return
+     */
+    public int getPixel(int index, int row, int col) {
+        return segment(index).get(position(index) + (columnMajor ? col * rows + row : row * cols + col)) & 0xFF;
+    }
+
+    /**
+     * Schreibt die normierten Pixel (0.0-1.0) eines Bildes zeilenweise in den
+     * übergebenen Array.
+     *
+     * @param index Bild
+     * @param out Ziel
+     * @param offset Startindex im Ziel
+     */
+    public void decode(int index, double[] out, int offset) {
+        ByteBuffer pixels = segment(index);
+        int p = position(index);
+        if(columnMajor) {
+            for(int c = 0; c < cols; c++)
+                for(int r = 0; r < rows; r++)
+                    out[offset + r * cols + c] = DECODE[pixels.get(p++) & 0xFF];
+        } else for(int i = 0; i < imageSize; i++) out[offset + i] = DECODE[pixels.get(p + i) & 0xFF];
+    }
+
+    /**
+     * Schreibt die normierten Pixel (0.0-1.0) eines Bildes zeilenweise in den
+     * übergebenen Array.
+     *
+     * @param index Bild
+     * @param out Ziel
+     * @param offset Startindex im Ziel
+     */
+    public void decode(int index, float[] out, int offset) {
+        ByteBuffer pixels = segment(index);
+        int p = position(index);
+        if(columnMajor) {
+            for(int c = 0; c < cols; c++)
+                for(int r = 0; r < rows; r++)
+                    out[offset + r * cols + c] = (float) DECODE[pixels.get(p++) & 0xFF];
+        } else for(int i = 0; i < imageSize; i++) out[offset + i] = (float) DECODE[pixels.get(p + i) & 0xFF];
+    }
+
+    /**
+     * Gibt die normierten Pixel eines Bildes als neu angelegte Matrix
+     * (Höhe x Breite) zurück.
+     *
+     * @param index Bild
+     * @return
+     */
+    public double[][] decodeMatrix(int index) {
+        double[][] data = new double[rows][cols];
+        ByteBuffer pixels = segment(index);
+        int p = position(index);
+        if(columnMajor) {
+            for(int c = 0; c < cols; c++)
+                for(int r = 0; r < rows; r++)
+                    data[r][c] = DECODE[pixels.get(p++) & 0xFF];
+        } else for(int r = 0; r < rows; r++)
+            for(int c = 0; c < cols; c++)
+                data[r][c] = DECODE[pixels.get(p++) & 0xFF];
+        return data;
+    }
+
+    /**
+     * Schreibt die Pixel eines Bildes unverändert (ein Byte pro Pixel,
+     * zeilenweise) in einen OutputStream.
+     *
+     * @param index Bild
+     * @param out Ziel
+     * @throws IOException Schreibfehler
+     */
+    public void writeImage(int index, OutputStream out) throws IOException {
+        ByteBuffer pixels = segment(index);
+        int p = position(index);
+        if(pixels.hasArray() && !columnMajor) {
+            out.write(pixels.array(), pixels.arrayOffset() + p, imageSize);
+            return;
+        }
+        byte[] buffer = new byte[imageSize];
+        if(columnMajor) {
+            for(int c = 0; c < cols; c++)
+                for(int r = 0; r < rows; r++)
+                    buffer[r * cols + c] = pixels.get(p++);
+        } else for(int i = 0; i < imageSize; i++) buffer[i] = pixels.get(p + i);
+        out.write(buffer);
+    }
+
+    /**
+     * Liest die Pixel aller Bilder am Stück ein.
+     *
+     * @param in Quelle
+     * @param columnMajor true, wenn die Pixel in der Quelle spaltenweise
+     * abgelegt sind (EMNIST); sie werden dann beim Einlesen transponiert
+     * @throws IOException Lesefehler
+     */
+    public void readImages(DataInputStream in, boolean columnMajor) throws IOException {
+        ByteBuffer segment = segments[0];
+        if(segments.length != 1 || !segment.hasArray() || this.columnMajor)
+            throw new IllegalStateException("In diesen Speicher kann nicht eingelesen werden.");
+        byte[] pixels = segment.array();
+        if(!columnMajor) {
+            in.readFully(pixels, segment.arrayOffset(), size * imageSize);
+            return;
+        }
+        byte[] buffer = new byte[imageSize];
+        for(int i = 0; i < size; i++) {
+            in.readFully(buffer);
+            int p = segment.arrayOffset() + i * imageSize, b = 0;
+            for(int c = 0; c < cols; c++)
+                for(int r = 0; r < rows; r++)
+                    pixels[p + r * cols + c] = buffer[b++];
+        }
+    }
+
+    /**
+     * Liest die Labels aller Bilder am Stück ein.
+     *
+     * @param in Quelle
+     * @param labelOffset Wird zu jedem Label addiert (z.B. -1 bei EMNIST)
+     * @throws IOException Lesefehler
+     */
+    public void readLabels(DataInputStream in, int labelOffset) throws IOException {
+        in.readFully(labels);
+        if(labelOffset != 0) for(int i = 0; i < size; i++) labels[i] = (byte) ((labels[i] & 0xFF) + labelOffset);
+    }
+
+    /**
+     * Übernimmt Labels aus einem Array (vorzeichenlos, wie in einem MNIST
+     * Label File). Überzählige Labels werden ignoriert.
+     *
+     * @param source Labels
+     */
+    public void setLabels(byte[] source) {
+        System.arraycopy(source, 0, labels, 0, Math.min(source.length, size));
+    }
+
+    /**
+     * Erstellt für jedes Bild ein LabeledImage als Sicht auf diesen Speicher.
+     *
+     * @return
+     */
+    public List<LabeledImage> views() {
+        ArrayList<LabeledImage> views = new ArrayList<>(size);
+        for(int i = 0; i < size; i++) views.add(new LabeledImage(this, i));
+        return views;
+    }
+
+    @Override
+    public String toString() {
+        return "ImageStore[size=" + size + ", rows=" + rows + ", cols=" + cols + (segments.length > 1 ? ", segments=" + segments.length : "") + (columnMajor ? ", columnMajor" : "") + (segments[0].isDirect() ? ", direct" : "") + "]";
+    }
+
+}
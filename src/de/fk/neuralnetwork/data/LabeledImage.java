@@ -1,9 +1,13 @@
 package de.fk.neuralnetwork.data;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Random;
 
 /**
- * Repräsentiert ein Graustufenbild mit einem Label.
+ * Repräsentiert ein Graustufenbild mit einem Label. Das Bild liegt entweder
+ * als Sicht in einem kompakten ImageStore (eingelesene Bilder) oder direkt als
+ * Matrix vor (z.B. transformierte Bilder).
  *
  * @author Felix
  */
@@ -52,6 +56,8 @@ public class LabeledImage {
      */
     public static final double SHIFT_CHANCE = 0.9;//90%
 
+    private ImageStore store;
+    private int index;
     private double[][] data;
     private int label;
     
@@ -65,27 +71,114 @@ public class LabeledImage {
         this.data = data;
         this.label = label;
     }
+    
+    /**
+     * Erstellt ein neues LabeledImage als Sicht auf ein Bild in einem
+     * ImageStore. Pixel und Label werden nicht kopiert.
+     *
+     * @param store Speicher
+     * @param index Index des Bildes im Speicher
+     */
+    public LabeledImage(ImageStore store, int index) {
+        this.store = store;
+        this.index = index;
+    }
+
+    /**
+     * Gibt den zugrundeliegenden Speicher zurück, oder null, wenn die Daten
+     * direkt in diesem Bild liegen.
+     *
+     * @return
+     */
+    public ImageStore getStore() {
+        return store;
+    }
 
+    /**
+     * Gibt die normierten Pixel als Matrix zurück. Liegt das Bild in einem
+     * ImageStore, wird die Matrix bei jedem Aufruf neu erzeugt.
+     *
+     * @return
+     */
     public double[][] getData() {
-        return data;
+        return store != null ? store.decodeMatrix(index) : data;
     }
 
+    /**
+     * Setzt die Pixel. Ein Bild aus einem ImageStore wird dabei von diesem
+     * gelöst.
+     *
+     * @param data Daten
+     */
     public void setData(double[][] data) {
+        if(store != null) {
+            label = store.getLabel(index);
+            store = null;
+        }
         this.data = data;
     }
 
     public int getLabel() {
-        return label;
+        return store != null ? store.getLabel(index) : label;
     }
 
     public void setLabel(int label) {
-        this.label = label;
+        if(store != null) store.setLabel(index, label);
+        else this.label = label;
+    }
+
+    public int getHeight() {
+        return store != null ? store.getRows() : data.length;
+    }
+
+    public int getWidth() {
+        return store != null ? store.getCols() : data[0].length;
+    }
+
+    /**
+     * Schreibt die normierten Pixel zeilenweise in den übergebenen Array.
+     *
+     * @param out Ziel (mind. offset + Höhe x Breite Einträge)
+     * @param offset Startindex im Ziel
+     */
+    public void getPixels(double[] out, int offset) {
+        if(store != null) store.decode(index, out, offset);
+        else for(double[] row : data) {
+            System.arraycopy(row, 0, out, offset, row.length);
+            offset += row.length;
+        }
+    }
+
+    /**
+     * Gibt die normierten Pixel zeilenweise als neuen Array zurück.
+     *
+     * @return
+     */
+    public double[] getPixels() {
+        double[] out = new double[getHeight() * getWidth()];
+        getPixels(out, 0);
+        return out;
+    }
+
+    /**
+     * Schreibt die Pixel als vorzeichenlose Bytes (0-255) zeilenweise in
+     * einen OutputStream.
+     *
+     * @param out Ziel
+     * @throws IOException Schreibfehler
+     */
+    void writePixels(OutputStream out) throws IOException {
+        if(store != null) store.writeImage(index, out);
+        else for(double[] row : data)
+            for(double v : row)
+                out.write((int) Math.round(v * 255));
     }
 
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        sb.append("== Label: ").append(label).append(" ==");
+        double[][] data = getData();
+        sb.append("== Label: ").append(getLabel()).append(" ==");
         for(int row = 0; row < data.length; row++) {
             for(int col = 0; col < data[row].length; col++) {
                 double pixelVal = data[row][col];
@@ -110,15 +203,16 @@ public class LabeledImage {
      */
     public LabeledImage cloneAndTransform(Random r) {
         if(r.nextDouble() >= GENERAL_TRANSFORMATION_CHANCE) return this;
-        //Daten transformieren
-        double[][] newData = null;
+        //Daten transformieren (erst hier dekodieren)
+        double[][] src = getData(), newData = null;
         if(r.nextDouble() < SHIFT_CHANCE)
-            newData = Preprocessing.shift(data, r.nextInt(2 * SHIFT_BOUNDS) - SHIFT_BOUNDS, r.nextInt(2 * SHIFT_BOUNDS) - SHIFT_BOUNDS);
+            newData = Preprocessing.shift(src, r.nextInt(2 * SHIFT_BOUNDS) - SHIFT_BOUNDS, r.nextInt(2 * SHIFT_BOUNDS) - SHIFT_BOUNDS);
         if(r.nextDouble() < SCALE_CHANCE)
-            newData = Preprocessing.scale(newData == null ? data : newData, 1 + r.nextDouble() * 2 * SCALE_BOUNDS - SCALE_BOUNDS);
+            newData = Preprocessing.scale(newData == null ? src : newData, 1 + r.nextDouble() * 2 * SCALE_BOUNDS - SCALE_BOUNDS);
         if(r.nextDouble() < ROTATION_CHANCE)
-            newData = Preprocessing.rotate(newData == null ? data : newData, r.nextDouble() * 2 * ROTATION_BOUNDS - ROTATION_BOUNDS);
-        return new LabeledImage(newData == null ? data : newData, label);
+            newData = Preprocessing.rotate(newData == null ? src : newData, r.nextDouble() * 2 * ROTATION_BOUNDS - ROTATION_BOUNDS);
+        if(newData == null) return store != null ? new LabeledImage(store, index) : new LabeledImage(data, label);
+        return new LabeledImage(newData, getLabel());
     }
     
 }
@@ -1,5 +1,7 @@
 package de.fk.neuralnetwork.data;
 
+import java.util.Arrays;
+
 /**
  *
  * @author Felix
@@ -7,10 +9,23 @@ package de.fk.neuralnetwork.data;
 public class Preprocessing {
 
     public static final double[][] rotate(double[][] data, double rad) {
+        return rotate(data, rad, new double[data.length][data[0].length]);
+    }
+    
+    /**
+     * Dreht das Bild um seinen Mittelpunkt (bilineare Interpolation) und
+     * schreibt das Ergebnis in einen vorhandenen Puffer.
+     *
+     * @param data Bild
+     * @param rad Winkel in Rad
+     * @param out Ausgabe (gleiche Größe, darf nicht data sein)
+     * @return out
+     */
+    public static final double[][] rotate(double[][] data, double rad, double[][] out) {
         int height = data.length, width = data[0].length;
         double sin = Math.sin(rad), cos = Math.cos(rad),
                 x0 = (width - 1) / 2.0, y0 = (height - 1) / 2.0;
-        double[][] out = new double[height][width];
+        clear(out);
         for(int y = 0; y < height; y++)
             for(int x = 0; x < width; x++) {
                 //Abstände zum Mittelpunkt a,b
@@ -46,9 +61,22 @@ public class Preprocessing {
     }
     
     public static final double[][] scale(double[][] data, double fact) {
+        return scale(data, fact, new double[data.length][data[0].length]);
+    }
+    
+    /**
+     * Skaliert das Bild um seinen Mittelpunkt (nächster Nachbar) und schreibt
+     * das Ergebnis in einen vorhandenen Puffer.
+     *
+     * @param data Bild
+     * @param fact Faktor
+     * @param out Ausgabe (gleiche Größe, darf nicht data sein)
+     * @return out
+     */
+    public static final double[][] scale(double[][] data, double fact, double[][] out) {
         int height = data.length, width = data[0].length;
         double x0 = (width - 1) / 2.0, y0 = (height - 1) / 2.0;
-        double[][] out = new double[height][width];
+        clear(out);
         for(int y = 0; y < height; y++)
             for(int x = 0; x < width; x++) {
                 int xn = (int) (x0 + (x - x0) / fact),
@@ -60,14 +88,142 @@ public class Preprocessing {
     }
     
     public static final double[][] shift(double[][] data, int dx, int dy) {
+        return shift(data, dx, dy, new double[data.length][data[0].length]);
+    }
+    
+    /**
+     * Verschiebt das Bild um ganze Pixel und schreibt das Ergebnis in einen
+     * vorhandenen Puffer.
+     *
+     * @param data Bild
+     * @param dx Verschiebung in x-Richtung
+     * @param dy Verschiebung in y-Richtung
+     * @param out Ausgabe (gleiche Größe, darf nicht data sein)
+     * @return out
+     */
+    public static final double[][] shift(double[][] data, int dx, int dy, double[][] out) {
         int height = data.length, width = data[0].length;
         int ystart = Math.max(0, dy), yend = height + Math.min(0, dy),
                 xstart = Math.max(0, dx), xend = width + Math.min(0, dx);
-        double[][] out = new double[height][width];
+        clear(out);
         for(int y = ystart; y < yend; y++)
             for(int x = xstart; x < xend; x++)
                 out[y][x] = data[y - dy][x - dx];
         return out;
     }
     
+    /**
+     * Berechnet die affine Abbildung, die Verschiebung, Skalierung und
+     * Rotation (in dieser Reihenfolge, wie bei LabeledImage#cloneAndTransform)
+     * zusammenfasst. Die Matrix bildet jeden Zielpixel (x, y) auf seine
+     * Position im Ursprungsbild ab:
+     * <pre>
+     * xs = m[0] * x + m[1] * y + m[2]
+     * ys = m[3] * x + m[4] * y + m[5]
+     * </pre>
+     *
+     * @param width Breite
+     * @param height Höhe
+     * @param dx Verschiebung in x-Richtung
+     * @param dy Verschiebung in y-Richtung
+     * @param fact Skalierungsfaktor um den Mittelpunkt
+     * @param rad Drehwinkel um den Mittelpunkt in Rad
+     * @param m Ausgabe (mind. offset + 6 Einträge)
+     * @param offset Startindex in m
+     * @return m
+     * @see #affine(double[], int, int, int, double[], int, double[], int)
+     */
+    public static final double[] affineMatrix(int width, int height, double dx, double dy, double fact, double rad, double[] m, int offset) {
+        double sin = Math.sin(rad), cos = Math.cos(rad),
+                x0 = (width - 1) / 2.0, y0 = (height - 1) / 2.0;
+        //Rotation um den Mittelpunkt, dann Skalierung um den Mittelpunkt, dann Verschiebung (jeweils rückwärts)
+        double a = cos / fact, b = -sin / fact, c = sin / fact, d = cos / fact;
+        m[offset] = a;
+        m[offset + 1] = b;
+        m[offset + 2] = x0 - dx - a * x0 - b * y0;
+        m[offset + 3] = c;
+        m[offset + 4] = d;
+        m[offset + 5] = y0 - dy - c * x0 - d * y0;
+        return m;
+    }
+    
+    /**
+     * Transformiert ein zeilenweise gespeichertes Bild mit einer affinen
+     * Abbildung in einem Durchlauf (bilineare Interpolation, außerhalb des
+     * Bildes 0). Die Interpolation entspricht der von
+     * #rotate(double[][], double, double[][]); eine reine Rotation liefert
+     * bis auf Rundungsfehler dasselbe Ergebnis.
+     *
+     * @param data Bild (Höhe x Breite Einträge ab dataOffset)
+     * @param dataOffset Startindex des Bildes
+     * @param width Breite
+     * @param height Höhe
+     * @param m Abbildung von Ziel- auf Ursprungskoordinaten (6 Einträge ab mOffset)
+     * @param mOffset Startindex der Abbildung
+     * @param out Ausgabe (Höhe x Breite Einträge ab outOffset, darf sich nicht mit dem Bild überschneiden)
+     * @param outOffset Startindex der Ausgabe
+     * @see #affineMatrix(int, int, double, double, double, double, double[], int)
+     */
+    public static final void affine(double[] data, int dataOffset, int width, int height, double[] m, int mOffset, double[] out, int outOffset) {
+        double m00 = m[mOffset], m01 = m[mOffset + 1], m02 = m[mOffset + 2],
+                m10 = m[mOffset + 3], m11 = m[mOffset + 4], m12 = m[mOffset + 5];
+        for(int y = 0; y < height; y++) {
+            double rx = m01 * y + m02, ry = m11 * y + m12;
+            int o = outOffset + y * width;
+            for(int x = 0; x < width; x++) {
+                double xn = m00 * x + rx, yn = m10 * x + ry;
+                int xni = (int) xn, yni = (int) yn;
+                //Grundbedingung (sonst alle Pixel außerhalb des Bildes)
+                if(yni < -1 || xni < -1 || xni >= width || yni >= height) {
+                    out[o + x] = 0;
+                    continue;
+                }
+                double xu = Math.max(0, xn - xni),
+                        yu = Math.max(0, yn - yni);
+                int p = dataOffset + yni * width + xni;
+                double v = 0;
+                if(xni >= 0 && yni >= 0 && xni + 1 < width && yni + 1 < height) {
+                    //Alle Nachbarpixel innerhalb des Bildes
+                    v += (1 - yu) * xu * data[p + 1];
+                    v += (1 - yu) * (1 - xu) * data[p];
+                    v += yu * xu * data[p + width + 1];
+                    v += yu * (1 - xu) * data[p + width];
+                } else {
+                    if(yni >= 0) {
+                        if(xni + 1 < width) v += (1 - yu) * xu * data[p + 1];
+                        if(xni >= 0) v += (1 - yu) * (1 - xu) * data[p];
+                    }
+                    if(yni + 1 < height) {
+                        if(xni + 1 < width) v += yu * xu * data[p + width + 1];
+                        if(xni >= 0) v += yu * (1 - xu) * data[p + width];
+                    }
+                }
+                out[o + x] = v;
+            }
+        }
+    }
+    
+    /**
+     * Transformiert mehrere gleich große, hintereinander gespeicherte Bilder
+     * mit je einer eigenen affinen Abbildung.
+     *
+     * @param data Bilder (count x Höhe x Breite Einträge)
+     * @param count Anzahl der Bilder
+     * @param width Breite
+     * @param height Höhe
+     * @param m Abbildungen (count x 6 Einträge)
+     * @param out Ausgabe (count x Höhe x Breite Einträge, nicht data)
+     * @see #affine(double[], int, int, int, double[], int, double[], int)
+     */
+    public static final void affineBatch(double[] data, int count, int width, int height, double[] m, double[] out) {
+        int size = width * height;
+        if(data.length < count * size || out.length < count * size || m.length < count * 6)
+            throw new IllegalArgumentException("Die Puffer sind zu klein für " + count + " Bilder.");
+        for(int i = 0; i < count; i++) affine(data, i * size, width, height, m, i * 6, out, i * size);
+    }
+    
+    private static void clear(double[][] out) {
+        for(double[] row : out) Arrays.fill(row, 0.0);
+    }
+    
 }
@@ -3,14 +3,17 @@ package de.fk.neuralnetwork.data;
 import de.fk.neuralnetwork.NeuralNetwork;
 import de.fk.neuralnetwork.NeuralNetworkState;
 import de.fk.neuralnetwork.math.NeuralMath;
+import de.fk.neuralnetwork.quantization.QuantizedNetwork;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.IntUnaryOperator;
 import java.util.stream.Collectors;
 import javafx.util.Pair;
 
@@ -31,6 +34,12 @@ public class Tester {
      * Die Magic Number eines MNIST Label Files.
      */
     public static final int MNIST_LABEL_FILE_MAGIC_NUMBER = 2049;
+    
+    /**
+     * Anzahl der Bilder, die gemeinsam an NeuralNetwork#predictBatch
+     * übergeben werden.
+     */
+    private static final int TEST_BLOCK = 1024;
 
     /**
      * Gibt eine Hashmap zurück, die allen vom neuronalen Netz falsch
@@ -43,23 +52,28 @@ public class Tester {
      * @return HashMap
      */
     public static HashMap<LabeledImage, Double> findIncorrectlyClassified(NeuralNetwork nn, List<LabeledImage> imgs) {
-        return imgs.parallelStream()
-                .map(img -> new Pair<>(img, nn.trigger(NeuralMath.flatten(img.getData()))))
-                .filter(p -> NeuralMath.getPredictedLabel(p.getValue().getOutput()) != p.getKey().getLabel())
-                .map(p -> new Pair<>(p.getKey(), NeuralMath.getError(p.getValue().getOutput(), NeuralMath.getOutputForLabel(p.getKey().getLabel(), p.getValue().getOutput().length))))
+        ArrayList<Pair<LabeledImage, Double>> incorrect = new ArrayList<>();
+        predictAll(nn, imgs.size(), (i, out, offset) -> imgs.get(i).getPixels(out, offset), (i, out) -> {
+            LabeledImage img = imgs.get(i);
+            if(NeuralMath.getPredictedLabel(out) != img.getLabel())
+                incorrect.add(new Pair<>(img, NeuralMath.getError(out, NeuralMath.getOutputForLabel(img.getLabel(), out.length))));
+        });
+        return incorrect.stream()
                 .sorted((o1, o2) -> Double.compare(o2.getValue(), o1.getValue()))
                 .collect(Collectors.toMap(Pair::getKey, Pair::getValue, (e1, e2) -> e1, LinkedHashMap::new));
     }
     
+    /**
+     * Testet die Zuverlässigkeit eines neuronalen Netzes anhand aller Bilder
+     * eines Sets.
+     *
+     * @param nn Zu testendes neuronales Netz
+     * @param set Set
+     * @return Testergebnis mit Accuracy und Fehlerrate
+     */
     public static TestResult testFromSet(NeuralNetwork nn, ImageContainer.Set set) {
-        double error = 0.0, accuracy = 0.0;
         List<LabeledImage> images = ImageContainer.getImages(set);
-        for(LabeledImage img : images) {
-            double[] out = nn.getOutputParallel(NeuralMath.flatten(img.getData()));
-            error += NeuralMath.getError(out, NeuralMath.getOutputForLabel(img.getLabel(), nn.getOutputLayer().getNeurons().length));
-            accuracy += (NeuralMath.getPredictedLabel(out) == img.getLabel()) ? 1.0 : 0.0;
-        }
-        return new TestResult(error / (double) images.size(), accuracy / (double) images.size());
+        return test(nn, images.size(), (i, out, offset) -> images.get(i).getPixels(out, offset), i -> images.get(i).getLabel());
     }
     
     /**
@@ -76,51 +90,234 @@ public class Tester {
      * @see TestResult
      */
     public static TestResult testFromMnist(String imageFile, String labelFile, NeuralNetwork nn, int maxImages, ImageContainer.FileFormat fileFormat) throws IOException {
-        double error = 0, accuracy = 0;
-        
-        ArrayList<LabeledImage> images = new ArrayList<>();
-        //ImageFile einlesen und überprüfen
-        ByteBuffer imageBytes = ByteBuffer.wrap(Files.readAllBytes(Paths.get(imageFile)));
-        int magicNumber = imageBytes.getInt();
-        if(magicNumber != MNIST_IMAGE_FILE_MAGIC_NUMBER)
-            throw new IOException("Die Datei '" + imageFile + "' beginnt mit der Magic Number " + magicNumber + ". (Erwartet: " + MNIST_IMAGE_FILE_MAGIC_NUMBER + ")");
-        int numImg = Math.min(maxImages, imageBytes.getInt()),
-                numRows = imageBytes.getInt(),
-                numCols = imageBytes.getInt(),
-                imgSize = numRows * numCols;
-        //LabelFile einlesen und überprüfen
-        ByteBuffer labelBytes = ByteBuffer.wrap(Files.readAllBytes(Paths.get(labelFile)));
-        magicNumber = labelBytes.getInt();
-        if(magicNumber != MNIST_LABEL_FILE_MAGIC_NUMBER)
-            throw new IOException("Die Datei '" + labelFile + "' beginnt mit der Magic Number " + magicNumber + ". (Erwartet: " + MNIST_LABEL_FILE_MAGIC_NUMBER + ")");
-        int numLabels = Math.min(maxImages, labelBytes.getInt());
-        if(numImg != numLabels)
-            throw new IOException("Die beiden Dateien passen nicht zusammen: " + imageFile + " enthält " + numImg + " Bilder, aber " + labelFile + " enthält " + numLabels + " Labels.");
-        //Bilder und Labels einlesen & zusammenfügen
-        
-        for(int i = 0; i < numImg; i++) {
-            double[] flatData = new double[numRows * numCols];
-            switch(fileFormat) {
-                case MNIST:
-                    for(int j = 0; j < imgSize; j++)
-                        flatData[j] = (imageBytes.get() & 0xFF) / 255.0; //unsigned
-                    break;
-                case EMNIST:
-                    for(int c = 0; c < numCols; c++)
-                        for(int r = 0; r < numRows; r++)
-                            flatData[r * numCols + c] = (imageBytes.get() & 0xFF) / 255.0; //unsigned
-                    break;
+        return testFromStore(nn, IdxReader.map(imageFile, labelFile, maxImages, fileFormat));
+    }
+    
+    /**
+     * Testet die Zuverlässigkeit eines neuronalen Netzes anhand aller Bilder
+     * eines ImageStores. Die Bilder werden blockweise in eine
+     * wiederverwendete Eingabematrix dekodiert.
+     *
+     * @param nn Zu testendes neuronales Netz
+     * @param store Bilder, z.B. per IdxReader abgebildet
+     * @return Testergebnis mit Accuracy und Fehlerrate
+     * @see IdxReader
+     */
+    public static TestResult testFromStore(NeuralNetwork nn, ImageStore store) {
+        return test(nn, store.size(), store::decode, store::getLabel);
+    }
+    
+    /**
+     * Testet mehrere Netze (z.B. die Mitglieder eines Ensembles) in einem
+     * gemeinsamen Durchlauf über alle Bilder eines Sets.
+     *
+     * @param nets Zu testende Netze (gleiche Anzahl an Eingabeneuronen)
+     * @param set Set
+     * @param pool Pool, auf den die Netze verteilt werden, oder null für den aufrufenden Thread
+     * @return Testergebnisse in der Reihenfolge der Netze
+     * @see Tester#testFromImages(NeuralNetwork[], List, ExecutorService)
+     */
+    public static TestResult[] testFromSet(NeuralNetwork[] nets, ImageContainer.Set set, ExecutorService pool) {
+        return testFromImages(nets, ImageContainer.getImages(set), pool);
+    }
+    
+    /**
+     * Testet mehrere Netze in einem gemeinsamen Durchlauf über die Bilder.
+     * Jeder Block von Bildern wird nur einmal dekodiert und dann von allen
+     * Netzen mit NeuralNetwork#predictBatch berechnet, bei übergebenem Pool
+     * parallel über die Netze.
+     *
+     * @param nets Zu testende Netze (gleiche Anzahl an Eingabeneuronen)
+     * @param images Bilder
+     * @param pool Pool, auf den die Netze verteilt werden, oder null für den aufrufenden Thread
+     * @return Testergebnisse in der Reihenfolge der Netze
+     * @throws IllegalArgumentException Wenn die Netze unterschiedlich viele Eingabeneuronen haben
+     * @throws IllegalStateException Wenn der Thread beim Warten auf den Pool unterbrochen wird
+     */
+    public static TestResult[] testFromImages(NeuralNetwork[] nets, List<LabeledImage> images, ExecutorService pool) throws IllegalArgumentException, IllegalStateException {
+        int count = images.size(), inWidth = nets[0].getInputNeurons(), block = Math.max(1, Math.min(count, TEST_BLOCK));
+        for(NeuralNetwork nn : nets)
+            if(nn.getInputNeurons() != inWidth) throw new IllegalArgumentException("Alle Netze müssen gleich viele Eingabeneuronen haben.");
+        double[] in = new double[block * inWidth];
+        int[] labels = new int[block];
+        double[][] outs = new double[nets.length][], sums = new double[nets.length][2];
+        for(int i = 0; i < nets.length; i++) outs[i] = new double[block * nets[i].getOutputLayer().getNeuronCount()];
+        List<Callable<Void>> tasks = new ArrayList<>(nets.length);
+        int[] current = new int[1];
+        for(int i = 0; i < nets.length; i++) {
+            final int net = i;
+            tasks.add(() -> {
+                scoreBlock(nets[net], in, labels, current[0], outs[net], sums[net]);
+                return null;
+            });
+        }
+        for(int start = 0; start < count; start += block) {
+            int n = Math.min(block, count - start);
+            for(int e = 0; e < n; e++) {
+                LabeledImage img = images.get(start + e);
+                img.getPixels(in, e * inWidth);
+                labels[e] = img.getLabel();
+            }
+            current[0] = n;
+            if(pool == null) {
+                for(int i = 0; i < nets.length; i++) scoreBlock(nets[i], in, labels, n, outs[i], sums[i]);
+                continue;
+            }
+            try {
+                for(Future<Void> f : pool.invokeAll(tasks)) f.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Beim Testen unterbrochen.", ex);
+            } catch (ExecutionException ex) {
+                if(ex.getCause() instanceof RuntimeException) throw (RuntimeException) ex.getCause();
+                throw new IllegalStateException(ex.getCause());
+            }
+        }
+        TestResult[] results = new TestResult[nets.length];
+        for(int i = 0; i < nets.length; i++) results[i] = new TestResult(sums[i][0] / (double) count, sums[i][1] / (double) count);
+        return results;
+    }
+    
+    /**
+     * Berechnet einen dekodierten Block mit einem Netz und addiert Fehler und
+     * richtige Vorhersagen.
+     */
+    private static void scoreBlock(NeuralNetwork nn, double[] in, int[] labels, int n, double[] out, double[] sums) {
+        int outWidth = out.length / labels.length;
+        double[] row = new double[outWidth];
+        nn.predictBatch(in, n, out);
+        for(int e = 0; e < n; e++) {
+            System.arraycopy(out, e * outWidth, row, 0, outWidth);
+            sums[0] += NeuralMath.getError(row, NeuralMath.getOutputForLabel(labels[e], outWidth));
+            sums[1] += (NeuralMath.getPredictedLabel(row) == labels[e]) ? 1.0 : 0.0;
+        }
+    }
+    
+    private static TestResult test(NeuralNetwork nn, int count, Decoder decoder, IntUnaryOperator labels) {
+        //Fehler, Accuracy
+        double[] sums = new double[2];
+        predictAll(nn, count, decoder, (i, out) -> {
+            int label = labels.applyAsInt(i);
+            sums[0] += NeuralMath.getError(out, NeuralMath.getOutputForLabel(label, out.length));
+            sums[1] += (NeuralMath.getPredictedLabel(out) == label) ? 1.0 : 0.0;
+        });
+        return new TestResult(sums[0] / (double) count, sums[1] / (double) count);
+    }
+    
+    /**
+     * Berechnet die Ausgaben des Netzes für count Bilder. Jeweils TEST_BLOCK
+     * Bilder werden in eine Eingabematrix dekodiert und mit
+     * NeuralNetwork#predictBatch berechnet; die Ausgaben werden danach der
+     * Reihe nach im aufrufenden Thread übergeben.
+     */
+    private static void predictAll(NeuralNetwork nn, int count, Decoder decoder, OutputConsumer consumer) {
+        int inWidth = nn.getInputNeurons(), outWidth = nn.getOutputLayer().getNeuronCount(), block = Math.min(count, TEST_BLOCK);
+        double[] in = new double[block * inWidth], out = new double[block * outWidth], row = new double[outWidth];
+        for(int start = 0; start < count; start += block) {
+            int n = Math.min(block, count - start);
+            for(int e = 0; e < n; e++) decoder.decode(start + e, in, e * inWidth);
+            nn.predictBatch(in, n, out);
+            for(int e = 0; e < n; e++) {
+                System.arraycopy(out, e * outWidth, row, 0, outWidth);
+                consumer.accept(start + e, row);
+            }
+        }
+    }
+    
+    /**
+     * Dekodiert die Pixel des Bildes mit dem übergebenen Index.
+     */
+    @FunctionalInterface
+    private static interface Decoder {
+        public void decode(int index, double[] out, int offset);
+    }
+    
+    /**
+     * Erhält die Ausgabe des Netzes für das Bild mit dem übergebenen Index.
+     * Der Array wird danach wiederverwendet.
+     */
+    @FunctionalInterface
+    private static interface OutputConsumer {
+        public void accept(int index, double[] out);
+    }
+    
+    /**
+     * Testet die Zuverlässigkeit eines quantisierten Netzes anhand aller
+     * Bilder eines Sets.
+     *
+     * @param qn Zu testendes quantisiertes Netz
+     * @param set Set
+     * @return Testergebnis mit Accuracy und Fehlerrate
+     */
+    public static TestResult testFromSet(QuantizedNetwork qn, ImageContainer.Set set) {
+        return compareQuantized(null, qn, set).getQuantized();
+    }
+    
+    /**
+     * Vergleicht ein Netz mit seiner quantisierten Version anhand aller
+     * Bilder eines Sets. Beide Netze erhalten dieselben, einmal dekodierten
+     * Eingaben.
+     *
+     * @param nn Ursprüngliches Netz oder null, um nur das quantisierte Netz zu testen
+     * @param qn Quantisiertes Netz
+     * @param set Set, z.B. TEST
+     * @return Testergebnisse beider Netze
+     * @throws IllegalArgumentException Wenn das quantisierte Netz nicht zum ursprünglichen passt
+     * @see de.fk.neuralnetwork.quantization.Quantizer
+     */
+    public static Comparison compareQuantized(NeuralNetwork nn, QuantizedNetwork qn, ImageContainer.Set set) throws IllegalArgumentException {
+        List<LabeledImage> images = ImageContainer.getImages(set);
+        return compareQuantized(nn, qn, images.size(), (i, out, offset) -> images.get(i).getPixels(out, offset), i -> images.get(i).getLabel());
+    }
+    
+    /**
+     * Vergleicht ein Netz mit seiner quantisierten Version anhand aller
+     * Bilder eines ImageStores.
+     *
+     * @param nn Ursprüngliches Netz oder null, um nur das quantisierte Netz zu testen
+     * @param qn Quantisiertes Netz
+     * @param store Bilder, z.B. per IdxReader abgebildet
+     * @return Testergebnisse beider Netze
+     * @throws IllegalArgumentException Wenn das quantisierte Netz nicht zum ursprünglichen passt
+     * @see Tester#compareQuantized(NeuralNetwork, QuantizedNetwork, ImageContainer.Set)
+     */
+    public static Comparison compareQuantized(NeuralNetwork nn, QuantizedNetwork qn, ImageStore store) throws IllegalArgumentException {
+        return compareQuantized(nn, qn, store.size(), store::decode, store::getLabel);
+    }
+    
+    /**
+     * Dekodiert jeweils TEST_BLOCK Bilder in eine Eingabematrix, berechnet
+     * das ursprüngliche Netz mit NeuralNetwork#predictBatch und das
+     * quantisierte Netz Bild für Bild auf denselben Zeilen.
+     */
+    private static Comparison compareQuantized(NeuralNetwork nn, QuantizedNetwork qn, int count, Decoder decoder, IntUnaryOperator labels) {
+        int inWidth = qn.getInputNeurons(), classes = qn.getOutputLayer().getNeuronCount(), block = Math.max(1, Math.min(count, TEST_BLOCK));
+        if(nn != null && (nn.getInputNeurons() != inWidth || nn.getOutputLayer().getNeuronCount() != classes))
+            throw new IllegalArgumentException("Das quantisierte Netz passt nicht zum ursprünglichen Netz.");
+        double error = 0, accuracy = 0, qError = 0, qAccuracy = 0, agreement = 0;
+        double[] in = new double[block * inWidth], out = new double[block * classes], pixels = new double[inWidth], row = new double[classes];
+        for(int start = 0; start < count; start += block) {
+            int n = Math.min(block, count - start);
+            for(int e = 0; e < n; e++) decoder.decode(start + e, in, e * inWidth);
+            if(nn != null) nn.predictBatch(in, n, out);
+            for(int e = 0; e < n; e++) {
+                int label = labels.applyAsInt(start + e);
+                double[] expected = NeuralMath.getOutputForLabel(label, classes);
+                System.arraycopy(in, e * inWidth, pixels, 0, inWidth);
+                double[] qOut = qn.getOutput(pixels);
+                int qLabel = NeuralMath.getPredictedLabel(qOut);
+                qError += NeuralMath.getError(qOut, expected);
+                qAccuracy += (qLabel == label) ? 1.0 : 0.0;
+                if(nn != null) {
+                    System.arraycopy(out, e * classes, row, 0, classes);
+                    int predicted = NeuralMath.getPredictedLabel(row);
+                    error += NeuralMath.getError(row, expected);
+                    accuracy += (predicted == label) ? 1.0 : 0.0;
+                    agreement += (predicted == qLabel) ? 1.0 : 0.0;
+                }
             }
-            int label = (labelBytes.get() & 0xFF); //unsigned
-            double[] out = nn.triggerParallel(flatData).getOutput();
-            error += NeuralMath.getError(out, NeuralMath.getOutputForLabel(label, nn.getOutputLayer().getNeurons().length));
-            accuracy += (NeuralMath.getPredictedLabel(out) == label) ? 1.0 : 0.0;
-            //System.out.println("Predicted: " + NeuralMath.getPredictedLabel(out) + " Actual: " + label);
         }
-        error /= (double) numImg;
-        System.out.println(accuracy);
-        accuracy /= (double) numImg;
-        return new TestResult(error, accuracy);
+        return new Comparison(nn == null ? null : new TestResult(error / count, accuracy / count), new TestResult(qError / count, qAccuracy / count), agreement / count);
     }
     
     /**
@@ -148,4 +345,62 @@ public class Tester {
         
     }
     
+    /**
+     * Vergleich eines Netzes mit seiner quantisierten Version.
+     *
+     * @see Tester#compareQuantized(NeuralNetwork, QuantizedNetwork, ImageContainer.Set)
+     */
+    public static class Comparison {
+        
+        private final TestResult reference, quantized;
+        private final double agreement;
+
+        public Comparison(TestResult reference, TestResult quantized, double agreement) {
+            this.reference = reference;
+            this.quantized = quantized;
+            this.agreement = agreement;
+        }
+
+        /**
+         * Gibt das Testergebnis des ursprünglichen Netzes zurück.
+         *
+         * @return Testergebnis oder null, wenn nur das quantisierte Netz getestet wurde
+         */
+        public TestResult getReference() {
+            return reference;
+        }
+
+        public TestResult getQuantized() {
+            return quantized;
+        }
+
+        /**
+         * Gibt die Änderung der Accuracy durch die Quantisierung zurück
+         * (negativ, wenn das quantisierte Netz schlechter ist).
+         *
+         * @return
+         * @throws NullPointerException Wenn nur das quantisierte Netz getestet wurde
+         */
+        public double getAccuracyDelta() {
+            return quantized.getAccuracy() - reference.getAccuracy();
+        }
+
+        /**
+         * Gibt den Anteil der Bilder zurück, für die beide Netze dasselbe
+         * Label vorhersagen.
+         *
+         * @return
+         */
+        public double getAgreement() {
+            return agreement;
+        }
+
+        @Override
+        public String toString() {
+            if(reference == null) return "Accuracy " + quantized.getAccuracy();
+            return "Accuracy " + reference.getAccuracy() + " -> " + quantized.getAccuracy() + " (Delta " + getAccuracyDelta() + ", Übereinstimmung " + agreement + ")";
+        }
+        
+    }
+    
 }
@@ -0,0 +1,185 @@
+package de.fk.neuralnetwork.distributed;
+
+import de.fk.neuralnetwork.Main;
+import de.fk.neuralnetwork.NeuralNetwork;
+import de.fk.neuralnetwork.data.IdxReader;
+import de.fk.neuralnetwork.data.ImageContainer;
+import de.fk.neuralnetwork.data.ImageStore;
+import de.fk.neuralnetwork.data.LabeledImage;
+import de.fk.neuralnetwork.learning.Backpropagator;
+import de.fk.neuralnetwork.training.LabeledImageTrainingSupplier;
+import de.fk.neuralnetwork.training.PrefetchingTrainingSupplier;
+import de.fk.neuralnetwork.training.TrainingSupplier;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.List;
+import java.util.function.BiFunction;
+
+/**
+ * Worker für datenparalleles Training über mehrere Prozesse (siehe
+ * ParameterServer).
+ *
+ * Der Worker verbindet sich mit dem Server, übernimmt dessen Startgewichte
+ * und erfährt seinen Index sowie die Anzahl aller Worker, aus denen er sich
+ * seinen Teil der Trainingsbeispiele erzeugen lässt. In jeder Runde trainiert
+ * er mit dem Backpropagator eine Iteration (einmal alle Beispiele seines
+ * Teils), schickt die Gewichte an den Server und setzt mit den gemittelten
+ * Gewichten fort. Gewichtsänderungen (Momentum) und Lernrate bleiben lokal.
+ *
+ * Aufruf als eigener Prozess (Netz wie Main#NET_ARCHITECTURE):
+ * <pre>
+ * DataParallelWorker host port imageFile labelFile [learningRate]
+ * </pre>
+ *
+ * @author Felix
+ * @see ParameterServer
+ */
+public class DataParallelWorker {
+
+    private final NeuralNetwork net;
+    private final Backpropagator bp;
+    private final BiFunction<Integer, Integer, TrainingSupplier> shards;
+    private final int weightCount;
+    private int index, workers, round;
+    private long trainNanos, totalNanos;
+
+    /**
+     * Erstellt einen neuen Worker.
+     *
+     * @param net Netz (PackedNeuralLayers mit FP64-Gewichten), das der Backpropagator trainiert
+     * @param bp Backpropagator für das Netz
+     * @param shards Erzeugt aus Index und Anzahl der Worker den TrainingSupplier dieses Workers
+     * @throws IllegalArgumentException Wenn das Netz nicht passt
+     */
+    public DataParallelWorker(NeuralNetwork net, Backpropagator bp, BiFunction<Integer, Integer, TrainingSupplier> shards) throws IllegalArgumentException {
+        this.net = net;
+        this.bp = bp;
+        this.shards = shards;
+        this.weightCount = Protocol.countWeights(net);
+    }
+
+    /**
+     * Verbindet sich mit dem Server und trainiert, bis alle Runden
+     * abgeschlossen sind. Blockiert bis dahin.
+     *
+     * @param host Adresse des Servers
+     * @param port Port des Servers
+     * @throws IOException Verbindungsfehler oder vom Server abgewiesen
+     * @throws InterruptedException Wenn der Thread beim Training unterbrochen wird
+     */
+    public void run(String host, int port) throws IOException, InterruptedException {
+        byte[] buffer = new byte[weightCount * Double.BYTES];
+        double[] weights = new double[weightCount];
+        long start = System.nanoTime();
+        try(Socket socket = new Socket(host, port)) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeInt(Protocol.MAGIC_NUMBER);
+            out.writeInt(Protocol.VERSION);
+            out.writeInt(weightCount);
+            out.flush();
+            index = in.readInt();
+            if(index < 0) throw new IOException("Der Server hat die Verbindung abgewiesen (unpassendes Netz oder Protokoll).");
+            workers = in.readInt();
+            int rounds = in.readInt();
+            Protocol.readWeights(in, weights, buffer);
+            Protocol.setWeights(net, weights);
+            TrainingSupplier supplier = shards.apply(index, workers);
+            try {
+                for(round = 0; round < rounds; round++) {
+                    long t = System.nanoTime();
+                    bp.train(supplier, 1).join();
+                    long compute = System.nanoTime() - t;
+                    trainNanos += compute;
+                    Protocol.getWeights(net, weights);
+                    out.writeInt(supplier.getExampleCount());
+                    out.writeDouble(bp.getTrainingState().getLastTrainingError());
+                    out.writeLong(compute);
+                    Protocol.writeWeights(out, weights, buffer);
+                    out.flush();
+                    Protocol.readWeights(in, weights, buffer);
+                    Protocol.setWeights(net, weights);
+                }
+            } finally {
+                supplier.close();
+            }
+        } finally {
+            totalNanos = System.nanoTime() - start;
+        }
+    }
+
+    public NeuralNetwork getNet() {
+        return net;
+    }
+
+    /**
+     * Gibt den vom Server zugeteilten Index zurück.
+     *
+     * @return
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * Gibt die Anzahl der abgeschlossenen Runden zurück.
+     *
+     * @return
+     */
+    public int getRound() {
+        return round;
+    }
+
+    /**
+     * Gibt den Anteil der Laufzeit zurück, der auf das Training entfiel (der
+     * Rest auf Übertragung und Warten auf andere Worker).
+     *
+     * @return
+     */
+    public double getComputeFraction() {
+        return totalNanos > 0 ? trainNanos / (double) totalNanos : 0;
+    }
+
+    /**
+     * Teilt eine Liste in workers etwa gleich große, zusammenhängende Teile
+     * und gibt den Teil mit dem übergebenen Index zurück.
+     *
+     * @param <T> Typ der Elemente
+     * @param list Liste
+     * @param index Index des Teils
+     * @param workers Anzahl der Teile
+     * @return Ansicht auf den Teil (keine Kopie)
+     */
+    public static <T> List<T> shard(List<T> list, int index, int workers) {
+        int size = list.size();
+        return list.subList((int) ((long) size * index / workers), (int) ((long) size * (index + 1) / workers));
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if(args.length < 4) {
+            System.out.println("DataParallelWorker host port imageFile labelFile [learningRate]");
+            return;
+        }
+        ImageStore images = IdxReader.map(args[2], args[3], Integer.MAX_VALUE, ImageContainer.FileFormat.MNIST);
+        List<LabeledImage> all = images.views();
+        NeuralNetwork net = new NeuralNetwork(true, Main.NET_ARCHITECTURE);
+        Backpropagator bp = new Backpropagator(0, net, args.length > 4 ? Double.parseDouble(args[4]) : Main.LEARNING_RATE, 0, 0);
+        bp.setDebugStream(null);
+        DataParallelWorker worker = new DataParallelWorker(net, bp, (index, workers) -> {
+            List<LabeledImage> shard = shard(all, index, workers);
+            return new PrefetchingTrainingSupplier(new LabeledImageTrainingSupplier(() -> shard, images.getCols(), images.getRows(), Main.NET_ARCHITECTURE[Main.NET_ARCHITECTURE.length - 1], Main.AUTO_TRANSFORM, index), Main.PREFETCH_BATCH_SIZE);
+        });
+        worker.run(args[0], Integer.parseInt(args[1]));
+        System.out.println(String.format("Worker %d/%d: %d Runden, Rechenanteil %.3f", worker.getIndex(), worker.getWorkers(), worker.getRound(), worker.getComputeFraction()));
+    }
+
+}
@@ -0,0 +1,371 @@
+package de.fk.neuralnetwork.distributed;
+
+import de.fk.neuralnetwork.NeuralNetwork;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Parameter-Server für datenparalleles Training über mehrere Prozesse.
+ *
+ * Jeder Worker (siehe DataParallelWorker) trainiert eine Kopie des Netzes
+ * mit seinem Teil der Trainingsbeispiele und schickt nach jeder Runde seine
+ * Gewichte. Sobald alle Worker ihre Gewichte geschickt haben, werden sie mit
+ * der Anzahl der jeweils trainierten Beispiele gewichtet gemittelt, in das
+ * Netz des Servers übernommen und an alle Worker zurückgeschickt, die damit
+ * die nächste Runde beginnen. Jeder Worker wird von einem eigenen Thread
+ * bedient; gemittelt wird wie bei Backpropagator#trainParallel in der
+ * Aktion einer CyclicBarrier.
+ *
+ * Pro Runde werden Durchsatz und Effizienz erfasst. Die Effizienz ist der
+ * Anteil der Rundenzeit, den die Worker im Mittel mit Rechnen verbringen
+ * (1 bedeutet, dass weder Kommunikation noch Warten auf langsamere Worker
+ * Zeit kosten).
+ *
+ * Das Annehmen der Verbindungen und jedes Lesen von einem Worker ist durch
+ * ein Timeout begrenzt (siehe setTimeout), damit der Server nicht ewig
+ * wartet, wenn ein Worker abstürzt, bevor er sich verbindet, oder hängen
+ * bleibt. Der Fehler ist danach über getFailure() abrufbar.
+ *
+ * @author Felix
+ * @see DataParallelWorker
+ */
+public class ParameterServer implements Closeable {
+
+    /**
+     * Standard-Timeout in Millisekunden für das Annehmen einer Verbindung und
+     * für das Warten auf die Gewichte eines Workers (eine Runde).
+     */
+    public static final int DEFAULT_TIMEOUT = 10 * 60 * 1000;
+
+    private final NeuralNetwork net;
+    private final int workers, rounds, weightCount;
+    private final ServerSocket serverSocket;
+    private final Socket[] sockets;
+    private final double[][] workerWeights;
+    private final double[] averaged, trainErrors;
+    private final int[] examples;
+    private final long[] computeNanos;
+    private final CyclicBarrier roundBarrier;
+    private OutputStream logStream = null;
+    private int timeout = DEFAULT_TIMEOUT;
+    private volatile Throwable failure;
+    private volatile int round;
+    private long roundStart, totalExamples, totalWallNanos, totalComputeNanos;
+    private double lastTError;
+
+    /**
+     * Erstellt einen ParameterServer und öffnet den Port. Verbindungen werden
+     * erst nach start() angenommen.
+     *
+     * @param net Startnetz (PackedNeuralLayers mit FP64-Gewichten); enthält nach dem Training das gemittelte Netz
+     * @param port Port (0 für einen freien Port, siehe getPort())
+     * @param workers Anzahl der Worker
+     * @param rounds Anzahl der Runden
+     * @throws IOException Wenn der Port nicht geöffnet werden kann
+     * @throws IllegalArgumentException Wenn das Netz nicht passt oder weniger als ein Worker bzw. eine Runde angegeben ist
+     */
+    public ParameterServer(NeuralNetwork net, int port, int workers, int rounds) throws IOException, IllegalArgumentException {
+        if(workers < 1 || rounds < 1) throw new IllegalArgumentException("Es werden mindestens ein Worker und eine Runde benötigt.");
+        this.net = net;
+        this.workers = workers;
+        this.rounds = rounds;
+        this.weightCount = Protocol.countWeights(net);
+        this.sockets = new Socket[workers];
+        this.workerWeights = new double[workers][weightCount];
+        this.averaged = new double[weightCount];
+        this.trainErrors = new double[workers];
+        this.examples = new int[workers];
+        this.computeNanos = new long[workers];
+        this.roundBarrier = new CyclicBarrier(workers, this::average);
+        this.serverSocket = new ServerSocket(port);
+        Protocol.getWeights(net, averaged);
+    }
+
+    /**
+     * Gibt den tatsächlich geöffneten Port zurück.
+     *
+     * @return
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public InetAddress getAddress() {
+        return serverSocket.getInetAddress();
+    }
+
+    public NeuralNetwork getNet() {
+        return net;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public int getRounds() {
+        return rounds;
+    }
+
+    /**
+     * Gibt die Anzahl der abgeschlossenen Runden zurück.
+     *
+     * @return
+     */
+    public int getRound() {
+        return round;
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Setzt das Timeout für das Annehmen einer Verbindung und für jedes Lesen
+     * von einem Worker. Muss vor start() gesetzt werden und mindestens so lang
+     * sein wie die Rechenzeit eines Workers für eine Runde.
+     *
+     * @param timeout Timeout in Millisekunden (0 für unbegrenzt)
+     * @throws IllegalArgumentException Wenn das Timeout negativ ist
+     */
+    public void setTimeout(int timeout) throws IllegalArgumentException {
+        if(timeout < 0) throw new IllegalArgumentException("Das Timeout darf nicht negativ sein.");
+        this.timeout = timeout;
+    }
+
+    /**
+     * Setzt den Stream, in den nach jeder Runde eine Zeile
+     * "round time examples trainerror throughput efficiency" geschrieben
+     * wird.
+     *
+     * @param logStream Stream oder null
+     */
+    public void setLogStream(OutputStream logStream) {
+        this.logStream = logStream;
+    }
+
+    private void log(String msg) {
+        if(logStream != null) try {
+            logStream.write((msg + "\r\n").getBytes("UTF-8"));
+            logStream.flush();
+        } catch (IOException ex) {
+            Logger.getLogger(ParameterServer.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * Nimmt in einem eigenen Thread die Verbindungen aller Worker an und
+     * bedient sie, bis alle Runden abgeschlossen sind.
+     *
+     * @return Thread des Servers; endet nach der letzten Runde oder bei einem Fehler
+     */
+    public Thread start() {
+        Thread serverThread = new Thread(this::serve, "ParameterServer");
+        serverThread.start();
+        return serverThread;
+    }
+
+    private void serve() {
+        Thread[] handlers = new Thread[workers];
+        try {
+            log("round time examples trainerror throughput efficiency");
+            for(int i = 0; i < workers; i++) sockets[i] = accept(i);
+            roundStart = System.nanoTime();
+            for(int i = 0; i < workers; i++) {
+                final int index = i;
+                handlers[i] = new Thread(() -> handle(index), "ParameterServer#" + i);
+                handlers[i].start();
+            }
+            for(Thread t : handlers) t.join();
+        } catch (IOException | RuntimeException ex) {
+            fail(ex);
+        } catch (InterruptedException ex) {
+            fail(ex);
+            Thread.currentThread().interrupt();
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Nimmt die nächste Verbindung an und führt den Handshake aus. Worker mit
+     * unpassendem Netz werden abgewiesen.
+     *
+     * @throws SocketTimeoutException Wenn sich innerhalb des Timeouts kein Worker verbindet oder der Handshake ausbleibt
+     */
+    private Socket accept(int index) throws IOException {
+        serverSocket.setSoTimeout(timeout);
+        for(;;) {
+            Socket socket = serverSocket.accept();
+            //Schon während des Handshakes von close() erfasst
+            sockets[index] = socket;
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(timeout);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            int magic = in.readInt(), version = in.readInt(), count = in.readInt();
+            if(magic != Protocol.MAGIC_NUMBER || version != Protocol.VERSION || count != weightCount) {
+                Logger.getLogger(ParameterServer.class.getName()).log(Level.WARNING, "Worker {0} abgewiesen: Version {1}, {2} statt {3} Gewichte.", new Object[]{socket.getRemoteSocketAddress(), version, count, weightCount});
+                out.writeInt(-1);
+                out.flush();
+                socket.close();
+                continue;
+            }
+            out.writeInt(index);
+            out.writeInt(workers);
+            out.writeInt(rounds);
+            Protocol.writeWeights(out, averaged, new byte[weightCount * Double.BYTES]);
+            out.flush();
+            return socket;
+        }
+    }
+
+    private void handle(int index) {
+        byte[] buffer = new byte[weightCount * Double.BYTES];
+        try {
+            Socket socket = sockets[index];
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            for(int r = 0; r < rounds; r++) {
+                examples[index] = in.readInt();
+                trainErrors[index] = in.readDouble();
+                computeNanos[index] = in.readLong();
+                Protocol.readWeights(in, workerWeights[index], buffer);
+                roundBarrier.await();
+                Protocol.writeWeights(out, averaged, buffer);
+                out.flush();
+            }
+        } catch (IOException | BrokenBarrierException ex) {
+            fail(ex);
+        } catch (InterruptedException ex) {
+            fail(ex);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Mittelt die Gewichte aller Worker (Aktion der Barriere, läuft in genau
+     * einem Thread, während alle anderen warten).
+     */
+    private void average() {
+        long now = System.nanoTime(), wall = now - roundStart, compute = 0;
+        int total = 0;
+        double error = 0;
+        for(int i = 0; i < workers; i++) {
+            total += examples[i];
+            compute += computeNanos[i];
+            error += trainErrors[i] * examples[i];
+        }
+        for(int j = 0; j < weightCount; j++) {
+            double sum = 0;
+            if(total > 0) for(int i = 0; i < workers; i++) sum += workerWeights[i][j] * examples[i];
+            else for(int i = 0; i < workers; i++) sum += workerWeights[i][j];
+            averaged[j] = sum / (total > 0 ? total : workers);
+        }
+        Protocol.setWeights(net, averaged);
+        lastTError = total > 0 ? error / total : 0;
+        totalExamples += total;
+        totalWallNanos += wall;
+        totalComputeNanos += compute;
+        log(round + " " + (System.currentTimeMillis() / 1000) + " " + total + " " + lastTError + " "
+                + (total * 1e9 / wall) + " " + (compute / (double) workers / wall));
+        round++;
+        //Die Übertragung der gemittelten Gewichte zählt zur nächsten Runde
+        roundStart = System.nanoTime();
+    }
+
+    /**
+     * Gibt den nach Beispielen gewichteten Trainingsfehler der letzten Runde
+     * zurück.
+     *
+     * @return
+     */
+    public double getLastTrainingError() {
+        return lastTError;
+    }
+
+    /**
+     * Gibt die Anzahl der von allen Workern zusammen trainierten Beispiele
+     * zurück.
+     *
+     * @return
+     */
+    public long getTotalExamples() {
+        return totalExamples;
+    }
+
+    /**
+     * Gibt die Summe der Rundenzeiten in Nanosekunden zurück.
+     *
+     * @return
+     */
+    public long getTotalTime() {
+        return totalWallNanos;
+    }
+
+    /**
+     * Gibt den Durchsatz aller Worker zusammen in Beispielen pro Sekunde
+     * zurück.
+     *
+     * @return
+     */
+    public double getThroughput() {
+        return totalWallNanos > 0 ? totalExamples * 1e9 / totalWallNanos : 0;
+    }
+
+    /**
+     * Gibt den mittleren Anteil der Rundenzeit zurück, den die Worker mit
+     * Rechnen verbracht haben (zwischen 0 und 1). Der Rest entfällt auf die
+     * Übertragung und das Mitteln der Gewichte sowie das Warten auf den
+     * langsamsten Worker.
+     *
+     * @return
+     */
+    public double getEfficiency() {
+        return totalWallNanos > 0 ? totalComputeNanos / (double) workers / totalWallNanos : 0;
+    }
+
+    /**
+     * Gibt den Fehler zurück, an dem das Training gescheitert ist.
+     *
+     * @return Fehler oder null
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    private synchronized void fail(Throwable ex) {
+        if(failure != null) return;
+        failure = ex;
+        Logger.getLogger(ParameterServer.class.getName()).log(Level.SEVERE, null, ex);
+        //Andere Handler nicht an der Barriere hängen lassen
+        roundBarrier.reset();
+        close();
+    }
+
+    /**
+     * Schließt den Port und alle Verbindungen.
+     */
+    @Override
+    public void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException ex) { }
+        for(Socket socket : sockets) if(socket != null) try {
+            socket.close();
+        } catch (IOException ex) { }
+    }
+
+}
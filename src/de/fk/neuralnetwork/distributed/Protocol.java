@@ -0,0 +1,112 @@
+package de.fk.neuralnetwork.distributed;
+
+import de.fk.neuralnetwork.NeuralLayer;
+import de.fk.neuralnetwork.NeuralNetwork;
+import de.fk.neuralnetwork.PackedNeuralLayer;
+import de.fk.neuralnetwork.math.Precision;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Gemeinsame Konstanten und Hilfsmethoden für ParameterServer und
+ * DataParallelWorker.
+ *
+ * Ablauf einer Verbindung (Ganzzahlen Big Endian wie bei DataOutputStream,
+ * Gewichte als Block von Doubles in Little Endian wie bei BinaryFileIO):
+ * <pre>
+ * Worker -&gt; Server: int Magic Number, int Version, int Anzahl Gewichte
+ * Server -&gt; Worker: int Index des Workers, int Anzahl Worker, int Runden, double[] Startgewichte
+ * je Runde:
+ *   Worker -&gt; Server: int Beispiele, double Trainingsfehler, long Rechenzeit in ns, double[] Gewichte
+ *   Server -&gt; Worker: double[] gemittelte Gewichte
+ * </pre>
+ * Passt die Anzahl der Gewichte nicht, schreibt der Server statt des Index
+ * -1 und schließt die Verbindung.
+ *
+ * @author Felix
+ */
+final class Protocol {
+
+    /**
+     * Magic Number einer Verbindung ("PSRV").
+     */
+    static final int MAGIC_NUMBER = 0x56525350;
+
+    /**
+     * Version des Protokolls.
+     */
+    static final int VERSION = 1;
+
+    private Protocol() {}
+
+    /**
+     * Überprüft, ob alle Schichten PackedNeuralLayers mit FP64-Gewichten sind,
+     * und gibt die Gesamtzahl der Gewichte zurück.
+     *
+     * @param net Neuronales Netz
+     * @return Anzahl der Gewichte aller Schichten
+     * @throws IllegalArgumentException Wenn eine Schicht nicht gepackt ist oder float-Gewichte hat
+     */
+    static int countWeights(NeuralNetwork net) throws IllegalArgumentException {
+        int count = 0;
+        for(NeuralLayer layer : net.getLayers()) {
+            if(!(layer instanceof PackedNeuralLayer) || ((PackedNeuralLayer) layer).getPrecision() != Precision.FP64)
+                throw new IllegalArgumentException("Das Netz muss aus PackedNeuralLayers mit FP64-Gewichten bestehen.");
+            count += ((PackedNeuralLayer) layer).getWeightCount();
+        }
+        return count;
+    }
+
+    /**
+     * Kopiert die Gewichte aller Schichten hintereinander in einen Array.
+     */
+    static void getWeights(NeuralNetwork net, double[] out) {
+        int offset = 0;
+        for(NeuralLayer layer : net.getLayers()) {
+            double[] weights = ((PackedNeuralLayer) layer).getWeights();
+            System.arraycopy(weights, 0, out, offset, weights.length);
+            offset += weights.length;
+        }
+    }
+
+    /**
+     * Überschreibt die Gewichte aller Schichten. Die Gewichtsänderungen
+     * (Momentum) bleiben unverändert.
+     */
+    static void setWeights(NeuralNetwork net, double[] in) {
+        int offset = 0;
+        for(NeuralLayer layer : net.getLayers()) {
+            double[] weights = ((PackedNeuralLayer) layer).getWeights();
+            System.arraycopy(in, offset, weights, 0, weights.length);
+            offset += weights.length;
+        }
+    }
+
+    /**
+     * Schreibt Gewichte als Block von Doubles (Little Endian).
+     *
+     * @param out Ziel
+     * @param weights Gewichte
+     * @param buffer Puffer mit mind. 8 x weights.length Bytes
+     */
+    static void writeWeights(DataOutputStream out, double[] weights, byte[] buffer) throws IOException {
+        ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().put(weights);
+        out.write(buffer, 0, weights.length * Double.BYTES);
+    }
+
+    /**
+     * Liest Gewichte als Block von Doubles (Little Endian).
+     *
+     * @param in Quelle
+     * @param weights Ziel
+     * @param buffer Puffer mit mind. 8 x weights.length Bytes
+     */
+    static void readWeights(DataInputStream in, double[] weights, byte[] buffer) throws IOException {
+        in.readFully(buffer, 0, weights.length * Double.BYTES);
+        ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(weights);
+    }
+
+}
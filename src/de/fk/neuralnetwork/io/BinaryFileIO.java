@@ -0,0 +1,414 @@
+package de.fk.neuralnetwork.io;
+
+import de.fk.neuralnetwork.BasicNeuron;
+import de.fk.neuralnetwork.BiasNeuron;
+import de.fk.neuralnetwork.NeuralLayer;
+import de.fk.neuralnetwork.NeuralNetwork;
+import de.fk.neuralnetwork.Neuron;
+import de.fk.neuralnetwork.PackedNeuralLayer;
+import de.fk.neuralnetwork.math.ActivationFunction;
+import de.fk.neuralnetwork.math.Precision;
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Zum Speichern und Öffnen eines neuronalen Netzes in einem kompakten
+ * Binärformat (*.bnet). Im Gegensatz zum JSON-Format werden die Gewichte
+ * unverändert als Blöcke von Doubles (bzw. Floats bei Netzen mit
+ * FP32-Gewichten) geschrieben und gelesen.
+ *
+ * Aufbau (alle Werte Little Endian):
+ * <pre>
+ * int     Magic Number ("BNET")
+ * int     Version
+ * int     Flags (Bit 0: Input Bias, Bit 1: Momentum, Bit 2: Metadaten)
+ * int     Anzahl Eingabeneuronen
+ * int     Anzahl Schichten
+ * int     Typ der Gewichte (0: double, 1: float)
+ * falls Metadaten:
+ *   int    Länge in Bytes
+ *   byte[] Metadaten (UTF-8)
+ * je Schicht:
+ *   int      ID der Aktivierungsfunktion
+ *   int      Flags (Bit 0: Bias-Neuron an Position 0)
+ *   int      Anzahl Neuronen ohne Bias (Zeilen)
+ *   int      Anzahl Vorgängerneuronen (Spalten)
+ *   int      Anzahl Argumente der Aktivierungsfunktion
+ *   double[] Argumente
+ * Auffüllen auf ein Vielfaches von 8 Bytes
+ * je Schicht: Gewichtsmatrix (Zeilen x Spalten, zeilenweise)
+ * falls Momentum:
+ *   je Schicht: Gewichtsänderungen (wie die Gewichtsmatrix)
+ * </pre>
+ *
+ * Die Gewichtsänderungen (Momentum) und frei wählbare Metadaten werden nur
+ * für Checkpoints mitgespeichert, um ein Training exakt fortsetzen zu können.
+ *
+ * Es können nur Schichten gespeichert werden, deren Bias-Neuron (falls
+ * vorhanden) an Position 0 steht und deren Neuronen gleich viele Gewichte
+ * besitzen (wie bei PackedNeuralLayer).
+ *
+ * @author Felix
+ * @see FileIO
+ */
+public class BinaryFileIO {
+
+    /**
+     * Dateiendung des Binärformats.
+     */
+    public static final String EXTENSION = "bnet";
+
+    /**
+     * Magic Number einer Binärdatei ("BNET").
+     */
+    public static final int MAGIC_NUMBER = 0x54454E42;
+
+    /**
+     * Aktuelle Version des Binärformats.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Typ der Gewichte: 64 Bit Gleitkommazahlen.
+     */
+    public static final int WEIGHT_TYPE_DOUBLE = 0;
+
+    /**
+     * Typ der Gewichte: 32 Bit Gleitkommazahlen.
+     */
+    public static final int WEIGHT_TYPE_FLOAT = 1;
+
+    private static final int FLAG_BIAS = 1, FLAG_MOMENTUM = 2, FLAG_METADATA = 4;
+    private static final int NET_HEADER_SIZE = 24, LAYER_HEADER_SIZE = 20;
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private BinaryFileIO() {
+    }
+
+    /**
+     * Speichert ein neuronales Netz im Binärformat in einer Datei (*.bnet).
+     * Netze mit FP32-Gewichten werden als float gespeichert.
+     *
+     * @param f Datei
+     * @param net Neuronales Netz
+     * @throws IOException Schreibfehler
+     * @throws IllegalArgumentException Wenn eine Schicht nicht im Binärformat gespeichert werden kann
+     */
+    public static final void write(File f, NeuralNetwork net) throws IOException {
+        write(f, net, false, null);
+    }
+
+    /**
+     * Speichert ein neuronales Netz im Binärformat in einer Datei (*.bnet),
+     * optional mit den Gewichtsänderungen (Momentum) und Metadaten.
+     *
+     * @param f Datei
+     * @param net Neuronales Netz
+     * @param momentum true, wenn die Gewichtsänderungen mitgespeichert werden sollen
+     * @param metadata Metadaten (z.B. JSON) oder null
+     * @throws IOException Schreibfehler
+     * @throws IllegalArgumentException Wenn eine Schicht nicht im Binärformat gespeichert werden kann
+     * @see BinaryFileIO#readMetadata(File)
+     */
+    public static final void write(File f, NeuralNetwork net, boolean momentum, String metadata) throws IOException {
+        NeuralLayer[] layers = net.getLayers();
+        boolean fp32 = net.getPrecision() == Precision.FP32;
+        byte[] meta = metadata == null ? null : metadata.getBytes(StandardCharsets.UTF_8);
+        int[] rows = new int[layers.length], cols = new int[layers.length];
+        int headerSize = NET_HEADER_SIZE + (meta == null ? 0 : 4 + meta.length);
+        for(int i = 0; i < layers.length; i++) {
+            rows[i] = layers[i].getNeuronCount() - (layers[i].hasBias() ? 1 : 0);
+            cols[i] = connectedNeuronsOf(layers[i], i);
+            headerSize += LAYER_HEADER_SIZE + 8 * layers[i].getActivationFunction().getArgs().length;
+        }
+        //Header
+        ByteBuffer header = ByteBuffer.allocate(align(headerSize)).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC_NUMBER).putInt(VERSION)
+                .putInt((net.isInputBias() ? FLAG_BIAS : 0) | (momentum ? FLAG_MOMENTUM : 0) | (meta != null ? FLAG_METADATA : 0))
+                .putInt(net.getInputNeurons())
+                .putInt(layers.length)
+                .putInt(fp32 ? WEIGHT_TYPE_FLOAT : WEIGHT_TYPE_DOUBLE);
+        if(meta != null) header.putInt(meta.length).put(meta);
+        for(int i = 0; i < layers.length; i++) {
+            ActivationFunction act = layers[i].getActivationFunction();
+            double[] args = act.getArgs();
+            header.putInt(act.getId())
+                    .putInt(layers[i].hasBias() ? FLAG_BIAS : 0)
+                    .putInt(rows[i])
+                    .putInt(cols[i])
+                    .putInt(args.length);
+            for(double arg : args) header.putDouble(arg);
+        }
+        ((Buffer) header).clear();
+        try(FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, header);
+            //Gewichte blockweise über einen wiederverwendeten Puffer schreiben
+            ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            DoubleBuffer doubles = chunk.asDoubleBuffer();
+            FloatBuffer floats = chunk.asFloatBuffer();
+            for(NeuralLayer layer : layers) writeLayer(channel, chunk, doubles, floats, layer, false);
+            if(momentum) for(NeuralLayer layer : layers) writeLayer(channel, chunk, doubles, floats, layer, true);
+        }
+    }
+
+    private static void writeLayer(FileChannel channel, ByteBuffer chunk, DoubleBuffer doubles, FloatBuffer floats, NeuralLayer layer, boolean momentum) throws IOException {
+        if(layer instanceof PackedNeuralLayer) {
+            PackedNeuralLayer packed = (PackedNeuralLayer) layer;
+            if(packed.getPrecision() == Precision.FP32) writeFloats(channel, chunk, floats, momentum ? packed.getWeightsChangeFloat() : packed.getWeightsFloat());
+            else writeDoubles(channel, chunk, doubles, momentum ? packed.getWeightsChange() : packed.getWeights());
+        } else for(Neuron neuron : layer.getNeurons())
+            if(neuron instanceof BasicNeuron) {
+                BasicNeuron basic = (BasicNeuron) neuron;
+                writeDoubles(channel, chunk, doubles, momentum ? basic.getWeightsChange() : basic.getWeights());
+            }
+    }
+
+    private static int connectedNeuronsOf(NeuralLayer layer, int index) {
+        if(layer instanceof PackedNeuralLayer) return ((PackedNeuralLayer) layer).getConnectedNeurons();
+        Neuron[] neurons = layer.getNeurons();
+        int cols = -1;
+        for(int i = 0; i < neurons.length; i++) {
+            if(neurons[i] instanceof BasicNeuron) {
+                int len = ((BasicNeuron) neurons[i]).getWeights().length;
+                if(cols >= 0 && len != cols)
+                    throw new IllegalArgumentException("Schicht " + index + " kann nicht im Binärformat gespeichert werden: Alle Neuronen müssen gleich viele Gewichte besitzen.");
+                cols = len;
+            } else if(!(i == 0 && neurons[i] instanceof BiasNeuron))
+                throw new IllegalArgumentException("Schicht " + index + " kann nicht im Binärformat gespeichert werden: Ein Bias-Neuron ist nur an Position 0 zulässig.");
+        }
+        return Math.max(cols, 0);
+    }
+
+    private static void writeDoubles(FileChannel channel, ByteBuffer chunk, DoubleBuffer doubles, double[] values) throws IOException {
+        for(int off = 0; off < values.length; ) {
+            int n = Math.min(doubles.capacity(), values.length - off);
+            ((Buffer) doubles).clear();
+            doubles.put(values, off, n);
+            ((Buffer) chunk).clear();
+            ((Buffer) chunk).limit(n * 8);
+            writeFully(channel, chunk);
+            off += n;
+        }
+    }
+
+    private static void writeFloats(FileChannel channel, ByteBuffer chunk, FloatBuffer floats, float[] values) throws IOException {
+        for(int off = 0; off < values.length; ) {
+            int n = Math.min(floats.capacity(), values.length - off);
+            ((Buffer) floats).clear();
+            floats.put(values, off, n);
+            ((Buffer) chunk).clear();
+            ((Buffer) chunk).limit(n * 4);
+            writeFully(channel, chunk);
+            off += n;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    private static int align(int size) {
+        return (size + 7) & ~7;
+    }
+
+    /**
+     * Öffnet ein neuronales Netz aus einer Datei im Binärformat (*.bnet).
+     *
+     * @param f Datei
+     * @return Neuronales Netz
+     * @throws IOException Lesefehler oder ungültige Datei
+     */
+    public static final NeuralNetwork read(File f) throws IOException {
+        return read(f, false, false);
+    }
+
+    /**
+     * Öffnet ein neuronales Netz aus einer Datei im Binärformat (*.bnet).
+     *
+     * @param f Datei
+     * @param packed true, wenn die Schichten als PackedNeuralLayer geladen werden sollen
+     * @return Neuronales Netz
+     * @throws IOException Lesefehler oder ungültige Datei
+     */
+    public static final NeuralNetwork read(File f, boolean packed) throws IOException {
+        return read(f, packed, false);
+    }
+
+    /**
+     * Öffnet ein neuronales Netz aus einer Datei im Binärformat (*.bnet).
+     * Als float gespeicherte Gewichte werden in PackedNeuralLayers mit FP32
+     * geladen, in Schichten mit einzelnen Neuronen in double umgewandelt.
+     * Die Datei wird auf Wunsch in den Speicher abgebildet, anstatt sie
+     * einzulesen; die Gewichte werden in beiden Fällen am Stück in die
+     * Schichten kopiert.
+     *
+     * @param f Datei
+     * @param packed true, wenn die Schichten als PackedNeuralLayer geladen werden sollen
+     * @param mapped true, wenn die Datei per FileChannel.map abgebildet werden soll
+     * @return Neuronales Netz
+     * @throws IOException Lesefehler oder ungültige Datei
+     */
+    public static final NeuralNetwork read(File f, boolean packed, boolean mapped) throws IOException {
+        ByteBuffer buffer = open(f, mapped);
+        try {
+            return read(buffer, packed);
+        } catch (BufferUnderflowException ex) {
+            throw new IOException("Die Datei '" + f + "' ist unvollständig.", ex);
+        }
+    }
+
+    /**
+     * Liest nur die Metadaten einer Datei im Binärformat (*.bnet).
+     *
+     * @param f Datei
+     * @return Metadaten oder null, wenn keine gespeichert wurden
+     * @throws IOException Lesefehler oder ungültige Datei
+     */
+    public static final String readMetadata(File f) throws IOException {
+        try {
+            return new Header(open(f, true)).metadata;
+        } catch (BufferUnderflowException ex) {
+            throw new IOException("Die Datei '" + f + "' ist unvollständig.", ex);
+        }
+    }
+
+    private static ByteBuffer open(File f, boolean mapped) throws IOException {
+        ByteBuffer buffer;
+        try(FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if(size > Integer.MAX_VALUE) throw new IOException("Die Datei '" + f + "' ist zu groß.");
+            if(mapped) buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            else {
+                buffer = ByteBuffer.allocate((int) size);
+                while(buffer.hasRemaining()) if(channel.read(buffer) < 0) break;
+                ((Buffer) buffer).flip();
+            }
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    private static NeuralNetwork read(ByteBuffer buffer, boolean packed) throws IOException {
+        Header h = new Header(buffer);
+        int layerCount = h.acts.length;
+        int weightsStart = align(buffer.position());
+        long expected = weightsStart + (long) h.precision.getBytes() * h.weightCount * (h.momentum ? 2 : 1);
+        if(buffer.limit() < expected)
+            throw new IOException("Die Datei ist unvollständig: " + expected + " Bytes erwartet, aber nur " + buffer.limit() + " vorhanden.");
+        ((Buffer) buffer).position(weightsStart);
+        boolean fp32 = h.precision == Precision.FP32;
+        DoubleBuffer doubles = buffer.asDoubleBuffer();
+        FloatBuffer floats = buffer.asFloatBuffer();
+        //Gewichte
+        NeuralLayer[] layers = new NeuralLayer[layerCount];
+        for(int i = 0; i < layerCount; i++) {
+            int rows = h.rows[i], cols = h.cols[i];
+            if(packed && fp32) {
+                float[] weights = new float[rows * cols];
+                floats.get(weights);
+                layers[i] = new PackedNeuralLayer(h.acts[i], cols, rows, h.bias[i], weights);
+            } else if(packed) {
+                double[] weights = new double[rows * cols];
+                doubles.get(weights);
+                layers[i] = new PackedNeuralLayer(h.acts[i], cols, rows, h.bias[i], weights);
+            } else {
+                int b = h.bias[i] ? 1 : 0;
+                Neuron[] neurons = new Neuron[rows + b];
+                if(h.bias[i]) neurons[0] = new BiasNeuron();
+                for(int r = 0; r < rows; r++) {
+                    double[] weights = new double[cols];
+                    if(fp32) getFloats(floats, weights);
+                    else doubles.get(weights);
+                    neurons[r + b] = new BasicNeuron(weights);
+                }
+                layers[i] = new NeuralLayer(h.acts[i], neurons);
+            }
+        }
+        //Gewichtsänderungen
+        if(h.momentum) for(NeuralLayer layer : layers) {
+            if(layer instanceof PackedNeuralLayer) {
+                if(fp32) floats.get(((PackedNeuralLayer) layer).getWeightsChangeFloat());
+                else doubles.get(((PackedNeuralLayer) layer).getWeightsChange());
+            } else for(Neuron neuron : layer.getNeurons())
+                if(neuron instanceof BasicNeuron) {
+                    if(fp32) getFloats(floats, ((BasicNeuron) neuron).getWeightsChange());
+                    else doubles.get(((BasicNeuron) neuron).getWeightsChange());
+                }
+        }
+        return new NeuralNetwork(h.inputNeurons, h.inputBias, layers);
+    }
+
+    private static void getFloats(FloatBuffer floats, double[] values) {
+        for(int i = 0; i < values.length; i++) values[i] = floats.get();
+    }
+
+    /**
+     * Header einer Datei im Binärformat. Nach dem Einlesen steht der Buffer
+     * hinter dem letzten Schicht-Header.
+     */
+    private static class Header {
+
+        final boolean inputBias, momentum;
+        final int inputNeurons;
+        final Precision precision;
+        final String metadata;
+        final ActivationFunction[] acts;
+        final boolean[] bias;
+        final int[] rows, cols;
+        long weightCount;
+
+        Header(ByteBuffer buffer) throws IOException {
+            int magicNumber = buffer.getInt();
+            if(magicNumber != MAGIC_NUMBER)
+                throw new IOException("Die Datei beginnt mit der Magic Number " + magicNumber + ". (Erwartet: " + MAGIC_NUMBER + ")");
+            int version = buffer.getInt();
+            if(version != VERSION) throw new IOException("Nicht unterstützte Version des Binärformats: " + version + " (Unterstützt: " + VERSION + ")");
+            int flags = buffer.getInt();
+            inputBias = (flags & FLAG_BIAS) != 0;
+            momentum = (flags & FLAG_MOMENTUM) != 0;
+            inputNeurons = buffer.getInt();
+            int layerCount = buffer.getInt(),
+                weightType = buffer.getInt();
+            if(weightType == WEIGHT_TYPE_DOUBLE) precision = Precision.FP64;
+            else if(weightType == WEIGHT_TYPE_FLOAT) precision = Precision.FP32;
+            else throw new IOException("Nicht unterstützter Typ der Gewichte: " + weightType);
+            if(inputNeurons < 0 || layerCount < 1) throw new IOException("Ungültiger Header: " + inputNeurons + " Eingabeneuronen, " + layerCount + " Schichten.");
+            if((flags & FLAG_METADATA) != 0) {
+                int length = buffer.getInt();
+                if(length < 0 || length > buffer.remaining()) throw new IOException("Ungültige Länge der Metadaten: " + length);
+                byte[] meta = new byte[length];
+                buffer.get(meta);
+                metadata = new String(meta, StandardCharsets.UTF_8);
+            } else metadata = null;
+            acts = new ActivationFunction[layerCount];
+            bias = new boolean[layerCount];
+            rows = new int[layerCount];
+            cols = new int[layerCount];
+            for(int i = 0; i < layerCount; i++) {
+                int actId = buffer.getInt();
+                bias[i] = (buffer.getInt() & FLAG_BIAS) != 0;
+                rows[i] = buffer.getInt();
+                cols[i] = buffer.getInt();
+                int argCount = buffer.getInt();
+                if(rows[i] < 0 || cols[i] < 0 || argCount < 0)
+                    throw new IOException("Ungültiger Header der Schicht " + i + ": " + rows[i] + "x" + cols[i] + " Gewichte, " + argCount + " Argumente.");
+                double[] args = new double[argCount];
+                for(int a = 0; a < argCount; a++) args[a] = buffer.getDouble();
+                acts[i] = ActivationFunction.fromId(actId, args);
+                if(acts[i] == null) throw new IOException("Unbekannte Aktivierungsfunktion in Schicht " + i + ": " + actId);
+                weightCount += (long) rows[i] * cols[i];
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,280 @@
+package de.fk.neuralnetwork.io;
+
+import de.fk.neuralnetwork.NeuralLayer;
+import de.fk.neuralnetwork.NeuralNetwork;
+import de.fk.neuralnetwork.PackedNeuralLayer;
+import de.fk.neuralnetwork.learning.TrainingState;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Speichert Checkpoints eines Trainingsvorgangs im Hintergrund. Ein
+ * Checkpoint enthält die Gewichte, die Gewichtsänderungen (Momentum) und den
+ * TrainingState eines Netzes in einer Datei im Binärformat.
+ *
+ * Beim Speichern wird nur eine Momentaufnahme der Gewichte in einen
+ * wiederverwendeten Puffer kopiert; das Schreiben übernimmt ein eigener
+ * I/O-Thread. Pro Checkpoint-Name gibt es höchstens zwei Puffer (einer wird
+ * geschrieben, einer wartet). Wird ein Checkpoint erneut gespeichert, bevor
+ * der wartende geschrieben wurde, wird dieser durch den neueren ersetzt.
+ * Jede Datei wird zuerst unter einem temporären Namen geschrieben und dann
+ * atomar umbenannt, sodass immer ein vollständiger Checkpoint vorliegt.
+ *
+ * @author Felix
+ * @see BinaryFileIO
+ * @see TrainingState
+ */
+public class CheckpointManager implements Closeable {
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File directory;
+    private final ExecutorService writer;
+    private final HashMap<String, Slot> slots = new HashMap<>();
+    private volatile IOException failure;
+
+    /**
+     * Erstellt einen neuen CheckpointManager.
+     *
+     * @param directory Verzeichnis der Checkpoints (wird ggf. angelegt)
+     */
+    public CheckpointManager(File directory) {
+        this.directory = directory;
+        directory.mkdirs();
+        this.writer = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "CheckpointWriter");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Gibt die Datei eines Checkpoints zurück.
+     *
+     * @param name Name des Checkpoints
+     * @return
+     */
+    public File getFile(String name) {
+        return new File(directory, name + "." + BinaryFileIO.EXTENSION);
+    }
+
+    /**
+     * Gibt zurück, ob ein Checkpoint vorhanden ist.
+     *
+     * @param name Name des Checkpoints
+     * @return
+     */
+    public boolean exists(String name) {
+        return getFile(name).isFile();
+    }
+
+    /**
+     * Speichert einen Checkpoint. Die Gewichte werden sofort kopiert, die
+     * Datei wird im Hintergrund geschrieben. Das Netz darf währenddessen nicht
+     * trainiert werden; danach kann sofort weitertrainiert werden.
+     *
+     * @param name Name des Checkpoints
+     * @param net Neuronales Netz
+     * @param state Trainingszustand (wird kopiert)
+     * @throws IllegalStateException Wenn der CheckpointManager geschlossen wurde
+     */
+    public void save(String name, NeuralNetwork net, TrainingState state) throws IllegalStateException {
+        if(writer.isShutdown()) throw new IllegalStateException("Der CheckpointManager wurde bereits geschlossen.");
+        final Slot slot;
+        synchronized(slots) {
+            Slot s = slots.get(name);
+            if(s == null) slots.put(name, s = new Slot(name));
+            slot = s;
+        }
+        boolean schedule;
+        synchronized(slot) {
+            Snapshot snapshot = slot.pending;
+            if(snapshot == null) {
+                snapshot = slot.spare != null ? slot.spare : new Snapshot();
+                slot.spare = null;
+            }
+            snapshot.capture(net, state);
+            schedule = slot.pending == null;
+            slot.pending = snapshot;
+        }
+        if(schedule) writer.execute(() -> write(slot));
+    }
+
+    private void write(Slot slot) {
+        Snapshot snapshot;
+        synchronized(slot) {
+            snapshot = slot.pending;
+            slot.pending = null;
+            if(snapshot == null) return;
+        }
+        try {
+            File target = getFile(slot.name), temp = new File(directory, target.getName() + TEMP_SUFFIX);
+            BinaryFileIO.write(temp, snapshot.net, true, snapshot.state.toJSON().toString());
+            try {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | RuntimeException ex) {
+            Logger.getLogger(CheckpointManager.class.getName()).log(Level.SEVERE, "Checkpoint '" + slot.name + "' konnte nicht gespeichert werden.", ex);
+            failure = ex instanceof IOException ? (IOException) ex : new IOException(ex);
+        } finally {
+            synchronized(slot) {
+                if(slot.spare == null) slot.spare = snapshot;
+            }
+        }
+    }
+
+    /**
+     * Lädt einen Checkpoint.
+     *
+     * @param name Name des Checkpoints
+     * @param packed true, wenn die Schichten als PackedNeuralLayer geladen werden sollen
+     * @return Checkpoint oder null, wenn keiner vorhanden ist
+     * @throws IOException Lesefehler oder ungültige Datei
+     */
+    public Checkpoint load(String name, boolean packed) throws IOException {
+        File f = getFile(name);
+        if(!f.isFile()) return null;
+        NeuralNetwork net = BinaryFileIO.read(f, packed, false);
+        String metadata = BinaryFileIO.readMetadata(f);
+        try {
+            return new Checkpoint(net, metadata == null ? new TrainingState() : TrainingState.fromJSON(new JSONObject(metadata)));
+        } catch (JSONException ex) {
+            throw new IOException("Ungültiger Trainingszustand in '" + f + "'.", ex);
+        }
+    }
+
+    /**
+     * Wartet, bis alle bisher gespeicherten Checkpoints geschrieben wurden.
+     *
+     * @throws IOException Wenn seit dem letzten Aufruf ein Checkpoint nicht geschrieben werden konnte
+     */
+    public void flush() throws IOException {
+        if(!writer.isShutdown()) try {
+            writer.submit(() -> { }).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Beim Warten auf Checkpoints unterbrochen.", ex);
+        } catch (ExecutionException ex) {
+            throw new IOException(ex.getCause());
+        }
+        IOException ex = failure;
+        failure = null;
+        if(ex != null) throw ex;
+    }
+
+    /**
+     * Schreibt alle ausstehenden Checkpoints und beendet den I/O-Thread.
+     *
+     * @throws IOException Wenn ein Checkpoint nicht geschrieben werden konnte
+     */
+    @Override
+    public void close() throws IOException {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    /**
+     * Ein geladener Checkpoint.
+     */
+    public static class Checkpoint {
+
+        private final NeuralNetwork net;
+        private final TrainingState state;
+
+        public Checkpoint(NeuralNetwork net, TrainingState state) {
+            this.net = net;
+            this.state = state;
+        }
+
+        /**
+         * Gibt das Netz inkl. Gewichtsänderungen (Momentum) zurück.
+         *
+         * @return
+         */
+        public NeuralNetwork getNet() {
+            return net;
+        }
+
+        public TrainingState getState() {
+            return state;
+        }
+
+    }
+
+    private static class Slot {
+
+        final String name;
+        Snapshot pending, spare;
+
+        Slot(String name) {
+            this.name = name;
+        }
+
+    }
+
+    /**
+     * Momentaufnahme eines Netzes als Kopie mit gepackten Schichten.
+     */
+    private static class Snapshot {
+
+        NeuralNetwork net;
+        TrainingState state;
+
+        void capture(NeuralNetwork source, TrainingState state) {
+            NeuralLayer[] layers = source.getLayers();
+            if(!copyInto(source)) {
+                //Erste Aufnahme oder Netz hat sich verändert
+                NeuralLayer[] copies = new NeuralLayer[layers.length];
+                for(int i = 0; i < layers.length; i++) {
+                    PackedNeuralLayer copy = new PackedNeuralLayer(layers[i]);
+                    copy.copyFrom(layers[i]);
+                    copies[i] = copy;
+                }
+                net = new NeuralNetwork(source.getInputNeurons(), source.isInputBias(), copies);
+            }
+            this.state = new TrainingState(state);
+        }
+
+        private boolean copyInto(NeuralNetwork source) {
+            if(net == null || net.getInputNeurons() != source.getInputNeurons() || net.isInputBias() != source.isInputBias()
+                    || net.getPrecision() != source.getPrecision()) return false;
+            NeuralLayer[] layers = source.getLayers(), copies = net.getLayers();
+            if(layers.length != copies.length) return false;
+            try {
+                for(int i = 0; i < layers.length; i++) {
+                    copies[i].setActivationFunction(layers[i].getActivationFunction());
+                    ((PackedNeuralLayer) copies[i]).copyFrom(layers[i]);
+                }
+                return true;
+            } catch (IllegalArgumentException ex) {
+                return false;
+            }
+        }
+
+    }
+
+}
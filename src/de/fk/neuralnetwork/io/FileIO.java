@@ -5,25 +5,43 @@ import de.fk.neuralnetwork.BiasNeuron;
 import de.fk.neuralnetwork.NeuralLayer;
 import de.fk.neuralnetwork.NeuralNetwork;
 import de.fk.neuralnetwork.Neuron;
+import de.fk.neuralnetwork.PackedNeuralLayer;
 import de.fk.neuralnetwork.math.ActivationFunction;
+import de.fk.neuralnetwork.math.Precision;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.json.JSONWriter;
 
 /**
  * Zum Speichern und Öffnen eines neuronalen Netzes im JSON-Format.
  *
  * @author Felix
+ * @see BinaryFileIO
  */
 public class FileIO {
+    
+    private static final int BUFFER_SIZE = 1 << 16;
 
     /**
      * Speichert ein neuronales Netz in einer Datei (*.jnet, *.jfnet).
+     * Kompaktes JSON wird direkt aus den Gewichten in die Datei geschrieben,
+     * ohne vorher einen JSONObject-Baum aufzubauen.
      *
      * @param f Datei
      * @param net Neuronales Netz
@@ -31,6 +49,79 @@ public class FileIO {
      * @throws IOException Schreibfehler
      */
     public static final void write(File f, NeuralNetwork net, boolean prettyPrint) throws IOException {
+        if(prettyPrint) writeTree(f, net);
+        else writeStreaming(f, net);
+    }
+    
+    /**
+     * Speichert ein neuronales Netz als kompaktes JSON (*.jnet). Die Gewichte
+     * werden einzeln über einen JSONWriter in einen gepufferten Writer
+     * geschrieben, es wird also nie das gesamte Netz als JSON im Speicher
+     * gehalten.
+     *
+     * @param f Datei
+     * @param net Neuronales Netz
+     * @throws IOException Schreibfehler
+     */
+    public static final void writeStreaming(File f, NeuralNetwork net) throws IOException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(f), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            JSONWriter jw = new JSONWriter(writer);
+            jw.object()
+                    .key("in").value(net.getInputNeurons())
+                    .key("inBias").value(net.isInputBias())
+                    .key("layers").array();
+            
+            //Layers
+            for(NeuralLayer layer : net.getLayers()) {
+                jw.object().key("act").value(layer.getActivationFunction().getId());
+                jw.key("actargs").array();
+                for(double arg : layer.getActivationFunction().getArgs()) jw.value(arg);
+                jw.endArray();
+                
+                //Neurons
+                jw.key("neurons").array();
+                if(layer instanceof PackedNeuralLayer) {
+                    //Gewichte direkt aus der Gewichtsmatrix schreiben (keine Kopien der Neuronen)
+                    PackedNeuralLayer packed = (PackedNeuralLayer) layer;
+                    int cols = packed.getConnectedNeurons(), rows = packed.getWeightCount() / Math.max(cols, 1);
+                    if(packed.hasBias()) jw.object().key("bias").value(true).endObject();
+                    if(packed.getPrecision() == Precision.FP32) {
+                        float[] weights = packed.getWeightsFloat();
+                        for(int r = 0; r < rows; r++) writeNeuron(jw, weights, r * cols, cols);
+                    } else {
+                        double[] weights = packed.getWeights();
+                        for(int r = 0; r < rows; r++) writeNeuron(jw, weights, r * cols, cols);
+                    }
+                } else for(Neuron neuron : layer.getNeurons()) {
+                    if(neuron instanceof BiasNeuron) jw.object().key("bias").value(true).endObject();
+                    else if(neuron instanceof BasicNeuron) {
+                        double[] weights = ((BasicNeuron) neuron).getWeights();
+                        writeNeuron(jw, weights, 0, weights.length);
+                    } else jw.object().endObject();
+                }
+                jw.endArray().endObject();
+            }
+            
+            jw.endArray().endObject();
+        } catch (JSONException ex) {
+            throw new IOException("Fehler beim Schreiben des Netzes.", ex);
+        }
+    }
+    
+    private static void writeNeuron(JSONWriter jw, double[] weights, int offset, int length) {
+        jw.object().key("bias").value(false).key("weights").array();
+        for(int i = offset; i < offset + length; i++) jw.value(weights[i]);
+        jw.endArray().endObject();
+    }
+    
+    private static void writeNeuron(JSONWriter jw, float[] weights, int offset, int length) {
+        jw.object().key("bias").value(false).key("weights").array();
+        //Als Float schreiben, damit nur die signifikanten Stellen ausgegeben werden
+        for(int i = offset; i < offset + length; i++) jw.value((Object) weights[i]);
+        jw.endArray().endObject();
+    }
+    
+    private static void writeTree(File f, NeuralNetwork net) throws IOException {
         try (FileWriter writer = new FileWriter(f)) {
             JSONObject jnet = new JSONObject();
             jnet.put("in", net.getInputNeurons());
@@ -45,7 +136,13 @@ public class FileIO {
                 
                 //Neurons
                 JSONArray jneurons = new JSONArray();
-                for(Neuron neuron : layer.getNeurons()) {
+                if(layer instanceof PackedNeuralLayer) {
+                    //Zeilen der Gewichtsmatrix statt kopierter Neuronen
+                    PackedNeuralLayer packed = (PackedNeuralLayer) layer;
+                    if(packed.hasBias()) jneurons.put(new JSONObject().put("bias", true));
+                    for(int r = 0; r < packed.getNeuronCount() - (packed.hasBias() ? 1 : 0); r++)
+                        jneurons.put(new JSONObject().put("bias", false).put("weights", new JSONArray(packed.getNeuronWeights(r))));
+                } else for(Neuron neuron : layer.getNeurons()) {
                     JSONObject jneuron = new JSONObject();
                     if(neuron instanceof BiasNeuron) jneuron.put("bias", true);
                     else if(neuron instanceof BasicNeuron) {
@@ -60,49 +157,208 @@ public class FileIO {
             }
             
             jnet.put("layers", jlayers);
-            writer.write(prettyPrint ? jnet.toString(2) : jnet.toString());
+            writer.write(jnet.toString(2));
             writer.flush();
         }
     }
     
     /**
-     * Öffnet ein neuronales Netz aus einer Datei (*.jnet, *.jfnet).
+     * Öffnet ein neuronales Netz aus einer Datei (*.jnet, *.jfnet). Die Datei
+     * wird Token für Token gelesen; die Gewichte jedes Neurons werden direkt
+     * in einen double[] geparst, ohne einen JSONObject-Baum aufzubauen.
      *
      * @param f Datei
      * @return Neuronales Netz
-     * @throws IOException Lesefehler
+     * @throws IOException Lesefehler oder ungültige Datei
      */
     public static final NeuralNetwork read(File f) throws IOException {
-        JSONObject jnet = new JSONObject(new String(Files.readAllBytes(f.toPath())));
-        JSONArray jlayers = jnet.getJSONArray("layers");
+        try (Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            return new NetReader(new JSONTokener(reader)).readNet();
+        } catch (JSONException | IllegalArgumentException ex) {
+            throw new IOException("Die Datei '" + f + "' enthält kein gültiges Netz: " + ex.getMessage(), ex);
+        }
+    }
+    
+    /**
+     * Öffnet ein neuronales Netz aus einer Datei (*.jnet, *.jfnet) und legt
+     * die Gewichte auf Wunsch zusammenhängend ab.
+     *
+     * @param f Datei
+     * @param packed true, wenn die Schichten als PackedNeuralLayer geladen werden sollen
+     * @return Neuronales Netz
+     * @throws IOException Lesefehler
+     * @see NeuralNetwork#packLayers()
+     */
+    public static final NeuralNetwork read(File f, boolean packed) throws IOException {
+        NeuralNetwork net = read(f);
+        if(packed) net.packLayers();
+        return net;
+    }
+    
+    /**
+     * Liest ein Netz Token für Token aus einem JSONTokener. Die Schlüssel
+     * dürfen in beliebiger Reihenfolge stehen, unbekannte Schlüssel werden
+     * übersprungen.
+     */
+    private static class NetReader {
         
-        //Layers
-        NeuralLayer[] layers = new NeuralLayer[jlayers.length()];
-        for(int ilayer = 0; ilayer < layers.length; ilayer++) {
-            JSONObject jlayer = jlayers.getJSONObject(ilayer);
-            int actid = jlayer.getInt("act");
-            JSONArray jactargs = jlayer.getJSONArray("actargs");
-            double[] actargs = new double[jactargs.length()];
-            for(int iargs = 0; iargs < actargs.length; iargs++) actargs[iargs] = jactargs.getDouble(iargs);
-            
-            //Neurons
-            JSONArray jneurons = jlayer.getJSONArray("neurons");
-            Neuron[] neurons = new Neuron[jneurons.length()];
-            for(int ineuron = 0; ineuron < neurons.length; ineuron++) {
-                JSONObject jneuron = jneurons.getJSONObject(ineuron);
-                if(jneuron.getBoolean("bias")) neurons[ineuron] = new BiasNeuron();
-                else {
-                    JSONArray jweights = jneuron.getJSONArray("weights");
-                    double[] weights = new double[jweights.length()];
-                    for(int iweight = 0; iweight < weights.length; iweight++) weights[iweight] = jweights.getDouble(iweight);
-                    neurons[ineuron] = new BasicNeuron(weights);
+        private final JSONTokener tokener;
+        private final StringBuilder literal = new StringBuilder();
+        private double[] buffer = new double[64];
+        
+        NetReader(JSONTokener tokener) {
+            this.tokener = tokener;
+        }
+        
+        NeuralNetwork readNet() {
+            int in = -1;
+            boolean inBias = false;
+            NeuralLayer[] layers = null;
+            for(String key = firstKey(); key != null; key = nextKey()) {
+                switch(key) {
+                    case "in": in = readInt(); break;
+                    case "inBias": inBias = readBoolean(); break;
+                    case "layers": layers = readLayers(); break;
+                    default: tokener.nextValue();
                 }
             }
-            
-            layers[ilayer] = new NeuralLayer(ActivationFunction.fromId(actid, actargs), neurons);
+            if(in < 0 || layers == null) throw tokener.syntaxError("Eingabeneuronen oder Schichten fehlen");
+            return new NeuralNetwork(in, inBias, layers);
+        }
+        
+        private NeuralLayer[] readLayers() {
+            ArrayList<NeuralLayer> layers = new ArrayList<>();
+            for(boolean more = firstElement(); more; more = nextElement()) {
+                int actid = -1;
+                double[] actargs = new double[0];
+                Neuron[] neurons = null;
+                for(String key = firstKey(); key != null; key = nextKey()) {
+                    switch(key) {
+                        case "act": actid = readInt(); break;
+                        case "actargs": actargs = readDoubles(); break;
+                        case "neurons": neurons = readNeurons(); break;
+                        default: tokener.nextValue();
+                    }
+                }
+                ActivationFunction act = ActivationFunction.fromId(actid, actargs);
+                if(act == null) throw tokener.syntaxError("Unbekannte Aktivierungsfunktion " + actid);
+                if(neurons == null) throw tokener.syntaxError("Neuronen fehlen");
+                layers.add(new NeuralLayer(act, neurons));
+            }
+            return layers.toArray(new NeuralLayer[layers.size()]);
+        }
+        
+        private Neuron[] readNeurons() {
+            ArrayList<Neuron> neurons = new ArrayList<>();
+            for(boolean more = firstElement(); more; more = nextElement()) {
+                boolean bias = false;
+                double[] weights = null;
+                for(String key = firstKey(); key != null; key = nextKey()) {
+                    switch(key) {
+                        case "bias": bias = readBoolean(); break;
+                        case "weights": weights = readDoubles(); break;
+                        default: tokener.nextValue();
+                    }
+                }
+                if(bias) neurons.add(new BiasNeuron());
+                else if(weights != null) neurons.add(new BasicNeuron(weights));
+                else throw tokener.syntaxError("Gewichte fehlen");
+            }
+            return neurons.toArray(new Neuron[neurons.size()]);
+        }
+        
+        /**
+         * Liest einen Array aus Zahlen in den wiederverwendeten Puffer und gibt
+         * eine Kopie passender Länge zurück.
+         */
+        private double[] readDoubles() {
+            int n = 0;
+            for(boolean more = firstElement(); more; more = nextElement()) {
+                if(n == buffer.length) buffer = Arrays.copyOf(buffer, 2 * n);
+                buffer[n++] = Double.parseDouble(readLiteral());
+            }
+            return Arrays.copyOf(buffer, n);
+        }
+        
+        private int readInt() {
+            return Integer.parseInt(readLiteral());
+        }
+        
+        private boolean readBoolean() {
+            String value = readLiteral();
+            if("true".equals(value)) return true;
+            if("false".equals(value)) return false;
+            throw tokener.syntaxError("Wahrheitswert erwartet, aber '" + value + "' gefunden");
+        }
+        
+        private String readLiteral() {
+            literal.setLength(0);
+            char c = tokener.nextClean();
+            while(c >= ' ' && ",:]}/\\\"[{;=#".indexOf(c) < 0) {
+                literal.append(c);
+                c = tokener.next();
+            }
+            tokener.back();
+            if(literal.length() == 0) throw tokener.syntaxError("Wert fehlt");
+            return literal.toString().trim();
+        }
+        
+        /**
+         * Liest '{' und den ersten Schlüssel eines Objekts.
+         *
+         * @return Schlüssel oder null, wenn das Objekt leer ist
+         */
+        private String firstKey() {
+            if(tokener.nextClean() != '{') throw tokener.syntaxError("'{' erwartet");
+            char c = tokener.nextClean();
+            if(c == '}') return null;
+            tokener.back();
+            return readKey();
+        }
+        
+        /**
+         * Liest den nächsten Schlüssel eines Objekts.
+         *
+         * @return Schlüssel oder null am Ende des Objekts
+         */
+        private String nextKey() {
+            char c = tokener.nextClean();
+            if(c == '}') return null;
+            if(c != ',') throw tokener.syntaxError("',' oder '}' erwartet");
+            return readKey();
+        }
+        
+        private String readKey() {
+            if(tokener.nextClean() != '"') throw tokener.syntaxError("Schlüssel erwartet");
+            String key = tokener.nextString('"');
+            if(tokener.nextClean() != ':') throw tokener.syntaxError("':' erwartet");
+            return key;
+        }
+        
+        /**
+         * Liest '[' eines Arrays.
+         *
+         * @return true, wenn der Array nicht leer ist
+         */
+        private boolean firstElement() {
+            if(tokener.nextClean() != '[') throw tokener.syntaxError("'[' erwartet");
+            if(tokener.nextClean() == ']') return false;
+            tokener.back();
+            return true;
+        }
+        
+        /**
+         * Liest das Trennzeichen nach einem Element eines Arrays.
+         *
+         * @return true, wenn ein weiteres Element folgt
+         */
+        private boolean nextElement() {
+            char c = tokener.nextClean();
+            if(c == ']') return false;
+            if(c != ',') throw tokener.syntaxError("',' oder ']' erwartet");
+            return true;
         }
         
-        return new NeuralNetwork(jnet.getInt("in"), jnet.getBoolean("inBias"), layers);
     }
     
 }
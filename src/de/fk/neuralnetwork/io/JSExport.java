@@ -3,6 +3,7 @@ package de.fk.neuralnetwork.io;
 import de.fk.neuralnetwork.BasicNeuron;
 import de.fk.neuralnetwork.NeuralNetwork;
 import de.fk.neuralnetwork.Neuron;
+import de.fk.neuralnetwork.PackedNeuralLayer;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileWriter;
@@ -21,11 +22,15 @@ public class JSExport {
     public static final void write(File f, NeuralNetwork net) throws IOException {
         try (FileWriter writer = new FileWriter(f)) {
             JSONArray weights = new JSONArray();
-            int in = net.getInputNeurons(), out = net.getOutputLayer().getNeurons().length;
+            int in = net.getInputNeurons(), out = net.getOutputLayer().getNeuronCount();
             Stream.of(net.getLayers())
                     .map(layer -> {
                         JSONArray jlayer = new JSONArray();
-                        for(Neuron neuron : layer.getNeurons())
+                        if(layer instanceof PackedNeuralLayer) {
+                            //Zeilen der Gewichtsmatrix statt kopierter Neuronen
+                            PackedNeuralLayer packed = (PackedNeuralLayer) layer;
+                            for(int r = 0; r < packed.getNeuronCount() - (packed.hasBias() ? 1 : 0); r++) jlayer.put(new JSONArray(packed.getNeuronWeights(r)));
+                        } else for(Neuron neuron : layer.getNeurons())
                             if(neuron instanceof BasicNeuron) jlayer.put(new JSONArray(((BasicNeuron) neuron).getWeights()));
                         return jlayer;
                     })
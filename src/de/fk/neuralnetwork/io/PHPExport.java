@@ -5,6 +5,7 @@ import de.fk.neuralnetwork.BiasNeuron;
 import de.fk.neuralnetwork.NeuralLayer;
 import de.fk.neuralnetwork.NeuralNetwork;
 import de.fk.neuralnetwork.Neuron;
+import de.fk.neuralnetwork.PackedNeuralLayer;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileWriter;
@@ -34,6 +35,16 @@ public class PHPExport {
             NeuralLayer[] layers = net.getLayers();
             for(int i = 1; i <= layers.length; i++) {
                 cmds += "\n$l" + i + "=array();\n";
+                if(layers[i-1] instanceof PackedNeuralLayer) {
+                    //Zeilen der Gewichtsmatrix statt kopierter Neuronen
+                    PackedNeuralLayer packed = (PackedNeuralLayer) layers[i-1];
+                    int b = packed.hasBias() ? 1 : 0;
+                    if(b == 1) cmds += "$l" + i + "[0]=1;\n";
+                    for(int j = b; j < packed.getNeuronCount(); j++)
+                        cmds += "$l" + i + "[" + j + "]=m($l" + (i-1) + ",array(" + join(packed.getNeuronWeights(j - b)) + "));\n";
+                    cmds += "unset($l" + (i-1) + ");\n";
+                    continue;
+                }
                 Neuron[] neurons = layers[i-1].getNeurons();
                 for(int j = 0; j < neurons.length; j++) {
                     cmds += "$l" + i + "[" + j + "]=";
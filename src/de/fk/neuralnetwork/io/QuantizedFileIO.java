@@ -0,0 +1,183 @@
+package de.fk.neuralnetwork.io;
+
+import de.fk.neuralnetwork.math.ActivationFunction;
+import de.fk.neuralnetwork.quantization.QuantizedLayer;
+import de.fk.neuralnetwork.quantization.QuantizedNetwork;
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Zum Speichern und Öffnen eines quantisierten Netzes (*.qnet).
+ *
+ * Aufbau (alle Werte Little Endian):
+ * <pre>
+ * int     Magic Number ("QNET")
+ * int     Version
+ * int     Anzahl Eingabeneuronen
+ * int     Anzahl Schichten
+ * je Schicht:
+ *   int      ID der Aktivierungsfunktion
+ *   int      Flags (Bit 0: Bias-Neuron an Position 0, Bit 1: Bias-Neuron in der Eingabe)
+ *   int      Anzahl Neuronen ohne Bias (Zeilen)
+ *   int      Anzahl Eingaben ohne Bias (Spalten)
+ *   int      Anzahl Argumente der Aktivierungsfunktion
+ *   double[] Argumente
+ *   double   Skalierungsfaktor der Eingaben
+ * Auffüllen auf ein Vielfaches von 8 Bytes
+ * je Schicht:
+ *   double[] Skalierungsfaktoren der Gewichte (Zeilen)
+ *   double[] Gewichte des Bias-Neurons der Eingabe (Zeilen)
+ *   byte[]   Gewichte (Zeilen x Spalten, zeilenweise), aufgefüllt auf ein Vielfaches von 8 Bytes
+ * </pre>
+ *
+ * @author Felix
+ * @see BinaryFileIO
+ */
+public class QuantizedFileIO {
+
+    /**
+     * Dateiendung des Formats.
+     */
+    public static final String EXTENSION = "qnet";
+
+    /**
+     * Magic Number einer Datei ("QNET").
+     */
+    public static final int MAGIC_NUMBER = 0x54454E51;
+
+    /**
+     * Aktuelle Version des Formats.
+     */
+    public static final int VERSION = 1;
+
+    private static final int FLAG_BIAS = 1, FLAG_INPUT_BIAS = 2;
+    private static final int NET_HEADER_SIZE = 16, LAYER_HEADER_SIZE = 28;
+
+    private QuantizedFileIO() {
+    }
+
+    /**
+     * Speichert ein quantisiertes Netz in einer Datei (*.qnet).
+     *
+     * @param f Datei
+     * @param net Quantisiertes Netz
+     * @throws IOException Schreibfehler
+     */
+    public static final void write(File f, QuantizedNetwork net) throws IOException {
+        QuantizedLayer[] layers = net.getLayers();
+        int headerSize = NET_HEADER_SIZE;
+        long size = 0;
+        for(QuantizedLayer layer : layers) {
+            headerSize += LAYER_HEADER_SIZE + 8 * layer.getActivationFunction().getArgs().length;
+            size += 16L * layer.getRows() + align(layer.getWeights().length);
+        }
+        size += align(headerSize);
+        if(size > Integer.MAX_VALUE) throw new IOException("Das Netz ist zu groß für das Format.");
+        ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC_NUMBER).putInt(VERSION)
+                .putInt(net.getInputNeurons())
+                .putInt(layers.length);
+        for(QuantizedLayer layer : layers) {
+            ActivationFunction act = layer.getActivationFunction();
+            double[] args = act.getArgs();
+            buffer.putInt(act.getId())
+                    .putInt((layer.hasBias() ? FLAG_BIAS : 0) | (layer.hasInputBias() ? FLAG_INPUT_BIAS : 0))
+                    .putInt(layer.getRows())
+                    .putInt(layer.getCols())
+                    .putInt(args.length);
+            for(double arg : args) buffer.putDouble(arg);
+            buffer.putDouble(layer.getInputScale());
+        }
+        ((Buffer) buffer).position(align(buffer.position()));
+        for(QuantizedLayer layer : layers) {
+            for(double scale : layer.getWeightScales()) buffer.putDouble(scale);
+            for(double bias : layer.getBiases()) buffer.putDouble(bias);
+            buffer.put(layer.getWeights());
+            ((Buffer) buffer).position(align(buffer.position()));
+        }
+        ((Buffer) buffer).flip();
+        try(FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while(buffer.hasRemaining()) channel.write(buffer);
+        }
+    }
+
+    private static int align(int size) {
+        return (size + 7) & ~7;
+    }
+
+    /**
+     * Öffnet ein quantisiertes Netz aus einer Datei (*.qnet).
+     *
+     * @param f Datei
+     * @return Quantisiertes Netz
+     * @throws IOException Lesefehler oder ungültige Datei
+     */
+    public static final QuantizedNetwork read(File f) throws IOException {
+        ByteBuffer buffer;
+        try(FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if(size > Integer.MAX_VALUE) throw new IOException("Die Datei '" + f + "' ist zu groß.");
+            buffer = ByteBuffer.allocate((int) size);
+            while(buffer.hasRemaining()) if(channel.read(buffer) < 0) break;
+            ((Buffer) buffer).flip();
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            return read(buffer);
+        } catch (BufferUnderflowException ex) {
+            throw new IOException("Die Datei '" + f + "' ist unvollständig.", ex);
+        }
+    }
+
+    private static QuantizedNetwork read(ByteBuffer buffer) throws IOException {
+        int magicNumber = buffer.getInt();
+        if(magicNumber != MAGIC_NUMBER)
+            throw new IOException("Die Datei beginnt mit der Magic Number " + magicNumber + ". (Erwartet: " + MAGIC_NUMBER + ")");
+        int version = buffer.getInt();
+        if(version != VERSION) throw new IOException("Nicht unterstützte Version des Formats: " + version + " (Unterstützt: " + VERSION + ")");
+        int inputNeurons = buffer.getInt(), layerCount = buffer.getInt();
+        if(inputNeurons < 0 || layerCount < 1) throw new IOException("Ungültiger Header: " + inputNeurons + " Eingabeneuronen, " + layerCount + " Schichten.");
+        ActivationFunction[] acts = new ActivationFunction[layerCount];
+        int[] flags = new int[layerCount], rows = new int[layerCount], cols = new int[layerCount];
+        double[] inputScales = new double[layerCount];
+        for(int i = 0; i < layerCount; i++) {
+            int actId = buffer.getInt();
+            flags[i] = buffer.getInt();
+            rows[i] = buffer.getInt();
+            cols[i] = buffer.getInt();
+            int argCount = buffer.getInt();
+            if(rows[i] < 0 || cols[i] < 0 || argCount < 0 || (long) rows[i] * cols[i] > buffer.limit())
+                throw new IOException("Ungültiger Header der Schicht " + i + ": " + rows[i] + "x" + cols[i] + " Gewichte, " + argCount + " Argumente.");
+            double[] args = new double[argCount];
+            for(int a = 0; a < argCount; a++) args[a] = buffer.getDouble();
+            acts[i] = ActivationFunction.fromId(actId, args);
+            if(acts[i] == null) throw new IOException("Unbekannte Aktivierungsfunktion in Schicht " + i + ": " + actId);
+            inputScales[i] = buffer.getDouble();
+        }
+        ((Buffer) buffer).position(align(buffer.position()));
+        QuantizedLayer[] layers = new QuantizedLayer[layerCount];
+        try {
+            for(int i = 0; i < layerCount; i++) {
+                double[] scales = new double[rows[i]], biases = new double[rows[i]];
+                byte[] weights = new byte[rows[i] * cols[i]];
+                buffer.asDoubleBuffer().get(scales);
+                ((Buffer) buffer).position(buffer.position() + 8 * rows[i]);
+                buffer.asDoubleBuffer().get(biases);
+                ((Buffer) buffer).position(buffer.position() + 8 * rows[i]);
+                buffer.get(weights);
+                ((Buffer) buffer).position(align(buffer.position()));
+                layers[i] = new QuantizedLayer(acts[i], (flags[i] & FLAG_BIAS) != 0, (flags[i] & FLAG_INPUT_BIAS) != 0, rows[i], cols[i], weights, scales, biases, inputScales[i]);
+            }
+            return new QuantizedNetwork(inputNeurons, layers);
+        } catch (IllegalArgumentException ex) {
+            throw new IOException("Ungültiges quantisiertes Netz: " + ex.getMessage(), ex);
+        }
+    }
+
+}
@@ -4,15 +4,24 @@ import de.fk.neuralnetwork.NeuralLayer;
 import de.fk.neuralnetwork.training.TrainingSupplier;
 import de.fk.neuralnetwork.NeuralNetwork;
 import de.fk.neuralnetwork.NeuralNetworkState;
+import de.fk.neuralnetwork.PackedNeuralLayer;
 import de.fk.neuralnetwork.data.ImageContainer;
 import de.fk.neuralnetwork.data.Tester;
 import de.fk.neuralnetwork.math.NeuralMath;
+import de.fk.neuralnetwork.math.Precision;
+import de.fk.neuralnetwork.serving.ModelHolder;
 import de.fk.neuralnetwork.training.TrainingExample;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.concurrent.BrokenBarrierException;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -37,10 +46,13 @@ public class Backpropagator {
     private int id;
     private NeuralNetwork net;
     private double learningRate, regularizationRate, momentum;
-    private boolean stopped, training, adaptiveLREnabled, calcVaccuracy;
+    private volatile boolean stopped, training;
+    private boolean adaptiveLREnabled, calcVaccuracy;
     private OutputStream debugStream = System.out, logStream = null;
     private Runnable learningRateUpdated = null;
     private Consumer<Pair<Double, Double>> trainingProgressUpdated = null;
+    private ModelHolder modelHolder = null;
+    private int publishInterval;
     
     public Backpropagator(int id, NeuralNetwork net, double learningRate, double regularizationRate, double momentum) {
         this.id = id;
@@ -64,6 +76,7 @@ public class Backpropagator {
 
     public void setNet(NeuralNetwork net) {
         this.net = net;
+        this.batchWorkspaces = null;
     }
 
     public void setAdaptiveLearningRateEnabled(boolean adaptiveLREnabled) {
@@ -97,6 +110,41 @@ public class Backpropagator {
     public void setTrainingProgressUpdated(Consumer<Pair<Double, Double>> trainingProgressUpdated) {
         this.trainingProgressUpdated = trainingProgressUpdated;
     }
+
+    /**
+     * Legt fest, dass während des Trainings Kopien des Netzes im übergebenen
+     * ModelHolder veröffentlicht werden, damit andere Threads (GUI,
+     * InferenceServer) Vorhersagen berechnen können, ohne das trainierte Netz
+     * zu lesen. Veröffentlicht wird nach jedem vollständigen Durchlauf aller
+     * Trainingsbeispiele, am Ende des Trainings und, falls publishInterval
+     * größer als 0 ist, zusätzlich alle publishInterval Gewichtsupdates.
+     *
+     * Bei trainAsync wird die Kopie erstellt, während andere Threads weiter
+     * Updates anwenden; einzelne Gewichte können daher bereits neuere Updates
+     * enthalten als andere.
+     *
+     * @param modelHolder ModelHolder oder null, um nicht zu veröffentlichen
+     * @param publishInterval Gewichtsupdates zwischen zwei Veröffentlichungen oder 0 für nur einmal pro Durchlauf
+     * @throws IllegalArgumentException Wenn publishInterval negativ ist
+     */
+    public void setModelHolder(ModelHolder modelHolder, int publishInterval) throws IllegalArgumentException {
+        if(publishInterval < 0) throw new IllegalArgumentException("Das Intervall darf nicht negativ sein.");
+        this.modelHolder = modelHolder;
+        this.publishInterval = publishInterval;
+    }
+
+    public ModelHolder getModelHolder() {
+        return modelHolder;
+    }
+
+    private void publishModel(long progress) {
+        ModelHolder holder = modelHolder;
+        if(holder != null) holder.publish(net, progress);
+    }
+
+    private boolean isPublishDue(long updates) {
+        return modelHolder != null && publishInterval > 0 && updates % publishInterval == 0;
+    }
     
     private void debug(String msg) {
         if(debugStream != null) try {
@@ -129,67 +177,49 @@ public class Backpropagator {
     }
     
     private double terror = 0, lastTError = 0, vaccuracy = 0;
-    private int iteration = 0, tthresholdRow = 0;
+    //Wird bei trainAsync vom auswertenden Trainingsthread geschrieben
+    private volatile int iteration = 0;
+    private int tthresholdRow = 0;
+
+    /**
+     * Gibt den aktuellen Trainingszustand (ohne Gewichte) zurück. Sollte nur
+     * zwischen zwei Iterationen abgefragt werden.
+     *
+     * @return Neuer TrainingState
+     * @see de.fk.neuralnetwork.io.CheckpointManager
+     */
+    public TrainingState getTrainingState() {
+        TrainingState state = new TrainingState();
+        state.setIteration(iteration);
+        state.setLearningRate(learningRate);
+        state.setRegularizationRate(regularizationRate);
+        state.setMomentum(momentum);
+        state.setLastTrainingError(lastTError);
+        return state;
+    }
+
+    /**
+     * Stellt einen gespeicherten Trainingszustand wieder her. Die Gewichte
+     * und Gewichtsänderungen sind Teil des Netzes und werden nicht berührt.
+     *
+     * @param state Trainingszustand
+     * @throws IllegalStateException Wenn gerade trainiert wird
+     */
+    public void restoreTrainingState(TrainingState state) throws IllegalStateException {
+        if(training) throw new IllegalStateException("Es wird bereits trainiert.");
+        this.iteration = state.getIteration();
+        this.learningRate = state.getLearningRate();
+        this.regularizationRate = state.getRegularizationRate();
+        this.momentum = state.getMomentum();
+        this.lastTError = state.getLastTrainingError();
+    }
     
     public Thread train(TrainingSupplier trainingSupplier, int iterations) throws IllegalStateException {
         if(training) throw new IllegalStateException("Es wird bereits trainiert.");
         stopped = false;
         training = true;
         Thread trainThread;
-        (trainThread = new Thread(() -> {
-            long startTime = System.currentTimeMillis();
-            log("iteration time trainerror valaccuracy");
-            int exampleCount = trainingSupplier.getExampleCount();
-            int example;
-            trainingSupplier.reset();
-            debug("Transformation: " + ((System.currentTimeMillis() - startTime) / (double) exampleCount) + " ms/example");
-            net.prepareParallelBackprop(1);
-            debug("Training with " + exampleCount + " examples per iteration.");
-            terror = 0.0;
-            vaccuracy = 0.0;
-            tthresholdRow = 0;
-            NeuralLayer[] layers = net.getLayers();
-            
-            //Trainingsschleife
-            int toIteration = iteration + iterations;
-            for(; !stopped && iteration < toIteration; iteration++) {
-                //Backpropagation; Alle Trainingsbeispiele ansehen
-                debug("Starting iteration " + (iteration + 1));
-                debug("Backpropagating...");
-                long tempTime = System.currentTimeMillis();
-                startTime = tempTime;
-                for(example = 0; example < exampleCount; example++) {
-                    TrainingExample ex = trainingSupplier.nextTrainingExample();
-                    terror += NeuralMath.getError(backpropStepParallel(layers, ex), ex.getOut());
-                    //Lernen/Gewichte updaten
-                    for(NeuralLayer l : layers) l.accumulate(learningRate, regularizationRate, momentum);
-                    if(stopped) break;
-                }
-                terror /= (double) exampleCount;
-                if(calcVaccuracy) vaccuracy = Tester.testFromSet(net, ImageContainer.Set.VALIDATION).getAccuracy();
-                
-                debug("Done. Error: " + terror + ". Val Accuracy: " + vaccuracy + ". BP Time: " + (System.currentTimeMillis() - tempTime) + "ms.");
-                
-                //Adaptive Lernrate
-                if(adaptiveLREnabled && lastTError > 0.0) {
-                    if(lastTError > terror) learningRate *= Math.max(ADAPTIVE_LEARNING_RATE_UP_MIN, Math.min(ADAPTIVE_LEARNING_RATE_UP_MAX, lastTError / terror));
-                    else learningRate *= Math.max(ADAPTIVE_LEARNING_RATE_DOWN_MIN, Math.min(ADAPTIVE_LEARNING_RATE_DOWN_MAX, lastTError / terror));
-                    debug("Lernrate angepasst: " + learningRate + "\n");
-                    if(learningRateUpdated != null) learningRateUpdated.run();
-                }
-                log(iteration + " " + (startTime / 1000) + " " + terror + " " + vaccuracy + "\r\n");
-                if(trainingProgressUpdated != null) trainingProgressUpdated.accept(new Pair<>(terror, vaccuracy));
-                lastTError = terror;
-                terror = 0.0;
-                if(stopped) break;
-            }
-            //Ende der Schleife
-            debug("Trained for " + iteration + " iterations. Error: " + lastTError);
-            if(logStream != null) try {
-                logStream.close();
-            } catch (IOException ex) { }
-            this.training = false;
-        })).start();
+        (trainThread = new Thread(() -> trainLoop(trainingSupplier, iterations))).start();
         trainThread.setUncaughtExceptionHandler((Thread t, Throwable e) -> {
             e.printStackTrace();
             training = false;
@@ -197,7 +227,93 @@ public class Backpropagator {
         return trainThread;
     }
     
+    /**
+     * Trainiert wie train(TrainingSupplier, int), aber im aufrufenden Thread,
+     * z.B. als Aufgabe in einem Thread-Pool. Kehrt erst nach dem Training
+     * zurück.
+     *
+     * @param trainingSupplier Trainingsbeispiele
+     * @param iterations Anzahl der Iterationen
+     * @throws IllegalStateException Wenn bereits trainiert wird
+     * @see EnsembleTrainer
+     */
+    public void trainInCurrentThread(TrainingSupplier trainingSupplier, int iterations) throws IllegalStateException {
+        if(training) throw new IllegalStateException("Es wird bereits trainiert.");
+        stopped = false;
+        training = true;
+        try {
+            trainLoop(trainingSupplier, iterations);
+        } finally {
+            training = false;
+        }
+    }
+    
+    /**
+     * Trainingsschleife für Stochastic Gradient Descent (siehe train).
+     */
+    private void trainLoop(TrainingSupplier trainingSupplier, int iterations) {
+        long startTime = System.currentTimeMillis();
+        log("iteration time trainerror valaccuracy");
+        int exampleCount = trainingSupplier.getExampleCount();
+        int example;
+        trainingSupplier.reset();
+        debug("Transformation: " + ((System.currentTimeMillis() - startTime) / (double) exampleCount) + " ms/example");
+        net.prepareParallelBackprop(1);
+        debug("Training with " + exampleCount + " examples per iteration.");
+        terror = 0.0;
+        vaccuracy = 0.0;
+        tthresholdRow = 0;
+        NeuralLayer[] layers = net.getLayers();
+        
+        //Trainingsschleife
+        int toIteration = iteration + iterations;
+        long updates = 0;
+        for(; !stopped && iteration < toIteration; iteration++) {
+            //Backpropagation; Alle Trainingsbeispiele ansehen
+            debug("Starting iteration " + (iteration + 1));
+            debug("Backpropagating...");
+            long tempTime = System.currentTimeMillis();
+            startTime = tempTime;
+            for(example = 0; example < exampleCount; example++) {
+                TrainingExample ex = trainingSupplier.nextTrainingExample();
+                terror += NeuralMath.getError(backpropStepParallel(layers, ex), ex.getOut());
+                //Lernen/Gewichte updaten
+                for(NeuralLayer l : layers) l.accumulate(learningRate, regularizationRate, momentum);
+                if(isPublishDue(++updates)) publishModel(updates);
+                if(stopped) break;
+            }
+            publishModel(updates);
+            terror /= (double) exampleCount;
+            if(calcVaccuracy) vaccuracy = Tester.testFromSet(net, ImageContainer.Set.VALIDATION).getAccuracy();
+            
+            debug("Done. Error: " + terror + ". Val Accuracy: " + vaccuracy + ". BP Time: " + (System.currentTimeMillis() - tempTime) + "ms.");
+            
+            //Adaptive Lernrate
+            if(adaptiveLREnabled && lastTError > 0.0) {
+                if(lastTError > terror) learningRate *= Math.max(ADAPTIVE_LEARNING_RATE_UP_MIN, Math.min(ADAPTIVE_LEARNING_RATE_UP_MAX, lastTError / terror));
+                else learningRate *= Math.max(ADAPTIVE_LEARNING_RATE_DOWN_MIN, Math.min(ADAPTIVE_LEARNING_RATE_DOWN_MAX, lastTError / terror));
+                debug("Lernrate angepasst: " + learningRate + "\n");
+                if(learningRateUpdated != null) learningRateUpdated.run();
+            }
+            log(iteration + " " + (startTime / 1000) + " " + terror + " " + vaccuracy + "\r\n");
+            if(trainingProgressUpdated != null) trainingProgressUpdated.accept(new Pair<>(terror, vaccuracy));
+            lastTError = terror;
+            terror = 0.0;
+            if(stopped) break;
+        }
+        //Ende der Schleife
+        debug("Trained for " + iteration + " iterations. Error: " + lastTError);
+        trainingSupplier.close();
+        if(logStream != null) try {
+            logStream.close();
+        } catch (IOException ex) { }
+        this.training = false;
+    }
+    
     private TrainingExample[][] pbpExamples;
+    private volatile TrainingWorkspace[] trainingWorkspaces;
+    private BatchWorkspace[] batchWorkspaces;
+    private GradientSlots gradientSlots;
     private CyclicBarrier pbpTrainingBarrier;
     private long pbpStartTime;
     
@@ -214,8 +330,15 @@ public class Backpropagator {
         @Override
         public void run() {
             while(training) {
-                for(TrainingExample threadExample : pbpExamples[threadId]) {
-                    backpropStep(threadExample, threadId);
+                //Gradienten-Slot nur während der Berechnung belegen
+                int slot = gradientSlots.acquire(threadId);
+                try {
+                    if(batchWorkspaces != null) backpropBatch(pbpExamples[threadId], slot);
+                    else for(TrainingExample threadExample : pbpExamples[threadId]) {
+                        backpropStep(threadExample, slot);
+                    }
+                } finally {
+                    gradientSlots.release(slot);
                 }
                 try {
                     trainingBarrier.await();
@@ -247,8 +370,17 @@ public class Backpropagator {
         //Initialisieren
         log("iteration time trainerror valaccuracy");
         int exampleCount = trainingSupplier.getExampleCount(), fullTrainingCycle = exampleCount / (examplesPerThread * threadCount);
-        net.prepareParallelBackprop(threadCount);
+        //Höchstens ein Satz Accumulator Matrices pro Prozessorkern
+        int slotCount = GradientSlots.slotsFor(threadCount);
+        gradientSlots = new GradientSlots(slotCount);
+        net.prepareParallelBackprop(slotCount);
         pbpExamples = new TrainingExample[threadCount][examplesPerThread];
+        //Mini-Batches als Matrixprodukte, wenn alle Schichten gepackt sind
+        batchWorkspaces = null;
+        if(net.isPacked() && net.isInputBias()) {
+            batchWorkspaces = new BatchWorkspace[slotCount];
+            for(int t = 0; t < slotCount; t++) batchWorkspaces[t] = new BatchWorkspace(net, examplesPerThread);
+        }
         terror = 0.0;
         lastTError = -1.0;
         vaccuracy = 0.0;
@@ -265,47 +397,250 @@ public class Backpropagator {
             Arrays.stream(net.getLayers()).forEach(l -> l.accumulate(learningRate, regularizationRate, momentum));
             
             //Alle Beispiele angesehen
-            if(iteration % fullTrainingCycle == 0) {
-                //Forward Propagation wiederholen, um Training Error zu bestimmen
-                //Der Trainingsfehler auf den transformierten Beispiele wäre wegen
-                //der konkurrierenden Threads viel schwieriger zu ermitteln und
-                //nicht aussagekräftiger
-                lastTError = terror;
-                terror = 0.0;
-                debug("Determining error and accuracy...");
-                for(TrainingExample originalTrainingExample : originalTrainingExamples) {
-                    double[] out = net.triggerParallel(originalTrainingExample.getIn()).getOutput();
-                    terror += NeuralMath.getRegularizedError(out, originalTrainingExample.getOut(), regularizationRate, net);
-                }
-                terror /= originalTrainingExamples.length;
-                if(calcVaccuracy) vaccuracy = Tester.testFromSet(net, ImageContainer.Set.VALIDATION).getAccuracy();
-                //Adaptive Lernrate
-                if(adaptiveLREnabled && lastTError > 0.0) {
-                    if(lastTError > terror) learningRate *= Math.max(ADAPTIVE_LEARNING_RATE_UP_MIN, Math.min(ADAPTIVE_LEARNING_RATE_UP_MAX, lastTError / terror));
-                    else learningRate *= Math.max(ADAPTIVE_LEARNING_RATE_DOWN_MIN, Math.min(ADAPTIVE_LEARNING_RATE_DOWN_MAX, lastTError / terror));
-                    debug("Lernrate angepasst: " + learningRate + "\n");
-                    if(learningRateUpdated != null) learningRateUpdated.run();
-                }
-                //Logging
-                log(iteration + ((System.currentTimeMillis() - pbpStartTime) / 1000) + " " + terror + " " + vaccuracy + "\r\n");
-                pbpStartTime = System.currentTimeMillis();
-                if(trainingProgressUpdated != null) trainingProgressUpdated.accept(new Pair<>(terror, vaccuracy));
-            }
+            if(iteration % fullTrainingCycle == 0) evaluateTrainingCycle(originalTrainingExamples);
             //Überprüfen ob Training gestoppt
             if(stopped || iteration >= iterations) {
                 debug("Trainiert für " + iterations + " Iterationen.");
                 training = false;
             }
+            //Momentaufnahme für Leser (auch am Ende des Trainings)
+            if(iteration % fullTrainingCycle == 0 || isPublishDue(iteration) || !training) publishModel(iteration);
             //Neue Trainingsbeispiele laden
-            if(!staticExamples)
+            if(!staticExamples && training)
                 for(int t = 0; t < threadCount; t++)
                     pbpExamples[t] = trainingSupplier.nextTrainingExamples(examplesPerThread);
+            if(!training) trainingSupplier.close();
         });
         
         //Threads erstellen
         for(int t = 0; t < threadCount; t++) new Thread(new TrainingRunnable(pbpTrainingBarrier, t), "TrainingThread#" + t).start();
     }
     
+    /**
+     * Bestimmt nach einem vollständigen Durchlauf aller Trainingsbeispiele den
+     * Trainingsfehler (und ggf. die Validierungsgenauigkeit), passt die
+     * Lernrate an und benachrichtigt die Listener.
+     *
+     * @param originalTrainingExamples Untransformierte Trainingsbeispiele
+     */
+    private void evaluateTrainingCycle(TrainingExample[] originalTrainingExamples) {
+        //Forward Propagation wiederholen, um Training Error zu bestimmen
+        //Der Trainingsfehler auf den transformierten Beispiele wäre wegen
+        //der konkurrierenden Threads viel schwieriger zu ermitteln und
+        //nicht aussagekräftiger
+        lastTError = terror;
+        terror = 0.0;
+        debug("Determining error and accuracy...");
+        for(TrainingExample originalTrainingExample : originalTrainingExamples) {
+            double[] out = net.triggerParallel(originalTrainingExample.getIn()).getOutput();
+            terror += NeuralMath.getRegularizedError(out, originalTrainingExample.getOut(), regularizationRate, net);
+        }
+        terror /= originalTrainingExamples.length;
+        if(calcVaccuracy) vaccuracy = Tester.testFromSet(net, ImageContainer.Set.VALIDATION).getAccuracy();
+        //Adaptive Lernrate
+        if(adaptiveLREnabled && lastTError > 0.0) {
+            if(lastTError > terror) learningRate *= Math.max(ADAPTIVE_LEARNING_RATE_UP_MIN, Math.min(ADAPTIVE_LEARNING_RATE_UP_MAX, lastTError / terror));
+            else learningRate *= Math.max(ADAPTIVE_LEARNING_RATE_DOWN_MIN, Math.min(ADAPTIVE_LEARNING_RATE_DOWN_MAX, lastTError / terror));
+            debug("Lernrate angepasst: " + learningRate + "\n");
+            if(learningRateUpdated != null) learningRateUpdated.run();
+        }
+        //Logging
+        log(iteration + ((System.currentTimeMillis() - pbpStartTime) / 1000) + " " + terror + " " + vaccuracy + "\r\n");
+        pbpStartTime = System.currentTimeMillis();
+        if(trainingProgressUpdated != null) trainingProgressUpdated.accept(new Pair<>(terror, vaccuracy));
+    }
+    
+    /**
+     * Wert für maxStaleness in trainAsync: Threads dürfen beliebig weit
+     * auseinanderlaufen.
+     */
+    public static final int UNBOUNDED_STALENESS = -1;
+    
+    /**
+     * Maximale Wartezeit eines vorauslaufenden Threads, bevor er erneut
+     * prüft, ob das Training beendet wurde.
+     */
+    private static final long STRAGGLER_PARK_NANOS = 10_000_000L;
+    
+    private AtomicLongArray asyncClocks;
+    private AtomicReferenceArray<Thread> asyncWaiters;
+    private volatile int asyncEvaluatingThread = -1;
+    private AtomicLong asyncUpdates;
+    private final AtomicBoolean asyncEvaluating = new AtomicBoolean();
+    private long asyncStartTime;
+    private int asyncExamplesPerUpdate;
+    
+    /**
+     * Startet asynchrones Training im Hogwild-Stil. Jeder Thread holt sich
+     * selbstständig Trainingsbeispiele aus dem TrainingSupplier, berechnet die
+     * Gewichtsänderungen in seiner eigenen Accumulator Matrix und addiert sie
+     * ohne Sperren und ohne auf die übrigen Threads zu warten direkt auf die
+     * gemeinsamen Gewichte. Dabei wird kein Momentum verwendet.
+     * 
+     * Mit maxStaleness kann festgelegt werden, um wie viele Updates ein Thread
+     * dem langsamsten Thread höchstens voraus sein darf (Stale Synchronous
+     * Parallel). Nach jedem vollständigen Durchlauf aller Trainingsbeispiele
+     * bestimmt der Thread, der ihn abgeschlossen hat, wie bei trainParallel den
+     * Trainingsfehler, während die übrigen Threads weiterrechnen. Solange er
+     * auswertet, zählt er nicht als langsamster Thread, danach wird sein Stand
+     * auf den des langsamsten übrigen Threads vorgezogen. Wartende Threads
+     * werden geparkt und beim Fortschritt eines anderen Threads geweckt.
+     *
+     * @param trainingSupplier TrainingSupplier mit Trainingsbeispielen
+     * @param updates Anzahl der Updates aller Threads zusammen, nach denen das Training endet
+     * @param threadCount Anzahl der Trainingsthreads
+     * @param examplesPerUpdate Trainingsbeispiele pro Update eines Threads
+     * @param maxStaleness Maximaler Vorsprung eines Threads in Updates oder UNBOUNDED_STALENESS
+     * @throws IllegalStateException Wenn bereits trainiert wird
+     * @see Backpropagator#stopTraining()
+     * @see NeuralLayer#applyGradient(int, double)
+     */
+    public void trainAsync(TrainingSupplier trainingSupplier, int updates, int threadCount, int examplesPerUpdate, int maxStaleness) throws IllegalStateException {
+        if(training) throw new IllegalStateException("Es wird bereits trainiert.");
+        if(threadCount < 1 || examplesPerUpdate < 1) throw new IllegalArgumentException("Es werden mindestens ein Thread und ein Beispiel pro Update benötigt.");
+        training = true;
+        stopped = false;
+        //Initialisieren
+        log("iteration time trainerror valaccuracy");
+        int exampleCount = trainingSupplier.getExampleCount();
+        //Jeder Thread benötigt eine eigene Accumulator Matrix
+        net.prepareParallelBackprop(threadCount);
+        batchWorkspaces = null;
+        if(net.isPacked() && net.isInputBias()) {
+            batchWorkspaces = new BatchWorkspace[threadCount];
+            for(int t = 0; t < threadCount; t++) batchWorkspaces[t] = new BatchWorkspace(net, examplesPerUpdate);
+        }
+        terror = 0.0;
+        lastTError = -1.0;
+        vaccuracy = 0.0;
+        iteration = 0;
+        trainingSupplier.reset();
+        TrainingExample[] originalTrainingExamples = trainingSupplier.originalTrainingExamples();
+        asyncClocks = new AtomicLongArray(threadCount);
+        asyncWaiters = new AtomicReferenceArray<>(threadCount);
+        asyncEvaluatingThread = -1;
+        asyncUpdates = new AtomicLong();
+        asyncExamplesPerUpdate = examplesPerUpdate;
+        asyncStartTime = pbpStartTime = System.currentTimeMillis();
+        AtomicInteger runningThreads = new AtomicInteger(threadCount);
+        //Threads erstellen
+        for(int t = 0; t < threadCount; t++) {
+            int threadId = t;
+            Thread thread = new Thread(() -> {
+                while(training) {
+                    if(maxStaleness >= 0 && !awaitStragglers(threadId, maxStaleness)) break;
+                    TrainingExample[] examples;
+                    synchronized(trainingSupplier) {
+                        examples = trainingSupplier.nextTrainingExamples(examplesPerUpdate);
+                    }
+                    //Gewichtsänderungen berechnen und direkt anwenden
+                    if(batchWorkspaces != null) backpropBatch(examples, threadId);
+                    else for(TrainingExample ex : examples) backpropStep(ex, threadId);
+                    for(NeuralLayer l : net.getLayers()) l.applyGradient(threadId, learningRate);
+                    //Nur der langsamste Thread kann Wartende freigeben
+                    long clock = asyncClocks.incrementAndGet(threadId);
+                    if(maxStaleness >= 0 && minAsyncClock() >= clock - 1) wakeStragglerWaiters();
+                    long update = asyncUpdates.incrementAndGet(), processed = update * examplesPerUpdate;
+                    //Überprüfen ob Training gestoppt
+                    if(stopped || update >= updates) {
+                        if(training) debug("Trainiert für " + update + " Updates.");
+                        training = false;
+                        wakeStragglerWaiters();
+                    }
+                    //Alle Beispiele angesehen
+                    else if(exampleCount > 0 && processed / exampleCount != (processed - examplesPerUpdate) / exampleCount
+                            && asyncEvaluating.compareAndSet(false, true)) {
+                        //Während der Auswertung nicht auf diesen Thread warten
+                        asyncEvaluatingThread = threadId;
+                        wakeStragglerWaiters();
+                        try {
+                            iteration = (int) (processed / exampleCount);
+                            debug("Durchsatz: " + (processed * 1000 / Math.max(1, System.currentTimeMillis() - asyncStartTime)) + " Beispiele/s");
+                            evaluateTrainingCycle(originalTrainingExamples);
+                            publishModel(update);
+                        } finally {
+                            //Die Gewichte werden ohnehin neu gelesen: Stand auf den langsamsten übrigen Thread vorziehen
+                            long min = minAsyncClock();
+                            if(min != Long.MAX_VALUE && min > asyncClocks.get(threadId)) asyncClocks.set(threadId, min);
+                            asyncEvaluatingThread = -1;
+                            asyncEvaluating.set(false);
+                        }
+                    }
+                    else if(isPublishDue(update)) publishModel(update);
+                }
+                debug("Trainingsthread #" + threadId + " angehalten!");
+                if(runningThreads.decrementAndGet() == 0) {
+                    publishModel(asyncUpdates.get());
+                    trainingSupplier.close();
+                }
+            }, "AsyncTrainingThread#" + t);
+            thread.setUncaughtExceptionHandler((Thread th, Throwable e) -> {
+                e.printStackTrace();
+                training = false;
+                wakeStragglerWaiters();
+                if(runningThreads.decrementAndGet() == 0) trainingSupplier.close();
+            });
+            thread.start();
+        }
+    }
+    
+    /**
+     * Wartet, bis der Vorsprung des übergebenen Threads vor dem langsamsten
+     * Thread höchstens maxStaleness Updates beträgt. Ein gerade auswertender
+     * Thread wird dabei nicht berücksichtigt. Der Thread wird bis zum
+     * nächsten Fortschritt eines anderen Threads geparkt.
+     *
+     * @return false, wenn das Training währenddessen beendet wurde
+     */
+    private boolean awaitStragglers(int threadId, int maxStaleness) {
+        long own = asyncClocks.get(threadId);
+        if(own - minAsyncClock() <= maxStaleness) return true;
+        //Erst anmelden, dann erneut prüfen, damit kein Wecken verloren geht
+        asyncWaiters.set(threadId, Thread.currentThread());
+        try {
+            while(own - minAsyncClock() > maxStaleness) {
+                if(!training) return false;
+                LockSupport.parkNanos(this, STRAGGLER_PARK_NANOS);
+            }
+            return true;
+        } finally {
+            asyncWaiters.set(threadId, null);
+        }
+    }
+    
+    /**
+     * Gibt den Stand des langsamsten Threads zurück, der gerade nicht
+     * auswertet.
+     */
+    private long minAsyncClock() {
+        long min = Long.MAX_VALUE;
+        int evaluating = asyncEvaluatingThread;
+        for(int t = 0; t < asyncClocks.length(); t++)
+            if(t != evaluating) min = Math.min(min, asyncClocks.get(t));
+        return min;
+    }
+    
+    /**
+     * Weckt alle Threads, die in awaitStragglers warten.
+     */
+    private void wakeStragglerWaiters() {
+        for(int t = 0; t < asyncWaiters.length(); t++) {
+            Thread waiter = asyncWaiters.get(t);
+            if(waiter != null) LockSupport.unpark(waiter);
+        }
+    }
+    
+    /**
+     * Gibt die Anzahl der Trainingsbeispiele pro Sekunde seit dem Start des
+     * asynchronen Trainings zurück.
+     *
+     * @return Durchsatz oder 0, wenn nicht asynchron trainiert wurde
+     */
+    public double getAsyncThroughput() {
+        if(asyncUpdates == null) return 0.0;
+        return asyncUpdates.get() * asyncExamplesPerUpdate * 1000.0 / Math.max(1, System.currentTimeMillis() - asyncStartTime);
+    }
+    
     /**
      * Unterbricht das Training bei der nächsten Iteration.
      * 
@@ -325,74 +660,208 @@ public class Backpropagator {
      * Sollte nur für Batch Gradient Descent verwendet werden.
      *
      * @param trainingExample
-     * @param threadId ID des ausführenden Threads (bei Single-Threading 0)
-     * @return
+     * @param threadId ID des ausführenden Threads bzw. Gradienten-Slots (bei Single-Threading 0)
+     * @return Netzausgabe, nur bis zum nächsten Aufruf mit derselben Thread-ID gültig
      * @see Backpropagator#backpropStepParallel(de.fk.neuralnetwork.training.TrainingExample) Für Stochastic Gradient Descent
      */
     public double[] backpropStep(TrainingExample trainingExample, int threadId) {
-        NeuralLayer[] layers = net.getLayers();
+        return backpropStep(net.getLayers(), trainingExample, threadId, false);
+    }
+    
+    /**
+     * Gemeinsame Implementierung von backpropStep und backpropStepParallel.
+     * Der Vorwärtsdurchlauf speichert die Ableitungen an den
+     * Neuroneneingaben im TrainingWorkspace des Slots, der Rückwärtsdurchlauf
+     * multipliziert die Fehler nur noch damit.
+     */
+    private double[] backpropStep(NeuralLayer[] layers, TrainingExample trainingExample, int threadId, boolean parallel) {
+        TrainingWorkspace ws = getTrainingWorkspace(threadId);
         //Sammeln der Trainingsdaten
         double[] input = trainingExample.getIn(), expectedOutput = trainingExample.getOut();
-        //Aktivierungen berechnen
-        NeuralNetworkState out = net.trigger(input);
-        //System.out.println("Training for " + Arrays.toString(input) + " -> " + Arrays.toString(expectedOutput));
+        if(input.length != net.getInputNeurons()) throw new IllegalArgumentException("Es gibt " + net.getInputNeurons() + " Eingabeneuronen, es wurden aber " + input.length + " Werte eingegeben.");
+        //Aktivierungen und Ableitungen berechnen
+        double[] vals = ws.getInput();
+        vals[0] = 1;
+        System.arraycopy(input, 0, vals, 1, input.length);
+        for(int l = 0; l < layers.length; l++) {
+            if(parallel) layers[l].triggerParallel(vals, ws.getActivations(l), ws.getDerivatives(l));
+            else layers[l].trigger(vals, ws.getActivations(l), ws.getDerivatives(l));
+            vals = ws.getActivations(l);
+        }
         //Output Layer
-        NeuralLayer outputLayer = layers[layers.length - 1];
-        //Berechne Errors & Error Deltas
-        double[] activationsBefore = layers.length > 1 ? out.getLayerActivations(layers.length - 2) : NeuralMath.addBias(input),
-                errors = NeuralMath.getErrors(out.getOutput(), expectedOutput),
-                errorDeltas = outputLayer.getErrorDeltas(errors, activationsBefore);
-        //Berechne Accumulators
-        outputLayer.calcAccumulatorMatrices(errorDeltas, activationsBefore, threadId);
+        int last = layers.length - 1;
+        double[] errors = NeuralMath.getErrors(vals, expectedOutput),
+                errorDeltas = getErrorDeltas(errors, ws.getDerivatives(last), ws.getErrorDeltas(last));
+        layers[last].calcAccumulatorMatrices(errorDeltas, ws.getActivationsBefore(last), threadId);
         //Hidden Layer
-        for(int i = layers.length - 2; i >= 0; i--) {
-            //Berechne Errors & Error Deltas
-            activationsBefore = i > 0 ? out.getLayerActivations(i - 1) : NeuralMath.addBias(input);
-            errors = layers[i].getErrors(layers[i + 1], errorDeltas);
-            errorDeltas = layers[i].getErrorDeltas(errors, activationsBefore);
-            //Berechne Accumulators
-            layers[i].calcAccumulatorMatrices(errorDeltas, activationsBefore, threadId);
+        for(int i = last - 1; i >= 0; i--) {
+            errors = parallel ? layers[i].getErrorsParallel(layers[i + 1], errorDeltas) : layers[i].getErrors(layers[i + 1], errorDeltas);
+            errorDeltas = getErrorDeltas(errors, ws.getDerivatives(i), ws.getErrorDeltas(i));
+            layers[i].calcAccumulatorMatrices(errorDeltas, ws.getActivationsBefore(i), threadId);
         }
-        //Fehler berechnen
-        return out.getOutput();
+        return vals;
+    }
+    
+    private static double[] getErrorDeltas(double[] errors, double[] derivatives, double[] errorDeltas) {
+        for(int i = 0; i < errorDeltas.length; i++) errorDeltas[i] = errors[i] * derivatives[i];
+        return errorDeltas;
+    }
+    
+    /**
+     * Gibt den TrainingWorkspace des übergebenen Slots zurück und legt ihn bei
+     * Bedarf an. Ein Slot wird immer nur von einem Thread gleichzeitig
+     * verwendet, nur das Array wird beim Vergrößern synchronisiert.
+     */
+    private TrainingWorkspace getTrainingWorkspace(int threadId) {
+        TrainingWorkspace[] workspaces = trainingWorkspaces;
+        if(workspaces == null || threadId >= workspaces.length) synchronized(this) {
+            if(trainingWorkspaces == null) trainingWorkspaces = new TrainingWorkspace[threadId + 1];
+            else if(threadId >= trainingWorkspaces.length) trainingWorkspaces = Arrays.copyOf(trainingWorkspaces, threadId + 1);
+            workspaces = trainingWorkspaces;
+        }
+        TrainingWorkspace ws = workspaces[threadId];
+        if(ws == null || !ws.fits(net)) workspaces[threadId] = ws = new TrainingWorkspace(net);
+        return ws;
+    }
+    
+    /**
+     * Führt einen Backprop-Schritt für einen ganzen Mini-Batch aus (die
+     * Gewichte werden nicht geupdatet!). Die Eingaben werden zu einer Matrix
+     * zusammengefasst, sodass jede Schicht vorwärts wie rückwärts mit je einem
+     * Matrixprodukt berechnet wird. Die Gewichtsänderungen werden wie bei
+     * backpropStep in den Accumulator Matrices des Threads aufsummiert.
+     * 
+     * Alle Schichten des Netzes müssen PackedNeuralLayer mit derselben
+     * Genauigkeit sein und das Netz muss einen Input Bias besitzen. Bei FP32
+     * wird der gesamte Mini-Batch in float gerechnet.
+     *
+     * @param trainingExamples Trainingsbeispiele des Mini-Batches
+     * @param threadId ID des ausführenden Threads bzw. Gradienten-Slots (bei Single-Threading 0)
+     * @return Netzausgaben (Beispiele x Ausgabeneuronen), nur bis zum nächsten Aufruf mit derselben Thread-ID gültig
+     * @see Backpropagator#backpropStep(de.fk.neuralnetwork.training.TrainingExample, int) Für einzelne Beispiele
+     * @see NeuralNetwork#isPacked()
+     */
+    public double[] backpropBatch(TrainingExample[] trainingExamples, int threadId) {
+        NeuralLayer[] layers = net.getLayers();
+        int batchSize = trainingExamples.length, inputNeurons = net.getInputNeurons();
+        BatchWorkspace ws = getBatchWorkspace(threadId, batchSize);
+        if(ws.getPrecision() == Precision.FP32) return backpropBatchFloat(trainingExamples, threadId, ws);
+        //Eingabematrix mit Bias-Spalte füllen
+        double[] input = ws.getInput();
+        int inputWidth = ws.getInputWidth();
+        for(int e = 0; e < batchSize; e++) {
+            double[] in = trainingExamples[e].getIn();
+            if(in.length != inputNeurons) throw new IllegalArgumentException("Es gibt " + inputNeurons + " Eingabeneuronen, es wurden aber " + in.length + " Werte eingegeben.");
+            input[e * inputWidth] = 1;
+            System.arraycopy(in, 0, input, e * inputWidth + 1, inputNeurons);
+        }
+        //Aktivierungen berechnen
+        double[] activationsBefore = input;
+        for(int l = 0; l < layers.length; l++) {
+            ((PackedNeuralLayer) layers[l]).triggerBatch(activationsBefore, batchSize, ws.getDerivatives(l), ws.getActivations(l));
+            activationsBefore = ws.getActivations(l);
+        }
+        //Output Layer: Errors = Erwartet - Ausgabe
+        int last = layers.length - 1, outWidth = layers[last].getNeuronCount(), outBias = layers[last].hasBias() ? 1 : 0, outNeurons = outWidth - outBias;
+        double[] out = ws.getActivations(last), errors = ws.getErrors(last);
+        for(int e = 0; e < batchSize; e++) {
+            double[] expectedOutput = trainingExamples[e].getOut();
+            for(int r = 0; r < outNeurons; r++) errors[e * outNeurons + r] = expectedOutput[r] - out[e * outWidth + outBias + r];
+        }
+        //Alle Layer rückwärts
+        for(int l = last; l >= 0; l--) {
+            PackedNeuralLayer layer = (PackedNeuralLayer) layers[l];
+            //Berechne Error Deltas & Accumulators
+            layer.getErrorDeltasBatch(ws.getErrors(l), ws.getDerivatives(l), batchSize, ws.getErrorDeltas(l));
+            layer.calcAccumulatorMatricesBatch(ws.getErrorDeltas(l), l > 0 ? ws.getActivations(l - 1) : input, batchSize, threadId);
+            //Berechne Errors der vorhergehenden Schicht (ohne Bias-Spalte)
+            if(l > 0) {
+                double[] weightedErrors = ws.getWeightedErrors(l), errorsBefore = ws.getErrors(l - 1);
+                layer.getWeightedErrorsBatch(ws.getErrorDeltas(l), batchSize, weightedErrors);
+                int cols = layer.getConnectedNeurons(), biasBefore = layers[l - 1].hasBias() ? 1 : 0, neuronsBefore = cols - biasBefore;
+                for(int e = 0; e < batchSize; e++)
+                    System.arraycopy(weightedErrors, e * cols + biasBefore, errorsBefore, e * neuronsBefore, neuronsBefore);
+            }
+        }
+        return out;
+    }
+    
+    /**
+     * Wie backpropBatch, aber mit float-Matrizen (FP32). Die Fehler der
+     * Ausgabeschicht werden in double berechnet, die Gradienten in double
+     * aufsummiert.
+     */
+    private double[] backpropBatchFloat(TrainingExample[] trainingExamples, int threadId, BatchWorkspace ws) {
+        NeuralLayer[] layers = net.getLayers();
+        int batchSize = trainingExamples.length, inputNeurons = net.getInputNeurons();
+        //Eingabematrix mit Bias-Spalte füllen
+        float[] input = ws.getInputFloat();
+        int inputWidth = ws.getInputWidth();
+        for(int e = 0; e < batchSize; e++) {
+            double[] in = trainingExamples[e].getIn();
+            if(in.length != inputNeurons) throw new IllegalArgumentException("Es gibt " + inputNeurons + " Eingabeneuronen, es wurden aber " + in.length + " Werte eingegeben.");
+            int row = e * inputWidth;
+            input[row] = 1f;
+            for(int i = 0; i < inputNeurons; i++) input[row + 1 + i] = (float) in[i];
+        }
+        //Aktivierungen berechnen
+        float[] activationsBefore = input;
+        for(int l = 0; l < layers.length; l++) {
+            ((PackedNeuralLayer) layers[l]).triggerBatch(activationsBefore, batchSize, ws.getDerivativesFloat(l), ws.getActivationsFloat(l), ws.getScratch());
+            activationsBefore = ws.getActivationsFloat(l);
+        }
+        //Output Layer: Errors = Erwartet - Ausgabe
+        int last = layers.length - 1, outWidth = layers[last].getNeuronCount(), outBias = layers[last].hasBias() ? 1 : 0, outNeurons = outWidth - outBias;
+        float[] outFloat = ws.getActivationsFloat(last), errors = ws.getErrorsFloat(last);
+        double[] out = ws.getOutput();
+        for(int e = 0; e < batchSize; e++) {
+            double[] expectedOutput = trainingExamples[e].getOut();
+            for(int i = e * outWidth; i < (e + 1) * outWidth; i++) out[i] = outFloat[i];
+            for(int r = 0; r < outNeurons; r++) errors[e * outNeurons + r] = (float) (expectedOutput[r] - out[e * outWidth + outBias + r]);
+        }
+        //Alle Layer rückwärts
+        for(int l = last; l >= 0; l--) {
+            PackedNeuralLayer layer = (PackedNeuralLayer) layers[l];
+            //Berechne Error Deltas & Accumulators
+            layer.getErrorDeltasBatch(ws.getErrorsFloat(l), ws.getDerivativesFloat(l), batchSize, ws.getErrorDeltasFloat(l));
+            layer.calcAccumulatorMatricesBatch(ws.getErrorDeltasFloat(l), l > 0 ? ws.getActivationsFloat(l - 1) : input, batchSize, threadId);
+            //Berechne Errors der vorhergehenden Schicht (ohne Bias-Spalte)
+            if(l > 0) {
+                float[] weightedErrors = ws.getWeightedErrorsFloat(l), errorsBefore = ws.getErrorsFloat(l - 1);
+                layer.getWeightedErrorsBatch(ws.getErrorDeltasFloat(l), batchSize, weightedErrors);
+                int cols = layer.getConnectedNeurons(), biasBefore = layers[l - 1].hasBias() ? 1 : 0, neuronsBefore = cols - biasBefore;
+                for(int e = 0; e < batchSize; e++)
+                    System.arraycopy(weightedErrors, e * cols + biasBefore, errorsBefore, e * neuronsBefore, neuronsBefore);
+            }
+        }
+        return out;
+    }
+    
+    private BatchWorkspace getBatchWorkspace(int threadId, int batchSize) {
+        if(batchWorkspaces == null || batchWorkspaces.length <= threadId) {
+            BatchWorkspace[] workspaces = new BatchWorkspace[threadId + 1];
+            if(batchWorkspaces != null) System.arraycopy(batchWorkspaces, 0, workspaces, 0, batchWorkspaces.length);
+            batchWorkspaces = workspaces;
+        }
+        if(batchWorkspaces[threadId] == null || batchWorkspaces[threadId].getCapacity() < batchSize
+                || batchWorkspaces[threadId].getPrecision() != net.getPrecision())
+            batchWorkspaces[threadId] = new BatchWorkspace(net, batchSize);
+        return batchWorkspaces[threadId];
     }
     
     /**
      * Führt einen Backprop-Schritt aus und gibt die Netzausgabe zurück (die
-     * Gewichte werden nicht geupdatet!) (nutzt parallele Streams).
+     * Gewichte werden nicht geupdatet!) (nutzt die ExecutionEngine des Netzes).
      * 
      * Sollte nur für Stochastic Gradient Descent verwendet werden.
      *
      * @param layers
      * @param trainingExample
-     * @return Fehler E
+     * @return Netzausgabe, nur bis zum nächsten Aufruf gültig
      * @see Backpropagator#backpropStep(de.fk.neuralnetwork.training.TrainingExample, int) Für paralleles Lernen (Batch Gradient Descent)
      */
     public double[] backpropStepParallel(NeuralLayer[] layers, TrainingExample trainingExample) {
-        //Sammeln der Trainingsdaten
-        double[] input = trainingExample.getIn(), expectedOutput = trainingExample.getOut();
-        //Aktivierungen berechnen
-        NeuralNetworkState out = net.triggerParallel(input);
-        //System.out.println("Training for " + Arrays.toString(input) + " -> " + Arrays.toString(expectedOutput));
-        //Output Layer
-        NeuralLayer outputLayer = layers[layers.length - 1];
-        //Berechne Errors & Error Deltas
-        double[] activationsBefore = layers.length > 1 ? out.getLayerActivations(layers.length - 2) : NeuralMath.addBias(input),
-                errors = NeuralMath.getErrors(out.getOutput(), expectedOutput),
-                errorDeltas = outputLayer.getErrorDeltas(errors, activationsBefore);
-        //Berechne Accumulators
-        outputLayer.calcAccumulatorMatrices(errorDeltas, activationsBefore, 0);
-        //Hidden Layer
-        for(int i = layers.length - 2; i >= 0; i--) {
-            //Berechne Errors & Error Deltas
-            activationsBefore = i > 0 ? out.getLayerActivations(i - 1) : NeuralMath.addBias(input);
-            errors = layers[i].getErrorsParallel(layers[i + 1], errorDeltas);
-            errorDeltas = layers[i].getErrorDeltas(errors, activationsBefore);
-            //Berechne Accumulators
-            layers[i].calcAccumulatorMatrices(errorDeltas, activationsBefore, 0);
-        }
-        //Fehler berechnen
-        return out.getOutput();
+        return backpropStep(layers, trainingExample, 0, true);
     }
     
 }
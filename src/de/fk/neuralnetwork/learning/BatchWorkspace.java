@@ -0,0 +1,258 @@
+package de.fk.neuralnetwork.learning;
+
+import de.fk.neuralnetwork.NeuralLayer;
+import de.fk.neuralnetwork.NeuralNetwork;
+import de.fk.neuralnetwork.PackedNeuralLayer;
+import de.fk.neuralnetwork.math.Precision;
+
+/**
+ * Wiederverwendbarer Arbeitsspeicher für die Backpropagation eines
+ * Mini-Batches. Alle Matrizen werden zeilenweise (ein Beispiel pro Zeile) in
+ * eindimensionalen Arrays gespeichert und einmalig für die maximale
+ * Batchgröße angelegt. Jeder Trainingsthread benötigt einen eigenen
+ * BatchWorkspace.
+ *
+ * Bei Netzen mit FP32-Gewichten werden alle Matrizen als float angelegt
+ * (getInputFloat(), getDerivativesFloat(int), ...); nur die Ausgabe und ein
+ * Zwischenspeicher für die Aktivierungsfunktion werden zusätzlich als double
+ * bereitgestellt.
+ *
+ * @author Felix
+ * @see Backpropagator#backpropBatch(de.fk.neuralnetwork.training.TrainingExample[], int)
+ */
+public class BatchWorkspace {
+
+    private final int capacity, inputWidth;
+    private final Precision precision;
+    private final double[] input, output, scratch;
+    private final double[][] derivatives, activations, errors, errorDeltas, weightedErrors;
+    private final float[] inputFloat;
+    private final float[][] derivativesFloat, activationsFloat, errorsFloat, errorDeltasFloat, weightedErrorsFloat;
+
+    /**
+     * Legt den Arbeitsspeicher für das übergebene Netz an. Alle Schichten des
+     * Netzes müssen ihre Gewichte zusammenhängend speichern.
+     *
+     * @param net Neuronales Netz
+     * @param capacity Maximale Anzahl an Beispielen pro Mini-Batch
+     * @see NeuralNetwork#isPacked()
+     */
+    public BatchWorkspace(NeuralNetwork net, int capacity) {
+        if(!net.isPacked()) throw new IllegalArgumentException("Mini-Batches werden nur für Netze aus PackedNeuralLayers unterstützt.");
+        NeuralLayer[] layers = net.getLayers();
+        this.capacity = capacity;
+        this.inputWidth = net.getNeuronCounts()[0];
+        this.precision = net.getPrecision();
+        for(NeuralLayer layer : layers)
+            if(((PackedNeuralLayer) layer).getPrecision() != precision)
+                throw new IllegalArgumentException("Mini-Batches werden nur für Netze mit einheitlicher Genauigkeit unterstützt.");
+        boolean fp32 = precision == Precision.FP32;
+        int outputWidth = layers[layers.length - 1].getNeuronCount(), maxNeurons = 0;
+        this.input = fp32 ? null : new double[capacity * inputWidth];
+        this.inputFloat = fp32 ? new float[capacity * inputWidth] : null;
+        this.output = fp32 ? new double[capacity * outputWidth] : null;
+        this.derivatives = new double[layers.length][];
+        this.activations = new double[layers.length][];
+        this.errors = new double[layers.length][];
+        this.errorDeltas = new double[layers.length][];
+        this.weightedErrors = new double[layers.length][];
+        this.derivativesFloat = new float[layers.length][];
+        this.activationsFloat = new float[layers.length][];
+        this.errorsFloat = new float[layers.length][];
+        this.errorDeltasFloat = new float[layers.length][];
+        this.weightedErrorsFloat = new float[layers.length][];
+        for(int l = 0; l < layers.length; l++) {
+            PackedNeuralLayer layer = (PackedNeuralLayer) layers[l];
+            int neurons = layer.getNeuronCount() - (layer.hasBias() ? 1 : 0);
+            maxNeurons = Math.max(maxNeurons, neurons);
+            if(fp32) {
+                derivativesFloat[l] = new float[capacity * neurons];
+                activationsFloat[l] = new float[capacity * layer.getNeuronCount()];
+                errorsFloat[l] = new float[capacity * neurons];
+                errorDeltasFloat[l] = new float[capacity * neurons];
+                weightedErrorsFloat[l] = new float[capacity * layer.getConnectedNeurons()];
+            } else {
+                derivatives[l] = new double[capacity * neurons];
+                activations[l] = new double[capacity * layer.getNeuronCount()];
+                errors[l] = new double[capacity * neurons];
+                errorDeltas[l] = new double[capacity * neurons];
+                weightedErrors[l] = new double[capacity * layer.getConnectedNeurons()];
+            }
+        }
+        this.scratch = fp32 ? new double[2 * maxNeurons] : null;
+    }
+
+    /**
+     * Gibt die Genauigkeit der Matrizen zurück.
+     *
+     * @return
+     */
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Gibt den Puffer für die Netzausgabe als double zurück (nur bei FP32).
+     *
+     * @return Beispiele x Ausgabeneuronen inkl. Bias
+     */
+    public double[] getOutput() {
+        return output;
+    }
+
+    /**
+     * Gibt den Zwischenspeicher zurück, in dem die Aktivierungsfunktion einer
+     * Zeile in double ausgewertet wird (nur bei FP32).
+     *
+     * @return 2 x größte Anzahl an Neuronen ohne Bias
+     * @see PackedNeuralLayer#triggerBatch(float[], int, float[], float[], double[])
+     */
+    public double[] getScratch() {
+        return scratch;
+    }
+
+    /**
+     * Gibt die maximale Anzahl an Beispielen pro Mini-Batch zurück.
+     *
+     * @return
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Gibt die Breite einer Zeile der Eingabematrix (Eingabeneuronen inkl.
+     * Bias) zurück.
+     *
+     * @return
+     */
+    public int getInputWidth() {
+        return inputWidth;
+    }
+
+    /**
+     * Gibt die Eingabematrix (Beispiele x Eingabeneuronen inkl. Bias) zurück.
+     *
+     * @return
+     */
+    public double[] getInput() {
+        return input;
+    }
+
+    /**
+     * Gibt die Ableitungen der Aktivierungsfunktion der übergebenen Schicht
+     * zurück. Der Puffer nimmt beim Aktivieren zunächst die
+     * Neuroneneingaben auf.
+     *
+     * @param layer Index der Schicht
+     * @return Beispiele x Neuronen ohne Bias
+     * @see PackedNeuralLayer#triggerBatch(double[], int, double[], double[])
+     */
+    public double[] getDerivatives(int layer) {
+        return derivatives[layer];
+    }
+
+    /**
+     * Gibt die Aktivierungen der übergebenen Schicht zurück.
+     *
+     * @param layer Index der Schicht
+     * @return Beispiele x Neuronen inkl. Bias
+     */
+    public double[] getActivations(int layer) {
+        return activations[layer];
+    }
+
+    /**
+     * Gibt die Fehler der übergebenen Schicht zurück.
+     *
+     * @param layer Index der Schicht
+     * @return Beispiele x Neuronen ohne Bias
+     */
+    public double[] getErrors(int layer) {
+        return errors[layer];
+    }
+
+    /**
+     * Gibt die Delta-Fehler der übergebenen Schicht zurück.
+     *
+     * @param layer Index der Schicht
+     * @return Beispiele x Neuronen ohne Bias
+     */
+    public double[] getErrorDeltas(int layer) {
+        return errorDeltas[layer];
+    }
+
+    /**
+     * Gibt die mit den Gewichten der übergebenen Schicht gewichteten Fehler
+     * ihrer Vorgängerschicht zurück.
+     *
+     * @param layer Index der Schicht
+     * @return Beispiele x Vorgängerneuronen inkl. Bias
+     */
+    public double[] getWeightedErrors(int layer) {
+        return weightedErrors[layer];
+    }
+
+    /**
+     * Gibt die Eingabematrix bei FP32 zurück.
+     *
+     * @return
+     * @see BatchWorkspace#getInput()
+     */
+    public float[] getInputFloat() {
+        return inputFloat;
+    }
+
+    /**
+     * Gibt die Ableitungen der Aktivierungsfunktion der übergebenen Schicht
+     * bei FP32 zurück.
+     *
+     * @param layer Index der Schicht
+     * @return Beispiele x Neuronen ohne Bias
+     * @see BatchWorkspace#getDerivatives(int)
+     */
+    public float[] getDerivativesFloat(int layer) {
+        return derivativesFloat[layer];
+    }
+
+    /**
+     * Gibt die Aktivierungen der übergebenen Schicht bei FP32 zurück.
+     *
+     * @param layer Index der Schicht
+     * @return Beispiele x Neuronen inkl. Bias
+     */
+    public float[] getActivationsFloat(int layer) {
+        return activationsFloat[layer];
+    }
+
+    /**
+     * Gibt die Fehler der übergebenen Schicht bei FP32 zurück.
+     *
+     * @param layer Index der Schicht
+     * @return Beispiele x Neuronen ohne Bias
+     */
+    public float[] getErrorsFloat(int layer) {
+        return errorsFloat[layer];
+    }
+
+    /**
+     * Gibt die Delta-Fehler der übergebenen Schicht bei FP32 zurück.
+     *
+     * @param layer Index der Schicht
+     * @return Beispiele x Neuronen ohne Bias
+     */
+    public float[] getErrorDeltasFloat(int layer) {
+        return errorDeltasFloat[layer];
+    }
+
+    /**
+     * Gibt die gewichteten Fehler der Vorgängerschicht bei FP32 zurück.
+     *
+     * @param layer Index der Schicht
+     * @return Beispiele x Vorgängerneuronen inkl. Bias
+     */
+    public float[] getWeightedErrorsFloat(int layer) {
+        return weightedErrorsFloat[layer];
+    }
+
+}
@@ -0,0 +1,184 @@
+package de.fk.neuralnetwork.learning;
+
+import de.fk.neuralnetwork.NeuralNetwork;
+import de.fk.neuralnetwork.data.LabeledImage;
+import de.fk.neuralnetwork.data.Tester;
+import de.fk.neuralnetwork.math.ExecutionEngine;
+import de.fk.neuralnetwork.training.LabeledImageTrainingSupplier;
+import de.fk.neuralnetwork.training.PrefetchingTrainingSupplier;
+import de.fk.neuralnetwork.training.TrainingSupplier;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Trainiert mehrere Netze (ein Ensemble) mit denselben Trainingsbildern auf
+ * einem gemeinsamen Thread-Pool fester Größe.
+ *
+ * Alle Mitglieder teilen sich eine unveränderliche Liste der Bilder; jedes
+ * Mitglied mischt nur seine eigene Permutation der Indizes (siehe
+ * LabeledImageTrainingSupplier), sodass pro Mitglied keine Kopie der Liste
+ * entsteht. Jede Iteration eines Mitglieds ist eine Aufgabe im Pool; die
+ * Netze rechnen dabei mit einer sequentiellen ExecutionEngine, damit nur der
+ * Pool die Prozessorkerne verteilt und alle Mitglieder gleich schnell
+ * vorankommen. Optional bereitet je Mitglied ein
+ * PrefetchingTrainingSupplier die Beispiele in einem Hintergrund-Thread vor,
+ * sodass das Transformieren der Bilder nicht im Pool läuft. Validiert werden
+ * alle Mitglieder in einem gemeinsamen Durchlauf über die Bilder.
+ *
+ * @author Felix
+ * @see Tester#testFromImages(NeuralNetwork[], List, ExecutorService)
+ */
+public class EnsembleTrainer implements Closeable {
+
+    private static final AtomicInteger POOL_ID = new AtomicInteger();
+
+    private final NeuralNetwork[] nets;
+    private final Backpropagator[] bps;
+    private final TrainingSupplier[] suppliers;
+    private final List<LabeledImage> images;
+    private final ExecutorService pool;
+    private final int threads;
+
+    /**
+     * Erstellt einen EnsembleTrainer ohne Vorbereiten der Beispiele im
+     * Hintergrund. Die ExecutionEngine aller Netze wird durch eine
+     * sequentielle ersetzt.
+     *
+     * @param nets Netze des Ensembles
+     * @param bps Backpropagator je Netz
+     * @param images Trainingsbilder (werden nicht verändert und dürfen während des Trainings nicht verändert werden)
+     * @param imgWidth Breite der Bilder
+     * @param imgHeight Höhe der Bilder
+     * @param classes Anzahl der Klassen
+     * @param autoTransform Bilder beim Ziehen zufällig transformieren
+     * @param seed Seed für Reihenfolge und Transformationen aller Mitglieder
+     * @param threads Größe des Pools (höchstens die Anzahl der Netze wird verwendet)
+     * @throws IllegalArgumentException Wenn die Anzahl der Netze und Backpropagatoren nicht übereinstimmt oder threads kleiner als 1 ist
+     */
+    public EnsembleTrainer(NeuralNetwork[] nets, Backpropagator[] bps, List<LabeledImage> images, int imgWidth, int imgHeight, int classes, boolean autoTransform, long seed, int threads) throws IllegalArgumentException {
+        this(nets, bps, images, imgWidth, imgHeight, classes, autoTransform, seed, threads, 0);
+    }
+
+    /**
+     * Erstellt einen EnsembleTrainer. Die ExecutionEngine aller Netze wird
+     * durch eine sequentielle ersetzt. Ist prefetchBatchSize positiv, wird
+     * der TrainingSupplier jedes Mitglieds in einen
+     * PrefetchingTrainingSupplier mit dieser Paketgröße gehüllt.
+     *
+     * @param nets Netze des Ensembles
+     * @param bps Backpropagator je Netz
+     * @param images Trainingsbilder (werden nicht verändert und dürfen während des Trainings nicht verändert werden)
+     * @param imgWidth Breite der Bilder
+     * @param imgHeight Höhe der Bilder
+     * @param classes Anzahl der Klassen
+     * @param autoTransform Bilder beim Ziehen zufällig transformieren
+     * @param seed Seed für Reihenfolge und Transformationen aller Mitglieder
+     * @param threads Größe des Pools (höchstens die Anzahl der Netze wird verwendet)
+     * @param prefetchBatchSize Paketgröße für das Vorbereiten im Hintergrund (0: nicht vorbereiten)
+     * @throws IllegalArgumentException Wenn die Anzahl der Netze und Backpropagatoren nicht übereinstimmt oder threads kleiner als 1 ist
+     * @see PrefetchingTrainingSupplier
+     */
+    public EnsembleTrainer(NeuralNetwork[] nets, Backpropagator[] bps, List<LabeledImage> images, int imgWidth, int imgHeight, int classes, boolean autoTransform, long seed, int threads, int prefetchBatchSize) throws IllegalArgumentException {
+        if(nets.length == 0 || nets.length != bps.length) throw new IllegalArgumentException("Es wird je Netz genau ein Backpropagator benötigt.");
+        if(threads < 1) throw new IllegalArgumentException("Es wird mindestens ein Thread benötigt.");
+        this.nets = nets;
+        this.bps = bps;
+        this.images = Collections.unmodifiableList(images);
+        this.threads = Math.min(threads, nets.length);
+        this.suppliers = new TrainingSupplier[nets.length];
+        SplittableRandom seeds = new SplittableRandom(seed);
+        ExecutionEngine sequential = new ExecutionEngine(1);
+        for(int i = 0; i < nets.length; i++) {
+            nets[i].setExecutionEngine(sequential);
+            suppliers[i] = new LabeledImageTrainingSupplier(() -> this.images, imgWidth, imgHeight, classes, autoTransform, seeds.nextLong());
+            if(prefetchBatchSize > 0) suppliers[i] = new PrefetchingTrainingSupplier(suppliers[i], prefetchBatchSize);
+        }
+        int id = POOL_ID.getAndIncrement();
+        AtomicInteger threadId = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(this.threads, r -> {
+            Thread t = new Thread(r, "EnsembleTrainer#" + id + "-" + threadId.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public NeuralNetwork[] getNets() {
+        return nets;
+    }
+
+    public Backpropagator[] getBackpropagators() {
+        return bps;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Trainiert alle Netze für die übergebene Anzahl an Iterationen und
+     * blockiert bis dahin. Alle Mitglieder beginnen jede Iteration
+     * gemeinsam, sodass keines mehr als eine Iteration vorauslaufen kann.
+     *
+     * @param iterations Anzahl der Iterationen
+     * @throws InterruptedException Wenn der Thread beim Warten unterbrochen wird (das Training wird dann gestoppt)
+     * @throws IllegalStateException Wenn das Training eines Mitglieds fehlschlägt
+     */
+    public void train(int iterations) throws InterruptedException, IllegalStateException {
+        List<Callable<Void>> tasks = new ArrayList<>(nets.length);
+        for(int i = 0; i < nets.length; i++) {
+            final int net = i;
+            tasks.add(() -> {
+                bps[net].trainInCurrentThread(suppliers[net], 1);
+                return null;
+            });
+        }
+        for(int it = 0; it < iterations; it++) {
+            try {
+                for(Future<Void> f : pool.invokeAll(tasks)) f.get();
+            } catch (InterruptedException ex) {
+                stopTraining();
+                throw ex;
+            } catch (ExecutionException ex) {
+                throw new IllegalStateException("Das Training eines Netzes ist fehlgeschlagen.", ex.getCause());
+            }
+        }
+    }
+
+    /**
+     * Testet alle Netze in einem gemeinsamen Durchlauf über die Bilder.
+     *
+     * @param images Bilder, z.B. das Validation Set
+     * @return Testergebnisse in der Reihenfolge der Netze
+     */
+    public Tester.TestResult[] validate(List<LabeledImage> images) {
+        return Tester.testFromImages(nets, images, pool);
+    }
+
+    /**
+     * Unterbricht das Training aller Netze bei der nächsten Iteration.
+     */
+    public void stopTraining() {
+        for(Backpropagator bp : bps) bp.stopTraining();
+    }
+
+    /**
+     * Beendet den Pool und gibt die TrainingSupplier der Mitglieder frei
+     * (z.B. deren Hintergrund-Threads). Laufende Iterationen werden noch
+     * abgeschlossen.
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+        for(TrainingSupplier supplier : suppliers) supplier.close();
+    }
+
+}
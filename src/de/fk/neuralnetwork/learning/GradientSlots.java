@@ -0,0 +1,85 @@
+package de.fk.neuralnetwork.learning;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Verteilt eine feste Anzahl an Gradienten-Slots an die
+ * Backpropagation-Threads. Ein Thread belegt einen Slot nur, während er
+ * rechnet, und gibt ihn vor dem Warten auf die übrigen Threads wieder frei.
+ * Da nie mehr Threads gleichzeitig rechnen als Prozessorkerne vorhanden sind,
+ * werden auch bei vielen Threads nur so viele Accumulator Matrices benötigt.
+ *
+ * Ein Semaphore zählt die freien Slots, sodass wartende Threads blockieren
+ * statt zu kreisen. Welcher Slot belegt wird, entscheidet danach ein
+ * Compare-and-Set.
+ *
+ * @author Felix
+ * @see de.fk.neuralnetwork.GradientBuffer
+ */
+public class GradientSlots {
+
+    private final AtomicIntegerArray used;
+    private final Semaphore free;
+
+    /**
+     * Erstellt eine neue Slot-Verwaltung.
+     *
+     * @param slots Anzahl der Slots (mind. 1)
+     */
+    public GradientSlots(int slots) {
+        if(slots < 1) throw new IllegalArgumentException("Es wird mindestens ein Slot benötigt.");
+        this.used = new AtomicIntegerArray(slots);
+        this.free = new Semaphore(slots);
+    }
+
+    /**
+     * Gibt die für die übergebene Anzahl an Threads sinnvolle Anzahl an Slots
+     * zurück (höchstens ein Slot pro Prozessorkern).
+     *
+     * @param threads Anzahl der Backpropagation-Threads
+     * @return
+     */
+    public static int slotsFor(int threads) {
+        return Math.max(1, Math.min(threads, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Gibt die Anzahl der Slots zurück.
+     *
+     * @return
+     */
+    public int getSlotCount() {
+        return used.length();
+    }
+
+    /**
+     * Belegt einen freien Slot. Sind alle Slots belegt, blockiert der Thread,
+     * bis einer freigegeben wird.
+     *
+     * @param preferred Bevorzugter Slot (z.B. die Thread-ID), um Konflikte zu vermeiden
+     * @return Belegter Slot
+     * @see GradientSlots#release(int)
+     */
+    public int acquire(int preferred) {
+        free.acquireUninterruptibly();
+        //Mit der Genehmigung ist mindestens ein Slot frei
+        int n = used.length();
+        for(;;)
+            for(int i = 0; i < n; i++) {
+                int slot = (preferred + i) % n;
+                if(used.get(slot) == 0 && used.compareAndSet(slot, 0, 1)) return slot;
+            }
+    }
+
+    /**
+     * Gibt einen belegten Slot wieder frei.
+     *
+     * @param slot Slot
+     */
+    public void release(int slot) {
+        used.set(slot, 0);
+        free.release();
+    }
+
+}
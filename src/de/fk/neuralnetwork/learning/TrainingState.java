@@ -0,0 +1,152 @@
+package de.fk.neuralnetwork.learning;
+
+import org.json.JSONObject;
+
+/**
+ * Zustand eines Trainingsvorgangs ohne die Gewichte: Iteration,
+ * Trainingsparameter und die beste bisher erreichte Validierungsfehlerrate.
+ * Wird zusammen mit den Gewichten und Gewichtsänderungen in einem Checkpoint
+ * gespeichert, um ein Training exakt fortsetzen zu können.
+ *
+ * @author Felix
+ * @see Backpropagator#getTrainingState()
+ * @see de.fk.neuralnetwork.io.CheckpointManager
+ */
+public class TrainingState {
+
+    private int iteration, iterationsWithoutChange;
+    private double learningRate, regularizationRate, momentum, lastTrainingError;
+    private double bestValidationError = Double.MAX_VALUE;
+
+    public TrainingState() {
+    }
+
+    /**
+     * Erstellt eine Kopie eines Zustands.
+     *
+     * @param state Zu kopierender Zustand
+     */
+    public TrainingState(TrainingState state) {
+        this.iteration = state.iteration;
+        this.iterationsWithoutChange = state.iterationsWithoutChange;
+        this.learningRate = state.learningRate;
+        this.regularizationRate = state.regularizationRate;
+        this.momentum = state.momentum;
+        this.lastTrainingError = state.lastTrainingError;
+        this.bestValidationError = state.bestValidationError;
+    }
+
+    public int getIteration() {
+        return iteration;
+    }
+
+    public void setIteration(int iteration) {
+        this.iteration = iteration;
+    }
+
+    public int getIterationsWithoutChange() {
+        return iterationsWithoutChange;
+    }
+
+    public void setIterationsWithoutChange(int iterationsWithoutChange) {
+        this.iterationsWithoutChange = iterationsWithoutChange;
+    }
+
+    public double getLearningRate() {
+        return learningRate;
+    }
+
+    public void setLearningRate(double learningRate) {
+        this.learningRate = learningRate;
+    }
+
+    public double getRegularizationRate() {
+        return regularizationRate;
+    }
+
+    public void setRegularizationRate(double regularizationRate) {
+        this.regularizationRate = regularizationRate;
+    }
+
+    public double getMomentum() {
+        return momentum;
+    }
+
+    public void setMomentum(double momentum) {
+        this.momentum = momentum;
+    }
+
+    /**
+     * Gibt den Trainingsfehler der letzten Iteration zurück (Grundlage der
+     * adaptiven Lernrate).
+     *
+     * @return
+     */
+    public double getLastTrainingError() {
+        return lastTrainingError;
+    }
+
+    public void setLastTrainingError(double lastTrainingError) {
+        this.lastTrainingError = lastTrainingError;
+    }
+
+    public double getBestValidationError() {
+        return bestValidationError;
+    }
+
+    public void setBestValidationError(double bestValidationError) {
+        this.bestValidationError = bestValidationError;
+    }
+
+    /**
+     * Gibt den Zustand als JSON-Objekt zurück. Nicht endliche Werte (z.B. der
+     * Trainingsfehler eines divergierten Netzes) werden als Zeichenkette
+     * ("NaN", "Infinity", "-Infinity") gespeichert, da JSON sie als Zahl nicht
+     * darstellen kann; fromJSON liest sie wieder als double.
+     *
+     * @return
+     */
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("i", iteration);
+        json.put("iwc", iterationsWithoutChange);
+        putDouble(json, "lr", learningRate);
+        putDouble(json, "reg", regularizationRate);
+        putDouble(json, "momentum", momentum);
+        putDouble(json, "terr", lastTrainingError);
+        putDouble(json, "bestval", bestValidationError);
+        return json;
+    }
+
+    private static void putDouble(JSONObject json, String key, double value) {
+        if(Double.isFinite(value)) json.put(key, value);
+        else json.put(key, Double.toString(value));
+    }
+
+    /**
+     * Liest einen Zustand aus einem JSON-Objekt. Fehlende Werte bleiben auf
+     * ihrem Standardwert, als Zeichenkette gespeicherte Zahlen (siehe toJSON)
+     * werden geparst.
+     *
+     * @param json JSON-Objekt
+     * @return
+     * @see TrainingState#toJSON()
+     */
+    public static TrainingState fromJSON(JSONObject json) {
+        TrainingState state = new TrainingState();
+        state.iteration = json.optInt("i", 0);
+        state.iterationsWithoutChange = json.optInt("iwc", 0);
+        state.learningRate = json.optDouble("lr", 0);
+        state.regularizationRate = json.optDouble("reg", 0);
+        state.momentum = json.optDouble("momentum", 0);
+        state.lastTrainingError = json.optDouble("terr", 0);
+        state.bestValidationError = json.optDouble("bestval", Double.MAX_VALUE);
+        return state;
+    }
+
+    @Override
+    public String toString() {
+        return toJSON().toString();
+    }
+
+}
@@ -0,0 +1,109 @@
+package de.fk.neuralnetwork.learning;
+
+import de.fk.neuralnetwork.NeuralLayer;
+import de.fk.neuralnetwork.NeuralNetwork;
+
+/**
+ * Wiederverwendbarer Arbeitsspeicher für die Backpropagation einzelner
+ * Beispiele. Beim Vorwärtsdurchlauf werden neben den Aktivierungen die
+ * Ableitungen der Aktivierungsfunktionen an den Neuroneneingaben gespeichert,
+ * sodass der Rückwärtsdurchlauf die gewichteten Summen nicht erneut berechnen
+ * muss. Jeder Trainingsthread bzw. Gradienten-Slot benötigt einen eigenen
+ * TrainingWorkspace.
+ *
+ * @author Felix
+ * @see Backpropagator#backpropStep(de.fk.neuralnetwork.training.TrainingExample, int)
+ * @see BatchWorkspace Für Mini-Batches
+ */
+public class TrainingWorkspace {
+
+    private final double[] input;
+    private final double[][] activations, derivatives, errorDeltas;
+
+    /**
+     * Legt den Arbeitsspeicher für das übergebene Netz an.
+     *
+     * @param net Neuronales Netz
+     */
+    public TrainingWorkspace(NeuralNetwork net) {
+        NeuralLayer[] layers = net.getLayers();
+        //Eingabe immer mit Bias (siehe NeuralNetwork#trigger)
+        this.input = new double[net.getInputNeurons() + 1];
+        this.activations = new double[layers.length][];
+        this.derivatives = new double[layers.length][];
+        this.errorDeltas = new double[layers.length][];
+        for(int l = 0; l < layers.length; l++) {
+            int neurons = layers[l].getNeuronCount() - (layers[l].hasBias() ? 1 : 0);
+            activations[l] = new double[layers[l].getNeuronCount()];
+            derivatives[l] = new double[neurons];
+            errorDeltas[l] = new double[neurons];
+        }
+    }
+
+    /**
+     * Überprüft, ob die Puffer zu dem übergebenen Netz passen.
+     *
+     * @param net Neuronales Netz
+     * @return true, wenn alle Puffer die passende Größe haben
+     */
+    public boolean fits(NeuralNetwork net) {
+        NeuralLayer[] layers = net.getLayers();
+        if(layers.length != activations.length || input.length != net.getInputNeurons() + 1) return false;
+        for(int l = 0; l < layers.length; l++)
+            if(activations[l].length != layers[l].getNeuronCount() || derivatives[l].length != layers[l].getNeuronCount() - (layers[l].hasBias() ? 1 : 0)) return false;
+        return true;
+    }
+
+    /**
+     * Gibt den Puffer der Eingabeaktivierungen (inkl. Bias an Position 0)
+     * zurück.
+     *
+     * @return
+     */
+    public double[] getInput() {
+        return input;
+    }
+
+    /**
+     * Gibt die Aktivierungen der übergebenen Schicht zurück.
+     *
+     * @param layer Index der Schicht
+     * @return Neuronen inkl. Bias
+     */
+    public double[] getActivations(int layer) {
+        return activations[layer];
+    }
+
+    /**
+     * Gibt die Aktivierungen der Vorgängerschicht bzw. die Eingabe zurück.
+     *
+     * @param layer Index der Schicht
+     * @return
+     */
+    public double[] getActivationsBefore(int layer) {
+        return layer > 0 ? activations[layer - 1] : input;
+    }
+
+    /**
+     * Gibt die beim Vorwärtsdurchlauf gespeicherten Ableitungen der
+     * übergebenen Schicht zurück.
+     *
+     * @param layer Index der Schicht
+     * @return Neuronen ohne Bias
+     * @see NeuralLayer#trigger(double[], double[], double[])
+     */
+    public double[] getDerivatives(int layer) {
+        return derivatives[layer];
+    }
+
+    /**
+     * Gibt die Delta-Fehler der übergebenen Schicht zurück.
+     *
+     * @param layer Index der Schicht
+     * @return Neuronen ohne Bias
+     */
+    public double[] getErrorDeltas(int layer) {
+        return errorDeltas[layer];
+    }
+
+}
@@ -14,10 +14,10 @@ public abstract class ActivationFunction implements Serializable {
     public static ActivationFunction fromId(int id, double... args) {
         switch(id) {
             case 0: return new Identity();
-            case 1: return new Sigmoid();
+            case 1: return new Sigmoid(args.length > 0 && args[0] != 0);
             case 2: return new ReLU();
             case 3: return new LeakyReLU(args[0]);
-            case 4: return new Softmax();
+            case 4: return new Softmax(args.length > 0 && args[0] != 0);
             default: return null;
         }
     }
@@ -27,11 +27,66 @@ public abstract class ActivationFunction implements Serializable {
     public abstract boolean needsAllInputs();
     
     public double[] applyAll(double... in) {
-        return Arrays.stream(in).map(this::apply).toArray();
+        double[] out = new double[in.length];
+        apply(in, 0, out, 0, in.length);
+        return out;
     }
     
     public double[] derivativeAll(double... in) {
-        return Arrays.stream(in).map(this::derivative).toArray();
+        double[] out = new double[in.length];
+        derivative(in, 0, out, 0, in.length);
+        return out;
+    }
+    
+    /**
+     * Wendet die Funktion auf length Neuroneneingaben an, ohne Speicher zu
+     * belegen. in und out dürfen dasselbe Array mit demselben Offset sein.
+     *
+     * @param in Neuroneneingaben
+     * @param inOffset Position der ersten Eingabe
+     * @param out Ausgabe: Aktivierungen
+     * @param outOffset Position der ersten Aktivierung
+     * @param length Anzahl der Neuronen
+     */
+    public void apply(double[] in, int inOffset, double[] out, int outOffset, int length) {
+        for(int i = 0; i < length; i++) out[outOffset + i] = apply(in[inOffset + i]);
+    }
+    
+    /**
+     * Berechnet die Ableitungen für length Neuroneneingaben, ohne Speicher zu
+     * belegen. in und out dürfen dasselbe Array mit demselben Offset sein.
+     *
+     * @param in Neuroneneingaben
+     * @param inOffset Position der ersten Eingabe
+     * @param out Ausgabe: Ableitungen
+     * @param outOffset Position der ersten Ableitung
+     * @param length Anzahl der Neuronen
+     * @see ActivationFunction#derivativeAll(double...)
+     */
+    public void derivative(double[] in, int inOffset, double[] out, int outOffset, int length) {
+        for(int i = 0; i < length; i++) out[outOffset + i] = derivative(in[inOffset + i]);
+    }
+    
+    /**
+     * Berechnet Aktivierungen und Ableitungen in einem Durchlauf, sodass
+     * gemeinsame Zwischenergebnisse (z.B. e^-z beim Sigmoid) nur einmal
+     * berechnet werden. in darf mit out oder derivatives übereinstimmen
+     * (gleicher Offset); die Neuroneneingaben werden dann überschrieben.
+     *
+     * @param in Neuroneneingaben
+     * @param inOffset Position der ersten Eingabe
+     * @param out Ausgabe: Aktivierungen
+     * @param outOffset Position der ersten Aktivierung
+     * @param derivatives Ausgabe: Ableitungen
+     * @param derivativesOffset Position der ersten Ableitung
+     * @param length Anzahl der Neuronen
+     */
+    public void applyWithDerivative(double[] in, int inOffset, double[] out, int outOffset, double[] derivatives, int derivativesOffset, int length) {
+        for(int i = 0; i < length; i++) {
+            double z = in[inOffset + i];
+            out[outOffset + i] = apply(z);
+            derivatives[derivativesOffset + i] = derivative(z);
+        }
     }
     
     public abstract int getId();
@@ -65,10 +120,13 @@ public abstract class ActivationFunction implements Serializable {
         }
 
         @Override
-        public double[] derivativeAll(double... in) {
-            double[] out = new double[in.length];
-            Arrays.fill(out, 1);
-            return out;
+        public void apply(double[] in, int inOffset, double[] out, int outOffset, int length) {
+            if(in != out || inOffset != outOffset) System.arraycopy(in, inOffset, out, outOffset, length);
+        }
+
+        @Override
+        public void derivative(double[] in, int inOffset, double[] out, int outOffset, int length) {
+            Arrays.fill(out, outOffset, outOffset + length, 1);
         }
 
         @Override
@@ -81,10 +139,29 @@ public abstract class ActivationFunction implements Serializable {
     public static class Sigmoid extends ActivationFunction {
         
         private static final long serialVersionUID = 66258921105185908L;
+        
+        private final boolean fastExp;
+
+        public Sigmoid() {
+            this(false);
+        }
+
+        /**
+         * Erstellt eine Sigmoid-Funktion.
+         *
+         * @param fastExp true, um e^x mit NeuralMath#fastExp zu nähern (relativer Fehler unter 1e-8)
+         */
+        public Sigmoid(boolean fastExp) {
+            this.fastExp = fastExp;
+        }
+
+        public boolean isFastExp() {
+            return fastExp;
+        }
 
         @Override
         public double apply(double in) {
-            return 1.0 / (1.0 + (double) Math.exp(-in));
+            return 1.0 / (1.0 + (fastExp ? NeuralMath.fastExp(-in) : Math.exp(-in)));
         }
 
         @Override
@@ -93,6 +170,21 @@ public abstract class ActivationFunction implements Serializable {
             return sig * (1 - sig);
         }
 
+        @Override
+        public void apply(double[] in, int inOffset, double[] out, int outOffset, int length) {
+            if(fastExp) for(int i = 0; i < length; i++) out[outOffset + i] = 1.0 / (1.0 + NeuralMath.fastExp(-in[inOffset + i]));
+            else for(int i = 0; i < length; i++) out[outOffset + i] = 1.0 / (1.0 + Math.exp(-in[inOffset + i]));
+        }
+
+        @Override
+        public void applyWithDerivative(double[] in, int inOffset, double[] out, int outOffset, double[] derivatives, int derivativesOffset, int length) {
+            apply(in, inOffset, out, outOffset, length);
+            for(int i = 0; i < length; i++) {
+                double sig = out[outOffset + i];
+                derivatives[derivativesOffset + i] = sig * (1 - sig);
+            }
+        }
+
         @Override
         public int getId() {
             return 1;
@@ -100,7 +192,7 @@ public abstract class ActivationFunction implements Serializable {
 
         @Override
         public double[] getArgs() {
-            return new double[]{};
+            return fastExp ? new double[]{1} : new double[]{};
         }
 
         @Override
@@ -175,6 +267,25 @@ public abstract class ActivationFunction implements Serializable {
     }
     
     public static class Softmax extends ActivationFunction {
+        
+        private final boolean fastExp;
+
+        public Softmax() {
+            this(false);
+        }
+
+        /**
+         * Erstellt eine Softmax-Funktion.
+         *
+         * @param fastExp true, um e^x mit NeuralMath#fastExp zu nähern (relativer Fehler unter 1e-8)
+         */
+        public Softmax(boolean fastExp) {
+            this.fastExp = fastExp;
+        }
+
+        public boolean isFastExp() {
+            return fastExp;
+        }
 
         @Override
         public double apply(double in) {
@@ -193,27 +304,41 @@ public abstract class ActivationFunction implements Serializable {
 
         @Override
         public double[] getArgs() {
-            return new double[]{};
+            return fastExp ? new double[]{1} : new double[]{};
         }
 
         @Override
-        public double[] applyAll(double... in) {
-            double max = Arrays.stream(in).max().getAsDouble();
-            double[] out = Arrays.stream(in).map(inn -> Math.exp(inn - max)).toArray();
-            double sum = Arrays.stream(out).sum();
-            return Arrays.stream(out).map(outn -> outn / sum).toArray();
+        public void apply(double[] in, int inOffset, double[] out, int outOffset, int length) {
+            double max = Double.NEGATIVE_INFINITY, sum = 0;
+            for(int i = inOffset; i < inOffset + length; i++) if(in[i] > max) max = in[i];
+            for(int i = 0; i < length; i++) {
+                double e = fastExp ? NeuralMath.fastExp(in[inOffset + i] - max) : Math.exp(in[inOffset + i] - max);
+                out[outOffset + i] = e;
+                sum += e;
+            }
+            double inv = 1.0 / sum;
+            for(int i = outOffset; i < outOffset + length; i++) out[i] *= inv;
+        }
+
+        /**
+         * Berechnet für jedes Neuron j die Summe der j-ten Spalte der
+         * Jacobi-Matrix, Σ_i ∂s_i/∂z_j = s_j(1 - s_j) - s_j(S - s_j) mit
+         * S = Σ_i s_i, in O(n) statt über alle Paare.
+         */
+        @Override
+        public void derivative(double[] in, int inOffset, double[] out, int outOffset, int length) {
+            applyWithDerivative(in, inOffset, out, outOffset, out, outOffset, length);
         }
 
         @Override
-        public double[] derivativeAll(double... in) {
-            double[] softmax = applyAll(in);
-            double[] out = new double[in.length];
-            for(int i = 0; i < in.length; i++) {
-                for(int j = 0; j < in.length; j++) {
-                    out[j] += i == j ? (softmax[i] * (1 - softmax[i])) : (-softmax[i] * softmax[j]);
-                }
+        public void applyWithDerivative(double[] in, int inOffset, double[] out, int outOffset, double[] derivatives, int derivativesOffset, int length) {
+            apply(in, inOffset, out, outOffset, length);
+            double sum = 0;
+            for(int i = outOffset; i < outOffset + length; i++) sum += out[i];
+            for(int i = 0; i < length; i++) {
+                double s = out[outOffset + i];
+                derivatives[derivativesOffset + i] = s * (1 - s) - s * (sum - s);
             }
-            return out;
         }
 
         @Override
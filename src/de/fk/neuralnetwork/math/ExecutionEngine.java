@@ -0,0 +1,200 @@
+package de.fk.neuralnetwork.math;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Führt die parallelen Berechnungen der Schichten (Aktivieren, Fehler
+ * berechnen, Gewichte updaten) und der Rechenkerne aus LinearAlgebra auf einem
+ * eigenen, dauerhaft laufenden Fork/Join-Pool fester Größe aus.
+ *
+ * Eine Berechnung wird nur dann aufgeteilt, wenn jede Teilaufgabe mindestens
+ * grain Multiplikationen umfasst. Kleine Schichten (z.B. die Ausgabeschicht)
+ * werden dadurch direkt im aufrufenden Thread berechnet. Wird eine Berechnung
+ * aus einem Thread des eigenen Pools gestartet, werden die Teilaufgaben in
+ * diesem Pool verteilt, anstatt einen weiteren Pool zu belegen.
+ *
+ * @author Felix
+ * @see de.fk.neuralnetwork.NeuralNetwork#setExecutionEngine(ExecutionEngine)
+ */
+public class ExecutionEngine {
+
+    /**
+     * Standardmäßige Mindestanzahl an Multiplikationen pro Teilaufgabe.
+     */
+    public static final int DEFAULT_GRAIN = 1 << 15;
+
+    private static final AtomicInteger POOL_ID = new AtomicInteger();
+
+    private static volatile ExecutionEngine defaultEngine;
+
+    private final ForkJoinPool pool;
+    private final int parallelism, grain;
+
+    /**
+     * Erstellt eine neue ExecutionEngine mit eigenem Pool.
+     *
+     * @param parallelism Anzahl der Worker-Threads (mind. 1; bei 1 wird nie aufgeteilt)
+     * @param grain Mindestanzahl an Multiplikationen pro Teilaufgabe (mind. 1)
+     */
+    public ExecutionEngine(int parallelism, int grain) {
+        if(parallelism < 1) throw new IllegalArgumentException("Es wird mindestens ein Thread benötigt.");
+        if(grain < 1) throw new IllegalArgumentException("Die Mindestgröße einer Teilaufgabe muss positiv sein.");
+        this.parallelism = parallelism;
+        this.grain = grain;
+        int id = POOL_ID.getAndIncrement();
+        this.pool = parallelism == 1 ? null : new ForkJoinPool(parallelism, p -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            t.setName("ExecutionEngine#" + id + "-" + t.getPoolIndex());
+            t.setDaemon(true);
+            return t;
+        }, null, false);
+    }
+
+    /**
+     * Erstellt eine neue ExecutionEngine mit eigenem Pool und der
+     * Standard-Mindestgröße pro Teilaufgabe.
+     *
+     * @param parallelism Anzahl der Worker-Threads
+     */
+    public ExecutionEngine(int parallelism) {
+        this(parallelism, DEFAULT_GRAIN);
+    }
+
+    /**
+     * Gibt die von allen Netzen ohne eigene ExecutionEngine verwendete
+     * ExecutionEngine zurück. Diese wird beim ersten Aufruf mit einem Thread
+     * pro Prozessorkern erstellt.
+     *
+     * @return
+     */
+    public static ExecutionEngine getDefault() {
+        ExecutionEngine engine = defaultEngine;
+        if(engine == null) synchronized(ExecutionEngine.class) {
+            if((engine = defaultEngine) == null) defaultEngine = engine = new ExecutionEngine(Runtime.getRuntime().availableProcessors());
+        }
+        return engine;
+    }
+
+    /**
+     * Ersetzt die standardmäßig verwendete ExecutionEngine. Die bisherige
+     * Engine wird nicht beendet.
+     *
+     * @param engine Neue Standard-Engine
+     */
+    public static void setDefault(ExecutionEngine engine) {
+        if(engine == null) throw new IllegalArgumentException("Die ExecutionEngine darf nicht null sein.");
+        defaultEngine = engine;
+    }
+
+    /**
+     * Gibt die Anzahl der Worker-Threads zurück.
+     *
+     * @return
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Gibt die Mindestanzahl an Multiplikationen pro Teilaufgabe zurück.
+     *
+     * @return
+     */
+    public int getGrain() {
+        return grain;
+    }
+
+    /**
+     * Gibt zurück, ob eine Berechnung über n Elemente mit insgesamt work
+     * Multiplikationen aufgeteilt würde.
+     *
+     * @param n Anzahl der Elemente
+     * @param work Geschätzte Anzahl an Multiplikationen
+     * @param minElements Mindestanzahl an Elementen pro Teilaufgabe
+     * @return
+     */
+    public boolean shouldSplit(int n, long work, int minElements) {
+        return pool != null && work >= 2L * grain && n >= 2 * Math.max(1, minElements);
+    }
+
+    /**
+     * Führt die Berechnung für den Bereich [0;n) aus. Ist die Arbeit groß
+     * genug, wird der Bereich in Teilbereiche mit je mindestens grain
+     * Multiplikationen und minElements Elementen zerlegt und auf den Pool
+     * verteilt, sonst wird direkt im aufrufenden Thread gerechnet.
+     *
+     * @param n Größe des Bereichs
+     * @param work Geschätzte Anzahl an Multiplikationen im gesamten Bereich
+     * @param minElements Mindestanzahl an Elementen pro Teilaufgabe
+     * @param kernel Berechnung
+     */
+    public void forRange(int n, long work, int minElements, LinearAlgebra.RangeKernel kernel) {
+        if(!shouldSplit(n, work, minElements)) {
+            kernel.compute(0, n);
+            return;
+        }
+        long tasks = Math.min((long) parallelism * 4, work / grain);
+        int chunk = (int) Math.max(Math.max(1, minElements), (n + tasks - 1) / tasks);
+        RangeTask task = new RangeTask(kernel, 0, n, chunk);
+        if(ForkJoinTask.getPool() == pool) task.invoke();
+        else pool.invoke(task);
+    }
+
+    /**
+     * Beendet die Worker-Threads dieser Engine. Laufende Berechnungen werden
+     * noch abgeschlossen.
+     */
+    public void shutdown() {
+        if(pool != null) pool.shutdown();
+    }
+
+    /**
+     * Wartet, bis alle Worker-Threads nach shutdown() beendet wurden.
+     *
+     * @param timeout Maximale Wartezeit
+     * @param unit Einheit der Wartezeit
+     * @return true, wenn alle Threads beendet wurden
+     * @throws InterruptedException
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return pool == null || pool.awaitTermination(timeout, unit);
+    }
+
+    @Override
+    public String toString() {
+        return "ExecutionEngine[parallelism=" + parallelism + ", grain=" + grain + "]";
+    }
+
+    private static class RangeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = -1739026471232843147L;
+
+        private final LinearAlgebra.RangeKernel kernel;
+        private final int from, to, chunk;
+
+        RangeTask(LinearAlgebra.RangeKernel kernel, int from, int to, int chunk) {
+            this.kernel = kernel;
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from <= chunk) kernel.compute(from, to);
+            else {
+                //Mitte auf ein Vielfaches von 4 runden (Register-Tiles nicht zerteilen)
+                int mid = from + (((to - from) >> 1) & ~3);
+                if(mid <= from) mid = from + ((to - from) >> 1);
+                invokeAll(new RangeTask(kernel, from, mid, chunk), new RangeTask(kernel, mid, to, chunk));
+            }
+        }
+
+    }
+
+}
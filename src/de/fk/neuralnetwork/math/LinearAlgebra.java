@@ -0,0 +1,856 @@
+package de.fk.neuralnetwork.math;
+
+import java.util.Arrays;
+
+/**
+ * Rechenkerne für Vektor- und Matrixoperationen auf zeilenweise in
+ * eindimensionalen Arrays gespeicherten Matrizen.
+ *
+ * Alle Schleifen laufen mit Schrittweite 1 über zusammenhängenden Speicher
+ * und arbeiten auf mehreren unabhängigen Akkumulatoren bzw. mehreren
+ * Ergebniszeilen gleichzeitig (Register-Tiling), sodass der JIT-Compiler sie
+ * vektorisieren kann. Große Matrixprodukte werden in Blöcke zerlegt, die in
+ * den Cache passen, und ab einer Mindestgröße auf die Worker-Threads einer
+ * ExecutionEngine verteilt.
+ *
+ * @author Felix
+ * @see NeuralMath
+ * @see ExecutionEngine
+ */
+public class LinearAlgebra {
+
+    /**
+     * Blockgröße in der Summationsdimension (Zeilen von B bzw. Spalten von A).
+     */
+    public static final int BLOCK_K = 128;
+
+    /**
+     * Blockgröße in der Spaltendimension von C.
+     */
+    public static final int BLOCK_N = 512;
+
+    /**
+     * Mindestanzahl an Zeilen (bzw. Spalten bei gemvTransposed) pro
+     * Fork/Join-Teilaufgabe.
+     */
+    public static final int MIN_ROWS_PER_TASK = 8;
+
+    /**
+     * Beschreibt eine Berechnung auf einem Zeilenbereich [from;to).
+     */
+    @FunctionalInterface
+    public static interface RangeKernel {
+        public void compute(int from, int to);
+    }
+
+    /**
+     * Führt die Berechnung für den Bereich [0;n) aus. Ist parallel true und
+     * die Arbeit (work) groß genug, wird der Bereich auf die
+     * Standard-ExecutionEngine verteilt.
+     *
+     * @param n Größe des Bereichs
+     * @param work Geschätzte Anzahl an Multiplikationen
+     * @param grain Mindestanzahl an Elementen pro Teilbereich
+     * @param parallel true, wenn parallel gerechnet werden darf
+     * @param kernel Berechnung
+     * @see ExecutionEngine#getDefault()
+     */
+    public static void forRange(int n, long work, int grain, boolean parallel, RangeKernel kernel) {
+        forRange(n, work, grain, engine(parallel), kernel);
+    }
+
+    /**
+     * Führt die Berechnung für den Bereich [0;n) aus und verteilt sie
+     * gegebenenfalls auf die übergebene ExecutionEngine.
+     *
+     * @param n Größe des Bereichs
+     * @param work Geschätzte Anzahl an Multiplikationen
+     * @param grain Mindestanzahl an Elementen pro Teilbereich
+     * @param engine ExecutionEngine oder null, um im aufrufenden Thread zu rechnen
+     * @param kernel Berechnung
+     */
+    public static void forRange(int n, long work, int grain, ExecutionEngine engine, RangeKernel kernel) {
+        if(engine == null) kernel.compute(0, n);
+        else engine.forRange(n, work, grain, kernel);
+    }
+
+    private static ExecutionEngine engine(boolean parallel) {
+        return parallel ? ExecutionEngine.getDefault() : null;
+    }
+
+    /**
+     * Gibt zurück, ob forRange den Bereich aufteilen würde. Die Kerne rufen
+     * sich sonst direkt auf, ohne ein Lambda zu erzeugen.
+     */
+    private static boolean split(int n, long work, int grain, ExecutionEngine engine) {
+        return engine != null && engine.shouldSplit(n, work, grain);
+    }
+
+    /**
+     * Skalarprodukt x[xOff..xOff+n) * y[yOff..yOff+n).
+     *
+     * @param x
+     * @param xOff
+     * @param y
+     * @param yOff
+     * @param n Länge
+     * @return Skalarprodukt
+     */
+    public static double dot(double[] x, int xOff, double[] y, int yOff, int n) {
+        double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+        int i = 0;
+        for(; i <= n - 4; i += 4) {
+            s0 += x[xOff + i] * y[yOff + i];
+            s1 += x[xOff + i + 1] * y[yOff + i + 1];
+            s2 += x[xOff + i + 2] * y[yOff + i + 2];
+            s3 += x[xOff + i + 3] * y[yOff + i + 3];
+        }
+        for(; i < n; i++) s0 += x[xOff + i] * y[yOff + i];
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * y[yOff..yOff+n) += alpha * x[xOff..xOff+n).
+     *
+     * @param alpha
+     * @param x
+     * @param xOff
+     * @param y
+     * @param yOff
+     * @param n Länge
+     */
+    public static void axpy(double alpha, double[] x, int xOff, double[] y, int yOff, int n) {
+        if(alpha == 0.0) return;
+        for(int i = 0; i < n; i++) y[yOff + i] += alpha * x[xOff + i];
+    }
+
+    /**
+     * Matrix-Vektor-Produkt y = A * x.
+     *
+     * @param a Matrix A (m x n)
+     * @param x Vektor (n)
+     * @param y Ergebnis (m)
+     * @param m Zeilen von A
+     * @param n Spalten von A
+     * @param parallel true, wenn große Matrizen parallel verrechnet werden dürfen
+     */
+    public static void gemv(double[] a, double[] x, double[] y, int m, int n, boolean parallel) {
+        gemv(a, x, y, m, n, engine(parallel));
+    }
+
+    /**
+     * Matrix-Vektor-Produkt y = A * x.
+     *
+     * @param a Matrix A (m x n)
+     * @param x Vektor (n)
+     * @param y Ergebnis (m)
+     * @param m Zeilen von A
+     * @param n Spalten von A
+     * @param engine ExecutionEngine oder null, um im aufrufenden Thread zu rechnen
+     */
+    public static void gemv(double[] a, double[] x, double[] y, int m, int n, ExecutionEngine engine) {
+        gemv(a, x, y, 0, m, n, engine);
+    }
+
+    /**
+     * Matrix-Vektor-Produkt y[yOff..yOff+m) = A * x.
+     *
+     * @param a Matrix A (m x n)
+     * @param x Vektor (n)
+     * @param y Ergebnis
+     * @param yOff Position des ersten Ergebnisses in y
+     * @param m Zeilen von A
+     * @param n Spalten von A
+     * @param parallel true, wenn große Matrizen parallel verrechnet werden dürfen
+     */
+    public static void gemv(double[] a, double[] x, double[] y, int yOff, int m, int n, boolean parallel) {
+        gemv(a, x, y, yOff, m, n, engine(parallel));
+    }
+
+    /**
+     * Matrix-Vektor-Produkt y[yOff..yOff+m) = A * x.
+     *
+     * @param a Matrix A (m x n)
+     * @param x Vektor (n)
+     * @param y Ergebnis
+     * @param yOff Position des ersten Ergebnisses in y
+     * @param m Zeilen von A
+     * @param n Spalten von A
+     * @param engine ExecutionEngine oder null, um im aufrufenden Thread zu rechnen
+     */
+    public static void gemv(double[] a, double[] x, double[] y, int yOff, int m, int n, ExecutionEngine engine) {
+        if(!split(m, (long) m * n, MIN_ROWS_PER_TASK, engine)) gemvRows(a, x, y, yOff, n, 0, m);
+        else forRange(m, (long) m * n, MIN_ROWS_PER_TASK, engine, (from, to) -> gemvRows(a, x, y, yOff, n, from, to));
+    }
+
+    private static void gemvRows(double[] a, double[] x, double[] y, int yOff, int n, int from, int to) {
+        int i = from;
+        //Vier Zeilen teilen sich jedes geladene x[j]
+        for(; i <= to - 4; i += 4) {
+            int a0 = i * n, a1 = a0 + n, a2 = a1 + n, a3 = a2 + n;
+            double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+            for(int j = 0; j < n; j++) {
+                double xj = x[j];
+                s0 += a[a0 + j] * xj;
+                s1 += a[a1 + j] * xj;
+                s2 += a[a2 + j] * xj;
+                s3 += a[a3 + j] * xj;
+            }
+            y[yOff + i] = s0;
+            y[yOff + i + 1] = s1;
+            y[yOff + i + 2] = s2;
+            y[yOff + i + 3] = s3;
+        }
+        for(; i < to; i++) y[yOff + i] = dot(a, i * n, x, 0, n);
+    }
+
+    /**
+     * Transponiertes Matrix-Vektor-Produkt y = A^T * x. Die Matrix wird
+     * zeilenweise durchlaufen.
+     *
+     * @param a Matrix A (m x n)
+     * @param x Vektor (m)
+     * @param y Ergebnis (n)
+     * @param m Zeilen von A
+     * @param n Spalten von A
+     * @param parallel true, wenn große Matrizen parallel verrechnet werden dürfen
+     */
+    public static void gemvTransposed(double[] a, double[] x, double[] y, int m, int n, boolean parallel) {
+        gemvTransposed(a, x, y, m, n, engine(parallel));
+    }
+
+    /**
+     * Transponiertes Matrix-Vektor-Produkt y = A^T * x. Die Matrix wird
+     * zeilenweise durchlaufen.
+     *
+     * @param a Matrix A (m x n)
+     * @param x Vektor (m)
+     * @param y Ergebnis (n)
+     * @param m Zeilen von A
+     * @param n Spalten von A
+     * @param engine ExecutionEngine oder null, um im aufrufenden Thread zu rechnen
+     */
+    public static void gemvTransposed(double[] a, double[] x, double[] y, int m, int n, ExecutionEngine engine) {
+        if(!split(n, (long) m * n, 64, engine)) gemvTransposedCols(a, x, y, m, n, 0, n);
+        else forRange(n, (long) m * n, 64, engine, (from, to) -> gemvTransposedCols(a, x, y, m, n, from, to));
+    }
+
+    private static void gemvTransposedCols(double[] a, double[] x, double[] y, int m, int n, int from, int to) {
+        Arrays.fill(y, from, to, 0.0);
+        int i = 0;
+        for(; i <= m - 4; i += 4) {
+            double x0 = x[i], x1 = x[i + 1], x2 = x[i + 2], x3 = x[i + 3];
+            int a0 = i * n, a1 = a0 + n, a2 = a1 + n, a3 = a2 + n;
+            for(int j = from; j < to; j++)
+                y[j] += x0 * a[a0 + j] + x1 * a[a1 + j] + x2 * a[a2 + j] + x3 * a[a3 + j];
+        }
+        for(; i < m; i++) axpy(x[i], a, i * n + from, y, from, to - from);
+    }
+
+    /**
+     * Rang-1-Update A += alpha * x * y^T (z.B. äußeres Produkt aus Delta-Fehlern
+     * und Aktivierungen).
+     *
+     * @param alpha
+     * @param x Vektor (m)
+     * @param y Vektor (n)
+     * @param a Matrix A (m x n)
+     * @param m Zeilen von A
+     * @param n Spalten von A
+     */
+    public static void ger(double alpha, double[] x, double[] y, double[] a, int m, int n) {
+        for(int i = 0; i < m; i++) axpy(alpha * x[i], y, 0, a, i * n, n);
+    }
+
+    /**
+     * Matrixprodukt C = A * B (bzw. C += A * B).
+     *
+     * @param a Matrix A (m x k)
+     * @param b Matrix B (k x n)
+     * @param c Ergebnismatrix C (m x n)
+     * @param m Zeilen von A und C
+     * @param n Spalten von B und C
+     * @param k Spalten von A bzw. Zeilen von B
+     * @param add true, wenn das Produkt zu C addiert werden soll
+     * @param parallel true, wenn große Matrizen parallel verrechnet werden dürfen
+     */
+    public static void gemm(double[] a, double[] b, double[] c, int m, int n, int k, boolean add, boolean parallel) {
+        gemm(a, b, c, m, n, k, add, engine(parallel));
+    }
+
+    /**
+     * Matrixprodukt C = A * B (bzw. C += A * B).
+     *
+     * @param a Matrix A (m x k)
+     * @param b Matrix B (k x n)
+     * @param c Ergebnismatrix C (m x n)
+     * @param m Zeilen von A und C
+     * @param n Spalten von B und C
+     * @param k Spalten von A bzw. Zeilen von B
+     * @param add true, wenn das Produkt zu C addiert werden soll
+     * @param engine ExecutionEngine oder null, um im aufrufenden Thread zu rechnen
+     */
+    public static void gemm(double[] a, double[] b, double[] c, int m, int n, int k, boolean add, ExecutionEngine engine) {
+        if(!split(m, (long) m * n * k, MIN_ROWS_PER_TASK, engine)) gemmRows(a, k, 1, b, c, n, k, add, 0, m);
+        else forRange(m, (long) m * n * k, MIN_ROWS_PER_TASK, engine, (from, to) -> gemmRows(a, k, 1, b, c, n, k, add, from, to));
+    }
+
+    /**
+     * Matrixprodukt C = A^T * B (bzw. C += A^T * B), z.B. die Summe der
+     * äußeren Produkte aller Zeilen von A und B.
+     *
+     * @param a Matrix A (k x m)
+     * @param b Matrix B (k x n)
+     * @param c Ergebnismatrix C (m x n)
+     * @param m Spalten von A bzw. Zeilen von C
+     * @param n Spalten von B und C
+     * @param k Zeilen von A und B
+     * @param add true, wenn das Produkt zu C addiert werden soll
+     * @param parallel true, wenn große Matrizen parallel verrechnet werden dürfen
+     */
+    public static void gemmTransposedA(double[] a, double[] b, double[] c, int m, int n, int k, boolean add, boolean parallel) {
+        gemmTransposedA(a, b, c, m, n, k, add, engine(parallel));
+    }
+
+    /**
+     * Matrixprodukt C = A^T * B (bzw. C += A^T * B), z.B. die Summe der
+     * äußeren Produkte aller Zeilen von A und B.
+     *
+     * @param a Matrix A (k x m)
+     * @param b Matrix B (k x n)
+     * @param c Ergebnismatrix C (m x n)
+     * @param m Spalten von A bzw. Zeilen von C
+     * @param n Spalten von B und C
+     * @param k Zeilen von A und B
+     * @param add true, wenn das Produkt zu C addiert werden soll
+     * @param engine ExecutionEngine oder null, um im aufrufenden Thread zu rechnen
+     */
+    public static void gemmTransposedA(double[] a, double[] b, double[] c, int m, int n, int k, boolean add, ExecutionEngine engine) {
+        if(!split(m, (long) m * n * k, MIN_ROWS_PER_TASK, engine)) gemmRows(a, 1, m, b, c, n, k, add, 0, m);
+        else forRange(m, (long) m * n * k, MIN_ROWS_PER_TASK, engine, (from, to) -> gemmRows(a, 1, m, b, c, n, k, add, from, to));
+    }
+
+    /**
+     * Berechnet die Zeilen [from;to) von C = A * B, wobei das Element (i, p)
+     * von A an a[i * rowStride + p * colStride] steht. Je vier Zeilen von C
+     * werden gemeinsam mit jeder Zeile von B aktualisiert; k und n werden in
+     * Blöcke zerlegt, damit die verwendeten Ausschnitte von B und C im Cache
+     * bleiben.
+     */
+    private static void gemmRows(double[] a, int rowStride, int colStride, double[] b, double[] c, int n, int k, boolean add, int from, int to) {
+        if(!add) Arrays.fill(c, from * n, to * n, 0.0);
+        for(int j0 = 0; j0 < n; j0 += BLOCK_N) {
+            int j1 = Math.min(n, j0 + BLOCK_N);
+            for(int p0 = 0; p0 < k; p0 += BLOCK_K) {
+                int p1 = Math.min(k, p0 + BLOCK_K);
+                int i = from;
+                for(; i <= to - 4; i += 4) {
+                    int c0 = i * n, c1 = c0 + n, c2 = c1 + n, c3 = c2 + n;
+                    for(int p = p0; p < p1; p++) {
+                        int ai = i * rowStride + p * colStride, bp = p * n;
+                        double a0 = a[ai], a1 = a[ai + rowStride], a2 = a[ai + 2 * rowStride], a3 = a[ai + 3 * rowStride];
+                        if(a0 == 0.0 && a1 == 0.0 && a2 == 0.0 && a3 == 0.0) continue;
+                        for(int j = j0; j < j1; j++) {
+                            double bj = b[bp + j];
+                            c[c0 + j] += a0 * bj;
+                            c[c1 + j] += a1 * bj;
+                            c[c2 + j] += a2 * bj;
+                            c[c3 + j] += a3 * bj;
+                        }
+                    }
+                }
+                for(; i < to; i++)
+                    for(int p = p0; p < p1; p++) {
+                        double aip = a[i * rowStride + p * colStride];
+                        if(aip != 0.0) axpy(aip, b, p * n + j0, c, i * n + j0, j1 - j0);
+                    }
+            }
+        }
+    }
+
+    /**
+     * Matrixprodukt C = A * B^T (bzw. C += A * B^T), also das Skalarprodukt
+     * jeder Zeile von A mit jeder Zeile von B (z.B. Eingaben x Gewichte).
+     *
+     * @param a Matrix A (m x k)
+     * @param b Matrix B (n x k)
+     * @param c Ergebnismatrix C (m x n)
+     * @param m Zeilen von A und C
+     * @param n Zeilen von B bzw. Spalten von C
+     * @param k Spalten von A und B
+     * @param add true, wenn das Produkt zu C addiert werden soll
+     * @param parallel true, wenn große Matrizen parallel verrechnet werden dürfen
+     */
+    public static void gemmTransposedB(double[] a, double[] b, double[] c, int m, int n, int k, boolean add, boolean parallel) {
+        gemmTransposedB(a, b, c, m, n, k, add, engine(parallel));
+    }
+
+    /**
+     * Matrixprodukt C = A * B^T (bzw. C += A * B^T), also das Skalarprodukt
+     * jeder Zeile von A mit jeder Zeile von B (z.B. Eingaben x Gewichte).
+     *
+     * @param a Matrix A (m x k)
+     * @param b Matrix B (n x k)
+     * @param c Ergebnismatrix C (m x n)
+     * @param m Zeilen von A und C
+     * @param n Zeilen von B bzw. Spalten von C
+     * @param k Spalten von A und B
+     * @param add true, wenn das Produkt zu C addiert werden soll
+     * @param engine ExecutionEngine oder null, um im aufrufenden Thread zu rechnen
+     */
+    public static void gemmTransposedB(double[] a, double[] b, double[] c, int m, int n, int k, boolean add, ExecutionEngine engine) {
+        if(!split(m, (long) m * n * k, MIN_ROWS_PER_TASK, engine)) gemmTransposedBRows(a, b, c, n, k, add, 0, m);
+        else forRange(m, (long) m * n * k, MIN_ROWS_PER_TASK, engine, (from, to) -> gemmTransposedBRows(a, b, c, n, k, add, from, to));
+    }
+
+    /**
+     * Berechnet die Zeilen [from;to) von C = A * B^T mit Kacheln aus zwei
+     * Zeilen von A und vier Zeilen von B (acht Akkumulatoren). Die
+     * Summationsdimension wird in Blöcke zerlegt, damit die Zeilenausschnitte
+     * von B im Cache bleiben.
+     */
+    private static void gemmTransposedBRows(double[] a, double[] b, double[] c, int n, int k, boolean add, int from, int to) {
+        if(!add) Arrays.fill(c, from * n, to * n, 0.0);
+        for(int p0 = 0; p0 < k; p0 += BLOCK_K) {
+            int len = Math.min(k, p0 + BLOCK_K) - p0;
+            int i = from;
+            for(; i <= to - 2; i += 2) {
+                int a0 = i * k + p0, a1 = a0 + k;
+                int j = 0;
+                for(; j <= n - 4; j += 4) {
+                    int b0 = j * k + p0, b1 = b0 + k, b2 = b1 + k, b3 = b2 + k;
+                    double s00 = 0.0, s01 = 0.0, s02 = 0.0, s03 = 0.0,
+                            s10 = 0.0, s11 = 0.0, s12 = 0.0, s13 = 0.0;
+                    for(int p = 0; p < len; p++) {
+                        double x0 = a[a0 + p], x1 = a[a1 + p],
+                                w0 = b[b0 + p], w1 = b[b1 + p], w2 = b[b2 + p], w3 = b[b3 + p];
+                        s00 += x0 * w0; s01 += x0 * w1; s02 += x0 * w2; s03 += x0 * w3;
+                        s10 += x1 * w0; s11 += x1 * w1; s12 += x1 * w2; s13 += x1 * w3;
+                    }
+                    int c0 = i * n + j, c1 = c0 + n;
+                    c[c0] += s00; c[c0 + 1] += s01; c[c0 + 2] += s02; c[c0 + 3] += s03;
+                    c[c1] += s10; c[c1 + 1] += s11; c[c1 + 2] += s12; c[c1 + 3] += s13;
+                }
+                for(; j < n; j++) {
+                    c[i * n + j] += dot(a, a0, b, j * k + p0, len);
+                    c[(i + 1) * n + j] += dot(a, a1, b, j * k + p0, len);
+                }
+            }
+            for(; i < to; i++)
+                for(int j = 0; j < n; j++) c[i * n + j] += dot(a, i * k + p0, b, j * k + p0, len);
+        }
+    }
+
+    /**
+     * Matrix-Vektor-Produkt y = A * x für eine als Array von Zeilen
+     * gespeicherte Matrix.
+     *
+     * @param a Matrix A (m Zeilen)
+     * @param x Vektor
+     * @param y Ergebnis (m)
+     * @param parallel true, wenn große Matrizen parallel verrechnet werden dürfen
+     */
+    public static void gemv(double[][] a, double[] x, double[] y, boolean parallel) {
+        gemv(a, x, y, engine(parallel));
+    }
+
+    /**
+     * Matrix-Vektor-Produkt y = A * x für eine als Array von Zeilen
+     * gespeicherte Matrix.
+     *
+     * @param a Matrix A (m Zeilen)
+     * @param x Vektor
+     * @param y Ergebnis (m)
+     * @param engine ExecutionEngine oder null, um im aufrufenden Thread zu rechnen
+     */
+    public static void gemv(double[][] a, double[] x, double[] y, ExecutionEngine engine) {
+        int n = a.length == 0 ? 0 : a[0].length;
+        forRange(a.length, (long) a.length * n, MIN_ROWS_PER_TASK, engine, (from, to) -> {
+            for(int i = from; i < to; i++) y[i] = dot(a[i], 0, x, 0, a[i].length);
+        });
+    }
+
+    /**
+     * Transponiertes Matrix-Vektor-Produkt y = A^T * x für eine als Array von
+     * Zeilen gespeicherte Matrix. Die Zeilen werden nacheinander durchlaufen.
+     *
+     * @param a Matrix A (m Zeilen mit je n Spalten)
+     * @param x Vektor (m)
+     * @param y Ergebnis (n)
+     * @param parallel true, wenn große Matrizen parallel verrechnet werden dürfen
+     */
+    public static void gemvTransposed(double[][] a, double[] x, double[] y, boolean parallel) {
+        gemvTransposed(a, x, y, engine(parallel));
+    }
+
+    /**
+     * Transponiertes Matrix-Vektor-Produkt y = A^T * x für eine als Array von
+     * Zeilen gespeicherte Matrix. Die Zeilen werden nacheinander durchlaufen.
+     *
+     * @param a Matrix A (m Zeilen mit je n Spalten)
+     * @param x Vektor (m)
+     * @param y Ergebnis (n)
+     * @param engine ExecutionEngine oder null, um im aufrufenden Thread zu rechnen
+     */
+    public static void gemvTransposed(double[][] a, double[] x, double[] y, ExecutionEngine engine) {
+        int n = y.length;
+        forRange(n, (long) a.length * n, 64, engine, (from, to) -> {
+            Arrays.fill(y, from, to, 0.0);
+            for(int i = 0; i < a.length; i++) axpy(x[i], a[i], from, y, from, to - from);
+        });
+    }
+
+    /*
+     * FP32: Kerne für float-Matrizen. Skalarprodukte werden blockweise
+     * (BLOCK_K) in float summiert; bei Vektoren aus double (Einzelbeispiele)
+     * werden die Blocksummen in double addiert. Gradienten werden immer in
+     * double aufsummiert.
+     */
+
+    /**
+     * Skalarprodukt x[xOff..xOff+n) * y[yOff..yOff+n), in double summiert.
+     *
+     * @param x
+     * @param xOff
+     * @param y
+     * @param yOff
+     * @param n Länge
+     * @return Skalarprodukt
+     */
+    public static double dot(float[] x, int xOff, double[] y, int yOff, int n) {
+        double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+        int i = 0;
+        for(; i <= n - 4; i += 4) {
+            s0 += x[xOff + i] * y[yOff + i];
+            s1 += x[xOff + i + 1] * y[yOff + i + 1];
+            s2 += x[xOff + i + 2] * y[yOff + i + 2];
+            s3 += x[xOff + i + 3] * y[yOff + i + 3];
+        }
+        for(; i < n; i++) s0 += x[xOff + i] * y[yOff + i];
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * Skalarprodukt x[xOff..xOff+n) * y[yOff..yOff+n) in float.
+     *
+     * @param x
+     * @param xOff
+     * @param y
+     * @param yOff
+     * @param n Länge
+     * @return Skalarprodukt
+     */
+    public static float dot(float[] x, int xOff, float[] y, int yOff, int n) {
+        float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+        int i = 0;
+        for(; i <= n - 4; i += 4) {
+            s0 += x[xOff + i] * y[yOff + i];
+            s1 += x[xOff + i + 1] * y[yOff + i + 1];
+            s2 += x[xOff + i + 2] * y[yOff + i + 2];
+            s3 += x[xOff + i + 3] * y[yOff + i + 3];
+        }
+        for(; i < n; i++) s0 += x[xOff + i] * y[yOff + i];
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * y[yOff..yOff+n) += alpha * x[xOff..xOff+n).
+     *
+     * @param alpha
+     * @param x
+     * @param xOff
+     * @param y
+     * @param yOff
+     * @param n Länge
+     */
+    public static void axpy(double alpha, float[] x, int xOff, double[] y, int yOff, int n) {
+        if(alpha == 0.0) return;
+        for(int i = 0; i < n; i++) y[yOff + i] += alpha * x[xOff + i];
+    }
+
+    /**
+     * y[yOff..yOff+n) += alpha * x[xOff..xOff+n).
+     *
+     * @param alpha
+     * @param x
+     * @param xOff
+     * @param y
+     * @param yOff
+     * @param n Länge
+     */
+    public static void axpy(float alpha, float[] x, int xOff, float[] y, int yOff, int n) {
+        if(alpha == 0f) return;
+        for(int i = 0; i < n; i++) y[yOff + i] += alpha * x[xOff + i];
+    }
+
+    /**
+     * Matrix-Vektor-Produkt y[yOff..yOff+m) = A * x mit einer float-Matrix.
+     *
+     * @param a Matrix A (m x n)
+     * @param x Vektor (n)
+     * @param y Ergebnis
+     * @param yOff Position des ersten Ergebnisses in y
+     * @param m Zeilen von A
+     * @param n Spalten von A
+     * @param engine ExecutionEngine oder null, um im aufrufenden Thread zu rechnen
+     */
+    public static void gemv(float[] a, double[] x, double[] y, int yOff, int m, int n, ExecutionEngine engine) {
+        if(!split(m, (long) m * n, MIN_ROWS_PER_TASK, engine)) gemvRows(a, x, y, yOff, n, 0, m);
+        else forRange(m, (long) m * n, MIN_ROWS_PER_TASK, engine, (from, to) -> gemvRows(a, x, y, yOff, n, from, to));
+    }
+
+    private static void gemvRows(float[] a, double[] x, double[] y, int yOff, int n, int from, int to) {
+        int i = from;
+        for(; i <= to - 4; i += 4) {
+            int a0 = i * n, a1 = a0 + n, a2 = a1 + n, a3 = a2 + n;
+            double t0 = 0.0, t1 = 0.0, t2 = 0.0, t3 = 0.0;
+            //Innerhalb eines Blocks in float, die Blocksummen in double summieren
+            for(int p0 = 0; p0 < n; p0 += BLOCK_K) {
+                int p1 = Math.min(n, p0 + BLOCK_K);
+                float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+                for(int j = p0; j < p1; j++) {
+                    float xj = (float) x[j];
+                    s0 += a[a0 + j] * xj;
+                    s1 += a[a1 + j] * xj;
+                    s2 += a[a2 + j] * xj;
+                    s3 += a[a3 + j] * xj;
+                }
+                t0 += s0;
+                t1 += s1;
+                t2 += s2;
+                t3 += s3;
+            }
+            y[yOff + i] = t0;
+            y[yOff + i + 1] = t1;
+            y[yOff + i + 2] = t2;
+            y[yOff + i + 3] = t3;
+        }
+        for(; i < to; i++) y[yOff + i] = dot(a, i * n, x, 0, n);
+    }
+
+    /**
+     * Transponiertes Matrix-Vektor-Produkt y = A^T * x mit einer
+     * float-Matrix. Die Matrix wird zeilenweise durchlaufen.
+     *
+     * @param a Matrix A (m x n)
+     * @param x Vektor (m)
+     * @param y Ergebnis (n)
+     * @param m Zeilen von A
+     * @param n Spalten von A
+     * @param engine ExecutionEngine oder null, um im aufrufenden Thread zu rechnen
+     */
+    public static void gemvTransposed(float[] a, double[] x, double[] y, int m, int n, ExecutionEngine engine) {
+        if(!split(n, (long) m * n, 64, engine)) gemvTransposedCols(a, x, y, m, n, 0, n);
+        else forRange(n, (long) m * n, 64, engine, (from, to) -> gemvTransposedCols(a, x, y, m, n, from, to));
+    }
+
+    private static void gemvTransposedCols(float[] a, double[] x, double[] y, int m, int n, int from, int to) {
+        Arrays.fill(y, from, to, 0.0);
+        int i = 0;
+        for(; i <= m - 4; i += 4) {
+            double x0 = x[i], x1 = x[i + 1], x2 = x[i + 2], x3 = x[i + 3];
+            int a0 = i * n, a1 = a0 + n, a2 = a1 + n, a3 = a2 + n;
+            for(int j = from; j < to; j++)
+                y[j] += x0 * a[a0 + j] + x1 * a[a1 + j] + x2 * a[a2 + j] + x3 * a[a3 + j];
+        }
+        for(; i < m; i++) axpy(x[i], a, i * n + from, y, from, to - from);
+    }
+
+    /**
+     * Matrixprodukt C = A * B (bzw. C += A * B) in float.
+     *
+     * @param a Matrix A (m x k)
+     * @param b Matrix B (k x n)
+     * @param c Ergebnismatrix C (m x n)
+     * @param m Zeilen von A und C
+     * @param n Spalten von B und C
+     * @param k Spalten von A bzw. Zeilen von B
+     * @param add true, wenn das Produkt zu C addiert werden soll
+     * @param engine ExecutionEngine oder null, um im aufrufenden Thread zu rechnen
+     */
+    public static void gemm(float[] a, float[] b, float[] c, int m, int n, int k, boolean add, ExecutionEngine engine) {
+        if(!split(m, (long) m * n * k, MIN_ROWS_PER_TASK, engine)) gemmRows(a, k, 1, b, c, n, k, add, 0, m);
+        else forRange(m, (long) m * n * k, MIN_ROWS_PER_TASK, engine, (from, to) -> gemmRows(a, k, 1, b, c, n, k, add, from, to));
+    }
+
+    /**
+     * Berechnet die Zeilen [from;to) von C = A * B in float.
+     *
+     * @see LinearAlgebra#gemmRows(double[], int, int, double[], double[], int, int, boolean, int, int)
+     */
+    private static void gemmRows(float[] a, int rowStride, int colStride, float[] b, float[] c, int n, int k, boolean add, int from, int to) {
+        if(!add) Arrays.fill(c, from * n, to * n, 0f);
+        for(int j0 = 0; j0 < n; j0 += BLOCK_N) {
+            int j1 = Math.min(n, j0 + BLOCK_N);
+            for(int p0 = 0; p0 < k; p0 += BLOCK_K) {
+                int p1 = Math.min(k, p0 + BLOCK_K);
+                int i = from;
+                for(; i <= to - 4; i += 4) {
+                    int c0 = i * n, c1 = c0 + n, c2 = c1 + n, c3 = c2 + n;
+                    for(int p = p0; p < p1; p++) {
+                        int ai = i * rowStride + p * colStride, bp = p * n;
+                        float a0 = a[ai], a1 = a[ai + rowStride], a2 = a[ai + 2 * rowStride], a3 = a[ai + 3 * rowStride];
+                        if(a0 == 0f && a1 == 0f && a2 == 0f && a3 == 0f) continue;
+                        for(int j = j0; j < j1; j++) {
+                            float bj = b[bp + j];
+                            c[c0 + j] += a0 * bj;
+                            c[c1 + j] += a1 * bj;
+                            c[c2 + j] += a2 * bj;
+                            c[c3 + j] += a3 * bj;
+                        }
+                    }
+                }
+                for(; i < to; i++)
+                    for(int p = p0; p < p1; p++) {
+                        float aip = a[i * rowStride + p * colStride];
+                        if(aip != 0f) axpy(aip, b, p * n + j0, c, i * n + j0, j1 - j0);
+                    }
+            }
+        }
+    }
+
+    /**
+     * Matrixprodukt C = A^T * B (bzw. C += A^T * B) mit float-Matrizen A und B
+     * und einer Ergebnismatrix in double, z.B. die Summe der äußeren Produkte
+     * aus Delta-Fehlern und Aktivierungen eines Mini-Batches.
+     *
+     * @param a Matrix A (k x m)
+     * @param b Matrix B (k x n)
+     * @param c Ergebnismatrix C (m x n)
+     * @param m Spalten von A bzw. Zeilen von C
+     * @param n Spalten von B und C
+     * @param k Zeilen von A und B
+     * @param add true, wenn das Produkt zu C addiert werden soll
+     * @param engine ExecutionEngine oder null, um im aufrufenden Thread zu rechnen
+     */
+    public static void gemmTransposedA(float[] a, float[] b, double[] c, int m, int n, int k, boolean add, ExecutionEngine engine) {
+        if(!split(m, (long) m * n * k, MIN_ROWS_PER_TASK, engine)) gemmTransposedARows(a, b, c, m, n, k, add, 0, m);
+        else forRange(m, (long) m * n * k, MIN_ROWS_PER_TASK, engine, (from, to) -> gemmTransposedARows(a, b, c, m, n, k, add, from, to));
+    }
+
+    private static void gemmTransposedARows(float[] a, float[] b, double[] c, int m, int n, int k, boolean add, int from, int to) {
+        if(!add) Arrays.fill(c, from * n, to * n, 0.0);
+        for(int j0 = 0; j0 < n; j0 += BLOCK_N) {
+            int j1 = Math.min(n, j0 + BLOCK_N);
+            for(int p0 = 0; p0 < k; p0 += BLOCK_K) {
+                int p1 = Math.min(k, p0 + BLOCK_K);
+                int i = from;
+                for(; i <= to - 4; i += 4) {
+                    int c0 = i * n, c1 = c0 + n, c2 = c1 + n, c3 = c2 + n;
+                    for(int p = p0; p < p1; p++) {
+                        int ai = p * m + i, bp = p * n;
+                        double a0 = a[ai], a1 = a[ai + 1], a2 = a[ai + 2], a3 = a[ai + 3];
+                        if(a0 == 0.0 && a1 == 0.0 && a2 == 0.0 && a3 == 0.0) continue;
+                        for(int j = j0; j < j1; j++) {
+                            double bj = b[bp + j];
+                            c[c0 + j] += a0 * bj;
+                            c[c1 + j] += a1 * bj;
+                            c[c2 + j] += a2 * bj;
+                            c[c3 + j] += a3 * bj;
+                        }
+                    }
+                }
+                for(; i < to; i++)
+                    for(int p = p0; p < p1; p++) {
+                        double aip = a[p * m + i];
+                        if(aip != 0.0) axpy(aip, b, p * n + j0, c, i * n + j0, j1 - j0);
+                    }
+            }
+        }
+    }
+
+    /**
+     * Matrixprodukt C = A * B^T (bzw. C += A * B^T) in float.
+     *
+     * @param a Matrix A (m x k)
+     * @param b Matrix B (n x k)
+     * @param c Ergebnismatrix C (m x n)
+     * @param m Zeilen von A und C
+     * @param n Zeilen von B bzw. Spalten von C
+     * @param k Spalten von A und B
+     * @param add true, wenn das Produkt zu C addiert werden soll
+     * @param engine ExecutionEngine oder null, um im aufrufenden Thread zu rechnen
+     */
+    public static void gemmTransposedB(float[] a, float[] b, float[] c, int m, int n, int k, boolean add, ExecutionEngine engine) {
+        if(!split(m, (long) m * n * k, MIN_ROWS_PER_TASK, engine)) gemmTransposedBRows(a, b, c, n, k, add, 0, m);
+        else forRange(m, (long) m * n * k, MIN_ROWS_PER_TASK, engine, (from, to) -> gemmTransposedBRows(a, b, c, n, k, add, from, to));
+    }
+
+    private static void gemmTransposedBRows(float[] a, float[] b, float[] c, int n, int k, boolean add, int from, int to) {
+        if(!add) Arrays.fill(c, from * n, to * n, 0f);
+        for(int p0 = 0; p0 < k; p0 += BLOCK_K) {
+            int len = Math.min(k, p0 + BLOCK_K) - p0;
+            int i = from;
+            for(; i <= to - 2; i += 2) {
+                int a0 = i * k + p0, a1 = a0 + k;
+                int j = 0;
+                for(; j <= n - 4; j += 4) {
+                    int b0 = j * k + p0, b1 = b0 + k, b2 = b1 + k, b3 = b2 + k;
+                    float s00 = 0f, s01 = 0f, s02 = 0f, s03 = 0f,
+                            s10 = 0f, s11 = 0f, s12 = 0f, s13 = 0f;
+                    for(int p = 0; p < len; p++) {
+                        float x0 = a[a0 + p], x1 = a[a1 + p],
+                                w0 = b[b0 + p], w1 = b[b1 + p], w2 = b[b2 + p], w3 = b[b3 + p];
+                        s00 += x0 * w0; s01 += x0 * w1; s02 += x0 * w2; s03 += x0 * w3;
+                        s10 += x1 * w0; s11 += x1 * w1; s12 += x1 * w2; s13 += x1 * w3;
+                    }
+                    int c0 = i * n + j, c1 = c0 + n;
+                    c[c0] += s00; c[c0 + 1] += s01; c[c0 + 2] += s02; c[c0 + 3] += s03;
+                    c[c1] += s10; c[c1 + 1] += s11; c[c1 + 2] += s12; c[c1 + 3] += s13;
+                }
+                for(; j < n; j++) {
+                    c[i * n + j] += dot(a, a0, b, j * k + p0, len);
+                    c[(i + 1) * n + j] += dot(a, a1, b, j * k + p0, len);
+                }
+            }
+            for(; i < to; i++)
+                for(int j = 0; j < n; j++) c[i * n + j] += dot(a, i * k + p0, b, j * k + p0, len);
+        }
+    }
+
+    /**
+     * Matrix-Vektor-Produkt y = A * x mit int8-Matrix und -Vektor, exakt in
+     * int summiert. Es werden nur die Einträge x[indices[0..count)]
+     * berücksichtigt; alle anderen Einträge von x müssen 0 sein. Bei dünn
+     * besetzten Eingaben (z.B. MNIST-Bildern, deren Pixel großteils 0 sind)
+     * entfällt so der größte Teil der Multiplikationen. Jeweils vier Zeilen
+     * werden gemeinsam berechnet, damit Index und Eingabe nur einmal gelesen
+     * werden. Bei Werten im Bereich [-127;127] läuft eine Summe erst ab über
+     * 133.000 Summanden über.
+     *
+     * @param a Matrix A (m x n)
+     * @param x Vektor (n)
+     * @param indices Positionen der Einträge von x, die nicht 0 sind (aufsteigend)
+     * @param count Anzahl dieser Positionen
+     * @param y Ergebnis (m)
+     * @param m Zeilen von A
+     * @param n Spalten von A
+     */
+    public static void gemvSparse(byte[] a, byte[] x, int[] indices, int count, int[] y, int m, int n) {
+        int r = 0;
+        for(; r <= m - 4; r += 4) {
+            int o0 = r * n, o1 = o0 + n, o2 = o1 + n, o3 = o2 + n;
+            int s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+            for(int k = 0; k < count; k++) {
+                int j = indices[k], v = x[j];
+                s0 += a[o0 + j] * v;
+                s1 += a[o1 + j] * v;
+                s2 += a[o2 + j] * v;
+                s3 += a[o3 + j] * v;
+            }
+            y[r] = s0;
+            y[r + 1] = s1;
+            y[r + 2] = s2;
+            y[r + 3] = s3;
+        }
+        for(; r < m; r++) {
+            int o = r * n, s = 0;
+            for(int k = 0; k < count; k++) {
+                int j = indices[k];
+                s += a[o + j] * x[j];
+            }
+            y[r] = s;
+        }
+    }
+
+}
@@ -4,6 +4,7 @@ import de.fk.neuralnetwork.BasicNeuron;
 import de.fk.neuralnetwork.NeuralLayer;
 import de.fk.neuralnetwork.NeuralNetwork;
 import de.fk.neuralnetwork.Neuron;
+import de.fk.neuralnetwork.PackedNeuralLayer;
 import de.fk.neuralnetwork.training.TrainingExample;
 import java.util.Random;
 import static java.lang.Math.log;
@@ -32,12 +33,54 @@ public class NeuralMath {
      * @throws ArrayIndexOutOfBoundsException wenn der Eingabearray größer als der Gewichtearray ist
      */
     public static double applyWeights(double[] in, double[] weights) throws ArrayIndexOutOfBoundsException {
-        double result = 0.0;
-        for(int i = 0; i < in.length; i++) result += in[i] * weights[i];
+        if(in.length > weights.length) throw new ArrayIndexOutOfBoundsException(weights.length);
+        double result = LinearAlgebra.dot(in, 0, weights, 0, in.length);
         for(int w = in.length; w < weights.length; w++) result += weights[w];
         return result;
     }
-    
+
+    /**
+     * Multipliziert den Eingabearray mit einem Ausschnitt des übergebenen
+     * Gewichtearrays (z.B. einer Zeile einer zeilenweise gespeicherten
+     * Gewichtsmatrix).
+     *
+     * Verhält sich wie applyWeights(double[], double[]) für den Ausschnitt
+     * weights[offset] bis weights[offset + length - 1].
+     *
+     * @param in Eingabearray
+     * @param weights Gewichtearray
+     * @param offset Position des ersten Gewichts
+     * @param length Anzahl der Gewichte
+     * @return Skalarprodukt der beiden Vektoren
+     * @throws ArrayIndexOutOfBoundsException wenn der Eingabearray größer als der Ausschnitt ist
+     * @see NeuralMath#applyWeights(double[], double[])
+     */
+    public static double applyWeights(double[] in, double[] weights, int offset, int length) throws ArrayIndexOutOfBoundsException {
+        if(in.length > length) throw new ArrayIndexOutOfBoundsException(length);
+        double result = LinearAlgebra.dot(in, 0, weights, offset, in.length);
+        for(int w = in.length; w < length; w++) result += weights[offset + w];
+        return result;
+    }
+
+    /**
+     * Multipliziert den Eingabearray mit einem Ausschnitt eines Gewichtearrays
+     * mit einfacher Genauigkeit. Es wird in double summiert.
+     *
+     * @param in Eingabearray
+     * @param weights Gewichtearray
+     * @param offset Position des ersten Gewichts
+     * @param length Anzahl der Gewichte
+     * @return Skalarprodukt der beiden Vektoren
+     * @throws ArrayIndexOutOfBoundsException wenn der Eingabearray größer als der Ausschnitt ist
+     * @see NeuralMath#applyWeights(double[], double[], int, int)
+     */
+    public static double applyWeights(double[] in, float[] weights, int offset, int length) throws ArrayIndexOutOfBoundsException {
+        if(in.length > length) throw new ArrayIndexOutOfBoundsException(length);
+        double result = LinearAlgebra.dot(weights, offset, in, 0, in.length);
+        for(int w = in.length; w < length; w++) result += weights[offset + w];
+        return result;
+    }
+
     /**
      * Gibt einen Array mit der spezifizierten Länge zurück, der zufällige
      * Gewichte im Intervall [-0.5;0.5) enthält.
@@ -99,7 +142,11 @@ public class NeuralMath {
         //Regularisiere
         if(lambda != 0.0) {
             for(NeuralLayer l : nn.getLayers())
-                for(Neuron n : l.getNeurons())
+                if(l instanceof PackedNeuralLayer) {
+                    PackedNeuralLayer packed = (PackedNeuralLayer) l;
+                    for(int i = 0; i < packed.getWeightCount(); i++)
+                        error += lambdahalf * packed.getWeight(i) * packed.getWeight(i);
+                } else for(Neuron n : l.getNeurons())
                     if(n instanceof BasicNeuron)
                         for(double weight : ((BasicNeuron) n).getWeights())
                             error += lambdahalf * weight * weight;
@@ -225,12 +272,9 @@ public class NeuralMath {
      * @return Eingabevektor
      */
     public static double[] matmul(double[][] mat, double[] vec) {
-        return Arrays.stream(mat)
-                .mapToDouble(row -> 
-                        IntStream.range(0, row.length)
-                                .mapToDouble(col -> row[col] * vec[col])
-                                .sum()
-                ).toArray();
+        double[] out = new double[mat.length];
+        LinearAlgebra.gemv(mat, vec, out, false);
+        return out;
     }
     
     /**
@@ -244,11 +288,9 @@ public class NeuralMath {
      * @return Eingabevektor
      */
     public static double[] matmulParallel(double[][] mat, double[] vec) {
-        return Arrays.stream(mat).parallel().mapToDouble(row -> 
-                        IntStream.range(0, row.length)
-                                .mapToDouble(col -> row[col] * vec[col])
-                                .sum()
-                ).toArray();
+        double[] out = new double[mat.length];
+        LinearAlgebra.gemv(mat, vec, out, true);
+        return out;
     }
     
     /**
@@ -261,18 +303,16 @@ public class NeuralMath {
      * @return Eingabevektor
      */
     public static double[] applyWeights(double[][] weights, double[] in, double[] biases) {
-        return IntStream.range(0, weights[0].length)
-                .mapToDouble(col ->
-                        IntStream.range(0, weights.length)
-                                .mapToDouble(row -> weights[row][col] * in[row])
-                                .sum() + biases[col]
-                ).toArray();
+        double[] out = new double[weights[0].length];
+        LinearAlgebra.gemvTransposed(weights, in, out, false);
+        for(int col = 0; col < out.length; col++) out[col] += biases[col];
+        return out;
     }
     
     /**
      * Multipliziert die Gewichtsmatrix mit dem Eingabevektor und addiert den
-     * Biasvektor. Nutzt parallele Streams. Zurückgegeben wird ein Vektor mit
-     * den Neuroneneingaben.
+     * Biasvektor. Nutzt die Standard-ExecutionEngine. Zurückgegeben wird ein
+     * Vektor mit den Neuroneneingaben.
      *
      * @param weights
      * @param in
@@ -280,20 +320,18 @@ public class NeuralMath {
      * @return Eingabevektor
      */
     public static double[] applyWeightsParallel(double[][] weights, double[] in, double[] biases) {
-        return IntStream.range(0, biases.length)
-                .parallel()
-                .mapToDouble(col ->
-                        IntStream.range(0, weights.length)
-                                .mapToDouble(row -> weights[row][col] * in[row])
-                                .sum() + biases[col]
-                ).toArray();
+        double[] out = new double[biases.length];
+        LinearAlgebra.gemvTransposed(weights, in, out, true);
+        for(int col = 0; col < out.length; col++) out[col] += biases[col];
+        return out;
     }
     
     /**
      * Multipliziert die Gewichtsmatrix mit dem Eingabevektor, addiert den
      * Biasvektor und wendet die Aktivierungsfunktion an. Vektorwertige
      * Aktivierungsfunktionen wie Softmax dürfen nicht übergeben werden. Nutzt
-     * parallele Streams. Zurückgegeben wird ein Vektor mit den Aktivierungen.
+     * die Standard-ExecutionEngine. Zurückgegeben wird ein Vektor mit den
+     * Aktivierungen.
      *
      * @param weights
      * @param in
@@ -302,15 +340,10 @@ public class NeuralMath {
      * @return Eingabevektor
      */
     public static double[] applyWeightsAndActivationFunctionParallel(double[][] weights, double[] in, double[] biases, ActivationFunction act) {
-        return IntStream.range(0, biases.length)
-                .parallel()
-                .mapToDouble(col ->
-                        act.apply(
-                                IntStream.range(0, weights.length)
-                                        .mapToDouble(row -> weights[row][col] * in[row])
-                                        .sum() + biases[col]
-                        )
-                ).toArray();
+        double[] out = new double[biases.length];
+        LinearAlgebra.gemvTransposed(weights, in, out, true);
+        for(int col = 0; col < out.length; col++) out[col] = act.apply(out[col] + biases[col]);
+        return out;
     }
     
     /**
@@ -340,4 +373,80 @@ public class NeuralMath {
         return stream.mapToDouble(i -> x[i] * y[i]).toArray();
     }
     
+    /**
+     * Matrixmultiplikation C = A * B mit zeilenweise gespeicherten Matrizen.
+     * Der Inhalt von C wird überschrieben.
+     *
+     * @see LinearAlgebra#gemm(double[], double[], double[], int, int, int, boolean, boolean)
+     *
+     * @param a Matrix A (m x k)
+     * @param b Matrix B (k x n)
+     * @param c Ergebnismatrix C (m x n)
+     * @param m Zeilen von A und C
+     * @param n Spalten von B und C
+     * @param k Spalten von A bzw. Zeilen von B
+     */
+    public static void matmul(double[] a, double[] b, double[] c, int m, int n, int k) {
+        LinearAlgebra.gemm(a, b, c, m, n, k, false, false);
+    }
+    
+    /**
+     * Matrixmultiplikation C = A * B^T mit zeilenweise gespeicherten Matrizen.
+     * Der Inhalt von C wird überschrieben. Entspricht für jede Zeile von A
+     * dem Skalarprodukt mit jeder Zeile von B (z.B. Eingaben x Gewichte).
+     *
+     * @param a Matrix A (m x k)
+     * @param b Matrix B (n x k)
+     * @param c Ergebnismatrix C (m x n)
+     * @param m Zeilen von A und C
+     * @param n Zeilen von B bzw. Spalten von C
+     * @param k Spalten von A und B
+     */
+    public static void matmulTransposed(double[] a, double[] b, double[] c, int m, int n, int k) {
+        LinearAlgebra.gemmTransposedB(a, b, c, m, n, k, false, false);
+    }
+    
+    /**
+     * Matrixmultiplikation C += A^T * B mit zeilenweise gespeicherten
+     * Matrizen. Das Ergebnis wird zu C addiert (z.B. Aufsummieren der
+     * äußeren Produkte aus Delta-Fehlern und Aktivierungen eines Mini-Batches).
+     *
+     * @param a Matrix A (k x m)
+     * @param b Matrix B (k x n)
+     * @param c Ergebnismatrix C (m x n)
+     * @param m Spalten von A bzw. Zeilen von C
+     * @param n Spalten von B und C
+     * @param k Zeilen von A und B
+     */
+    public static void addTransposedMatmul(double[] a, double[] b, double[] c, int m, int n, int k) {
+        LinearAlgebra.gemmTransposedA(a, b, c, m, n, k, true, false);
+    }
+    
+    private static final double LOG2E = 1.4426950408889634,
+            LN2_HI = 0.6931471803691238, LN2_LO = 1.9082149292705877e-10,
+            ROUND_SHIFT = 0x1.8p52, FAST_EXP_MIN = -708.0, FAST_EXP_MAX = 709.0;
+    
+    /**
+     * Schnelle Näherung der Exponentialfunktion ohne Verzweigungen und
+     * Tabellen, sodass Schleifen darüber vom JIT-Compiler vektorisiert werden
+     * können. x wird in k * ln 2 + r mit |r| &lt;= ln 2 / 2 zerlegt, e^r über
+     * ein Taylorpolynom 7. Grades genähert und 2^k direkt im Exponenten
+     * zusammengesetzt. Der relative Fehler liegt unter 1e-8; Argumente
+     * außerhalb von [-708, 709] werden auf diesen Bereich begrenzt, NaN
+     * liefert NaN.
+     *
+     * @param x Argument
+     * @return Näherung für e^x
+     */
+    public static double fastExp(double x) {
+        x = x < FAST_EXP_MIN ? FAST_EXP_MIN : x > FAST_EXP_MAX ? FAST_EXP_MAX : x;
+        //Runden auf die nächste ganze Zahl über die Mantisse
+        double kd = x * LOG2E + ROUND_SHIFT;
+        long k = Double.doubleToRawLongBits(kd);
+        kd -= ROUND_SHIFT;
+        double r = x - kd * LN2_HI - kd * LN2_LO;
+        double p = 1.0 + r * (1.0 + r * (1.0 / 2 + r * (1.0 / 6 + r * (1.0 / 24 + r * (1.0 / 120 + r * (1.0 / 720 + r * (1.0 / 5040)))))));
+        return p * Double.longBitsToDouble((k + 1023) << 52);
+    }
+    
 }
@@ -0,0 +1,36 @@
+package de.fk.neuralnetwork.math;
+
+/**
+ * Genauigkeit, mit der die Gewichte einer gepackten Schicht gespeichert und
+ * verrechnet werden.
+ *
+ * Bei FP32 werden Gewichte, Gewichtsänderungen und im Mini-Batch-Training
+ * auch Aktivierungen und Fehler als float gespeichert. Dadurch halbiert sich
+ * die zu lesende Datenmenge, und der JIT-Compiler kann doppelt so viele Werte
+ * pro Vektorbefehl verarbeiten. Summen über viele Summanden (Gradienten eines
+ * Mini-Batches, Zusammenführen der Threads, Gewichtsupdate) werden weiterhin
+ * in double gebildet.
+ *
+ * @author Felix
+ * @see de.fk.neuralnetwork.PackedNeuralLayer
+ */
+public enum Precision {
+
+    FP64(8), FP32(4);
+
+    private final int bytes;
+
+    private Precision(int bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * Gibt die Größe eines Werts in Bytes zurück.
+     *
+     * @return
+     */
+    public int getBytes() {
+        return bytes;
+    }
+
+}
@@ -1,6 +1,7 @@
 package de.fk.neuralnetwork.nets;
 
 import de.fk.neuralnetwork.math.ActivationFunction;
+import de.fk.neuralnetwork.math.LinearAlgebra;
 import de.fk.neuralnetwork.math.NeuralMath;
 import java.util.Arrays;
 import java.util.stream.IntStream;
@@ -83,8 +84,7 @@ public class NeuralLayer {
         deltas = NeuralMath.vecmul(errorsFromNextLayer, act.derivativeAll(inputs));
         //Berechne Gradienten/Accumulator Matrix und addiere diesen
         for(int conneuron = 0; conneuron < weights.length; conneuron++)
-            for(int neuron = 0; neuron < weights[conneuron].length; neuron++)
-                gradients[conneuron][neuron] -= activationsFromLayerBefore[conneuron] * deltas[neuron];
+            LinearAlgebra.axpy(-activationsFromLayerBefore[conneuron], deltas, 0, gradients[conneuron], 0, deltas.length);
         //Gradienten für Biases = - Deltas
         for(int i = 0; i < biases.length; i++) biasgradients[i] -= deltas[i];
     }
@@ -101,11 +101,11 @@ public class NeuralLayer {
         //Berechne Deltas für Neuronen
         deltas = NeuralMath.vecmulParallel(errorsFromNextLayer, act.derivativeAll(inputs));
         //Berechne Gradienten/Accumulator Matrix und addiere diesen
-        IntStream.range(0, biases.length).parallel().forEach(neuron -> {
-                        for(int conneuron = 0; conneuron < weights.length; conneuron++)
-                            gradients[conneuron][neuron] -= activationsFromLayerBefore[conneuron] * deltas[neuron];
-                        biasgradients[neuron] -= deltas[neuron];
+        LinearAlgebra.forRange(weights.length, (long) weights.length * deltas.length, LinearAlgebra.MIN_ROWS_PER_TASK, true, (from, to) -> {
+                        for(int conneuron = from; conneuron < to; conneuron++)
+                            LinearAlgebra.axpy(-activationsFromLayerBefore[conneuron], deltas, 0, gradients[conneuron], 0, deltas.length);
                 });
+        LinearAlgebra.axpy(-1.0, deltas, 0, biasgradients, 0, biases.length);
     }
     
     public double[] getErrors() {
@@ -0,0 +1,173 @@
+package de.fk.neuralnetwork.quantization;
+
+import de.fk.neuralnetwork.math.ActivationFunction;
+import de.fk.neuralnetwork.math.LinearAlgebra;
+
+/**
+ * Schicht eines quantisierten Netzes. Die Gewichte werden zeilenweise als
+ * int8 gespeichert, jede Zeile (jedes Neuron) besitzt einen eigenen
+ * Skalierungsfaktor. Die Gewichte des Bias-Neurons der Vorgängerschicht
+ * bleiben als double erhalten, da sie ohnehin nur addiert werden.
+ *
+ * Die Eingaben werden mit einem festen, bei der Kalibrierung ermittelten
+ * Skalierungsfaktor auf int8 abgebildet. Die gewichtete Summe eines Neurons
+ * ist dann
+ * <pre>
+ * z = bias + weightScale * inputScale * Σ qw * qa
+ * </pre>
+ * wobei die Summe exakt in int gebildet wird und Eingaben, die auf 0
+ * abgebildet werden, übersprungen werden. Die Aktivierungsfunktion wird in
+ * double ausgewertet.
+ *
+ * @author Felix
+ * @see Quantizer
+ */
+public class QuantizedLayer {
+
+    /**
+     * Größter Betrag eines quantisierten Werts (symmetrische Quantisierung).
+     */
+    public static final int Q_MAX = 127;
+
+    private final ActivationFunction act;
+    private final boolean bias, inputBias;
+    private final int rows, cols;
+    private final byte[] weights;
+    private final double[] weightScales, biases;
+    private final double inputScale;
+
+    /**
+     * Erstellt eine quantisierte Schicht aus bereits quantisierten Gewichten.
+     *
+     * @param act Aktivierungsfunktion
+     * @param bias true, wenn die Schicht ein Bias-Neuron an Position 0 besitzt
+     * @param inputBias true, wenn die Eingabe an Position 0 ein Bias-Neuron enthält
+     * @param rows Anzahl Neuronen ohne Bias
+     * @param cols Anzahl Eingaben ohne Bias
+     * @param weights Gewichte (rows x cols, zeilenweise)
+     * @param weightScales Skalierungsfaktor der Gewichte pro Neuron
+     * @param biases Gewicht des Bias-Neurons der Eingabe pro Neuron (0 ohne inputBias)
+     * @param inputScale Skalierungsfaktor der Eingaben
+     * @throws IllegalArgumentException Wenn die Größen der Arrays nicht passen
+     */
+    public QuantizedLayer(ActivationFunction act, boolean bias, boolean inputBias, int rows, int cols, byte[] weights, double[] weightScales, double[] biases, double inputScale) throws IllegalArgumentException {
+        if(weights.length != rows * cols || weightScales.length != rows || biases.length != rows)
+            throw new IllegalArgumentException("Die Größen der Gewichte passen nicht zu " + rows + "x" + cols + " Neuronen.");
+        if(!(inputScale > 0)) throw new IllegalArgumentException("Ungültiger Skalierungsfaktor der Eingaben: " + inputScale);
+        this.act = act;
+        this.bias = bias;
+        this.inputBias = inputBias;
+        this.rows = rows;
+        this.cols = cols;
+        this.weights = weights;
+        this.weightScales = weightScales;
+        this.biases = biases;
+        this.inputScale = inputScale;
+    }
+
+    public ActivationFunction getActivationFunction() {
+        return act;
+    }
+
+    public boolean hasBias() {
+        return bias;
+    }
+
+    public boolean hasInputBias() {
+        return inputBias;
+    }
+
+    /**
+     * Gibt die Anzahl der Neuronen ohne Bias zurück.
+     *
+     * @return
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Gibt die Anzahl der quantisierten Eingaben (ohne Bias) zurück.
+     *
+     * @return
+     */
+    public int getCols() {
+        return cols;
+    }
+
+    /**
+     * Gibt die Anzahl der Neuronen inkl. Bias zurück.
+     *
+     * @return
+     */
+    public int getNeuronCount() {
+        return rows + (bias ? 1 : 0);
+    }
+
+    public byte[] getWeights() {
+        return weights;
+    }
+
+    public double[] getWeightScales() {
+        return weightScales;
+    }
+
+    public double[] getBiases() {
+        return biases;
+    }
+
+    public double getInputScale() {
+        return inputScale;
+    }
+
+    /**
+     * Gibt die Größe der Parameter in Bytes zurück.
+     *
+     * @return
+     */
+    public long getParameterBytes() {
+        return weights.length + 16L * rows + 8;
+    }
+
+    /**
+     * Bildet Eingaben mit dem Skalierungsfaktor der Schicht auf int8 ab.
+     * Werte außerhalb des kalibrierten Bereichs werden begrenzt. Zusätzlich
+     * werden die Positionen aller Werte ungleich 0 gesammelt, sodass
+     * trigger() nur diese verrechnen muss.
+     *
+     * @param in Eingaben
+     * @param offset Position der ersten Eingabe (hinter einem evtl. Bias)
+     * @param q Ausgabe: quantisierte Eingaben (cols)
+     * @param indices Ausgabe: Positionen der Werte ungleich 0 (cols)
+     * @return Anzahl der Werte ungleich 0
+     */
+    public int quantizeInput(double[] in, int offset, byte[] q, int[] indices) {
+        double inv = 1.0 / inputScale;
+        int count = 0;
+        for(int i = 0; i < cols; i++) {
+            long v = Math.round(in[offset + i] * inv);
+            q[i] = (byte) (v > Q_MAX ? Q_MAX : v < -Q_MAX ? -Q_MAX : v);
+            if(v != 0) indices[count++] = i;
+        }
+        return count;
+    }
+
+    /**
+     * Berechnet die Aktivierungen der Schicht.
+     *
+     * @param q Quantisierte Eingaben (cols)
+     * @param indices Positionen der Eingaben ungleich 0
+     * @param count Anzahl der Eingaben ungleich 0
+     * @param sums Puffer für die ganzzahligen Summen (rows)
+     * @param out Ausgabe: Aktivierungen inkl. Bias an Position 0 (getNeuronCount())
+     * @see QuantizedLayer#quantizeInput(double[], int, byte[], int[])
+     */
+    public void trigger(byte[] q, int[] indices, int count, int[] sums, double[] out) {
+        int b = bias ? 1 : 0;
+        if(bias) out[0] = 1;
+        LinearAlgebra.gemvSparse(weights, q, indices, count, sums, rows, cols);
+        for(int r = 0; r < rows; r++) out[r + b] = biases[r] + weightScales[r] * inputScale * sums[r];
+        act.apply(out, b, out, b, rows);
+    }
+
+}
@@ -0,0 +1,117 @@
+package de.fk.neuralnetwork.quantization;
+
+/**
+ * Ein neuronales Netz mit int8-Gewichten für die Inferenz. Wird mit dem
+ * Quantizer aus einem trainierten NeuralNetwork erzeugt und kann nicht
+ * weiter trainiert werden.
+ *
+ * Die Gewichte belegen ein Achtel des Speichers eines Netzes mit
+ * FP64-Gewichten. Zwischen den Schichten werden die Aktivierungen erneut auf
+ * int8 abgebildet; Eingaben, die dabei 0 werden (bei MNIST der Großteil der
+ * Pixel), kosten keine Rechenzeit.
+ *
+ * @author Felix
+ * @see Quantizer
+ * @see QuantizedLayer
+ * @see de.fk.neuralnetwork.io.QuantizedFileIO
+ */
+public class QuantizedNetwork {
+
+    private final int inputNeurons;
+    private final QuantizedLayer[] layers;
+    private final ThreadLocal<Workspace> workspace = new ThreadLocal<>();
+
+    /**
+     * Erstellt ein quantisiertes Netz aus den übergebenen Schichten.
+     *
+     * @param inputNeurons Anzahl Eingabeneuronen
+     * @param layers Schichten
+     * @throws IllegalArgumentException Wenn die Schichten nicht zueinander passen
+     */
+    public QuantizedNetwork(int inputNeurons, QuantizedLayer... layers) throws IllegalArgumentException {
+        if(layers.length < 1) throw new IllegalArgumentException("Ein Netz benötigt mindestens eine Schicht.");
+        int inputs = inputNeurons;
+        for(int i = 0; i < layers.length; i++) {
+            if(layers[i].getCols() != inputs)
+                throw new IllegalArgumentException("Schicht " + i + " erwartet " + layers[i].getCols() + " Eingaben, es gibt aber " + inputs + ".");
+            inputs = layers[i].getRows();
+        }
+        this.inputNeurons = inputNeurons;
+        this.layers = layers;
+    }
+
+    public int getInputNeurons() {
+        return inputNeurons;
+    }
+
+    public QuantizedLayer[] getLayers() {
+        return layers;
+    }
+
+    /**
+     * Gibt das Output-Layer (das letzte Layer) zurück.
+     *
+     * @return Output Layer
+     */
+    public QuantizedLayer getOutputLayer() {
+        return layers[layers.length - 1];
+    }
+
+    /**
+     * Gibt die Größe aller Parameter in Bytes zurück.
+     *
+     * @return
+     */
+    public long getParameterBytes() {
+        long bytes = 0;
+        for(QuantizedLayer layer : layers) bytes += layer.getParameterBytes();
+        return bytes;
+    }
+
+    /**
+     * Lässt die Eingabedaten das Netz durchlaufen und gibt nur die Ausgabe
+     * zurück. Verwendet einen Workspace pro Thread, sodass nach dem ersten
+     * Aufruf kein neuer Speicher mehr belegt wird (außer für
+     * Aktivierungsfunktionen wie Softmax, die alle Eingaben benötigen).
+     *
+     * @param in Eingabeaktivierungen
+     * @return Ausgabeaktivierungen (Puffer des Threads, wird beim nächsten Aufruf im selben Thread überschrieben)
+     */
+    public double[] getOutput(double[] in) {
+        if(in.length != inputNeurons) throw new IllegalArgumentException("Es gibt " + inputNeurons + " Eingabeneuronen, es wurden aber " + in.length + " Werte eingegeben.");
+        Workspace ws = workspace.get();
+        if(ws == null) workspace.set(ws = new Workspace(layers));
+        int count = layers[0].quantizeInput(in, 0, ws.inputs[0], ws.indices[0]);
+        for(int l = 0; l < layers.length; l++) {
+            layers[l].trigger(ws.inputs[l], ws.indices[l], count, ws.sums[l], ws.activations[l]);
+            if(l + 1 < layers.length) count = layers[l + 1].quantizeInput(ws.activations[l], layers[l].hasBias() ? 1 : 0, ws.inputs[l + 1], ws.indices[l + 1]);
+        }
+        return ws.activations[layers.length - 1];
+    }
+
+    /**
+     * Quantisierte Eingaben, Summen und Aktivierungen aller Schichten eines
+     * Threads.
+     */
+    private static class Workspace {
+
+        final byte[][] inputs;
+        final int[][] indices, sums;
+        final double[][] activations;
+
+        Workspace(QuantizedLayer[] layers) {
+            inputs = new byte[layers.length][];
+            indices = new int[layers.length][];
+            sums = new int[layers.length][];
+            activations = new double[layers.length][];
+            for(int l = 0; l < layers.length; l++) {
+                inputs[l] = new byte[layers[l].getCols()];
+                indices[l] = new int[layers[l].getCols()];
+                sums[l] = new int[layers[l].getRows()];
+                activations[l] = new double[layers[l].getNeuronCount()];
+            }
+        }
+
+    }
+
+}
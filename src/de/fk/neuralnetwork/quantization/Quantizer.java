@@ -0,0 +1,163 @@
+package de.fk.neuralnetwork.quantization;
+
+import de.fk.neuralnetwork.InferenceWorkspace;
+import de.fk.neuralnetwork.NeuralLayer;
+import de.fk.neuralnetwork.NeuralNetwork;
+import de.fk.neuralnetwork.PackedNeuralLayer;
+import de.fk.neuralnetwork.data.ImageContainer;
+import de.fk.neuralnetwork.data.ImageStore;
+import de.fk.neuralnetwork.data.LabeledImage;
+import de.fk.neuralnetwork.math.Precision;
+import java.util.List;
+
+/**
+ * Quantisiert ein trainiertes neuronales Netz nach dem Training
+ * (Post-Training Quantization).
+ *
+ * Die Gewichte jedes Neurons werden symmetrisch mit max|w| / 127 auf int8
+ * abgebildet. Für die Eingaben jeder Schicht wird anhand eines
+ * Kalibrierungssets (z.B. des Validation Sets) der größte auftretende Betrag
+ * bestimmt, der auf 127 abgebildet wird. Größere Werte werden später
+ * begrenzt.
+ *
+ * @author Felix
+ * @see QuantizedNetwork
+ * @see de.fk.neuralnetwork.data.Tester#compareQuantized(NeuralNetwork, QuantizedNetwork, ImageContainer.Set)
+ */
+public class Quantizer {
+
+    private Quantizer() {
+    }
+
+    /**
+     * Quantisiert ein Netz und kalibriert es mit den Bildern eines Sets.
+     *
+     * @param net Trainiertes Netz
+     * @param calibration Set mit Kalibrierungsbildern, z.B. VALIDATION
+     * @return Quantisiertes Netz
+     * @throws IllegalArgumentException Wenn das Set leer ist oder das Netz nicht quantisiert werden kann
+     */
+    public static QuantizedNetwork quantize(NeuralNetwork net, ImageContainer.Set calibration) throws IllegalArgumentException {
+        return quantize(net, ImageContainer.getImages(calibration));
+    }
+
+    /**
+     * Quantisiert ein Netz und kalibriert es mit den übergebenen Bildern.
+     *
+     * @param net Trainiertes Netz
+     * @param calibration Kalibrierungsbilder
+     * @return Quantisiertes Netz
+     * @throws IllegalArgumentException Wenn keine Bilder übergeben wurden oder das Netz nicht quantisiert werden kann
+     */
+    public static QuantizedNetwork quantize(NeuralNetwork net, List<LabeledImage> calibration) throws IllegalArgumentException {
+        if(calibration.isEmpty()) throw new IllegalArgumentException("Es wurden keine Kalibrierungsbilder übergeben.");
+        Calibration c = new Calibration(net);
+        double[] pixels = new double[net.getInputNeurons()];
+        for(LabeledImage img : calibration) {
+            img.getPixels(pixels, 0);
+            c.add(pixels);
+        }
+        return quantize(net, c.ranges);
+    }
+
+    /**
+     * Quantisiert ein Netz und kalibriert es mit allen Bildern eines
+     * ImageStores.
+     *
+     * @param net Trainiertes Netz
+     * @param calibration Kalibrierungsbilder, z.B. per IdxReader abgebildet
+     * @return Quantisiertes Netz
+     * @throws IllegalArgumentException Wenn keine Bilder übergeben wurden oder das Netz nicht quantisiert werden kann
+     */
+    public static QuantizedNetwork quantize(NeuralNetwork net, ImageStore calibration) throws IllegalArgumentException {
+        if(calibration.size() == 0) throw new IllegalArgumentException("Es wurden keine Kalibrierungsbilder übergeben.");
+        Calibration c = new Calibration(net);
+        double[] pixels = new double[calibration.getImageSize()];
+        for(int i = 0; i < calibration.size(); i++) {
+            calibration.decode(i, pixels, 0);
+            c.add(pixels);
+        }
+        return quantize(net, c.ranges);
+    }
+
+    /**
+     * Quantisiert ein Netz mit bekannten Wertebereichen der Eingaben.
+     *
+     * @param net Trainiertes Netz
+     * @param ranges Größter Betrag der Eingaben (ohne Bias) jeder Schicht
+     * @return Quantisiertes Netz
+     * @throws IllegalArgumentException Wenn das Netz nicht quantisiert werden kann
+     */
+    public static QuantizedNetwork quantize(NeuralNetwork net, double[] ranges) throws IllegalArgumentException {
+        NeuralLayer[] layers = net.getLayers();
+        if(ranges.length != layers.length) throw new IllegalArgumentException("Es werden " + layers.length + " Wertebereiche benötigt, es wurden aber " + ranges.length + " übergeben.");
+        QuantizedLayer[] quantized = new QuantizedLayer[layers.length];
+        //Eingabe enthält immer ein Bias-Neuron (siehe NeuralNetwork#getOutput)
+        boolean inputBias = true;
+        int inputs = net.getInputNeurons();
+        for(int i = 0; i < layers.length; i++) {
+            quantized[i] = quantizeLayer(layers[i], i, inputBias, inputs, ranges[i]);
+            inputBias = layers[i].hasBias();
+            inputs = quantized[i].getRows();
+        }
+        return new QuantizedNetwork(net.getInputNeurons(), quantized);
+    }
+
+    private static QuantizedLayer quantizeLayer(NeuralLayer layer, int index, boolean inputBias, int inputs, double range) {
+        PackedNeuralLayer packed;
+        if(layer instanceof PackedNeuralLayer) packed = (PackedNeuralLayer) layer;
+        else {
+            packed = new PackedNeuralLayer(layer, Precision.FP64);
+            packed.copyFrom(layer);
+        }
+        int b = inputBias ? 1 : 0, connected = packed.getConnectedNeurons();
+        if(connected != inputs + b)
+            throw new IllegalArgumentException("Schicht " + index + " kann nicht quantisiert werden: " + connected + " Gewichte pro Neuron, aber " + (inputs + b) + " Eingaben.");
+        int rows = layer.getNeuronCount() - (layer.hasBias() ? 1 : 0);
+        byte[] weights = new byte[rows * inputs];
+        double[] scales = new double[rows], biases = new double[rows];
+        for(int r = 0; r < rows; r++) {
+            int off = r * connected;
+            if(inputBias) biases[r] = packed.getWeight(off);
+            double max = 0;
+            for(int c = b; c < connected; c++) max = Math.max(max, Math.abs(packed.getWeight(off + c)));
+            scales[r] = max > 0 ? max / QuantizedLayer.Q_MAX : 1;
+            for(int c = b; c < connected; c++)
+                weights[r * inputs + c - b] = (byte) Math.round(packed.getWeight(off + c) / scales[r]);
+        }
+        double inputScale = range > 0 ? range / QuantizedLayer.Q_MAX : 1;
+        return new QuantizedLayer(layer.getActivationFunction(), layer.hasBias(), inputBias, rows, inputs, weights, scales, biases, inputScale);
+    }
+
+    /**
+     * Bestimmt den größten Betrag der Eingaben jeder Schicht.
+     */
+    private static class Calibration {
+
+        final NeuralNetwork net;
+        final InferenceWorkspace ws;
+        final double[] ranges;
+
+        Calibration(NeuralNetwork net) {
+            this.net = net;
+            this.ws = new InferenceWorkspace(net);
+            this.ranges = new double[net.getLayers().length];
+        }
+
+        void add(double[] in) {
+            net.getOutput(in, ws);
+            NeuralLayer[] layers = net.getLayers();
+            ranges[0] = Math.max(ranges[0], maxAbs(ws.getInput(), 1));
+            for(int l = 1; l < layers.length; l++)
+                ranges[l] = Math.max(ranges[l], maxAbs(ws.getLayerActivations(l - 1), layers[l - 1].hasBias() ? 1 : 0));
+        }
+
+        private static double maxAbs(double[] values, int from) {
+            double max = 0;
+            for(int i = from; i < values.length; i++) max = Math.max(max, Math.abs(values[i]));
+            return max;
+        }
+
+    }
+
+}
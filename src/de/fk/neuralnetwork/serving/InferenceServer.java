@@ -0,0 +1,229 @@
+package de.fk.neuralnetwork.serving;
+
+import de.fk.neuralnetwork.NeuralNetwork;
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Einbettbares Inferenz-Frontend, das einzelne Anfragen zu Micro-Batches
+ * zusammenfasst.
+ *
+ * Anfragen werden in eine Warteschlange gestellt. Ein eigener Thread nimmt
+ * die erste wartende Anfrage und sammelt weitere, bis entweder maxBatchSize
+ * Anfragen vorliegen oder die älteste Anfrage maxWait gewartet hat. Der
+ * Batch wird dann mit NeuralNetwork#predictBatch berechnet und jede Anfrage
+ * über ihr Future beantwortet. Bei geringer Last entstehen so kleine Batches
+ * mit geringer Latenz, bei hoher Last große Batches mit hohem Durchsatz;
+ * maxWait begrenzt die zusätzliche Wartezeit.
+ *
+ * Ein direkt übergebenes Netz darf während des Betriebs nicht verändert
+ * (trainiert) werden. Soll parallel trainiert werden, wird stattdessen ein
+ * ModelHolder übergeben; jeder Batch wird dann vollständig mit der
+ * Momentaufnahme berechnet, die beim Start des Batches aktuell war.
+ *
+ * @author Felix
+ * @see NeuralNetwork#predictBatch(double[], int, double[])
+ * @see LatencyRecorder
+ * @see ModelHolder
+ */
+public class InferenceServer implements Closeable {
+
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    private final Supplier<NeuralNetwork> model;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final LinkedBlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final LatencyRecorder latencies = new LatencyRecorder();
+    private final Thread dispatcher;
+    private volatile boolean closed;
+
+    /**
+     * Erstellt einen InferenceServer und startet seinen Thread.
+     *
+     * @param net Neuronales Netz
+     * @param maxBatchSize Maximale Anzahl an Anfragen pro Batch
+     * @param maxWait Maximale Wartezeit der ältesten Anfrage, bis ein unvollständiger Batch berechnet wird
+     * @param unit Einheit von maxWait
+     * @throws IllegalArgumentException Wenn maxBatchSize kleiner als 1 oder maxWait negativ ist
+     */
+    public InferenceServer(NeuralNetwork net, int maxBatchSize, long maxWait, TimeUnit unit) throws IllegalArgumentException {
+        this(() -> net, maxBatchSize, maxWait, unit);
+    }
+
+    /**
+     * Erstellt einen InferenceServer, der jeden Batch mit der aktuellen
+     * Momentaufnahme des ModelHolders berechnet, und startet seinen Thread.
+     *
+     * @param models ModelHolder, in dem ein Trainer neue Momentaufnahmen veröffentlicht
+     * @param maxBatchSize Maximale Anzahl an Anfragen pro Batch
+     * @param maxWait Maximale Wartezeit der ältesten Anfrage, bis ein unvollständiger Batch berechnet wird
+     * @param unit Einheit von maxWait
+     * @throws IllegalArgumentException Wenn maxBatchSize kleiner als 1 oder maxWait negativ ist
+     */
+    public InferenceServer(ModelHolder models, int maxBatchSize, long maxWait, TimeUnit unit) throws IllegalArgumentException {
+        this(models::get, maxBatchSize, maxWait, unit);
+    }
+
+    private InferenceServer(Supplier<NeuralNetwork> model, int maxBatchSize, long maxWait, TimeUnit unit) throws IllegalArgumentException {
+        if(maxBatchSize < 1) throw new IllegalArgumentException("Ein Batch muss mindestens eine Anfrage fassen.");
+        if(maxWait < 0) throw new IllegalArgumentException("Die Wartezeit darf nicht negativ sein.");
+        this.model = model;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = unit.toNanos(maxWait);
+        this.dispatcher = new Thread(this::dispatch, "InferenceServer");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * Gibt das Netz zurück, mit dem der nächste Batch berechnet wird.
+     *
+     * @return
+     */
+    public NeuralNetwork getNet() {
+        return model.get();
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Gibt die maximale Wartezeit in Nanosekunden zurück.
+     *
+     * @return
+     */
+    public long getMaxWait() {
+        return maxWaitNanos;
+    }
+
+    /**
+     * Stellt eine Anfrage in die Warteschlange.
+     *
+     * @param in Eingabeaktivierungen (werden nicht kopiert und dürfen bis zur Antwort nicht verändert werden)
+     * @return Future mit den Ausgabeaktivierungen
+     * @throws IllegalArgumentException Wenn die Anzahl der Eingaben nicht passt
+     * @throws IllegalStateException Wenn der Server geschlossen wurde
+     */
+    public CompletableFuture<double[]> submit(double[] in) throws IllegalArgumentException, IllegalStateException {
+        int inputNeurons = model.get().getInputNeurons();
+        if(in.length != inputNeurons) throw new IllegalArgumentException("Es gibt " + inputNeurons + " Eingabeneuronen, es wurden aber " + in.length + " Werte eingegeben.");
+        if(closed) throw new IllegalStateException("Der InferenceServer wurde bereits geschlossen.");
+        Request request = new Request(in);
+        queue.add(request);
+        //close() kann zwischen Prüfung und Einreihen gelaufen sein; sonst beantwortet der Thread oder close() die Anfrage
+        if(closed && queue.remove(request)) throw new IllegalStateException("Der InferenceServer wurde bereits geschlossen.");
+        return request.future;
+    }
+
+    /**
+     * Gibt eine Momentaufnahme der Latenzen und des Durchsatzes zurück.
+     *
+     * @return
+     */
+    public LatencyRecorder.Stats getStats() {
+        return latencies.getStats();
+    }
+
+    /**
+     * Setzt die Latenzen und Zähler zurück, z.B. nach einer Aufwärmphase.
+     */
+    public void resetStats() {
+        latencies.reset();
+    }
+
+    private void dispatch() {
+        Request[] batch = new Request[maxBatchSize];
+        double[] in = new double[0], out = new double[0];
+        long[] batchLatencies = new long[maxBatchSize];
+        while(true) {
+            int n = 0;
+            try {
+                Request first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if(first == null) {
+                    if(closed) break;
+                    continue;
+                }
+                batch[n++] = first;
+                long deadline = first.submitted + maxWaitNanos;
+                while(n < maxBatchSize) {
+                    Request next = queue.poll();
+                    if(next == null) {
+                        long wait = deadline - System.nanoTime();
+                        if(wait <= 0 || (next = queue.poll(wait, TimeUnit.NANOSECONDS)) == null) break;
+                    }
+                    batch[n++] = next;
+                }
+            } catch (InterruptedException ex) {
+                //Bereits gesammelte Anfragen noch beantworten
+                closed = true;
+            }
+            if(n == 0) continue;
+            //Eine Momentaufnahme für den ganzen Batch
+            NeuralNetwork net = model.get();
+            int inputNeurons = net.getInputNeurons(), outWidth = net.getOutputLayer().getNeuronCount();
+            if(in.length != maxBatchSize * inputNeurons) in = new double[maxBatchSize * inputNeurons];
+            if(out.length != maxBatchSize * outWidth) out = new double[maxBatchSize * outWidth];
+            run(net, batch, n, in, out, outWidth, batchLatencies);
+        }
+    }
+
+    private void run(NeuralNetwork net, Request[] batch, int n, double[] in, double[] out, int outWidth, long[] batchLatencies) {
+        int inputNeurons = net.getInputNeurons();
+        try {
+            for(int i = 0; i < n; i++) {
+                if(batch[i].in.length != inputNeurons) throw new IllegalArgumentException("Es gibt " + inputNeurons + " Eingabeneuronen, es wurden aber " + batch[i].in.length + " Werte eingegeben.");
+                System.arraycopy(batch[i].in, 0, in, i * inputNeurons, inputNeurons);
+            }
+            net.predictBatch(in, n, out);
+            long now = System.nanoTime();
+            for(int i = 0; i < n; i++) batchLatencies[i] = now - batch[i].submitted;
+            //Vor dem Beantworten erfassen, damit die Zähler alle beantworteten Anfragen enthalten
+            latencies.record(batchLatencies, n);
+            for(int i = 0; i < n; i++) batch[i].future.complete(Arrays.copyOfRange(out, i * outWidth, (i + 1) * outWidth));
+        } catch (RuntimeException ex) {
+            for(int i = 0; i < n; i++) batch[i].future.completeExceptionally(ex);
+        } finally {
+            Arrays.fill(batch, 0, n, null);
+        }
+    }
+
+    /**
+     * Beantwortet alle wartenden Anfragen und beendet den Thread. Danach
+     * eingehende Anfragen werden abgelehnt.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            dispatcher.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        //Anfragen, die nach dem letzten Durchlauf eingereiht wurden
+        Request request;
+        while((request = queue.poll()) != null)
+            request.future.completeExceptionally(new IllegalStateException("Der InferenceServer wurde bereits geschlossen."));
+    }
+
+    /**
+     * Eine wartende Anfrage.
+     */
+    private static class Request {
+
+        final double[] in;
+        final long submitted = System.nanoTime();
+        final CompletableFuture<double[]> future = new CompletableFuture<>();
+
+        Request(double[] in) {
+            this.in = in;
+        }
+
+    }
+
+}
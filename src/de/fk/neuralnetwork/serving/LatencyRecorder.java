@@ -0,0 +1,155 @@
+package de.fk.neuralnetwork.serving;
+
+import java.util.Arrays;
+
+/**
+ * Speichert die letzten Latenzen in einem Ringpuffer und berechnet daraus
+ * Perzentile. Zusätzlich werden alle Anfragen und Batches seit dem letzten
+ * Zurücksetzen gezählt.
+ *
+ * @author Felix
+ * @see InferenceServer#getStats()
+ */
+public class LatencyRecorder {
+
+    /**
+     * Standardanzahl der Latenzen, aus denen die Perzentile berechnet werden.
+     */
+    public static final int DEFAULT_WINDOW = 1 << 16;
+
+    private final long[] window;
+    private int next, size;
+    private long requests, batches, startTime;
+
+    /**
+     * Erstellt einen LatencyRecorder mit DEFAULT_WINDOW Einträgen.
+     */
+    public LatencyRecorder() {
+        this(DEFAULT_WINDOW);
+    }
+
+    /**
+     * Erstellt einen LatencyRecorder.
+     *
+     * @param window Anzahl der letzten Latenzen, aus denen die Perzentile berechnet werden
+     */
+    public LatencyRecorder(int window) {
+        if(window < 1) throw new IllegalArgumentException("Das Fenster muss mindestens eine Latenz fassen.");
+        this.window = new long[window];
+        this.startTime = System.nanoTime();
+    }
+
+    /**
+     * Erfasst einen berechneten Batch.
+     *
+     * @param latencies Latenzen der Anfragen in Nanosekunden
+     * @param count Anzahl der Anfragen im Batch
+     */
+    public synchronized void record(long[] latencies, int count) {
+        for(int i = 0; i < count; i++) {
+            window[next] = latencies[i];
+            next = (next + 1) % window.length;
+        }
+        size = Math.min(window.length, size + count);
+        requests += count;
+        batches++;
+    }
+
+    /**
+     * Setzt alle Zähler und Latenzen zurück.
+     */
+    public synchronized void reset() {
+        next = size = 0;
+        requests = batches = 0;
+        startTime = System.nanoTime();
+    }
+
+    /**
+     * Gibt eine Momentaufnahme der Zähler und Perzentile zurück.
+     *
+     * @return
+     */
+    public synchronized Stats getStats() {
+        long[] sorted = Arrays.copyOf(window, size);
+        Arrays.sort(sorted);
+        return new Stats(requests, batches, System.nanoTime() - startTime,
+                percentile(sorted, 0.5), percentile(sorted, 0.99), size == 0 ? 0 : sorted[size - 1]);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if(sorted.length == 0) return 0;
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+
+    /**
+     * Momentaufnahme der Zähler. Alle Zeiten in Nanosekunden.
+     */
+    public static class Stats {
+
+        private final long requests, batches, elapsed, p50, p99, max;
+
+        public Stats(long requests, long batches, long elapsed, long p50, long p99, long max) {
+            this.requests = requests;
+            this.batches = batches;
+            this.elapsed = elapsed;
+            this.p50 = p50;
+            this.p99 = p99;
+            this.max = max;
+        }
+
+        public long getRequests() {
+            return requests;
+        }
+
+        public long getBatches() {
+            return batches;
+        }
+
+        /**
+         * Gibt die Zeit seit dem letzten Zurücksetzen zurück.
+         *
+         * @return
+         */
+        public long getElapsed() {
+            return elapsed;
+        }
+
+        public long getP50() {
+            return p50;
+        }
+
+        public long getP99() {
+            return p99;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * Gibt die durchschnittliche Anzahl an Anfragen pro Batch zurück.
+         *
+         * @return
+         */
+        public double getAverageBatchSize() {
+            return batches == 0 ? 0 : requests / (double) batches;
+        }
+
+        /**
+         * Gibt die Anzahl der beantworteten Anfragen pro Sekunde zurück.
+         *
+         * @return
+         */
+        public double getThroughput() {
+            return elapsed == 0 ? 0 : requests * 1e9 / elapsed;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d Anfragen in %d Batches (Ø %.1f), %.0f Anfragen/s, p50 %.3f ms, p99 %.3f ms, max %.3f ms",
+                    requests, batches, getAverageBatchSize(), getThroughput(), p50 / 1e6, p99 / 1e6, max / 1e6);
+        }
+
+    }
+
+}
@@ -0,0 +1,143 @@
+package de.fk.neuralnetwork.serving;
+
+import de.fk.neuralnetwork.NeuralLayer;
+import de.fk.neuralnetwork.NeuralNetwork;
+import de.fk.neuralnetwork.PackedNeuralLayer;
+
+/**
+ * Stellt Lesern eine unveränderliche Momentaufnahme eines Netzes zur
+ * Verfügung, während das Originalnetz weiter trainiert wird.
+ *
+ * Der Trainer veröffentlicht in Abständen eine Kopie des Netzes, die danach
+ * nie mehr verändert wird. Leser holen sich die aktuelle Momentaufnahme über
+ * eine einzige volatile Referenz und blockieren dabei nie; eine einmal
+ * geholte Momentaufnahme bleibt gültig, auch wenn inzwischen eine neuere
+ * veröffentlicht wurde. Für mehrere Anfragen, die dasselbe Modell sehen
+ * sollen, wird die Momentaufnahme daher einmal geholt und dann weiterverwendet.
+ *
+ * @author Felix
+ * @see de.fk.neuralnetwork.learning.Backpropagator#setModelHolder(ModelHolder, int)
+ */
+public class ModelHolder {
+
+    private volatile Snapshot current;
+
+    /**
+     * Erstellt einen ModelHolder und veröffentlicht eine Kopie des
+     * übergebenen Netzes als erste Momentaufnahme.
+     *
+     * @param net Neuronales Netz
+     */
+    public ModelHolder(NeuralNetwork net) {
+        publish(net, 0);
+    }
+
+    /**
+     * Gibt die aktuelle Momentaufnahme zurück. Blockiert nie.
+     *
+     * @return
+     */
+    public Snapshot getSnapshot() {
+        return current;
+    }
+
+    /**
+     * Gibt das Netz der aktuellen Momentaufnahme zurück. Es darf nicht
+     * verändert werden.
+     *
+     * @return
+     */
+    public NeuralNetwork get() {
+        return current.getNet();
+    }
+
+    /**
+     * Gibt die Version der aktuellen Momentaufnahme zurück.
+     *
+     * @return
+     */
+    public long getVersion() {
+        return current.getVersion();
+    }
+
+    /**
+     * Veröffentlicht eine Kopie des übergebenen Netzes als neue
+     * Momentaufnahme.
+     *
+     * @param net Neuronales Netz
+     * @return Neue Momentaufnahme
+     */
+    public Snapshot publish(NeuralNetwork net) {
+        return publish(net, 0);
+    }
+
+    /**
+     * Veröffentlicht eine Kopie des übergebenen Netzes als neue
+     * Momentaufnahme. Die Schichten werden gepackt und in ihrer bisherigen
+     * Genauigkeit kopiert, Gewichtsänderungen (Momentum) werden nicht
+     * übernommen. Nur veröffentlichende Threads synchronisieren
+     * untereinander, damit die Versionen streng aufsteigend bleiben; Leser
+     * sind davon nicht betroffen.
+     *
+     * @param net Neuronales Netz
+     * @param iteration Trainingsfortschritt (Iteration oder Update) zum Zeitpunkt der Kopie
+     * @return Neue Momentaufnahme
+     */
+    public synchronized Snapshot publish(NeuralNetwork net, long iteration) {
+        NeuralLayer[] layers = net.getLayers(), copies = new NeuralLayer[layers.length];
+        for(int i = 0; i < layers.length; i++) copies[i] = new PackedNeuralLayer(layers[i]);
+        NeuralNetwork copy = new NeuralNetwork(net.getInputNeurons(), net.isInputBias(), copies);
+        Snapshot previous = current;
+        return current = new Snapshot(copy, previous == null ? 1 : previous.getVersion() + 1, iteration);
+    }
+
+    /**
+     * Eine veröffentlichte, unveränderliche Kopie eines Netzes.
+     */
+    public static class Snapshot {
+
+        private final NeuralNetwork net;
+        private final long version, iteration, timestamp;
+
+        Snapshot(NeuralNetwork net, long version, long iteration) {
+            this.net = net;
+            this.version = version;
+            this.iteration = iteration;
+            this.timestamp = System.currentTimeMillis();
+        }
+
+        public NeuralNetwork getNet() {
+            return net;
+        }
+
+        /**
+         * Gibt die Version zurück. Die erste Momentaufnahme hat Version 1,
+         * jede weitere eine um 1 höhere.
+         *
+         * @return
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * Gibt den Trainingsfortschritt zum Zeitpunkt der Kopie zurück.
+         *
+         * @return
+         */
+        public long getIteration() {
+            return iteration;
+        }
+
+        /**
+         * Gibt den Zeitpunkt der Veröffentlichung in Millisekunden zurück.
+         *
+         * @return
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+    }
+
+}
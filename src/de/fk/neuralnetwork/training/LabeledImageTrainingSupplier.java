@@ -1,54 +1,111 @@
 package de.fk.neuralnetwork.training;
 
+import de.fk.neuralnetwork.data.Augmenter;
 import de.fk.neuralnetwork.data.LabeledImage;
 import de.fk.neuralnetwork.math.NeuralMath;
-import java.util.Collections;
 import java.util.List;
-import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.Supplier;
-import java.util.stream.Collectors;
 
 /**
+ * Liefert Trainingsbeispiele aus einer Liste von Bildern in zufälliger
+ * Reihenfolge. Die Liste selbst wird nie verändert, gemischt wird eine
+ * eigene Permutation der Indizes; mehrere Instanzen können sich daher
+ * dieselbe Liste teilen.
+ *
+ * Mit autoTransform wird jedes Bild erst beim Ziehen zufällig transformiert
+ * (siehe Augmenter), sodass sich der Aufwand über alle Pakete verteilt und
+ * z.B. mit einem PrefetchingTrainingSupplier parallel zum Training läuft.
+ * Bei gleichem Seed ist die Folge der Beispiele reproduzierbar.
+ *
+ * Einschränkung: Transformiert wird mit einem Augmenter und einem
+ * Zufallsstrom pro Supplier in dem Thread, der die Beispiele anfordert. Bei
+ * Backpropagator#trainAsync geschieht das unter der Sperre auf den Supplier,
+ * alle Threads warten also auf denselben seriellen Augmenter; ohne
+ * PrefetchingTrainingSupplier läuft die Transformation sonst im
+ * Trainingsthread. Auch ein PrefetchingTrainingSupplier transformiert nur in
+ * einem Hintergrund-Thread. Reicht das nicht, erhält jeder Worker bzw. jedes
+ * Netz einen eigenen Supplier mit eigenem Seed (wie bei EnsembleTrainer und
+ * DataParallelWorker).
+ *
+ * Jedes Beispiel erhält einen eigenen Eingabe-Array, da es über den Aufruf
+ * hinaus verwendet wird (z.B. in der Warteschlange eines
+ * PrefetchingTrainingSupplier). Wiederverwendet werden die Zwischenpuffer
+ * des Augmenters, sodass eine Transformation nicht mehr Speicher belegt als
+ * das unveränderte Beispiel.
  *
  * @author Felix
+ * @see PrefetchingTrainingSupplier
  */
 public class LabeledImageTrainingSupplier extends TrainingSupplier {
     
-    private int imgWidth, imgHeight, classes, index;
+    private int classes, index;
+    private int[] order;
     private List<LabeledImage> images;
     private Supplier<List<LabeledImage>> imageSupplier;
-    private Random transformRdm;
-    private boolean autoTransform;
+    private SplittableRandom shuffleRdm, transformRdm;
+    private Augmenter augmenter;
 
     public LabeledImageTrainingSupplier(Supplier<List<LabeledImage>> imageSupplier, int imgWidth, int imgHeight, int classes, boolean autoTransform) {
+        this(imageSupplier, imgWidth, imgHeight, classes, autoTransform, ThreadLocalRandom.current().nextLong());
+    }
+
+    /**
+     * Erstellt einen neuen LabeledImageTrainingSupplier mit festem Seed.
+     *
+     * @param imageSupplier Liefert die Bilder (wird nicht verändert)
+     * @param imgWidth Breite der Bilder
+     * @param imgHeight Höhe der Bilder
+     * @param classes Anzahl der Klassen
+     * @param autoTransform Bilder beim Ziehen zufällig transformieren
+     * @param seed Seed für Reihenfolge und Transformationen
+     */
+    public LabeledImageTrainingSupplier(Supplier<List<LabeledImage>> imageSupplier, int imgWidth, int imgHeight, int classes, boolean autoTransform, long seed) {
         super(imgWidth * imgHeight, classes);
-        this.imgWidth = imgWidth;
-        this.imgHeight = imgHeight;
         this.classes = classes;
-        this.index = 0;
         this.imageSupplier = imageSupplier;
         this.images = imageSupplier.get();
-        this.transformRdm = new Random();
-        this.autoTransform = autoTransform;
+        this.shuffleRdm = new SplittableRandom(seed);
+        //Eigener Strom, damit die Transformationen nicht von der Anzahl der Bilder abhängen
+        this.transformRdm = shuffleRdm.split();
+        this.augmenter = autoTransform ? new Augmenter(imgWidth, imgHeight) : null;
+        this.order = new int[images.size()];
+        for(int i = 0; i < order.length; i++) order[i] = i;
+        this.index = order.length;
     }
 
     @Override
     protected TrainingExample supplyTrainingExample() {
-        if(index >= images.size()) reset();
-        LabeledImage li = images.get(index++);
-        return new TrainingExample(NeuralMath.flatten(li.getData()), NeuralMath.getOutputForLabel(li.getLabel(), classes));
+        if(index >= order.length) reset();
+        LabeledImage li = images.get(order[index++]);
+        double[] pixels;
+        if(augmenter != null) {
+            pixels = new double[getFeatures()];
+            augmenter.augment(li, transformRdm, pixels, 0);
+        } else pixels = li.getPixels();
+        return new TrainingExample(pixels, NeuralMath.getOutputForLabel(li.getLabel(), classes));
     }
 
     @Override
     public void reset() {
         index = 0;
-        //1. Neue Transformationen anwenden
-        if(autoTransform) images = imageSupplier.get()
-                .parallelStream()
-                .map(limg -> limg.cloneAndTransform(transformRdm))
-                .collect(Collectors.toList());
-        //2. Shuffle
-        Collections.shuffle(images, transformRdm);
+        List<LabeledImage> current = imageSupplier.get();
+        if(current != images || current.size() != order.length) {
+            images = current;
+            order = new int[images.size()];
+            for(int i = 0; i < order.length; i++) order[i] = i;
+        }
+        //Fisher-Yates
+        for(int i = order.length - 1; i > 0; i--) {
+            int j = shuffleRdm.nextInt(i + 1), tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+    }
+
+    public boolean isAutoTransform() {
+        return augmenter != null;
     }
 
     @Override
@@ -67,7 +124,7 @@ public class LabeledImageTrainingSupplier extends TrainingSupplier {
     protected TrainingExample[] supplyOriginalTrainingExamples() {
         return imageSupplier.get()
                 .parallelStream()
-                .map(li -> new TrainingExample(NeuralMath.flatten(li.getData()), NeuralMath.getOutputForLabel(li.getLabel(), classes)))
+                .map(li -> new TrainingExample(li.getPixels(), NeuralMath.getOutputForLabel(li.getLabel(), classes)))
                 .toArray(TrainingExample[]::new);
     }
 
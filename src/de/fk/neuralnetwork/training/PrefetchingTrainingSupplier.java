@@ -0,0 +1,174 @@
+package de.fk.neuralnetwork.training;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ein TrainingSupplier, der die Trainingsbeispiele eines anderen
+ * TrainingSuppliers in einem Hintergrund-Thread vorbereitet. Es werden immer
+ * bis zu prefetchBatches Pakete mit je batchSize Beispielen im Voraus erzeugt
+ * und in einem begrenzten Ringpuffer abgelegt, sodass z.B. das Transformieren
+ * und Umwandeln der Bilder parallel zur Backpropagation läuft.
+ *
+ * Der zugrundeliegende TrainingSupplier darf nach dem Erstellen nur noch über
+ * diesen TrainingSupplier verwendet werden.
+ *
+ * @author Felix
+ */
+public class PrefetchingTrainingSupplier extends TrainingSupplier {
+
+    /**
+     * Standardmäßige Anzahl im Voraus vorbereiteter Pakete.
+     */
+    public static final int DEFAULT_PREFETCH_BATCHES = 4;
+
+    private final TrainingSupplier source;
+    private final int batchSize;
+    private final BlockingQueue<TrainingExample[]> queue;
+    private Thread producer;
+    private volatile Throwable failure;
+    private TrainingExample[] current;
+    private int position;
+
+    /**
+     * Erstellt einen neuen PrefetchingTrainingSupplier.
+     *
+     * @param source Zugrundeliegender TrainingSupplier
+     * @param batchSize Beispiele pro Paket (sinnvollerweise die Anzahl, die pro Aufruf von nextTrainingExamples angefordert wird)
+     * @param prefetchBatches Maximale Anzahl im Voraus vorbereiteter Pakete
+     */
+    public PrefetchingTrainingSupplier(TrainingSupplier source, int batchSize, int prefetchBatches) {
+        super(source.getFeatures(), source.getClasses());
+        if(batchSize < 1 || prefetchBatches < 1) throw new IllegalArgumentException("Paketgröße und Anzahl der Pakete müssen positiv sein.");
+        this.source = source;
+        this.batchSize = batchSize;
+        this.queue = new ArrayBlockingQueue<>(prefetchBatches);
+    }
+
+    /**
+     * Erstellt einen neuen PrefetchingTrainingSupplier, der
+     * DEFAULT_PREFETCH_BATCHES Pakete im Voraus vorbereitet.
+     *
+     * @param source Zugrundeliegender TrainingSupplier
+     * @param batchSize Beispiele pro Paket
+     */
+    public PrefetchingTrainingSupplier(TrainingSupplier source, int batchSize) {
+        this(source, batchSize, DEFAULT_PREFETCH_BATCHES);
+    }
+
+    public TrainingSupplier getSource() {
+        return source;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    private synchronized void startProducer() {
+        if(producer != null) return;
+        failure = null;
+        producer = new Thread(this::produce, "PrefetchThread");
+        producer.setDaemon(true);
+        producer.start();
+    }
+
+    private synchronized void stopProducer() {
+        if(producer == null) return;
+        producer.interrupt();
+        boolean interrupted = false;
+        for(;;) try {
+            producer.join();
+            break;
+        } catch (InterruptedException ex) {
+            interrupted = true;
+        }
+        if(interrupted) Thread.currentThread().interrupt();
+        producer = null;
+        queue.clear();
+        current = null;
+    }
+
+    private void produce() {
+        try {
+            while(!Thread.currentThread().isInterrupted()) {
+                TrainingExample[] batch;
+                synchronized(source) {
+                    batch = source.nextTrainingExamples(batchSize);
+                }
+                queue.put(batch);
+            }
+        } catch (InterruptedException ex) {
+            //Beendet
+        } catch (RuntimeException | Error ex) {
+            failure = ex;
+        }
+    }
+
+    private TrainingExample[] nextBatch() {
+        startProducer();
+        try {
+            for(;;) {
+                TrainingExample[] batch = queue.poll(100, TimeUnit.MILLISECONDS);
+                if(batch != null) return batch;
+                if(failure != null) throw new IllegalStateException("Fehler beim Vorbereiten der Trainingsbeispiele.", failure);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Beim Warten auf Trainingsbeispiele unterbrochen.", ex);
+        }
+    }
+
+    @Override
+    protected synchronized TrainingExample supplyTrainingExample() {
+        if(current == null || position >= current.length) {
+            current = nextBatch();
+            position = 0;
+        }
+        return current[position++];
+    }
+
+    @Override
+    protected synchronized TrainingExample[] supplyTrainingExamples(int count) {
+        //Ganze Pakete direkt weitergeben
+        if(count == batchSize && (current == null || position >= current.length)) return nextBatch();
+        TrainingExample[] examples = new TrainingExample[count];
+        for(int i = 0; i < count; i++) examples[i] = supplyTrainingExample();
+        return examples;
+    }
+
+    @Override
+    protected TrainingExample[] supplyOriginalTrainingExamples() {
+        synchronized(source) {
+            return source.originalTrainingExamples();
+        }
+    }
+
+    /**
+     * Verwirft alle vorbereiteten Pakete, setzt den zugrundeliegenden
+     * TrainingSupplier zurück und beginnt erneut mit dem Vorbereiten.
+     */
+    @Override
+    public synchronized void reset() {
+        stopProducer();
+        synchronized(source) {
+            source.reset();
+        }
+        startProducer();
+    }
+
+    @Override
+    public int getExampleCount() {
+        return source.getExampleCount();
+    }
+
+    /**
+     * Beendet den Hintergrund-Thread und verwirft alle vorbereiteten Pakete.
+     * Beim nächsten Anfordern von Beispielen wird er wieder gestartet.
+     */
+    @Override
+    public void close() {
+        stopProducer();
+    }
+
+}
@@ -98,4 +98,12 @@ public abstract class TrainingSupplier {
      */
     public abstract int getExampleCount();
     
+    /**
+     * Gibt vom TrainingSupplier belegte Ressourcen (z.B. Hintergrund-Threads)
+     * frei. Wird am Ende eines Trainings aufgerufen; der TrainingSupplier kann
+     * danach weiterverwendet werden.
+     */
+    public void close() {
+    }
+    
 }
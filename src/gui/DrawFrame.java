@@ -5,8 +5,8 @@
  */
 package gui;
 
-import de.fk.neuralnetwork.NeuralNetwork;
 import de.fk.neuralnetwork.math.NeuralMath;
+import de.fk.neuralnetwork.serving.ModelHolder;
 
 /**
  *
@@ -14,14 +14,14 @@ import de.fk.neuralnetwork.math.NeuralMath;
  */
 public class DrawFrame extends javax.swing.JFrame {
 
-    private NeuralNetwork nn;
+    private ModelHolder models;
     
     /**
      * Creates new form DrawFrame
-     * @param nn
+     * @param models ModelHolder, dessen aktuelle Momentaufnahme ausgewertet wird
      */
-    public DrawFrame(NeuralNetwork nn) {
-        this.nn = nn;
+    public DrawFrame(ModelHolder models) {
+        this.models = models;
         initComponents();
         getDrawPanel().setOnUpdateHandler(this::updatePredictions);
     }
@@ -167,7 +167,7 @@ public class DrawFrame extends javax.swing.JFrame {
     }//GEN-LAST:event_slThicknessStateChanged
 
     public void updatePredictions(double[][] data) {
-        double[] out = nn.trigger(NeuralMath.flatten(data)).getOutput();
+        double[] out = models.get().trigger(NeuralMath.flatten(data)).getOutput();
         int prediction = NeuralMath.getPredictedLabel(out);
         lblPredictedClass.setText(prediction + "");
         lblPredictedClassProb.setText(((int) (out[prediction] * 100)) + "%");
@@ -3,11 +3,14 @@ package gui;
 import de.fk.neuralnetwork.Main;
 import de.fk.neuralnetwork.NeuralNetwork;
 import de.fk.neuralnetwork.data.ImageContainer;
+import de.fk.neuralnetwork.io.BinaryFileIO;
 import de.fk.neuralnetwork.io.FileIO;
 import de.fk.neuralnetwork.io.JSExport;
 import de.fk.neuralnetwork.io.PHPExport;
 import de.fk.neuralnetwork.learning.Backpropagator;
+import de.fk.neuralnetwork.serving.ModelHolder;
 import de.fk.neuralnetwork.training.LabeledImageTrainingSupplier;
+import de.fk.neuralnetwork.training.PrefetchingTrainingSupplier;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -30,10 +33,16 @@ import javax.swing.filechooser.FileNameExtensionFilter;
 public class MainFrame extends javax.swing.JFrame {
     
     public static final int NUM_CLASSES = 10;
+    /**
+     * Gewichtsupdates, nach denen eine neue Momentaufnahme für Zeichenfenster
+     * und Tests veröffentlicht wird (zusätzlich zu jedem Durchlauf).
+     */
+    public static final int MODEL_PUBLISH_INTERVAL = 100;
 
     private TrainingExamplesFrame teframe = null;
     private DrawFrame dframe = null;
     private NeuralNetwork nn;
+    private ModelHolder models;
     private Backpropagator bp = null;
     private int threadCount = Runtime.getRuntime().availableProcessors(), batchSize = 3000;
     private boolean stochasticGD;
@@ -45,6 +54,7 @@ public class MainFrame extends javax.swing.JFrame {
         createNeuralNet();
         initComponents();
         bp = new Backpropagator(0, nn, 0.01, 0, 0);
+        bp.setModelHolder(models, MODEL_PUBLISH_INTERVAL);
         bp.setLearningRateUpdated(this::updateLearningRate);
         bp.setTrainingProgressUpdated(this::updateTrainingProgress);
         lblLearningRate.setText(bp.getLearningRate() + "");
@@ -61,6 +71,12 @@ public class MainFrame extends javax.swing.JFrame {
         //nn = new NeuralNetwork(784, 300, 100, NUM_CLASSES);
         nn = new NeuralNetwork(784, 300, 100, 10);
         if(bp != null) bp.setNet(nn);
+        publishNet();
+    }
+    
+    private void publishNet() {
+        if(models == null) models = new ModelHolder(nn);
+        else models.publish(nn);
     }
     
     public final void updateLearningRate() {
@@ -77,6 +93,16 @@ public class MainFrame extends javax.swing.JFrame {
         return nn;
     }
     
+    /**
+     * Gibt die zuletzt veröffentlichte Momentaufnahme des Netzes zurück. Sie
+     * kann auch während des Trainings gefahrlos ausgewertet werden.
+     *
+     * @return
+     */
+    public NeuralNetwork getModel() {
+        return models.get();
+    }
+    
     public final void updateTrainingProgress(Pair<Double, Double> progress) {
         SwingUtilities.invokeLater(() -> {
             lblError.setText(progress.getKey() == null ? "?????" : String.format("%.2f", progress.getKey()));
@@ -144,12 +170,14 @@ public class MainFrame extends javax.swing.JFrame {
         FileNameExtensionFilter saveDefaultFilter = new FileNameExtensionFilter("Neuronales Netz (JSON)", "jnet");
         saveFileChooser.addChoosableFileFilter(saveDefaultFilter);
         saveFileChooser.addChoosableFileFilter(new FileNameExtensionFilter("Neuronales Netz (Formatiertes JSON)", "jfnet"));
+        saveFileChooser.addChoosableFileFilter(new FileNameExtensionFilter("Neuronales Netz (Binär)", BinaryFileIO.EXTENSION));
         saveFileChooser.addChoosableFileFilter(new FileNameExtensionFilter("JavaScript Export", "js"));
         saveFileChooser.addChoosableFileFilter(new FileNameExtensionFilter("PHP Export", "php"));
         saveFileChooser.setFileFilter(saveDefaultFilter);
 
         FileNameExtensionFilter openDefaultFilter = new FileNameExtensionFilter("Neuronales Netz (JSON)", "jnet", "jfnet");
         openFileChooser.addChoosableFileFilter(openDefaultFilter);
+        openFileChooser.addChoosableFileFilter(new FileNameExtensionFilter("Neuronales Netz (Binär)", BinaryFileIO.EXTENSION));
         openFileChooser.addChoosableFileFilter(new FileNameExtensionFilter("Neuronales Netz (OOS)", "net"));
         openFileChooser.setFileFilter(openDefaultFilter);
         openFileChooser.setCurrentDirectory(new java.io.File("D:\\Dokumente\\NetBeansProjects\\BeLL_NeuralNetwork"));
@@ -586,7 +614,7 @@ public class MainFrame extends javax.swing.JFrame {
         //bp.train(trainingSupplier, 500, fos, 1);
         bp.setLogStream(fos);
         if(stochasticGD) bp.train(trainingSupplier, cbAutoEndTraining.isSelected() ? (int) spTrainingIterations.getValue() : Integer.MAX_VALUE);
-        else bp.trainParallel(trainingSupplier, cbAutoEndTraining.isSelected() ? (int) spTrainingIterations.getValue() : Integer.MAX_VALUE, threadCount, batchSize / threadCount, false);
+        else bp.trainParallel(new PrefetchingTrainingSupplier(trainingSupplier, batchSize / threadCount, 2 * threadCount), cbAutoEndTraining.isSelected() ? (int) spTrainingIterations.getValue() : Integer.MAX_VALUE, threadCount, batchSize / threadCount, false);
     }//GEN-LAST:event_btnTrainActionPerformed
 
     private void btnStopTrainingActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_btnStopTrainingActionPerformed
@@ -615,6 +643,7 @@ public class MainFrame extends javax.swing.JFrame {
                 }
                 if(ext.equalsIgnoreCase("js")) JSExport.write(f, nn);
                 else if(ext.equalsIgnoreCase("php")) PHPExport.write(f, nn);
+                else if(ext.equalsIgnoreCase(BinaryFileIO.EXTENSION)) BinaryFileIO.write(f, nn);
                 else FileIO.write(f, nn, "jfnet".equalsIgnoreCase(ext));
             } catch (IOException | NullPointerException ex) {
                 Logger.getLogger(MainFrame.class.getName()).log(Level.SEVERE, null, ex);
@@ -639,16 +668,20 @@ public class MainFrame extends javax.swing.JFrame {
                     case "jfnet":
                         nn = FileIO.read(f);
                         break;
+                    case BinaryFileIO.EXTENSION:
+                        nn = BinaryFileIO.read(f);
+                        break;
                     case "net":
                         ObjectInputStream ois = new ObjectInputStream(new FileInputStream(openFileChooser.getSelectedFile()));
                         nn = (NeuralNetwork) ois.readObject();
                         ois.close();
-                        if(bp != null) bp.setNet(nn);
                         break;
                     default:
                         JOptionPane.showMessageDialog(this, "Fehler: Unbekannter Dateityp", "Fehler", JOptionPane.ERROR_MESSAGE);
                         break;
                 }
+                if(bp != null) bp.setNet(nn);
+                publishNet();
                 updateNetSettings();
             } catch (IOException | NullPointerException | ClassNotFoundException ex) {
                 Logger.getLogger(MainFrame.class.getName()).log(Level.SEVERE, null, ex);
@@ -657,11 +690,11 @@ public class MainFrame extends javax.swing.JFrame {
     }//GEN-LAST:event_miOpenActionPerformed
 
     private void mbTestMNISTActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_mbTestMNISTActionPerformed
-        new MnistTestDialog(this, true, nn).setVisible(true);
+        new MnistTestDialog(this, true, models.get()).setVisible(true);
     }//GEN-LAST:event_mbTestMNISTActionPerformed
 
     private void mbTestDrawActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_mbTestDrawActionPerformed
-        if(dframe == null || !dframe.isDisplayable()) dframe = new DrawFrame(nn);
+        if(dframe == null || !dframe.isDisplayable()) dframe = new DrawFrame(models);
         dframe.setVisible(true);
     }//GEN-LAST:event_mbTestDrawActionPerformed
 
@@ -259,7 +259,7 @@ public class TrainingExamplesFrame extends javax.swing.JFrame {
     }//GEN-LAST:event_miCloseActionPerformed
 
     private void miShowIncorrectActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_miShowIncorrectActionPerformed
-        HashMap<LabeledImage, Double> imgs = Tester.findIncorrectlyClassified(mfr.getNet(), ImageContainer.getImages(set));
+        HashMap<LabeledImage, Double> imgs = Tester.findIncorrectlyClassified(mfr.getModel(), ImageContainer.getImages(set));
         getDisplayPanel().showCustomSet(new ArrayList<>(imgs.keySet()));
         updateImages();
     }//GEN-LAST:event_miShowIncorrectActionPerformed